@@ -2,4 +2,8 @@
 
 jar="blacknectar-service.jar"
 
-nohup java -jar $jar > application.log &
+# The Service is deployed behind the nginx proxy in deploy/nginx/blacknectar.conf.
+# Set BEHIND_PROXY=false to run it on its own, with port 9100 open to everyone.
+behindProxy="${BEHIND_PROXY:-true}"
+
+nohup java -Dblacknectar.behindProxy=$behindProxy -jar $jar > application.log &
@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.data.HedgedReads;
 import tech.sirwellington.alchemy.arguments.AlchemyAssertion;
 import tech.sirwellington.alchemy.arguments.FailedAssertionException;
 
@@ -100,6 +101,46 @@ public final class ModuleDatabaseProduction extends AbstractModule
         return dataSource;
     }
 
+    /**
+     * Reads are hedged against a replica only if a replica host is configured.
+     */
+    @Provides
+    @Singleton
+    HedgedReads provideHedgedReads(Aroma aroma)
+    {
+        String replicaHost = Files.readFile("./secrets/postgres-replica-host.txt").trim();
+
+        if (replicaHost.isEmpty())
+        {
+            LOG.info("No replica configured. Reads will not be hedged.");
+            return HedgedReads.disabled();
+        }
+
+        String user = Files.readFile("./secrets/postgres-user.txt").trim();
+        String password = Files.readFile("./secrets/postgres-password.txt").trim();
+        String url = String.format("jdbc:postgresql://%s:%d/%s?user=%s&password=%s&ApplicationName=%s",
+                                   replicaHost,
+                                   5432,
+                                   "postgres",
+                                   user,
+                                   password,
+                                   "BlackNectarService");
+
+        ComboPooledDataSource dataSource = new ComboPooledDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setMinPoolSize(1);
+        dataSource.setMaxPoolSize(5);
+        dataSource.setAcquireIncrement(1);
+        dataSource.setTestConnectionOnCheckin(true);
+
+        aroma.begin().titled("Hedged Reads Enabled")
+             .withBody("Hedging store searches against replica at [{}]", replicaHost)
+             .withPriority(Priority.LOW)
+             .send();
+
+        return HedgedReads.to(dataSource, HedgedReads.DEFAULT_PERCENTILE, HedgedReads.DEFAULT_MIN_DELAY_MILLIS);
+    }
+
     private AlchemyAssertion<Connection> connected()
     {
         return connection ->
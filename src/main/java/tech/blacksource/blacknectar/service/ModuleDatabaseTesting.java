@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.data.HedgedReads;
 import tech.sirwellington.alchemy.arguments.AlchemyAssertion;
 import tech.sirwellington.alchemy.arguments.FailedAssertionException;
 
@@ -77,6 +78,13 @@ public final class ModuleDatabaseTesting extends AbstractModule
         return dataSource;
     }
 
+    @Provides
+    @Singleton
+    HedgedReads provideHedgedReads()
+    {
+        return HedgedReads.disabled();
+    }
+
     private AlchemyAssertion<Connection> connected()
     {
         return connection ->
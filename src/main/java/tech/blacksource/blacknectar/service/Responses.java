@@ -57,8 +57,33 @@ public final class Responses
     {
         public static final int OK = 200;
         public static final int NO_CONTENT = 202;
+        public static final int NOT_MODIFIED = 304;
         public static final int BAD_ARGUMENT = 400;
         public static final int SERVER_ERROR = 500;
         public static final int NOT_IMPLEMENTED = 501;
+        public static final int SERVICE_UNAVAILABLE = 503;
+    }
+
+    public static class Headers
+    {
+        public static final String WARNING = "Warning";
+
+        /**
+         * Used to indicate that the results may be out of date.
+         */
+        public static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+        public static final String CONTENT_ENCODING = "Content-Encoding";
+
+        public static final String VARY = "Vary";
+
+        public static final String ETAG = "ETag";
+
+        public static final String CACHE_CONTROL = "Cache-Control";
+
+        /**
+         * Tells a client that was turned away how many seconds to wait before trying again.
+         */
+        public static final String RETRY_AFTER = "Retry-After";
     }
 }
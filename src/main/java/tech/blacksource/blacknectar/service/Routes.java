@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import spark.Service;
 import tech.blacksource.blacknectar.service.operations.*;
 import tech.blacksource.blacknectar.service.operations.ebt.*;
+import tech.blacksource.blacknectar.service.operations.stores.GetStoreTileOperation;
 import tech.blacksource.blacknectar.service.operations.stores.SearchStoresOperation;
 import tech.sirwellington.alchemy.annotations.arguments.Required;
 
@@ -49,7 +50,9 @@ interface Routes
         private final GetStatesOperation getStatesOperation;
         private final GetStateInfoOperation getStateInfoOperation;
         private final SearchStoresOperation searchStoresOperation;
+        private final GetStoreTileOperation getStoreTileOperation;
         private final SignInOperation signInOperation;
+        private final AdmissionControl admissionControl;
 
         @Inject
         Impl(SayHelloOperation sayHelloOperation,
@@ -57,14 +60,18 @@ interface Routes
              GetStatesOperation getStatesOperation,
              GetStateInfoOperation getStateInfoOperation,
              SearchStoresOperation searchStoresOperation,
-             SignInOperation signInOperation)
+             GetStoreTileOperation getStoreTileOperation,
+             SignInOperation signInOperation,
+             AdmissionControl admissionControl)
         {
             checkThat(sayHelloOperation,
                       getSampleStoreOperation,
                       getStatesOperation,
                       getStateInfoOperation,
                       searchStoresOperation,
-                      signInOperation)
+                      getStoreTileOperation,
+                      signInOperation,
+                      admissionControl)
                     .are(notNull());
 
             this.sayHelloOperation = sayHelloOperation;
@@ -72,7 +79,9 @@ interface Routes
             this.getStatesOperation = getStatesOperation;
             this.getStateInfoOperation = getStateInfoOperation;
             this.searchStoresOperation = searchStoresOperation;
+            this.getStoreTileOperation = getStoreTileOperation;
             this.signInOperation = signInOperation;
+            this.admissionControl = admissionControl;
         }
 
         @Override
@@ -81,8 +90,11 @@ interface Routes
             checkThat(service).is(notNull());
 
 
-            service.get("/stores", this.searchStoresOperation);
-            service.get("/sample-store", this.getSampleStoreOperation);
+            //The routes that wait on the database or on a state's website are limited, each on its own.
+            service.get("/stores", admissionControl.limit("/stores", this.searchStoresOperation));
+            service.get("/stores/tiles/" + Parameters.Tiles.ZOOM + "/" + Parameters.Tiles.X + "/" + Parameters.Tiles.Y,
+                        admissionControl.limit("/stores/tiles", this.getStoreTileOperation));
+            service.get("/sample-store", admissionControl.limit("/sample-store", this.getSampleStoreOperation));
             service.get("/", this.sayHelloOperation);
 
             service.path("/ebt", () ->
@@ -93,7 +105,7 @@ interface Routes
                 {
                     service.get("", this.getStateInfoOperation);
 
-                    service.post("/sign-in", this.signInOperation);
+                    service.post("/sign-in", admissionControl.limit("/ebt/sign-in", this.signInOperation));
                 });
 
             });
@@ -26,6 +26,8 @@ import spark.ExceptionHandler;
 import spark.Service;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.blacksource.blacknectar.service.operations.stores.SearchWarmUp;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
@@ -43,20 +45,47 @@ public final class Server
     //STATIC VARIABLES
     private final static Logger LOG = LoggerFactory.getLogger(Server.class);
 
+    private final static String LOOPBACK = "127.0.0.1";
+
     private final Aroma aroma;
     private final ExceptionHandler exceptionHandler;
     private final Routes routes;
+    private final SearchWarmUp warmUp;
+    private final ServerThreads httpThreads;
+    private final ServerThreads httpsThreads;
+    private final boolean behindProxy;
 
 
     @Inject
-    Server(Aroma aroma, ExceptionHandler exceptionHandler, Routes routes)
+    Server(Aroma aroma, ExceptionHandler exceptionHandler, Routes routes, SearchWarmUp warmUp)
     {
-        checkThat(aroma, exceptionHandler, routes)
+        this(aroma,
+             exceptionHandler,
+             routes,
+             warmUp,
+             ServerThreads.fromSystemProperties("blacknectar.http"),
+             ServerThreads.fromSystemProperties("blacknectar.https"),
+             Boolean.getBoolean(Parameters.Headers.BEHIND_PROXY_PROPERTY));
+    }
+
+    Server(Aroma aroma,
+           ExceptionHandler exceptionHandler,
+           Routes routes,
+           SearchWarmUp warmUp,
+           ServerThreads httpThreads,
+           ServerThreads httpsThreads,
+           boolean behindProxy)
+    {
+        checkThat(aroma, exceptionHandler, routes, warmUp, httpThreads, httpsThreads)
                 .are(notNull());
 
         this.aroma = aroma;
         this.exceptionHandler = exceptionHandler;
         this.routes = routes;
+        this.warmUp = warmUp;
+        this.httpThreads = httpThreads;
+        this.httpsThreads = httpsThreads;
+        this.behindProxy = behindProxy;
     }
 
 
@@ -92,18 +121,56 @@ public final class Server
         server.setup();
     }
 
+    /**
+     * The ports are only opened once the {@linkplain SearchWarmUp warm-up} is done, so that no client is sent to a
+     * Server that is still cold.
+     */
     void setup()
     {
+        warmUp();
         setupNonSecureServer();
         setupSecureServer();
     }
 
+    void warmUp()
+    {
+        LOG.info("Warming up before opening the ports");
+
+        try
+        {
+            long delay = warmUp.run();
+            LOG.info("Ready for traffic after warming up for {}ms", delay);
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.error("Warm-up failed. Opening the ports anyway.", ex);
+
+            aroma.begin().titled("Warm-Up Failed")
+                 .withBody("Opening the ports without warming up: {}", ex)
+                 .withPriority(Priority.MEDIUM)
+                 .send();
+        }
+    }
+
+    /*
+     * Both ports speak HTTP/1.1 only, since Spark 2.5 builds its own Jetty connectors. HTTP/2 clients are served by
+     * the proxy in deploy/nginx/blacknectar.conf, which relays to the plain port over kept-alive connections.
+     *
+     * Behind the proxy, the plain port only listens on the loopback address, so that clients can't go around it.
+     */
     void setupNonSecureServer()
     {
         Service http = Service.ignite();
         final int port = 9100;
 
+        if (behindProxy)
+        {
+            LOG.info("Behind the proxy. Listening at {} only.", LOOPBACK);
+            http.ipAddress(LOOPBACK);
+        }
+
         setupPort(http, port);
+        httpThreads.applyTo(http);
         setupExceptionHandler(http);
         setupRoutes(http);
     }
@@ -114,6 +181,7 @@ public final class Server
         final int securePort = 9102;
 
         setupPort(https, securePort);
+        httpsThreads.applyTo(https);
         setupSecurity(https);
         setupExceptionHandler(https);
         setupRoutes(https);
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Service;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.Immutable;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * The size of the Jetty thread pool behind one of the {@link Server Server's} ports.
+ * <p>
+ * Every route blocks its thread on JDBC or on an EBT website, so the pools are sized for waiting on I/O rather than
+ * for the number of cores. Each value can be overridden with a system property, for example
+ * {@code -Dblacknectar.http.threads.max=800}.
+ *
+ * @author SirWellington
+ */
+@Immutable
+final class ServerThreads
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(ServerThreads.class);
+
+    static final int DEFAULT_MIN_THREADS = 16;
+
+    /**
+     * Well above Jetty's default of 200, since almost all of these threads are parked on the database.
+     */
+    static final int DEFAULT_MAX_THREADS = 400;
+
+    static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * Jetty runs its acceptors and selectors on the same pool, so a pool smaller than this may never serve a request.
+     */
+    static final int MIN_MAX_THREADS = 8;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int idleTimeoutMillis;
+
+    private ServerThreads(int minThreads, int maxThreads, int idleTimeoutMillis)
+    {
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @param minThreads        The threads kept alive while idle. Must be {@code >= 1}.
+     * @param maxThreads        The most threads the pool grows to. Must be {@code >= minThreads}, and at least
+     *                          {@link #MIN_MAX_THREADS}.
+     * @param idleTimeoutMillis How long a thread above {@code minThreads} may stay idle before it is stopped.
+     * @return
+     * @throws IllegalArgumentException
+     */
+    static ServerThreads of(int minThreads, int maxThreads, int idleTimeoutMillis) throws IllegalArgumentException
+    {
+        checkThat(minThreads)
+                .usingMessage("minThreads must be >= 1")
+                .is(greaterThanOrEqualTo(1));
+
+        checkThat(maxThreads)
+                .usingMessage("maxThreads must be >= minThreads and >= " + MIN_MAX_THREADS)
+                .is(greaterThanOrEqualTo(Math.max(minThreads, MIN_MAX_THREADS)));
+
+        checkThat(idleTimeoutMillis)
+                .usingMessage("idleTimeoutMillis must be >= 0")
+                .is(greaterThanOrEqualTo(0));
+
+        return new ServerThreads(minThreads, maxThreads, idleTimeoutMillis);
+    }
+
+    /**
+     * Reads {@code <prefix>.threads.min}, {@code <prefix>.threads.max}, and {@code <prefix>.threads.idleTimeoutMillis}
+     * from the system properties, using the defaults for any that are missing.
+     *
+     * @param prefix For example, {@code blacknectar.http}.
+     * @return
+     * @throws IllegalArgumentException If the properties describe an invalid pool.
+     */
+    static ServerThreads fromSystemProperties(@Required String prefix) throws IllegalArgumentException
+    {
+        checkThat(prefix).is(nonEmptyString());
+
+        int minThreads = Integer.getInteger(prefix + ".threads.min", DEFAULT_MIN_THREADS);
+        int maxThreads = Integer.getInteger(prefix + ".threads.max", DEFAULT_MAX_THREADS);
+        int idleTimeoutMillis = Integer.getInteger(prefix + ".threads.idleTimeoutMillis", DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+        return of(minThreads, maxThreads, idleTimeoutMillis);
+    }
+
+    /**
+     * Sizes the thread pool of the {@link Service}. Must be called before the service's first route is added.
+     *
+     * @param service
+     */
+    void applyTo(@Required Service service)
+    {
+        checkThat(service).is(notNull());
+
+        LOG.info("Using {}", this);
+        service.threadPool(maxThreads, minThreads, idleTimeoutMillis);
+    }
+
+    int getMinThreads()
+    {
+        return minThreads;
+    }
+
+    int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    int getIdleTimeoutMillis()
+    {
+        return idleTimeoutMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ServerThreads{" + "minThreads=" + minThreads + ", maxThreads=" + maxThreads + ", idleTimeoutMillis=" + idleTimeoutMillis + '}';
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.Collections;
+import java.util.List;
+
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.Immutable;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * All of the Stores, along with whether they were {@linkplain #isServedStale() served from stale data}.
+ * <p>
+ * The flag comes back with the Stores, because the repository's state may already have changed by the time the caller
+ * could ask for it. It plays the same part for {@link StoreRepository#fetchAllStores()} that
+ * {@link BlackNectarSearchRequest#servedStale} plays for searches.
+ *
+ * @author SirWellington
+ */
+@Immutable
+@ThreadSafe
+public final class AllStores
+{
+
+    private final List<Store> stores;
+    private final boolean servedStale;
+
+    private AllStores(List<Store> stores, boolean servedStale)
+    {
+        this.stores = Collections.unmodifiableList(stores);
+        this.servedStale = servedStale;
+    }
+
+    /**
+     * @param stores Stores read from the database.
+     */
+    public static AllStores fresh(@Required List<Store> stores)
+    {
+        checkThat(stores).is(notNull());
+
+        return new AllStores(stores, false);
+    }
+
+    /**
+     * @param stores Stores that may be stale, for example from an in-memory snapshot while the database is down.
+     */
+    public static AllStores stale(@Required List<Store> stores)
+    {
+        checkThat(stores).is(notNull());
+
+        return new AllStores(stores, true);
+    }
+
+    public List<Store> getStores()
+    {
+        return stores;
+    }
+
+    /**
+     * @return {@code true} if the Stores may be stale, {@code false} if they came from the database.
+     */
+    public boolean isServedStale()
+    {
+        return servedStale;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AllStores{" + "stores=" + stores.size() + ", servedStale=" + servedStale + '}';
+    }
+
+}
@@ -17,11 +17,13 @@
 package tech.blacksource.blacknectar.service.data;
 
 import java.util.Objects;
+import java.util.Set;
 
 import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.StoreField;
 import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
 import tech.sirwellington.alchemy.annotations.arguments.Required;
 import tech.sirwellington.alchemy.annotations.concurrency.Mutable;
@@ -31,6 +33,7 @@ import tech.sirwellington.alchemy.annotations.objects.Pojo;
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.AddressAssertions.validZipCode;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.trueStatement;
 import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
 import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.positiveInteger;
 import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
@@ -55,6 +58,29 @@ public class BlackNectarSearchRequest
     public int limit;
     public String searchTerm;
 
+    /**
+     * Searches inside a box, like the viewport of a map, instead of around the {@link #center}.
+     */
+    public BoundingBox boundingBox;
+
+    /**
+     * The fields of each Store to return. Defaults to {@linkplain StoreField#ALL all of them}.
+     */
+    public Set<StoreField> fields;
+
+    /**
+     * Bounds how long the search may run. It is not part of the request's identity, and so is left out of
+     * {@link #equals(java.lang.Object)} and {@link #hashCode()}.
+     */
+    public Deadline deadline;
+
+    /**
+     * Set by the repository that answers the search, when its results may be stale; for example, when they came from
+     * an in-memory snapshot while the database is down. Like the {@link #deadline}, it is not part of the request's
+     * identity.
+     */
+    public volatile boolean servedStale;
+
     public BlackNectarSearchRequest()
     {
         this.searchTerm = "";
@@ -62,6 +88,9 @@ public class BlackNectarSearchRequest
         this.center = null;
         this.radiusInMeters = 0;
         this.limit = 0;
+        this.fields = StoreField.ALL;
+        this.deadline = null;
+        this.boundingBox = null;
     }
 
     public BlackNectarSearchRequest(String searchTerm, Location center, double radiusInMeters, String zipCode, int limit)
@@ -71,6 +100,7 @@ public class BlackNectarSearchRequest
         this.radiusInMeters = radiusInMeters;
         this.zipCode = zipCode;
         this.limit = limit;
+        this.fields = StoreField.ALL;
     }
 
     public boolean hasRadius()
@@ -98,6 +128,24 @@ public class BlackNectarSearchRequest
         return !Strings.isNullOrEmpty(zipCode);
     }
 
+    public boolean hasBoundingBox()
+    {
+        return boundingBox != null;
+    }
+
+    /**
+     * @return {@code true} if only some of the fields of each Store are wanted.
+     */
+    public boolean hasFieldProjection()
+    {
+        return fields != null && !fields.containsAll(StoreField.ALL);
+    }
+
+    public boolean hasDeadline()
+    {
+        return deadline != null;
+    }
+
     public BlackNectarSearchRequest withSearchTerm(String searchTerm)
     {
         checkThat(searchTerm)
@@ -146,6 +194,40 @@ public class BlackNectarSearchRequest
         return this;
     }
 
+    public BlackNectarSearchRequest withBoundingBox(@Required BoundingBox boundingBox)
+    {
+        checkThat(boundingBox)
+                .usingMessage("boundingBox cannot be null")
+                .is(notNull());
+
+        this.boundingBox = boundingBox;
+        return this;
+    }
+
+    public BlackNectarSearchRequest withFields(@Required Set<StoreField> fields)
+    {
+        checkThat(fields)
+                .usingMessage("fields cannot be null")
+                .is(notNull());
+
+        checkThat(fields.contains(StoreField.STORE_ID))
+                .usingMessage("fields must include the store_id")
+                .is(trueStatement());
+
+        this.fields = fields;
+        return this;
+    }
+
+    public BlackNectarSearchRequest withDeadline(@Required Deadline deadline)
+    {
+        checkThat(deadline)
+                .usingMessage("deadline cannot be null")
+                .is(notNull());
+
+        this.deadline = deadline;
+        return this;
+    }
+
     @Override
     public int hashCode()
     {
@@ -155,6 +237,8 @@ public class BlackNectarSearchRequest
         hash = 37 * hash + Objects.hashCode(this.zipCode);
         hash = 37 * hash + this.limit;
         hash = 37 * hash + Objects.hashCode(this.searchTerm);
+        hash = 37 * hash + Objects.hashCode(this.fields);
+        hash = 37 * hash + Objects.hashCode(this.boundingBox);
         return hash;
     }
 
@@ -190,13 +274,21 @@ public class BlackNectarSearchRequest
         {
             return false;
         }
+        if (!Objects.equals(this.fields, other.fields))
+        {
+            return false;
+        }
+        if (!Objects.equals(this.boundingBox, other.boundingBox))
+        {
+            return false;
+        }
         return Objects.equals(this.center, other.center);
     }
 
     @Override
     public String toString()
     {
-        return "BlackNectarSearchRequest{" + "center=" + center + ", radiusInMeters=" + radiusInMeters + ", zipCode=" + zipCode + ", limit=" + limit + ", searchTerm=" + searchTerm + '}';
+        return "BlackNectarSearchRequest{" + "center=" + center + ", radiusInMeters=" + radiusInMeters + ", zipCode=" + zipCode + ", limit=" + limit + ", searchTerm=" + searchTerm + ", fields=" + fields + ", boundingBox=" + boundingBox + '}';
     }
 
 }
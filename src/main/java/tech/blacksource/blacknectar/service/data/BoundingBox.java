@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.Immutable;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+import tech.sirwellington.alchemy.annotations.objects.Pojo;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.GeolocationAssertions.validLatitude;
+import static tech.sirwellington.alchemy.arguments.assertions.GeolocationAssertions.validLongitude;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+
+/**
+ * A box of latitudes and longitudes, like the viewport of a map. Boxes that wrap around the 180th meridian are not
+ * supported.
+ *
+ * @author SirWellington
+ */
+@Pojo
+@Immutable
+@ThreadSafe
+public final class BoundingBox
+{
+
+    private final double minLongitude;
+    private final double minLatitude;
+    private final double maxLongitude;
+    private final double maxLatitude;
+
+    BoundingBox()
+    {
+        this(0, 0, 0, 0);
+    }
+
+    private BoundingBox(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude)
+    {
+        this.minLongitude = minLongitude;
+        this.minLatitude = minLatitude;
+        this.maxLongitude = maxLongitude;
+        this.maxLatitude = maxLatitude;
+    }
+
+    /**
+     * Creates a box, with its arguments in the same order as {@code ST_MakeEnvelope}.
+     *
+     * @throws IllegalArgumentException If a corner is not a valid location, or the minimums are greater than the
+     *                                  maximums.
+     */
+    public static BoundingBox of(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) throws IllegalArgumentException
+    {
+        checkThat(minLatitude, maxLatitude).are(validLatitude());
+        checkThat(minLongitude, maxLongitude).are(validLongitude());
+
+        checkThat(maxLatitude)
+                .usingMessage("maximum latitude must be >= minimum latitude")
+                .is(greaterThanOrEqualTo(minLatitude));
+
+        checkThat(maxLongitude)
+                .usingMessage("maximum longitude must be >= minimum longitude")
+                .is(greaterThanOrEqualTo(minLongitude));
+
+        return new BoundingBox(minLongitude, minLatitude, maxLongitude, maxLatitude);
+    }
+
+    public double getMinLongitude()
+    {
+        return minLongitude;
+    }
+
+    public double getMinLatitude()
+    {
+        return minLatitude;
+    }
+
+    public double getMaxLongitude()
+    {
+        return maxLongitude;
+    }
+
+    public double getMaxLatitude()
+    {
+        return maxLatitude;
+    }
+
+    public double getLatitudeSpan()
+    {
+        return maxLatitude - minLatitude;
+    }
+
+    public double getLongitudeSpan()
+    {
+        return maxLongitude - minLongitude;
+    }
+
+    public Location getCenter()
+    {
+        return Location.with((minLatitude + maxLatitude) / 2, (minLongitude + maxLongitude) / 2);
+    }
+
+    /**
+     * @param location
+     * @return {@code true} if the location is inside the box, or on its edge.
+     */
+    public boolean contains(@Required Location location)
+    {
+        checkThat(location).is(notNull());
+
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+
+        return latitude >= minLatitude && latitude <= maxLatitude &&
+               longitude >= minLongitude && longitude <= maxLongitude;
+    }
+
+    /**
+     * Grows the box out to the nearest lines of a grid, so that boxes that are almost the same become the same.
+     *
+     * @param gridDegrees The size of the grid. Must be {@code > 0}.
+     * @return A box that contains this one.
+     */
+    public BoundingBox snappedOutTo(double gridDegrees)
+    {
+        checkThat(gridDegrees).is(greaterThan(0.0));
+
+        //Rounding can land a grid line just inside the box, so the original edges are kept in that case.
+        return new BoundingBox(Math.max(-180, Math.min(minLongitude, Math.floor(minLongitude / gridDegrees) * gridDegrees)),
+                               Math.max(-90, Math.min(minLatitude, Math.floor(minLatitude / gridDegrees) * gridDegrees)),
+                               Math.min(180, Math.max(maxLongitude, Math.ceil(maxLongitude / gridDegrees) * gridDegrees)),
+                               Math.min(90, Math.max(maxLatitude, Math.ceil(maxLatitude / gridDegrees) * gridDegrees)));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 5;
+        hash = 53 * hash + Double.hashCode(this.minLongitude);
+        hash = 53 * hash + Double.hashCode(this.minLatitude);
+        hash = 53 * hash + Double.hashCode(this.maxLongitude);
+        hash = 53 * hash + Double.hashCode(this.maxLatitude);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (obj == null)
+        {
+            return false;
+        }
+        if (getClass() != obj.getClass())
+        {
+            return false;
+        }
+        final BoundingBox other = (BoundingBox) obj;
+        if (Double.doubleToLongBits(this.minLongitude) != Double.doubleToLongBits(other.minLongitude))
+        {
+            return false;
+        }
+        if (Double.doubleToLongBits(this.minLatitude) != Double.doubleToLongBits(other.minLatitude))
+        {
+            return false;
+        }
+        if (Double.doubleToLongBits(this.maxLongitude) != Double.doubleToLongBits(other.maxLongitude))
+        {
+            return false;
+        }
+        return Double.doubleToLongBits(this.maxLatitude) == Double.doubleToLongBits(other.maxLatitude);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BoundingBox{" + "minLongitude=" + minLongitude + ", minLatitude=" + minLatitude + ", maxLongitude=" + maxLongitude + ", maxLatitude=" + maxLatitude + '}';
+    }
+
+}
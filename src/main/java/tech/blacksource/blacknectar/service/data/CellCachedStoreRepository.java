@@ -0,0 +1,434 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.exceptions.BlackNectarAPIException;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static java.util.stream.Collectors.toList;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Answers radius and {@linkplain BoundingBox box} searches from a cache of {@linkplain SpatialCells cells}, where
+ * each entry holds all of the stores in one cell.
+ * <p>
+ * A search is turned into the cells that cover its circle or box. The cells that are not cached yet are loaded from
+ * the {@linkplain StoreRepository delegate} with a single query, and the exact filter, ordering, and limit are then
+ * applied in memory. Since neighbouring searches share most of their cells, a search that moved a few blocks
+ * only needs to load the cells along its new edge, if any.
+ * <p>
+ * Searches by name or Zip Code, and searches too large to be worth caching, go straight to the delegate. The whole
+ * cache is dropped whenever the stores change.
+ *
+ * @author SirWellington
+ */
+@Internal
+@ThreadSafe
+final class CellCachedStoreRepository implements StoreRepository
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(CellCachedStoreRepository.class);
+
+    /**
+     * The level of the cached cells. At level 11, a cell is about 10km tall, and 20km wide at the equator
+     * (less towards the poles), so a search with the {@linkplain #DEFAULT_RADIUS_METERS default radius} touches a
+     * handful of cells.
+     */
+    static final int CACHE_LEVEL = 11;
+
+    /**
+     * Searches that need more cells than this go to the delegate instead.
+     */
+    static final int MAX_CELLS_PER_SEARCH = 36;
+
+    /**
+     * The most cells kept in memory. The least recently used cells are evicted first.
+     */
+    static final int MAX_CACHED_CELLS = 4_096;
+
+    /**
+     * How long a cell is kept before it is loaded again, in case the stores were changed by another server.
+     */
+    static final long TTL_MILLIS = 10 * 60 * 1_000;
+
+    /**
+     * Widens the radius used to load missing cells, so that rounding in the distance formula never leaves out a
+     * store in a cell's far corner.
+     */
+    static final double FETCH_MARGIN = 1.01;
+
+    private final StoreRepository delegate;
+    private final GeoCalculator geoCalculator;
+    private final StoreChanges storeChanges;
+
+    private final Map<Long, Cell> cells = new LinkedHashMap<Long, Cell>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Cell> eldest)
+        {
+            return size() > MAX_CACHED_CELLS;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Inject
+    CellCachedStoreRepository(CircuitBreakerStoreRepository delegate, GeoCalculator geoCalculator, StoreChanges storeChanges)
+    {
+        this((StoreRepository) delegate, geoCalculator, storeChanges);
+    }
+
+    CellCachedStoreRepository(StoreRepository delegate, GeoCalculator geoCalculator, StoreChanges storeChanges)
+    {
+        checkThat(delegate, geoCalculator, storeChanges)
+                .are(notNull());
+
+        this.delegate = delegate;
+        this.geoCalculator = geoCalculator;
+        this.storeChanges = storeChanges;
+
+        storeChanges.addListener(this::clear);
+    }
+
+    @Override
+    public void addStore(Store store) throws BlackNectarAPIException
+    {
+        delegate.addStore(store);
+    }
+
+    @Override
+    public boolean containsStore(String storeId) throws BlackNectarAPIException
+    {
+        return delegate.containsStore(storeId);
+    }
+
+    @Override
+    public List<Store> getAllStores(int limit) throws BlackNectarAPIException
+    {
+        return delegate.getAllStores(limit);
+    }
+
+    @Override
+    public AllStores fetchAllStores() throws BlackNectarAPIException
+    {
+        return delegate.fetchAllStores();
+    }
+
+    @Override
+    public List<Store> searchForStores(BlackNectarSearchRequest request) throws BlackNectarAPIException
+    {
+        checkThat(request)
+                .throwing(BadArgumentException.class)
+                .usingMessage("request missing")
+                .is(notNull());
+
+        List<Long> cellIds = cellsFor(request);
+
+        if (cellIds.isEmpty())
+        {
+            return delegate.searchForStores(request);
+        }
+
+        if (request.hasDeadline())
+        {
+            request.deadline.checkNotDone();
+        }
+
+        List<Store> candidates = loadCells(cellIds, request);
+
+        if (request.hasDeadline())
+        {
+            request.deadline.checkNotDone();
+        }
+
+        if (request.hasBoundingBox())
+        {
+            BoundingBox box = request.boundingBox;
+
+            List<Store> inside = candidates.stream()
+                                           .filter(store -> box.contains(store.getLocation()))
+                                           .collect(toList());
+
+            return ViewportSampling.sample(inside, box, Math.max(request.limit, 0));
+        }
+
+        double radius = radiusOf(request);
+        Location center = request.center;
+
+        Comparator<Store> nearestFirst = Comparator.comparingDouble(store -> geoCalculator.distanceBetween(store.getLocation(), center));
+
+        List<Store> results = candidates.stream()
+                                        .filter(store -> geoCalculator.distanceBetween(store.getLocation(), center) <= radius)
+                                        .sorted(nearestFirst)
+                                        .collect(toList());
+
+        if (request.hasLimit() && results.size() > request.limit)
+        {
+            results = results.subList(0, request.limit);
+        }
+
+        return results;
+    }
+
+    @Override
+    public int searchForStoresAsJSON(BlackNectarSearchRequest request, JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        checkThat(request)
+                .throwing(BadArgumentException.class)
+                .usingMessage("request missing")
+                .is(notNull());
+
+        if (cellsFor(request).isEmpty())
+        {
+            return delegate.searchForStoresAsJSON(request, out);
+        }
+
+        return StoreRepository.super.searchForStoresAsJSON(request, out);
+    }
+
+    @Override
+    public void updateStore(Store store) throws BlackNectarAPIException
+    {
+        delegate.updateStore(store);
+    }
+
+    @Override
+    public void deleteStore(String storeId) throws BlackNectarAPIException
+    {
+        delegate.deleteStore(storeId);
+    }
+
+    @Override
+    public void flush() throws BlackNectarAPIException
+    {
+        delegate.flush();
+    }
+
+    @Override
+    public boolean isServingStaleData()
+    {
+        return delegate.isServingStaleData();
+    }
+
+    synchronized void clear()
+    {
+        cells.clear();
+    }
+
+    synchronized int size()
+    {
+        return cells.size();
+    }
+
+    long getHits()
+    {
+        return hits.get();
+    }
+
+    long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return The cells that cover the request, or an empty list if the request can't be answered from cells.
+     */
+    private List<Long> cellsFor(BlackNectarSearchRequest request)
+    {
+        if (request.hasSearchTerm() || request.hasZipCode())
+        {
+            return Collections.emptyList();
+        }
+
+        if (request.hasBoundingBox())
+        {
+            return cellsFor(request.boundingBox);
+        }
+
+        if (!request.hasCenter())
+        {
+            return Collections.emptyList();
+        }
+
+        List<Long> cellIds = SpatialCells.cellsAt(CACHE_LEVEL, request.center, radiusOf(request));
+
+        if (cellIds.size() > MAX_CELLS_PER_SEARCH)
+        {
+            return Collections.emptyList();
+        }
+
+        return cellIds;
+    }
+
+    private List<Long> cellsFor(BoundingBox box)
+    {
+        //Counted before the cells are listed, since a box around a whole country has millions of them.
+        double columns = Math.ceil(box.getLongitudeSpan() / SpatialCells.longitudeSpanOf(CACHE_LEVEL)) + 1;
+        double rows = Math.ceil(box.getLatitudeSpan() / SpatialCells.latitudeSpanOf(CACHE_LEVEL)) + 1;
+
+        if (columns * rows > MAX_CELLS_PER_SEARCH)
+        {
+            return Collections.emptyList();
+        }
+
+        return SpatialCells.cellsAt(CACHE_LEVEL, box);
+    }
+
+    private List<Store> loadCells(List<Long> cellIds, BlackNectarSearchRequest request) throws BlackNectarAPIException
+    {
+        List<Store> stores = new ArrayList<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this)
+        {
+            for (Long cellId : cellIds)
+            {
+                Cell cell = cells.get(cellId);
+
+                if (cell == null || now - cell.loadedAt > TTL_MILLIS)
+                {
+                    missing.add(cellId);
+                }
+                else
+                {
+                    stores.addAll(cell.stores);
+                }
+            }
+        }
+
+        hits.addAndGet(cellIds.size() - missing.size());
+        misses.addAndGet(missing.size());
+
+        if (missing.isEmpty())
+        {
+            return stores;
+        }
+
+        long version = storeChanges.getVersion();
+        Map<Long, List<Store>> loaded = fetchCells(missing, request);
+
+        boolean fresh = !request.servedStale && version == storeChanges.getVersion();
+
+        if (fresh)
+        {
+            synchronized (this)
+            {
+                for (Map.Entry<Long, List<Store>> entry : loaded.entrySet())
+                {
+                    cells.put(entry.getKey(), new Cell(entry.getValue(), now));
+                }
+            }
+        }
+
+        loaded.values().forEach(stores::addAll);
+
+        return stores;
+    }
+
+    /**
+     * Loads the stores in all of the {@code cellIds} with one query for a circle around their combined box.
+     */
+    private Map<Long, List<Store>> fetchCells(List<Long> cellIds, BlackNectarSearchRequest request) throws BlackNectarAPIException
+    {
+        double latitudeSpan = SpatialCells.latitudeSpanOf(CACHE_LEVEL);
+        double longitudeSpan = SpatialCells.longitudeSpanOf(CACHE_LEVEL);
+
+        double minLatitude = Double.MAX_VALUE;
+        double minLongitude = Double.MAX_VALUE;
+        double maxLatitude = -Double.MAX_VALUE;
+        double maxLongitude = -Double.MAX_VALUE;
+
+        Map<Long, List<Store>> loaded = new HashMap<>();
+
+        for (Long cellId : cellIds)
+        {
+            Location corner = SpatialCells.cornerOf(cellId, CACHE_LEVEL);
+
+            minLatitude = Math.min(minLatitude, corner.getLatitude());
+            minLongitude = Math.min(minLongitude, corner.getLongitude());
+            maxLatitude = Math.max(maxLatitude, corner.getLatitude() + latitudeSpan);
+            maxLongitude = Math.max(maxLongitude, corner.getLongitude() + longitudeSpan);
+
+            loaded.put(cellId, new ArrayList<>());
+        }
+
+        Location center = Location.with((minLatitude + maxLatitude) / 2, (minLongitude + maxLongitude) / 2);
+
+        //The box is widest along the edge closest to the equator.
+        double radius = Math.max(geoCalculator.distanceBetween(center, Location.with(minLatitude, minLongitude)),
+                                 geoCalculator.distanceBetween(center, Location.with(maxLatitude, minLongitude)));
+
+        BlackNectarSearchRequest fetch = new BlackNectarSearchRequest()
+                .withCenter(center)
+                .withRadius(radius * FETCH_MARGIN);
+
+        if (request.hasDeadline())
+        {
+            fetch.withDeadline(request.deadline);
+        }
+
+        List<Store> stores = delegate.searchForStores(fetch);
+        request.servedStale |= fetch.servedStale;
+
+        for (Store store : stores)
+        {
+            List<Store> cell = loaded.get(SpatialCells.cellIdOf(store.getLocation(), CACHE_LEVEL));
+
+            if (cell != null)
+            {
+                cell.add(store);
+            }
+        }
+
+        LOG.debug("Loaded {} cells with {} stores", cellIds.size(), stores.size());
+
+        return loaded;
+    }
+
+    private static double radiusOf(BlackNectarSearchRequest request)
+    {
+        return request.hasRadius() ? request.radiusInMeters : DEFAULT_RADIUS_METERS;
+    }
+
+    private static final class Cell
+    {
+
+        private final List<Store> stores;
+        private final long loadedAt;
+
+        Cell(List<Store> stores, long loadedAt)
+        {
+            this.stores = Collections.unmodifiableList(stores);
+            this.loadedAt = loadedAt;
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.*;
+
+/**
+ * A simple Circuit Breaker that keeps track of the last {@code windowSize} calls made to a dependency.
+ * <p>
+ * A call counts against the dependency if it failed, or if it took longer than {@code slowCallThresholdMillis}.
+ * Once the ratio of bad calls in the window reaches {@code failureRateThreshold}, the breaker
+ * {@linkplain State#OPEN opens} and rejects calls for {@code openDurationMillis}. After that, a single trial call
+ * is let through; if it succeeds the breaker closes again, otherwise it re-opens.
+ *
+ * @author SirWellington
+ */
+@Internal
+@ThreadSafe
+final class CircuitBreaker
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final double failureRateThreshold;
+    private final long slowCallThresholdMillis;
+    private final long openDurationMillis;
+    private final LongSupplier clock;
+
+    /**
+     * Ring-buffer of the outcomes of recent calls. {@code true} means the call was bad.
+     */
+    private final boolean[] outcomes;
+    private int position = 0;
+    private int recordedCalls = 0;
+    private int badCalls = 0;
+
+    private State state = State.CLOSED;
+    private long openedAt = 0;
+    private boolean trialInProgress = false;
+
+    CircuitBreaker(int windowSize, double failureRateThreshold, long slowCallThresholdMillis, long openDurationMillis)
+    {
+        this(windowSize, failureRateThreshold, slowCallThresholdMillis, openDurationMillis, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int windowSize,
+                   double failureRateThreshold,
+                   long slowCallThresholdMillis,
+                   long openDurationMillis,
+                   LongSupplier clock)
+    {
+        checkThat(windowSize)
+                .usingMessage("windowSize must be > 0")
+                .is(greaterThan(0));
+
+        checkThat(failureRateThreshold)
+                .usingMessage("failureRateThreshold must be in (0, 1]")
+                .is(greaterThan(0.0))
+                .is(lessThanOrEqualTo(1.0));
+
+        checkThat(slowCallThresholdMillis, openDurationMillis)
+                .usingMessage("durations must be > 0")
+                .are(greaterThan(0L));
+
+        checkThat(clock).is(notNull());
+
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallThresholdMillis = slowCallThresholdMillis;
+        this.openDurationMillis = openDurationMillis;
+        this.clock = clock;
+        this.outcomes = new boolean[windowSize];
+    }
+
+    /**
+     * Determines whether a call should be made to the protected dependency.
+     *
+     * @return {@code true} if the call may proceed, {@code false} if the caller should fall back.
+     */
+    synchronized boolean allowRequest()
+    {
+        switch (state)
+        {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openDurationMillis)
+                {
+                    return false;
+                }
+
+                LOG.info("Circuit Breaker is now HALF-OPEN after {}ms", openDurationMillis);
+                state = State.HALF_OPEN;
+                trialInProgress = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                //Only one trial call is allowed at a time.
+                if (trialInProgress)
+                {
+                    return false;
+                }
+
+                trialInProgress = true;
+                return true;
+        }
+    }
+
+    /**
+     * Records a call that completed without error.
+     *
+     * @param latencyMillis How long the call took.
+     */
+    synchronized void recordSuccess(long latencyMillis)
+    {
+        boolean tooSlow = latencyMillis > slowCallThresholdMillis;
+
+        if (state == State.HALF_OPEN)
+        {
+            trialInProgress = false;
+
+            if (tooSlow)
+            {
+                open();
+            }
+            else
+            {
+                close();
+            }
+
+            return;
+        }
+
+        record(tooSlow);
+    }
+
+    /**
+     * Records a call that failed.
+     */
+    synchronized void recordFailure()
+    {
+        if (state == State.HALF_OPEN)
+        {
+            trialInProgress = false;
+            open();
+            return;
+        }
+
+        record(true);
+    }
+
+    synchronized State getState()
+    {
+        return state;
+    }
+
+    synchronized boolean isClosed()
+    {
+        return state == State.CLOSED;
+    }
+
+    private void record(boolean bad)
+    {
+        if (recordedCalls == windowSize)
+        {
+            //Evict the oldest outcome
+            if (outcomes[position])
+            {
+                badCalls -= 1;
+            }
+        }
+        else
+        {
+            recordedCalls += 1;
+        }
+
+        outcomes[position] = bad;
+        position = (position + 1) % windowSize;
+
+        if (bad)
+        {
+            badCalls += 1;
+        }
+
+        if (state == State.CLOSED && recordedCalls == windowSize)
+        {
+            double failureRate = (double) badCalls / recordedCalls;
+
+            if (failureRate >= failureRateThreshold)
+            {
+                LOG.warn("Circuit Breaker tripped with failure rate of {}", failureRate);
+                open();
+            }
+        }
+    }
+
+    private void open()
+    {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+    }
+
+    private void close()
+    {
+        LOG.info("Circuit Breaker is now CLOSED");
+
+        state = State.CLOSED;
+        position = 0;
+        recordedCalls = 0;
+        badCalls = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "CircuitBreaker{" + "state=" + state + ", recordedCalls=" + recordedCalls + ", badCalls=" + badCalls + '}';
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Protects a {@link StoreRepository} (normally the {@linkplain SQLStoreRepository SQL one}) with a {@link CircuitBreaker}.
+ * <p>
+ * While the circuit is closed, all calls go straight through to the database. When the database becomes slow or
+ * starts failing, the circuit opens and reads are answered from an in-memory snapshot of all the stores, which is
+ * refreshed periodically while the database is healthy. Writes fail fast while the circuit is open.
+ *
+ * @author SirWellington
+ */
+@Internal
+final class CircuitBreakerStoreRepository implements StoreRepository
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(CircuitBreakerStoreRepository.class);
+
+    /**
+     * How many recent calls the circuit breaker keeps track of.
+     */
+    static final int WINDOW_SIZE = 20;
+
+    /**
+     * The ratio of failed or slow calls in the window that trips the breaker.
+     */
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+
+    /**
+     * Calls that take longer than this are counted against the database.
+     */
+    static final long SLOW_CALL_THRESHOLD_MILLIS = 2_000;
+
+    /**
+     * How long the breaker stays open before letting a trial call through.
+     */
+    static final long OPEN_DURATION_MILLIS = 30_000;
+
+    /**
+     * How often the in-memory snapshot is rebuilt from the database.
+     */
+    static final long SNAPSHOT_REFRESH_MINUTES = 15;
+
+    private final Aroma aroma;
+    private final StoreRepository delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final GeoCalculator geoCalculator;
+    private final AtomicReference<StoreRepository> snapshot = new AtomicReference<>();
+
+    @Inject
+    CircuitBreakerStoreRepository(Aroma aroma, SQLStoreRepository delegate, GeoCalculator geoCalculator)
+    {
+        this(aroma,
+             delegate,
+             new CircuitBreaker(WINDOW_SIZE, FAILURE_RATE_THRESHOLD, SLOW_CALL_THRESHOLD_MILLIS, OPEN_DURATION_MILLIS),
+             geoCalculator,
+             Executors.newSingleThreadScheduledExecutor(CircuitBreakerStoreRepository::newDaemonThread));
+    }
+
+    CircuitBreakerStoreRepository(Aroma aroma,
+                                  StoreRepository delegate,
+                                  CircuitBreaker circuitBreaker,
+                                  GeoCalculator geoCalculator,
+                                  ScheduledExecutorService scheduler)
+    {
+        checkThat(aroma, delegate, circuitBreaker, geoCalculator, scheduler)
+                .are(notNull());
+
+        this.aroma = aroma;
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.geoCalculator = geoCalculator;
+
+        scheduler.scheduleWithFixedDelay(this::refreshSnapshot, 0, SNAPSHOT_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void addStore(Store store) throws BlackNectarAPIException
+    {
+        protect(() ->
+        {
+            delegate.addStore(store);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean containsStore(String storeId) throws BlackNectarAPIException
+    {
+        return protect(() -> delegate.containsStore(storeId),
+                       () -> getSnapshot().containsStore(storeId));
+    }
+
+    @Override
+    public List<Store> getAllStores(int limit) throws BlackNectarAPIException
+    {
+        return protect(() -> delegate.getAllStores(limit),
+                       () -> getSnapshot().getAllStores(limit));
+    }
+
+    @Override
+    public AllStores fetchAllStores() throws BlackNectarAPIException
+    {
+        return protect(() -> AllStores.fresh(delegate.getAllStores()),
+                       () -> AllStores.stale(getSnapshot().getAllStores()));
+    }
+
+    @Override
+    public List<Store> searchForStores(BlackNectarSearchRequest request) throws BlackNectarAPIException
+    {
+        return protect(() -> delegate.searchForStores(request),
+                       () -> servedStale(request).searchForStores(request));
+    }
+
+    @Override
+    public int searchForStoresAsJSON(BlackNectarSearchRequest request, JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        return protect(() -> delegate.searchForStoresAsJSON(request, out),
+                       () -> servedStale(request).searchForStoresAsJSON(request, out));
+    }
+
+    @Override
+    public void updateStore(Store store) throws BlackNectarAPIException
+    {
+        protect(() ->
+        {
+            delegate.updateStore(store);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteStore(String storeId) throws BlackNectarAPIException
+    {
+        protect(() ->
+        {
+            delegate.deleteStore(storeId);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isServingStaleData()
+    {
+        return !circuitBreaker.isClosed();
+    }
+
+    CircuitBreaker.State getCircuitState()
+    {
+        return circuitBreaker.getState();
+    }
+
+    void refreshSnapshot()
+    {
+        if (!circuitBreaker.isClosed())
+        {
+            LOG.debug("Skipping snapshot refresh while circuit is {}", circuitBreaker.getState());
+            return;
+        }
+
+        long begin = System.currentTimeMillis();
+
+        try
+        {
+            List<Store> stores = delegate.getAllStores();
+            snapshot.set(new MemoryStoreRepository(Lists.copy(stores), geoCalculator));
+
+            makeNoteThatSnapshotRefreshed(stores.size(), System.currentTimeMillis() - begin);
+        }
+        catch (RuntimeException ex)
+        {
+            makeNoteThatSnapshotRefreshFailed(ex);
+        }
+    }
+
+    private <T> T protect(Supplier<T> call) throws BlackNectarAPIException
+    {
+        return protect(call, () ->
+                   {
+                       throw new OperationFailedException("Database is currently unavailable");
+                   });
+    }
+
+    private <T> T protect(Supplier<T> call, Supplier<T> fallback) throws BlackNectarAPIException
+    {
+        if (!circuitBreaker.allowRequest())
+        {
+            return fallback.get();
+        }
+
+        long begin = System.currentTimeMillis();
+
+        try
+        {
+            T result = call.get();
+            circuitBreaker.recordSuccess(System.currentTimeMillis() - begin);
+            return result;
+        }
+        catch (DeadlineExceededException ex)
+        {
+            //The request ran out of time, so judge the database by how long it took.
+            circuitBreaker.recordSuccess(System.currentTimeMillis() - begin);
+            throw ex;
+        }
+        catch (BadArgumentException ex)
+        {
+            //Bad arguments are the caller's fault, not the database's.
+            circuitBreaker.recordSuccess(System.currentTimeMillis() - begin);
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            circuitBreaker.recordFailure();
+
+            if (!circuitBreaker.isClosed())
+            {
+                makeNoteThatCircuitOpened(ex);
+            }
+
+            throw ex;
+        }
+    }
+
+    private StoreRepository getSnapshot() throws OperationFailedException
+    {
+        StoreRepository current = snapshot.get();
+
+        if (current == null)
+        {
+            throw new OperationFailedException("Database is unavailable and no snapshot has been loaded yet");
+        }
+
+        return current;
+    }
+
+    /**
+     * Marks the request as {@linkplain BlackNectarSearchRequest#servedStale served stale}, so that the response isn't
+     * cached or tagged as current.
+     */
+    private StoreRepository servedStale(BlackNectarSearchRequest request) throws OperationFailedException
+    {
+        StoreRepository current = getSnapshot();
+
+        if (request != null)
+        {
+            request.servedStale = true;
+        }
+
+        return current;
+    }
+
+    private void makeNoteThatSnapshotRefreshed(int totalStores, long delay)
+    {
+        String message = "Refreshed in-memory snapshot with {} stores in {}ms";
+        LOG.info(message, totalStores, delay);
+
+        aroma.begin().titled("Snapshot Refreshed")
+             .withBody(message, totalStores, delay)
+             .withPriority(Priority.LOW)
+             .send();
+    }
+
+    private void makeNoteThatSnapshotRefreshFailed(Exception ex)
+    {
+        String message = "Failed to refresh in-memory snapshot of stores";
+        LOG.error(message, ex);
+
+        aroma.begin().titled("Snapshot Refresh Failed")
+             .withBody("{}: {}", message, ex)
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+    private void makeNoteThatCircuitOpened(Exception ex)
+    {
+        String message = "Circuit is {}. Serving searches from in-memory snapshot. Last error: {}";
+        LOG.warn(message, circuitBreaker.getState(), ex.getMessage());
+
+        aroma.begin().titled("Database Circuit Open")
+             .withBody(message, circuitBreaker.getState(), ex)
+             .withPriority(Priority.HIGH)
+             .send();
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "store-snapshot-refresh");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
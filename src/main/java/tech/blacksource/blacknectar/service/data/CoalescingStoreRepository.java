@@ -0,0 +1,440 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Lets identical searches that run at the same time share a single call to the {@linkplain StoreRepository delegate}.
+ * <p>
+ * The first search for a request becomes the leader and runs it. Searches for an
+ * {@linkplain BlackNectarSearchRequest#equals(java.lang.Object) equal} request that arrive while it is running wait for
+ * its results instead, each within its own {@link Deadline}. Nothing is kept once the leader finishes, so results are
+ * never reused by later searches.
+ * <p>
+ * If the leader runs out of time, each waiting search runs on its own, since it may still have time left. Any other
+ * failure is shared with the searches that were waiting, so that a failing database is not hit again by each of them.
+ * <p>
+ * Streamed searches are coalesced separately, and still go through the delegate's
+ * {@link StoreRepository#searchForStoresAsJSON(BlackNectarSearchRequest, JsonStreamWriter) JSON path}, so that the
+ * database builds the JSON and only reads the requested fields. The leader streams straight to its own writer.
+ * Identical searches may only join it until it writes its first Store, which is where a search spends most of its time.
+ * If any did, the leader {@linkplain JsonStreamWriter.Recording records} the Stores as it writes them, and each of
+ * them then writes the Stores out in its own format. Searches that arrive later run on their own.
+ *
+ * @author SirWellington
+ */
+@Internal
+@ThreadSafe
+final class CoalescingStoreRepository implements StoreRepository
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(CoalescingStoreRepository.class);
+
+    private final StoreRepository delegate;
+    private final ConcurrentMap<BlackNectarSearchRequest, InFlight<List<Store>>> searchesInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BlackNectarSearchRequest, InFlight<JsonStreamWriter.Recording>> streamsInFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @Inject
+    CoalescingStoreRepository(CellCachedStoreRepository delegate)
+    {
+        this((StoreRepository) delegate);
+    }
+
+    CoalescingStoreRepository(StoreRepository delegate)
+    {
+        checkThat(delegate).is(notNull());
+
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void addStore(Store store) throws BlackNectarAPIException
+    {
+        delegate.addStore(store);
+    }
+
+    @Override
+    public boolean containsStore(String storeId) throws BlackNectarAPIException
+    {
+        return delegate.containsStore(storeId);
+    }
+
+    @Override
+    public List<Store> getAllStores(int limit) throws BlackNectarAPIException
+    {
+        return delegate.getAllStores(limit);
+    }
+
+    @Override
+    public AllStores fetchAllStores() throws BlackNectarAPIException
+    {
+        return delegate.fetchAllStores();
+    }
+
+    @Override
+    public List<Store> searchForStores(BlackNectarSearchRequest request) throws BlackNectarAPIException
+    {
+        checkThat(request)
+                .throwing(BadArgumentException.class)
+                .usingMessage("request missing")
+                .is(notNull());
+
+        List<Store> stores = coalesce(searchesInFlight, request, () -> delegate.searchForStores(request));
+
+        //Each search gets its own copy of the shared results.
+        return new ArrayList<>(stores);
+    }
+
+    @Override
+    public int searchForStoresAsJSON(BlackNectarSearchRequest request, JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        checkThat(request, out)
+                .usingMessage("request and output are required")
+                .throwing(BadArgumentException.class)
+                .are(notNull());
+
+        searches.incrementAndGet();
+
+        BlackNectarSearchRequest key = keyOf(request);
+
+        while (true)
+        {
+            InFlight<JsonStreamWriter.Recording> leader = new InFlight<>(request);
+            InFlight<JsonStreamWriter.Recording> existing = streamsInFlight.putIfAbsent(key, leader);
+
+            if (existing == null)
+            {
+                return leadStream(key, leader, request, out);
+            }
+
+            if (existing.join())
+            {
+                coalesced.incrementAndGet();
+                return followStream(existing, request, out);
+            }
+
+            //The leader has already started writing, and is about to leave the map.
+        }
+    }
+
+    @Override
+    public void updateStore(Store store) throws BlackNectarAPIException
+    {
+        delegate.updateStore(store);
+    }
+
+    @Override
+    public void deleteStore(String storeId) throws BlackNectarAPIException
+    {
+        delegate.deleteStore(storeId);
+    }
+
+    @Override
+    public void flush() throws BlackNectarAPIException
+    {
+        delegate.flush();
+    }
+
+    @Override
+    public boolean isServingStaleData()
+    {
+        return delegate.isServingStaleData();
+    }
+
+    long getSearches()
+    {
+        return searches.get();
+    }
+
+    long getCoalescedSearches()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * @return The share of searches that waited on another search instead of calling the delegate, from 0 to 1.
+     */
+    double getCoalescingRate()
+    {
+        long total = searches.get();
+        return total == 0 ? 0 : (double) coalesced.get() / total;
+    }
+
+    private <T> T coalesce(ConcurrentMap<BlackNectarSearchRequest, InFlight<T>> inFlight,
+                           BlackNectarSearchRequest request,
+                           Supplier<T> search) throws BlackNectarAPIException
+    {
+        searches.incrementAndGet();
+
+        BlackNectarSearchRequest key = keyOf(request);
+        InFlight<T> leader = new InFlight<>(request);
+        InFlight<T> existing = inFlight.putIfAbsent(key, leader);
+
+        if (existing != null)
+        {
+            coalesced.incrementAndGet();
+            return awaitLeader(existing, request, search);
+        }
+
+        try
+        {
+            T result = search.get();
+            leader.result.complete(result);
+            return result;
+        }
+        catch (RuntimeException ex)
+        {
+            leader.result.completeExceptionally(ex);
+            throw ex;
+        }
+        finally
+        {
+            inFlight.remove(key, leader);
+        }
+    }
+
+    private <T> T awaitLeader(InFlight<T> leader, BlackNectarSearchRequest request, Supplier<T> search) throws BlackNectarAPIException
+    {
+        Deadline deadline = request.deadline;
+
+        //A future of our own, so that cancelling this request doesn't cancel the leader.
+        CompletableFuture<T> result = leader.result.thenApply(value -> value);
+
+        if (deadline != null)
+        {
+            deadline.onCancel(() -> result.cancel(false));
+        }
+
+        try
+        {
+            T value = deadline == null
+                      ? result.get()
+                      : result.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+
+            //The leader's search is done, so it is known how it was served.
+            request.servedStale |= leader.request.servedStale;
+
+            return value;
+        }
+        catch (CancellationException | TimeoutException ex)
+        {
+            throw new DeadlineExceededException("Request ran past its deadline while waiting for an identical search", ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new OperationFailedException("Interrupted while waiting for an identical search", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            return afterLeaderFailed(ex.getCause(), request, search);
+        }
+        finally
+        {
+            if (deadline != null)
+            {
+                deadline.clearCancelHook();
+            }
+        }
+    }
+
+    /**
+     * A leader that ran out of time, or couldn't write to its own client, says nothing about the search itself, so the
+     * search is run again within this request's own deadline. Any other failure is shared.
+     */
+    private <T> T afterLeaderFailed(Throwable cause, BlackNectarSearchRequest request, Supplier<T> search) throws BlackNectarAPIException
+    {
+        if (cause instanceof DeadlineExceededException || isOutputFailure(cause))
+        {
+            LOG.debug("Identical search ran out of time. Running it again.", cause);
+
+            if (request.deadline != null)
+            {
+                request.deadline.checkNotDone();
+            }
+
+            return search.get();
+        }
+
+        if (cause instanceof BadArgumentException)
+        {
+            throw new BadArgumentException(cause.getMessage(), cause);
+        }
+
+        throw new OperationFailedException("Identical search failed: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Streams the search straight to {@code out}. Once the first Store is about to be written, no more searches may join,
+     * and the Stores are only recorded if some already did.
+     */
+    private int leadStream(BlackNectarSearchRequest key,
+                           InFlight<JsonStreamWriter.Recording> leader,
+                           BlackNectarSearchRequest request,
+                           JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        JsonStreamWriter.Recording recording = new JsonStreamWriter.Recording(() ->
+        {
+            boolean joined = leader.close();
+            streamsInFlight.remove(key, leader);
+            return joined;
+        });
+
+        out.recordTo(recording);
+
+        try
+        {
+            int totalStores = delegate.searchForStoresAsJSON(request, out);
+            leader.result.complete(recording);
+            return totalStores;
+        }
+        catch (RuntimeException ex)
+        {
+            leader.result.completeExceptionally(ex);
+            throw ex;
+        }
+        finally
+        {
+            out.recordTo(null);
+            streamsInFlight.remove(key, leader);
+        }
+    }
+
+    private int followStream(InFlight<JsonStreamWriter.Recording> leader,
+                             BlackNectarSearchRequest request,
+                             JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        JsonStreamWriter.Recording recording = awaitLeader(leader, request, () -> null);
+
+        if (recording == null)
+        {
+            //The leader failed for reasons of its own, so the search is run again for this request alone.
+            return delegate.searchForStoresAsJSON(request, out);
+        }
+
+        try
+        {
+            return recording.writeTo(out);
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw new OperationFailedException("Failed to write stores", ex);
+        }
+    }
+
+    /**
+     * @return {@code true} if writing the leader's own response failed, which says nothing about the search.
+     */
+    private static boolean isOutputFailure(Throwable cause)
+    {
+        for (Throwable current = cause; current != null; current = current.getCause())
+        {
+            if (current instanceof IOException || current instanceof UncheckedIOException)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The request without its {@link Deadline}, so that the key doesn't change if the request does. The
+     * {@linkplain BlackNectarSearchRequest#fields fields} are part of the key, so searches only share results that
+     * have the same fields.
+     */
+    private BlackNectarSearchRequest keyOf(BlackNectarSearchRequest request)
+    {
+        BlackNectarSearchRequest key = new BlackNectarSearchRequest();
+        key.center = request.center;
+        key.radiusInMeters = request.radiusInMeters;
+        key.zipCode = request.zipCode;
+        key.limit = request.limit;
+        key.searchTerm = request.searchTerm;
+        key.boundingBox = request.boundingBox;
+        key.fields = request.fields;
+
+        return key;
+    }
+
+    /**
+     * A search that is running, along with the request of its leader, which tells how the search was served once it
+     * is done.
+     */
+    private static final class InFlight<T>
+    {
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final BlackNectarSearchRequest request;
+        private int followers = 0;
+        private boolean closed = false;
+
+        InFlight(BlackNectarSearchRequest request)
+        {
+            this.request = request;
+        }
+
+        /**
+         * @return {@code false} if the search no longer takes followers.
+         */
+        synchronized boolean join()
+        {
+            if (closed)
+            {
+                return false;
+            }
+
+            ++followers;
+            return true;
+        }
+
+        /**
+         * Stops any more searches from joining.
+         *
+         * @return {@code true} if any search joined.
+         */
+        synchronized boolean close()
+        {
+            closed = true;
+            return followers > 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Tracks the version of the Store data kept in the database, which goes up every time the Stores change, no matter
+ * which process changed them. See {@link SQLQueries#CREATE_DATASET_VERSION}.
+ * <p>
+ * The version is read again after every local change, and polled every {@link #POLL_INTERVAL_SECONDS} seconds to
+ * catch changes made elsewhere, like bulk imports by the scripts.
+ * <p>
+ * The version can move a moment before the change it stands for is committed, so it is only trusted once it has
+ * stayed the same for {@link #SETTLE_SECONDS}. Until then it is {@link #UNKNOWN}, and responses aren't tagged with it.
+ * Changes made elsewhere are announced through {@link StoreChanges#storesChanged()} once the version settles, so that
+ * a burst of writes, like an import, drops the caches built from the Stores once instead of on every poll. While the
+ * Stores keep changing, they are still announced every {@link #MAX_ANNOUNCE_DELAY_SECONDS}, so the caches don't fall
+ * too far behind.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+public class DatasetVersion
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(DatasetVersion.class);
+
+    /**
+     * Returned by {@link #getVersion()} when the version could not be read, or hasn't settled yet.
+     */
+    public static final long UNKNOWN = -1;
+
+    static final long POLL_INTERVAL_SECONDS = 5;
+
+    /**
+     * How long the version must stay the same before it is trusted. Covers the commit that follows the last change.
+     */
+    static final long SETTLE_SECONDS = 10;
+
+    /**
+     * The longest changes made elsewhere go unannounced while the Stores keep changing.
+     */
+    static final long MAX_ANNOUNCE_DELAY_SECONDS = 60;
+
+    private final JdbcTemplate database;
+    private final StoreChanges storeChanges;
+    private final LongSupplier clock;
+    private final AtomicLong version = new AtomicLong(UNKNOWN);
+    private volatile boolean tableReady = false;
+
+    //These survive failed reads, so that changes made while the database was unreachable are still announced.
+    private long lastRead = UNKNOWN;
+    private long changedAt = 0;
+    private long lastAnnounced = UNKNOWN;
+    private long lastAnnouncedAt = 0;
+    private boolean announcedSettled = true;
+
+    @Inject
+    DatasetVersion(JdbcTemplate database, StoreChanges storeChanges)
+    {
+        this(database,
+             storeChanges,
+             Executors.newSingleThreadScheduledExecutor(DatasetVersion::newDaemonThread),
+             System::currentTimeMillis);
+    }
+
+    DatasetVersion(JdbcTemplate database, StoreChanges storeChanges, ScheduledExecutorService scheduler, LongSupplier clock)
+    {
+        checkThat(database, storeChanges, scheduler, clock)
+                .are(notNull());
+
+        this.database = database;
+        this.storeChanges = storeChanges;
+        this.clock = clock;
+
+        //Changes made here are already announced by whoever made them.
+        storeChanges.addListener(() -> refresh(false));
+        scheduler.scheduleWithFixedDelay(() -> refresh(true), 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return The current version of the Store data, or {@link #UNKNOWN} if it could not be read, or is still changing.
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    public boolean isKnown()
+    {
+        return version.get() != UNKNOWN;
+    }
+
+    synchronized void refresh(boolean announceChanges)
+    {
+        long current;
+
+        try
+        {
+            createTableIfMissing();
+
+            Long result = database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class);
+            current = result == null ? UNKNOWN : result;
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.warn("Failed to read the dataset version", ex);
+            current = UNKNOWN;
+        }
+
+        if (current == UNKNOWN)
+        {
+            version.set(UNKNOWN);
+            return;
+        }
+
+        long now = clock.getAsLong();
+        long settleMillis = TimeUnit.SECONDS.toMillis(SETTLE_SECONDS);
+        boolean firstRead = lastAnnounced == UNKNOWN;
+
+        if (current != lastRead)
+        {
+            lastRead = current;
+            //A change made here is already committed, so there is nothing to wait for.
+            changedAt = firstRead || !announceChanges ? now - settleMillis : now;
+        }
+
+        boolean settled = now - changedAt >= settleMillis;
+        version.set(settled ? current : UNKNOWN);
+
+        if (firstRead || !announceChanges)
+        {
+            //Nothing was built from an older version yet, or the change was made, and announced, here.
+            markAnnounced(current, now, true);
+            return;
+        }
+
+        if (current == lastAnnounced && (announcedSettled || !settled))
+        {
+            return;
+        }
+
+        if (settled || now - lastAnnouncedAt >= TimeUnit.SECONDS.toMillis(MAX_ANNOUNCE_DELAY_SECONDS))
+        {
+            LOG.info("Dataset changed from version {} to {}. Settled: {}", lastAnnounced, current, settled);
+            markAnnounced(current, now, settled);
+            storeChanges.storesChanged();
+        }
+    }
+
+    private void markAnnounced(long current, long now, boolean settled)
+    {
+        lastAnnounced = current;
+        lastAnnouncedAt = now;
+        announcedSettled = settled;
+    }
+
+    private void createTableIfMissing()
+    {
+        if (tableReady)
+        {
+            return;
+        }
+
+        database.execute(SQLQueries.CREATE_DATASET_VERSION);
+        tableReady = true;
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "dataset-version-poll");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
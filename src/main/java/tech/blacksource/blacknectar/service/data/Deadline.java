@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+
+/**
+ * A Deadline bounds how long the work for a single request may take.
+ * <p>
+ * It is created when the request arrives and travels with the {@link BlackNectarSearchRequest}, so that the
+ * repositories can turn it into a JDBC statement timeout or stop an in-memory scan. A Deadline can also be
+ * {@linkplain #cancel() cancelled} early, for example when the client disconnects. Whatever is currently running on
+ * behalf of the request can register a {@linkplain #onCancel(Runnable) hook} to be told about it.
+ *
+ * @author SirWellington
+ */
+@ThreadSafe
+public final class Deadline
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(Deadline.class);
+
+    private static final Runnable NO_OP = () -> {};
+
+    private final long expiresAtNanos;
+    private final AtomicReference<Runnable> cancelHook = new AtomicReference<>(NO_OP);
+    private volatile boolean cancelled = false;
+
+    private Deadline(long expiresAtNanos)
+    {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * Creates a Deadline that expires after the specified amount of time.
+     *
+     * @param duration Must be {@code >= 0}.
+     * @param unit     The unit of {@code duration}.
+     * @return
+     */
+    public static Deadline after(long duration, @Required TimeUnit unit)
+    {
+        checkThat(duration)
+                .usingMessage("duration must be >= 0")
+                .is(greaterThanOrEqualTo(0L));
+
+        checkThat(unit).is(notNull());
+
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    public long remainingMillis()
+    {
+        long remaining = expiresAtNanos - System.nanoTime();
+
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    /**
+     * JDBC only supports timeouts in whole seconds, so this rounds the remaining time up, with a minimum of 1 second.
+     *
+     * @return The remaining time, in seconds.
+     */
+    public int remainingSecondsRoundedUp()
+    {
+        long millis = remainingMillis();
+        long seconds = (millis + 999) / 1_000;
+
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, seconds));
+    }
+
+    public boolean isExpired()
+    {
+        return System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @return {@code true} if the work for this request should stop, either because the deadline passed, or because it
+     *         was cancelled.
+     */
+    public boolean isDone()
+    {
+        return cancelled || isExpired();
+    }
+
+    /**
+     * Throws a {@link DeadlineExceededException} if the deadline has passed or was cancelled.
+     *
+     * @throws DeadlineExceededException
+     */
+    public void checkNotDone() throws DeadlineExceededException
+    {
+        if (cancelled)
+        {
+            throw new DeadlineExceededException("Request was cancelled");
+        }
+
+        if (isExpired())
+        {
+            throw new DeadlineExceededException("Request ran past its deadline");
+        }
+    }
+
+    /**
+     * Cancels this Deadline, and runs the current cancel hook, if any.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+
+        Runnable hook = cancelHook.getAndSet(NO_OP);
+
+        try
+        {
+            hook.run();
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.warn("Cancel hook failed", ex);
+        }
+    }
+
+    /**
+     * Sets the action to run if this Deadline is {@linkplain #cancel() cancelled}, replacing any previous one. If the
+     * Deadline has already been cancelled, the hook runs immediately.
+     *
+     * @param hook
+     */
+    public void onCancel(@Required Runnable hook)
+    {
+        checkThat(hook).is(notNull());
+
+        cancelHook.set(hook);
+
+        if (cancelled)
+        {
+            cancel();
+        }
+    }
+
+    /**
+     * Removes the current cancel hook, if any.
+     */
+    public void clearCancelHook()
+    {
+        cancelHook.set(NO_OP);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Deadline{" + "remainingMillis=" + remainingMillis() + ", cancelled=" + cancelled + '}';
+    }
+
+}
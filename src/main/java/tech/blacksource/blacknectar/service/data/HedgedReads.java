@@ -0,0 +1,465 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.sirwellington.alchemy.annotations.arguments.Optional;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.*;
+
+/**
+ * Hedges reads against a second database, to cut down on tail latency.
+ * <p>
+ * A read is first sent to the primary database. If it has not come back by the time a
+ * {@linkplain #getHedgeDelayMillis() percentile-based delay} has passed, the same read is also sent to the replica.
+ * Whichever answers first wins, and the other one is cancelled.
+ * <p>
+ * Hedging is opt-in. {@linkplain #disabled() Disabled} instances simply run reads against the primary.
+ *
+ * @author SirWellington
+ */
+@ThreadSafe
+public final class HedgedReads
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(HedgedReads.class);
+
+    /**
+     * The percentile of recent primary latencies after which a read is hedged.
+     */
+    public static final double DEFAULT_PERCENTILE = 0.95;
+
+    /**
+     * Reads are never hedged sooner than this.
+     */
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 20;
+
+    /**
+     * Used as the hedge delay until enough latencies have been recorded.
+     */
+    static final long INITIAL_DELAY_MILLIS = 100;
+
+    /**
+     * Used as the time limit for each attempt when the read has no {@link Deadline} of its own.
+     */
+    static final long DEFAULT_ATTEMPT_TIMEOUT_MILLIS = 30_000;
+
+    static final int LATENCY_WINDOW_SIZE = 200;
+    static final int MIN_SAMPLES = 20;
+
+    private static final int MAX_THREADS = 20;
+
+    private final JdbcTemplate replica;
+    private final double percentile;
+    private final long minDelayMillis;
+    private final ExecutorService executor;
+
+    private final long[] latencies = new long[LATENCY_WINDOW_SIZE];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    HedgedReads(@Optional JdbcTemplate replica,
+                double percentile,
+                long minDelayMillis,
+                @Optional ExecutorService executor)
+    {
+        checkThat(percentile)
+                .usingMessage("percentile must be between 0 and 1")
+                .is(greaterThan(0.0))
+                .is(lessThanOrEqualTo(1.0));
+
+        checkThat(minDelayMillis)
+                .usingMessage("minimum delay must be >= 0")
+                .is(greaterThanOrEqualTo(0L));
+
+        if (replica != null)
+        {
+            checkThat(executor).is(notNull());
+        }
+
+        this.replica = replica;
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * @return An instance that does not hedge.
+     */
+    public static HedgedReads disabled()
+    {
+        return new HedgedReads(null, DEFAULT_PERCENTILE, DEFAULT_MIN_DELAY_MILLIS, null);
+    }
+
+    /**
+     * Creates an instance that hedges reads against the specified replica.
+     *
+     * @param replica        The second database to send reads to.
+     * @param percentile     Reads that take longer than this percentile of recent primary reads are hedged. Must be in
+     *                       {@code (0, 1]}.
+     * @param minDelayMillis Reads are never hedged sooner than this.
+     * @return
+     */
+    public static HedgedReads to(@Required DataSource replica, double percentile, long minDelayMillis)
+    {
+        checkThat(replica).is(notNull());
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0,
+                                                             MAX_THREADS,
+                                                             60,
+                                                             TimeUnit.SECONDS,
+                                                             new SynchronousQueue<>(),
+                                                             HedgedReads::newDaemonThread);
+
+        return new HedgedReads(new JdbcTemplate(replica, false), percentile, minDelayMillis, executor);
+    }
+
+    public boolean isEnabled()
+    {
+        return replica != null;
+    }
+
+    /**
+     * Runs the read against the primary, hedging it against the replica if it is slow.
+     *
+     * @param <T>
+     * @param primary  The primary database.
+     * @param deadline The deadline of the request, if any. Cancelling it cancels both attempts.
+     * @param read     Runs the read against the database it is given, within the time allowed by the
+     *                 {@link Deadline} it is given.
+     * @return The result of whichever attempt finished first.
+     * @throws BlackNectarAPIException
+     */
+    <T> T read(@Required JdbcTemplate primary,
+               @Optional Deadline deadline,
+               @Required BiFunction<JdbcTemplate, Deadline, T> read) throws BlackNectarAPIException
+    {
+        checkThat(primary, read).are(notNull());
+
+        if (!isEnabled())
+        {
+            return read.apply(primary, deadline);
+        }
+
+        Deadline primaryAttempt = newAttempt(deadline);
+        Deadline hedgeAttempt = newAttempt(deadline);
+
+        if (deadline != null)
+        {
+            deadline.onCancel(() ->
+            {
+                primaryAttempt.cancel();
+                hedgeAttempt.cancel();
+            });
+        }
+
+        reads.incrementAndGet();
+
+        try
+        {
+            return race(primary, primaryAttempt, hedgeAttempt, read);
+        }
+        finally
+        {
+            if (deadline != null)
+            {
+                deadline.clearCancelHook();
+            }
+
+            reportEvery(1_000);
+        }
+    }
+
+    private <T> T race(JdbcTemplate primary,
+                       Deadline primaryAttempt,
+                       Deadline hedgeAttempt,
+                       BiFunction<JdbcTemplate, Deadline, T> read)
+    {
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        PrimaryTimer primaryTimer = new PrimaryTimer();
+
+        Future<T> primaryFuture = submit(completionService, () ->
+                                     {
+                                         try
+                                         {
+                                             return read.apply(primary, primaryAttempt);
+                                         }
+                                         finally
+                                         {
+                                             primaryTimer.stop();
+                                         }
+                                     });
+
+        if (primaryFuture == null)
+        {
+            //No threads left, so run it here without hedging.
+            try
+            {
+                return read.apply(primary, primaryAttempt);
+            }
+            finally
+            {
+                primaryTimer.stop();
+            }
+        }
+
+        try
+        {
+            Future<T> first = completionService.poll(getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+
+            if (first != null)
+            {
+                return getResult(first);
+            }
+
+            Future<T> hedgeFuture = submit(completionService, () -> read.apply(replica, hedgeAttempt));
+
+            if (hedgeFuture == null)
+            {
+                return getResult(primaryFuture);
+            }
+
+            hedges.incrementAndGet();
+
+            return takeFirstSuccess(completionService, primaryTimer, primaryAttempt, hedgeFuture, hedgeAttempt);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            primaryTimer.stop();
+            primaryAttempt.cancel();
+            hedgeAttempt.cancel();
+
+            throw new OperationFailedException("Interrupted while waiting for read", ex);
+        }
+    }
+
+    private <T> T takeFirstSuccess(CompletionService<T> completionService,
+                                   PrimaryTimer primaryTimer,
+                                   Deadline primaryAttempt,
+                                   Future<T> hedgeFuture,
+                                   Deadline hedgeAttempt) throws InterruptedException
+    {
+        RuntimeException firstFailure = null;
+
+        for (int remaining = 2; remaining > 0; --remaining)
+        {
+            Future<T> winner = completionService.take();
+            boolean hedgeWon = winner == hedgeFuture;
+
+            try
+            {
+                T result = getResult(winner);
+
+                if (hedgeWon)
+                {
+                    hedgeWins.incrementAndGet();
+
+                    //The primary would have taken at least this long. Waiting for it to give up would add the time
+                    //it takes to notice that it was cancelled.
+                    primaryTimer.stop();
+                    primaryAttempt.cancel();
+                }
+                else
+                {
+                    hedgeAttempt.cancel();
+                }
+
+                return result;
+            }
+            catch (RuntimeException ex)
+            {
+                LOG.debug("{} read failed. Waiting on the other one.", hedgeWon ? "Hedged" : "Primary", ex);
+
+                if (firstFailure == null)
+                {
+                    firstFailure = ex;
+                }
+            }
+        }
+
+        throw firstFailure;
+    }
+
+    private <T> Future<T> submit(CompletionService<T> completionService, Callable<T> task)
+    {
+        try
+        {
+            return completionService.submit(task);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            LOG.debug("Too many reads in flight to hedge", ex);
+            return null;
+        }
+    }
+
+    private <T> T getResult(Future<T> future) throws BlackNectarAPIException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new OperationFailedException("Interrupted while waiting for read", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+
+            throw new OperationFailedException(cause);
+        }
+    }
+
+    private Deadline newAttempt(Deadline deadline)
+    {
+        if (deadline == null)
+        {
+            return Deadline.after(DEFAULT_ATTEMPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        Deadline attempt = Deadline.after(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+
+        if (deadline.isCancelled())
+        {
+            attempt.cancel();
+        }
+
+        return attempt;
+    }
+
+    synchronized void recordLatency(long latencyMillis)
+    {
+        latencies[nextLatency] = latencyMillis;
+        nextLatency = (nextLatency + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+    }
+
+    synchronized long[] getLatencies()
+    {
+        return Arrays.copyOf(latencies, latencyCount);
+    }
+
+    /**
+     * @return How long to wait on the primary before hedging, based on recent primary latencies.
+     */
+    synchronized long getHedgeDelayMillis()
+    {
+        if (latencyCount < MIN_SAMPLES)
+        {
+            return Math.max(minDelayMillis, INITIAL_DELAY_MILLIS);
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        index = Math.max(0, Math.min(sorted.length - 1, index));
+
+        return Math.max(minDelayMillis, sorted[index]);
+    }
+
+    /**
+     * @return The fraction of reads that were hedged.
+     */
+    public double getHedgeRate()
+    {
+        long totalReads = reads.get();
+        return totalReads == 0 ? 0.0 : (double) hedges.get() / totalReads;
+    }
+
+    /**
+     * @return The fraction of hedged reads where the replica answered first.
+     */
+    public double getWinRate()
+    {
+        long totalHedges = hedges.get();
+        return totalHedges == 0 ? 0.0 : (double) hedgeWins.get() / totalHedges;
+    }
+
+    private void reportEvery(long interval)
+    {
+        if (reads.get() % interval == 0)
+        {
+            LOG.info("Hedged reads: {} reads, hedge rate {}, win rate {}, current delay {}ms",
+                     reads.get(),
+                     getHedgeRate(),
+                     getWinRate(),
+                     getHedgeDelayMillis());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HedgedReads{" + "enabled=" + isEnabled() + ", reads=" + reads + ", hedgeRate=" + getHedgeRate() + ", winRate=" + getWinRate() + '}';
+    }
+
+    /**
+     * Records how long the primary took for a single read, exactly once, whether it succeeded, failed, or lost to the
+     * hedge. Only recording the reads that the primary won would leave out the slowest ones, and the hedge delay
+     * would keep shrinking.
+     */
+    private final class PrimaryTimer
+    {
+
+        private final long begin = System.nanoTime();
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+        void stop()
+        {
+            if (stopped.compareAndSet(false, true))
+            {
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            }
+        }
+
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "hedged-reads");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
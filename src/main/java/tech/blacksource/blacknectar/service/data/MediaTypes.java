@@ -23,5 +23,7 @@ package tech.blacksource.blacknectar.service.data;
 public interface MediaTypes
 {
     String APPLICATION_JSON = "application/json";
+    String APPLICATION_NDJSON = "application/x-ndjson";
+    String APPLICATION_CBOR = "application/cbor";
     String TEXT_PLAIN = "text/plain";
 }
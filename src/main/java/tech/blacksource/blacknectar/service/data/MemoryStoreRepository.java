@@ -16,6 +16,7 @@
 
 package tech.blacksource.blacknectar.service.data;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Predicate;
@@ -111,9 +112,10 @@ final class MemoryStoreRepository implements StoreRepository
 
         Stream<Store> stream = stores.parallelStream();
 
-        if (request.hasLimit())
+        if (request.hasDeadline())
         {
-            stream = stream.limit(request.limit);
+            request.deadline.checkNotDone();
+            stream = stream.filter(withinDeadline(request.deadline));
         }
 
         if (request.hasSearchTerm())
@@ -121,7 +123,11 @@ final class MemoryStoreRepository implements StoreRepository
             stream = stream.filter(containsInName(request.searchTerm));
         }
 
-        if (request.hasCenter())
+        if (request.hasBoundingBox())
+        {
+            stream = stream.filter(inside(request.boundingBox));
+        }
+        else if (request.hasCenter())
         {
             if (request.hasRadius())
             {
@@ -138,6 +144,23 @@ final class MemoryStoreRepository implements StoreRepository
             stream = stream.filter(hasZipCode(request.zipCode));
         }
 
+        if (request.hasBoundingBox())
+        {
+            return ViewportSampling.sample(stream.collect(toList()), request.boundingBox, Math.max(request.limit, 0));
+        }
+
+        if (request.hasCenter())
+        {
+            //Nearest stores first, same as the SQL queries.
+            stream = stream.sorted(closestTo(request.center));
+        }
+
+        //The limit must come after the filters, otherwise it cuts off matching stores.
+        if (request.hasLimit())
+        {
+            stream = stream.limit(request.limit);
+        }
+
         return stream.collect(toList());
     }
 
@@ -174,6 +197,28 @@ final class MemoryStoreRepository implements StoreRepository
         };
     }
 
+    private Predicate<Store> inside(BoundingBox box)
+    {
+        return store -> box.contains(store.getLocation());
+    }
+
+    /**
+     * Stops the scan by throwing once the deadline passes or is cancelled.
+     */
+    private Predicate<Store> withinDeadline(Deadline deadline)
+    {
+        return store ->
+        {
+            deadline.checkNotDone();
+            return true;
+        };
+    }
+
+    private Comparator<Store> closestTo(Location center)
+    {
+        return Comparator.comparingDouble(store -> distanceFormula.distanceBetween(store.getLocation(), center));
+    }
+
     private Predicate<Store> containsInName(String term)
     {
         return store ->
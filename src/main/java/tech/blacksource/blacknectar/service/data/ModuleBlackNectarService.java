@@ -19,6 +19,7 @@ package tech.blacksource.blacknectar.service.data;
 
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Scopes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.blacksource.blacknectar.service.images.ImageRepository;
@@ -35,8 +36,14 @@ public final class ModuleBlackNectarService extends AbstractModule
     protected void configure()
     {
         bind(ImageRepository.class).to(SQLImageRepository.class).asEagerSingleton();
-        bind(StoreRepository.class).to(SQLStoreRepository.class).asEagerSingleton();
+        bind(SQLStoreRepository.class).asEagerSingleton();
+        bind(CircuitBreakerStoreRepository.class).asEagerSingleton();
+        bind(CellCachedStoreRepository.class).asEagerSingleton();
+        bind(StoreRepository.class).to(CoalescingStoreRepository.class).asEagerSingleton();
+        bind(WriteBehindStoreRepository.class).in(Scopes.SINGLETON);
+        bind(StoreRepository.class).annotatedWith(WriteBehind.class).to(WriteBehindStoreRepository.class);
         bind(SQLStoreMapper.class).asEagerSingleton();
+        bind(DatasetVersion.class).asEagerSingleton();
         bind(GeoCalculator.class).toInstance(GeoCalculator.HARVESINE);
         bind(StoreDataSource.class).asEagerSingleton();
 
@@ -24,11 +24,12 @@ import javax.inject.Inject;
 import com.google.inject.ImplementedBy;
 import org.springframework.jdbc.core.RowMapper;
 import tech.blacksource.blacknectar.service.images.Image;
+import tech.blacksource.blacknectar.service.images.ImageIds;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
-import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.falseStatement;
 
 /**
  * @author SirWellington
@@ -70,10 +71,12 @@ public interface SQLImageMapper extends RowMapper<Image>
                 return null;
             }
 
-            String imageId = results.getString(SQLColumns.Images.IMAGE_ID);
-            checkThat(imageId)
+            long imageKey = results.getLong(SQLColumns.Images.IMAGE_ID);
+            checkThat(results.wasNull())
                     .usingMessage("results missing imageId")
-                    .is(nonEmptyString());
+                    .is(falseStatement());
+
+            String imageId = ImageIds.fromKey(imageKey);
 
             UUID storeId = results.getObject(SQLColumns.Images.STORE_ID, UUID.class);
             checkThat(storeId)
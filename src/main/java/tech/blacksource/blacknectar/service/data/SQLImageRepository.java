@@ -29,6 +29,7 @@ import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
 import tech.blacksource.blacknectar.service.exceptions.*;
 import tech.blacksource.blacknectar.service.images.Image;
+import tech.blacksource.blacknectar.service.images.ImageIds;
 import tech.blacksource.blacknectar.service.images.ImageRepository;
 
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
@@ -36,6 +37,12 @@ import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull
 import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
 
 /**
+ * Stores Images in the {@code Store_Images} table, keyed by the {@linkplain ImageIds 64-bit hash} of their ID.
+ * <p>
+ * Each Store's Cover image, in {@code Store_Cover_Images}, is kept up to date by triggers on {@code Store_Images}
+ * (see {@code create_store_cover_image_triggers.sql}), so that Images loaded by the scripts get their Covers too.
+ * Every change here is a single statement, and its Cover changes along with it.
+ *
  * @author SirWellington
  */
 final class SQLImageRepository implements ImageRepository
@@ -163,7 +170,7 @@ final class SQLImageRepository implements ImageRepository
 
         database.update(insertStatement,
                         image.getStoreId(),
-                        image.getImageId(),
+                        ImageIds.toKey(image.getImageId()),
                         image.getHeight(),
                         image.getWidth(),
                         image.getSizeInBytes(),
@@ -177,7 +184,7 @@ final class SQLImageRepository implements ImageRepository
     {
         String query = SQLQueries.QUERY_IMAGE;
 
-        Image result = database.queryForObject(query, imageMapper, storeId, imageId);
+        Image result = database.queryForObject(query, imageMapper, storeId, ImageIds.toKey(imageId));
         checkHaveResult(result);
 
         return result;
@@ -203,8 +210,9 @@ final class SQLImageRepository implements ImageRepository
     private void _deleteImage(UUID storeId, String imageId)
     {
         String query = SQLQueries.DELETE_IMAGE;
+        long imageKey = ImageIds.toKey(imageId);
 
-        int result = database.update(query, storeId, imageId);
+        int result = database.update(query, storeId, imageKey);
 
         if (result == 0)
         {
@@ -46,6 +46,42 @@ public final class SQLQueries
 
     public static final String CREATE_ADDRESS_TABLE = loadQuery("create_addresses.sql");
     public static final String CREATE_STORES_TABLE = loadQuery("create_stores.sql");
+    public static final String CREATE_STORE_JOBS_TABLE = loadQuery("create_store_jobs.sql");
+    public static final String CREATE_DATASET_VERSION = loadQuery("create_dataset_version.sql");
+
+    //Migrations
+    public static final String ADD_CELL_ID_TO_STORES = loadQuery("add_stores_cell_id.sql");
+    public static final String ADD_LOCATION_INDEX_TO_STORES = loadQuery("add_stores_location_index.sql");
+    public static final String PARTITION_STORES_BY_STATE = loadQuery("partition_stores_by_state.sql");
+    public static final String COPY_STORES_INTO_PARTITIONS = loadQuery("copy_stores_into_partitions.sql");
+    public static final String ENFORCE_UNIQUE_STORE_IDS = loadQuery("enforce_unique_store_ids.sql");
+    public static final String HASH_IMAGE_IDS = loadQuery("hash_image_ids.sql");
+
+    //Partitions
+
+    /**
+     * A template for creating the partition of a state. Use {@link String#format(String, Object...)} to insert the
+     * state.
+     */
+    public static final String CREATE_STORES_PARTITION = loadQuery("create_stores_partition.sql");
+
+    /**
+     * A template for vacuuming one partition. Use {@link String#format(String, Object...)} to insert the partition.
+     */
+    public static final String VACUUM_STORES_PARTITION = loadQuery("vacuum_stores_partition.sql");
+
+    /**
+     * A template for reindexing one partition. Use {@link String#format(String, Object...)} to insert the partition.
+     */
+    public static final String REINDEX_STORES_PARTITION = loadQuery("reindex_stores_partition.sql");
+
+    //Jobs
+    public static final String ENQUEUE_STORE_JOBS = loadQuery("enqueue_store_jobs.sql");
+    public static final String CLAIM_STORE_JOBS = loadQuery("claim_store_jobs.sql");
+    public static final String COMPLETE_STORE_JOB = loadQuery("complete_store_job.sql");
+    public static final String FAIL_STORE_JOB = loadQuery("fail_store_job.sql");
+    public static final String FAIL_EXPIRED_STORE_JOBS = loadQuery("fail_expired_store_jobs.sql");
+    public static final String REQUEUE_STORE_JOBS = loadQuery("requeue_store_jobs.sql");
 
     //Counts
     public static final String CONTAINS_STORE = loadQuery("contains_store.sql");
@@ -71,11 +107,35 @@ public final class SQLQueries
     public static final String QUERY_STORES_WITH_NAME_AND_LOCATION = loadQuery("query_stores_with_name_and_location.sql");
     public static final String QUERY_STORES_WITH_NAME_AND_ZIPCODE = loadQuery("query_stores_with_name_and_zipcode.sql");
 
+    public static final String QUERY_STORES_IN_CELLS = loadQuery("query_stores_in_cells.sql");
+    public static final String QUERY_STORES_WITH_NAME_IN_CELLS = loadQuery("query_stores_with_name_in_cells.sql");
+    public static final String QUERY_STORES_WITHOUT_CELL_ID = loadQuery("query_stores_without_cell_id.sql");
+
+    public static final String QUERY_STORES_IN_BOX = loadQuery("query_stores_in_box.sql");
+    public static final String QUERY_STORES_WITH_NAME_IN_BOX = loadQuery("query_stores_with_name_in_box.sql");
+
+    public static final String QUERY_DATASET_VERSION = loadQuery("query_dataset_version.sql");
+
+    public static final String QUERY_STORES_PARTITIONS = loadQuery("query_stores_partitions.sql");
+    public static final String QUERY_STORE_STATE_BOUNDS = loadQuery("query_store_state_bounds.sql");
+    public static final String QUERY_STORE_ZIP_CODE_STATES = loadQuery("query_store_zip_code_states.sql");
+    public static final String QUERY_UNPARTITIONED_STORE_STATES = loadQuery("query_unpartitioned_store_states.sql");
+    public static final String QUERY_STORES_NOT_PARTITIONED = loadQuery("query_stores_not_partitioned.sql");
+
+    /**
+     * A template that wraps one of the other Store queries. Use {@link String#format(String, Object...)} to insert the
+     * query to wrap.
+     */
+    public static final String QUERY_STORES_AS_JSON = loadQuery("query_stores_as_json.sql");
+
     public static final String QUERY_IMAGE = loadQuery("query_image.sql");
     public static final String QUERY_IMAGES_FOR_STORE = loadQuery("query_images_for_store.sql");
 
     //Updates
     public static final String UPDATE_STORE = loadQuery("update_store.sql");
+    public static final String UPDATE_STORE_CELL_ID = loadQuery("update_store_cell_id.sql");
+    public static final String UPSERT_STORE = loadQuery("upsert_store.sql");
+    public static final String UPSERT_STORE_PARTITIONED = loadQuery("upsert_store_partitioned.sql");
 
     SQLQueries() throws IllegalAccessException
     {
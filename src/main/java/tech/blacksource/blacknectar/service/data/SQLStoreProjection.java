@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tech.blacksource.blacknectar.service.stores.StoreField;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.access.NonInstantiable;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+import static java.util.stream.Collectors.joining;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.trueStatement;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Narrows the Store queries down to just the {@linkplain StoreField fields} a client asked for.
+ * <p>
+ * All of the Store queries select {@code Stores.*, Store_Images.url}, which includes the {@code location} geography
+ * and every address column. When only a few fields are wanted, that select list is replaced with just the columns
+ * needed for them, and the JSON for each row is built from only those columns.
+ *
+ * @author SirWellington
+ */
+@Internal
+@NonInstantiable
+final class SQLStoreProjection
+{
+
+    private static final Pattern SELECT_ALL_COLUMNS = Pattern.compile("Stores\\.\\*,\\s*Store_Images\\.url");
+
+    private static final Map<StoreField, String> COLUMNS = new EnumMap<>(StoreField.class);
+    private static final Map<StoreField, String> JSON_EXPRESSIONS = new EnumMap<>(StoreField.class);
+
+    static
+    {
+        COLUMNS.put(StoreField.STORE_ID, "Stores.store_id");
+        COLUMNS.put(StoreField.NAME, "Stores.store_name");
+        COLUMNS.put(StoreField.STORE_CODE, "Stores.store_code");
+        COLUMNS.put(StoreField.IS_FARMERS_MARKET, "Stores.is_farmers_market");
+        COLUMNS.put(StoreField.LOCATION, "Stores.latitude, Stores.longitude");
+        COLUMNS.put(StoreField.ADDRESS, "Stores.address_line_one, Stores.address_line_two, Stores.city, Stores.state, " +
+                                        "Stores.county, Stores.zip_code, Stores.local_zip_code");
+        COLUMNS.put(StoreField.MAIN_IMAGE, "Store_Images.url");
+
+        //These match the shape of query_stores_as_json.sql
+        JSON_EXPRESSIONS.put(StoreField.STORE_ID, "jsonb_build_object('store_id', store_id)");
+        JSON_EXPRESSIONS.put(StoreField.NAME, "jsonb_build_object('store_name', store_name)");
+        JSON_EXPRESSIONS.put(StoreField.STORE_CODE,
+                             "CASE WHEN COALESCE(store_code, '') <> '' " +
+                             "THEN jsonb_build_object('store_code', store_code) ELSE '{}'::jsonb END");
+        JSON_EXPRESSIONS.put(StoreField.IS_FARMERS_MARKET,
+                             "jsonb_build_object('is_farmers_market', COALESCE(is_farmers_market, false))");
+        JSON_EXPRESSIONS.put(StoreField.LOCATION,
+                             "jsonb_build_object('location', jsonb_build_object(" +
+                             "'latitude', latitude::double precision, 'longitude', longitude::double precision))");
+        JSON_EXPRESSIONS.put(StoreField.ADDRESS,
+                             "jsonb_build_object('address', jsonb_build_object(" +
+                             "'address_line_1', address_line_one, 'city', city, 'state', state, 'county', county, " +
+                             "'zip_code', zip_code, 'local_zip_code', local_zip_code) " +
+                             "|| CASE WHEN COALESCE(address_line_two, '') <> '' " +
+                             "THEN jsonb_build_object('address_line_2', address_line_two) ELSE '{}'::jsonb END)");
+        JSON_EXPRESSIONS.put(StoreField.MAIN_IMAGE,
+                             "CASE WHEN COALESCE(url, '') <> '' " +
+                             "THEN jsonb_build_object('main_image_url', url) ELSE '{}'::jsonb END");
+    }
+
+    SQLStoreProjection() throws IllegalAccessException
+    {
+        throw new IllegalAccessException("cannot instantiate");
+    }
+
+    /**
+     * Replaces the select list of a Store query with just the columns needed for the specified fields.
+     *
+     * @param query  One of the Store queries in {@link SQLQueries}.
+     * @param fields The fields wanted.
+     * @return
+     */
+    static String selectOnly(@Required String query, @Required Set<StoreField> fields)
+    {
+        checkThat(query).is(nonEmptyString());
+        checkThat(fields).is(notNull());
+
+        String columns = fields.stream()
+                               .map(COLUMNS::get)
+                               .collect(joining(", "));
+
+        Matcher matcher = SELECT_ALL_COLUMNS.matcher(query);
+
+        checkThat(matcher.find())
+                .usingMessage("query does not select all Store columns: " + query)
+                .is(trueStatement());
+
+        return matcher.replaceFirst(Matcher.quoteReplacement(columns));
+    }
+
+    /**
+     * Wraps a narrowed Store query so that each row comes out as JSON text with only the specified fields, the same
+     * way {@link SQLQueries#QUERY_STORES_AS_JSON} does for all of them.
+     *
+     * @param query  One of the Store queries in {@link SQLQueries}.
+     * @param fields The fields wanted.
+     * @return
+     */
+    static String asJSON(@Required String query, @Required Set<StoreField> fields)
+    {
+        String json = fields.stream()
+                            .map(JSON_EXPRESSIONS::get)
+                            .collect(joining("\n\t\t|| "));
+
+        return "SELECT\n" +
+               "\t(" + json + ")::text AS store_json\n" +
+               "FROM\n" +
+               "(\n" +
+               selectOnly(query, fields) + "\n" +
+               ") AS Results";
+    }
+
+}
@@ -16,21 +16,24 @@
 
 package tech.blacksource.blacknectar.service.data;
 
-import java.sql.SQLException;
-import java.util.List;
-import java.util.UUID;
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.function.Function;
 import javax.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.*;
 import sir.wellington.alchemy.collections.lists.Lists;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
 import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
 import tech.blacksource.blacknectar.service.stores.Store;
 import tech.sirwellington.alchemy.annotations.arguments.Required;
 
+import static java.util.stream.Collectors.toList;
 import static tech.blacksource.blacknectar.service.stores.Store.validStore;
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
@@ -43,7 +46,7 @@ import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.v
  *
  * @author SirWellington
  */
-final class SQLStoreRepository implements StoreRepository
+final class SQLStoreRepository implements StoreRepository, StoreBatchWriter
 {
 
     private final static Logger LOG = LoggerFactory.getLogger(SQLStoreRepository.class);
@@ -51,18 +54,43 @@ final class SQLStoreRepository implements StoreRepository
     private final Aroma aroma;
     private final JdbcTemplate database;
     private final SQLStoreMapper storeMapper;
+    private final HedgedReads hedgedReads;
+    private final StatePartitions statePartitions;
+    private final StoreChanges storeChanges;
 
-    @Inject
     SQLStoreRepository(@Required Aroma aroma,
                        @Required JdbcTemplate database,
                        @Required SQLStoreMapper storeMapper) throws IllegalArgumentException, SQLException
     {
-        checkThat(aroma, database, storeMapper)
+        this(aroma, database, storeMapper, HedgedReads.disabled(), StatePartitions.disabled());
+    }
+
+    SQLStoreRepository(@Required Aroma aroma,
+                       @Required JdbcTemplate database,
+                       @Required SQLStoreMapper storeMapper,
+                       @Required HedgedReads hedgedReads,
+                       @Required StatePartitions statePartitions) throws IllegalArgumentException, SQLException
+    {
+        this(aroma, database, storeMapper, hedgedReads, statePartitions, new StoreChanges());
+    }
+
+    @Inject
+    SQLStoreRepository(@Required Aroma aroma,
+                       @Required JdbcTemplate database,
+                       @Required SQLStoreMapper storeMapper,
+                       @Required HedgedReads hedgedReads,
+                       @Required StatePartitions statePartitions,
+                       @Required StoreChanges storeChanges) throws IllegalArgumentException, SQLException
+    {
+        checkThat(aroma, database, storeMapper, hedgedReads, statePartitions, storeChanges)
                 .are(notNull());
 
         this.aroma = aroma;
         this.database = database;
         this.storeMapper = storeMapper;
+        this.hedgedReads = hedgedReads;
+        this.statePartitions = statePartitions;
+        this.storeChanges = storeChanges;
     }
 
     @Override
@@ -184,6 +212,11 @@ final class SQLStoreRepository implements StoreRepository
         {
             stores = findStoresBasedOfRequest(request);
         }
+        catch (DeadlineExceededException ex)
+        {
+            makeNoteThatSearchRanPastDeadline(request, ex);
+            throw ex;
+        }
         catch (DataAccessException ex)
         {
             String message = "Failed to search for stores with request: {}";
@@ -196,6 +229,66 @@ final class SQLStoreRepository implements StoreRepository
         return stores;
     }
 
+    /**
+     * Has the database build the JSON for each Store, and writes it straight to {@code out}, without creating any
+     * {@link Store} objects along the way.
+     * <p>
+     * Reads are not hedged on this path, since only one attempt can write to {@code out}.
+     */
+    @Override
+    public int searchForStoresAsJSON(BlackNectarSearchRequest request, JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        checkThat(request, out)
+                .usingMessage("request and output are required")
+                .throwing(BadArgumentException.class)
+                .are(notNull());
+
+        SearchQuery search = createSearchQueryFor(request);
+
+        try
+        {
+            out.begin();
+
+            if (search != null)
+            {
+                String query = request.hasFieldProjection()
+                               ? SQLStoreProjection.asJSON(search.sql, request.fields)
+                               : String.format(SQLQueries.QUERY_STORES_AS_JSON, search.sql);
+                RowCallbackHandler rowWriter = row -> out.writeSerialized(row.getString(1));
+
+                if (request.hasDeadline())
+                {
+                    runWithDeadline(query, request.deadline, search.arguments, statementCreator ->
+                                {
+                                    database.query(statementCreator, rowWriter);
+                                    return null;
+                                });
+                }
+                else
+                {
+                    database.query(query, search.arguments, rowWriter);
+                }
+            }
+
+            out.end();
+        }
+        catch (DeadlineExceededException ex)
+        {
+            makeNoteThatSearchRanPastDeadline(request, ex);
+            throw ex;
+        }
+        catch (DataAccessException | UncheckedIOException ex)
+        {
+            String message = "Failed to stream stores as JSON for request: {}";
+            makeNoteOfSQLError(message, request, ex);
+            throw new OperationFailedException(message, ex);
+        }
+
+        LOG.debug("Streamed {} stores as JSON for Search Request {}", out.getCount(), request);
+
+        return out.getCount();
+    }
+
     @Override
     public void deleteStore(String storeId) throws BlackNectarAPIException
     {
@@ -213,31 +306,158 @@ final class SQLStoreRepository implements StoreRepository
         }
     }
 
+    @Override
+    public List<Store> upsertStores(@Required List<Store> stores) throws BlackNectarAPIException
+    {
+        checkThat(stores)
+                .throwing(BadArgumentException.class)
+                .is(notNull());
+
+        if (stores.isEmpty())
+        {
+            return Lists.emptyList();
+        }
+
+        boolean partitioned = statePartitions.isPartitioned();
+        String statement = partitioned ? SQLQueries.UPSERT_STORE_PARTITIONED : SQLQueries.UPSERT_STORE;
+
+        //Writing the Stores one state at a time keeps each run of the batch within a single partition.
+        List<Store> sortedStores = stores.stream()
+                                         .sorted(Comparator.comparing(store -> store.getAddress().getState()))
+                                         .collect(toList());
+
+        List<Object[]> arguments = sortedStores.stream()
+                                               .map(store -> toUpsertArguments(store, partitioned))
+                                               .collect(toList());
+
+        List<Store> duplicates = Lists.create();
+
+        try
+        {
+            int[] updates = database.batchUpdate(statement, arguments);
+
+            for (int i = 0; i < updates.length && i < sortedStores.size(); ++i)
+            {
+                if (updates[i] == 0)
+                {
+                    duplicates.add(sortedStores.get(i));
+                }
+            }
+
+            stores.forEach(statePartitions::include);
+            storeChanges.storesChanged();
+        }
+        catch (DataAccessException ex)
+        {
+            String message = "Failed to upsert batch of {} stores";
+            makeNoteOfSQLError(message, stores.size(), ex);
+            throw new OperationFailedException("Could not upsert stores", ex);
+        }
+
+        aroma.begin().titled("SQL Stores Upserted")
+             .withBody("Upserted batch of {} stores. {} were duplicates and skipped.", stores.size(), duplicates.size())
+             .withPriority(Priority.LOW)
+             .send();
+
+        return duplicates;
+    }
+
+    @Override
+    public void deleteStores(@Required List<String> storeIds) throws BlackNectarAPIException
+    {
+        checkThat(storeIds)
+                .throwing(BadArgumentException.class)
+                .is(notNull());
+
+        if (storeIds.isEmpty())
+        {
+            return;
+        }
+
+        List<Object[]> arguments = storeIds.stream()
+                                           .map(UUID::fromString)
+                                           .map(storeId -> new Object[] { storeId })
+                                           .collect(toList());
+
+        try
+        {
+            database.batchUpdate(SQLQueries.DELETE_STORE, arguments);
+            storeChanges.storesChanged();
+        }
+        catch (DataAccessException ex)
+        {
+            String message = "Failed to delete batch of {} stores";
+            makeNoteOfSQLError(message, storeIds.size(), ex);
+            throw new OperationFailedException("Could not delete stores", ex);
+        }
+
+        LOG.debug("Deleted batch of {} stores", storeIds.size());
+    }
+
     private int addStoreToDatabase(Store store, JdbcTemplate database) throws DataAccessException
     {
         String insertStatement = SQLQueries.INSERT_STORE;
+
+        int inserted = database.update(insertStatement, toInsertArguments(store));
+        statePartitions.include(store);
+        storeChanges.storesChanged();
+
+        return inserted;
+    }
+
+    /**
+     * The arguments for {@link SQLQueries#UPSERT_STORE} and {@link SQLQueries#UPSERT_STORE_PARTITIONED}: the Store's
+     * name, location, and ID, to look for a duplicate of it. For a partitioned table, they are followed by the Store's ID
+     * and state, to move it out of any other state's partition. Then come the
+     * {@linkplain #toInsertArguments(Store) insert arguments}.
+     */
+    private Object[] toUpsertArguments(Store store, boolean partitioned)
+    {
+        Object[] insertArguments = toInsertArguments(store);
+        List<Object> arguments = Lists.create();
+
+        arguments.add(store.getName());
+        arguments.add(store.getLocation().getLatitude());
+        arguments.add(store.getLocation().getLongitude());
+        arguments.add(insertArguments[0]);
+
+        if (partitioned)
+        {
+            arguments.add(insertArguments[0]);
+            arguments.add(store.getAddress().getState());
+        }
+
+        arguments.addAll(Arrays.asList(insertArguments));
+
+        return arguments.toArray();
+    }
+
+    /**
+     * Creates the arguments for {@link SQLQueries#INSERT_STORE}.
+     */
+    private Object[] toInsertArguments(Store store)
+    {
         UUID storeId = UUID.fromString(store.getStoreId());
 
         double latitude = store.getLocation().getLatitude();
         double longitude = store.getLocation().getLongitude();
 
-        return database.update(insertStatement,
-                               storeId,
-                               store.getName(),
-                               store.getStoreCode(),
-                               latitude,
-                               longitude,
-                               //Remember that for ST_Point function, it is longitude(x), latitude(y).
-                               longitude,
-                               latitude,
-                               store.getAddress().getAddressLineOne(),
-                               store.getAddress().getAddressLineTwo(),
-                               store.getAddress().getCity(),
-                               store.getAddress().getState(),
-                               store.getAddress().getCounty(),
-                               store.getAddress().getZipCode(),
-                               store.getAddress().getLocalZipCode());
-
+        return new Object[] { storeId,
+                              store.getName(),
+                              store.getStoreCode(),
+                              latitude,
+                              longitude,
+                              //Remember that for ST_Point function, it is longitude(x), latitude(y).
+                              longitude,
+                              latitude,
+                              SpatialCells.cellIdOf(latitude, longitude),
+                              store.getAddress().getAddressLineOne(),
+                              store.getAddress().getAddressLineTwo(),
+                              store.getAddress().getCity(),
+                              store.getAddress().getState(),
+                              store.getAddress().getCounty(),
+                              store.getAddress().getZipCode(),
+                              store.getAddress().getLocalZipCode() };
     }
 
     private String createSQLToGetAllStores(int limit)
@@ -256,66 +476,241 @@ final class SQLStoreRepository implements StoreRepository
 
     private List<Store> findStoresBasedOfRequest(BlackNectarSearchRequest request)
     {
+        SearchQuery search = createSearchQueryFor(request);
+
+        if (search == null)
+        {
+            return Lists.emptyList();
+        }
+
+        String query = search.sql;
+        Object[] arguments = search.arguments;
+
+        if (hedgedReads.isEnabled())
+        {
+            return hedgedReads.read(database,
+                                    request.deadline,
+                                    (template, deadline) -> queryWithDeadline(template, query, deadline, arguments));
+        }
+        else if (request.hasDeadline())
+        {
+            return queryWithDeadline(database, query, request.deadline, arguments);
+        }
+        else
+        {
+            return database.query(query, storeMapper, arguments);
+        }
+    }
+
+    /**
+     * Creates the query for the request.
+     *
+     * @return The query, or {@code null} if there is nothing to search for.
+     */
+    private SearchQuery createSearchQueryFor(BlackNectarSearchRequest request)
+    {
+        List<SpatialCells.Range> cells = request.hasCenter() && !request.hasBoundingBox()
+                                         ? SpatialCells.cover(request.center, request.radiusInMeters)
+                                         : Lists.emptyList();
 
-        String query = createSQLQueryFor(request);
+        String query = createSQLQueryFor(request, cells);
+        Object[] arguments;
 
-        if (request.hasSearchTerm() && request.hasCenter())
+        if (request.hasBoundingBox())
         {
-            double latitude = request.center.getLatitude();
-            double longitude = request.center.getLongitude();
+            List<Object> boxArguments = createBoxArguments(request.boundingBox);
+
+            if (request.hasSearchTerm())
+            {
+                boxArguments.add(toSQLSearchTerm(request.searchTerm));
+            }
 
-            return database.query(query, storeMapper,
-                                  longitude,
-                                  latitude,
-                                  longitude,
-                                  latitude,
-                                  request.radiusInMeters,
-                                  toSQLSearchTerm(request.searchTerm));
+            arguments = boxArguments.toArray();
         }
         else if (request.hasCenter())
         {
-            double latitude = request.center.getLatitude();
-            double longitude = request.center.getLongitude();
+            List<Object> locationArguments = createLocationArguments(request, cells);
 
-            return database.query(query, storeMapper,
-                                  longitude,
-                                  latitude,
-                                  longitude,
-                                  latitude,
-                                  request.radiusInMeters);
+            if (request.hasSearchTerm())
+            {
+                locationArguments.add(toSQLSearchTerm(request.searchTerm));
+            }
+
+            arguments = locationArguments.toArray();
         }
         else if (request.hasZipCode() && request.hasSearchTerm())
         {
-            return database.query(query, storeMapper,
-                                  request.zipCode,
-                                  toSQLSearchTerm(request.searchTerm));
+            arguments = new Object[] { request.zipCode, toSQLSearchTerm(request.searchTerm) };
         }
         else if (request.hasZipCode())
         {
-            return database.query(query, storeMapper, request.zipCode);
+            arguments = new Object[] { request.zipCode };
         }
         else if (request.hasSearchTerm())
         {
-            return database.query(query, storeMapper, toSQLSearchTerm(request.searchTerm));
+            arguments = new Object[] { toSQLSearchTerm(request.searchTerm) };
         }
         else
         {
-            return Lists.emptyList();
+            return null;
+        }
+
+        Set<String> states = statePartitions.statesFor(request);
+
+        if (!states.isEmpty())
+        {
+            //The location queries take the center's longitude and latitude before the WHERE clause, and the box
+            //queries take the size of their grid.
+            int statesPosition = request.hasCenter() || request.hasBoundingBox() ? 2 : 0;
+
+            query = StatePartitions.restrictToStates(query, states.size());
+            arguments = insertInto(arguments, statesPosition, states.toArray());
+        }
+
+        return new SearchQuery(query, arguments);
+    }
+
+    private static Object[] insertInto(Object[] arguments, int position, Object[] newArguments)
+    {
+        Object[] result = new Object[arguments.length + newArguments.length];
+
+        System.arraycopy(arguments, 0, result, 0, position);
+        System.arraycopy(newArguments, 0, result, position, newArguments.length);
+        System.arraycopy(arguments, position, result, position + newArguments.length, arguments.length - position);
+
+        return result;
+    }
+
+    /**
+     * Runs the query with a JDBC statement timeout that matches the time left on the deadline. If the deadline is
+     * cancelled while the query is running, for example because the client went away, the statement is cancelled too.
+     */
+    private List<Store> queryWithDeadline(JdbcTemplate database,
+                                          String query,
+                                          Deadline deadline,
+                                          Object[] arguments) throws DeadlineExceededException
+    {
+        return runWithDeadline(query, deadline, arguments, statementCreator -> database.query(statementCreator, storeMapper));
+    }
+
+    private <T> T runWithDeadline(String query,
+                                  Deadline deadline,
+                                  Object[] arguments,
+                                  Function<PreparedStatementCreator, T> run) throws DeadlineExceededException
+    {
+        deadline.checkNotDone();
+
+        PreparedStatementSetter argumentSetter = new ArgumentPreparedStatementSetter(arguments);
+
+        PreparedStatementCreator statementCreator = connection ->
+        {
+            PreparedStatement statement = connection.prepareStatement(query);
+            argumentSetter.setValues(statement);
+            statement.setQueryTimeout(deadline.remainingSecondsRoundedUp());
+
+            deadline.onCancel(() -> tryToCancel(statement));
+
+            return statement;
+        };
+
+        try
+        {
+            return run.apply(statementCreator);
+        }
+        catch (DataAccessException ex)
+        {
+            if (deadline.isDone())
+            {
+                throw new DeadlineExceededException("Query stopped at deadline: " + query, ex);
+            }
+
+            throw ex;
+        }
+        finally
+        {
+            deadline.clearCancelHook();
+        }
+    }
+
+    private void tryToCancel(Statement statement)
+    {
+        try
+        {
+            statement.cancel();
+        }
+        catch (SQLException ex)
+        {
+            LOG.warn("Failed to cancel SQL Statement", ex);
+        }
+    }
+
+    /**
+     * Creates the arguments for a location query. If the search area could be covered with cells, the cell ranges are
+     * included, padded out to {@link SpatialCells#MAX_RANGES} by repeating the last one.
+     */
+    private List<Object> createLocationArguments(BlackNectarSearchRequest request, List<SpatialCells.Range> cells)
+    {
+        double latitude = request.center.getLatitude();
+        double longitude = request.center.getLongitude();
+
+        List<Object> arguments = Lists.create();
+        arguments.add(longitude);
+        arguments.add(latitude);
+
+        if (!cells.isEmpty())
+        {
+            for (int i = 0; i < SpatialCells.MAX_RANGES; ++i)
+            {
+                SpatialCells.Range range = cells.get(Math.min(i, cells.size() - 1));
+                arguments.add(range.getFirst());
+                arguments.add(range.getLast());
+            }
         }
 
+        arguments.add(longitude);
+        arguments.add(latitude);
+        arguments.add(request.radiusInMeters);
+
+        return arguments;
     }
 
-    private String createSQLQueryFor(BlackNectarSearchRequest request)
+    /**
+     * Creates the arguments for a box query: the size of the {@linkplain ViewportSampling sampling grid}, then the box.
+     */
+    private List<Object> createBoxArguments(BoundingBox box)
+    {
+        List<Object> arguments = Lists.create();
+        arguments.add(ViewportSampling.cellWidthOf(box));
+        arguments.add(ViewportSampling.cellHeightOf(box));
+        arguments.add(box.getMinLongitude());
+        arguments.add(box.getMinLatitude());
+        arguments.add(box.getMaxLongitude());
+        arguments.add(box.getMaxLatitude());
+
+        return arguments;
+    }
+
+    private String createSQLQueryFor(BlackNectarSearchRequest request, List<SpatialCells.Range> cells)
     {
         String query = "";
 
-        if (request.hasSearchTerm() && request.hasCenter())
+        if (request.hasBoundingBox())
+        {
+            query = request.hasSearchTerm()
+                    ? SQLQueries.QUERY_STORES_WITH_NAME_IN_BOX
+                    : SQLQueries.QUERY_STORES_IN_BOX;
+        }
+        else if (request.hasSearchTerm() && request.hasCenter())
         {
-            query = SQLQueries.QUERY_STORES_WITH_NAME_AND_LOCATION;
+            query = cells.isEmpty()
+                    ? SQLQueries.QUERY_STORES_WITH_NAME_AND_LOCATION
+                    : SQLQueries.QUERY_STORES_WITH_NAME_IN_CELLS;
         }
         else if (request.hasCenter())
         {
-            query = SQLQueries.QUERY_STORES_WITH_LOCATION;
+            query = cells.isEmpty()
+                    ? SQLQueries.QUERY_STORES_WITH_LOCATION
+                    : SQLQueries.QUERY_STORES_IN_CELLS;
         }
         else if (request.hasZipCode() && request.hasSearchTerm())
         {
@@ -349,6 +744,7 @@ final class SQLStoreRepository implements StoreRepository
 
         UUID storeUuid = UUID.fromString(storeId);
         int rowsAffected = database.update(deleteStatement, storeUuid);
+        storeChanges.storesChanged();
 
         LOG.debug("Delete Store with ID [{}] resulted in {} rows affected", storeId, rowsAffected);
     }
@@ -375,6 +771,17 @@ final class SQLStoreRepository implements StoreRepository
              .send();
     }
 
+    private void makeNoteThatSearchRanPastDeadline(BlackNectarSearchRequest request, DeadlineExceededException ex)
+    {
+        String message = "Search for stores stopped at deadline: {} | {}";
+        LOG.warn(message, request, ex.getMessage());
+
+        aroma.begin().titled("SQL Deadline Exceeded")
+             .withBody(message, request, ex.getMessage())
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
     private void makeNoteOfSQLError(String message, Object... args)
     {
         aroma.begin().titled("SQL Failed")
@@ -412,6 +819,7 @@ final class SQLStoreRepository implements StoreRepository
                         //For the ST_Point function, parameters are longitude,latitude.
                         longitude,
                         latitude,
+                        SpatialCells.cellIdOf(latitude, longitude),
                         store.getAddress().getAddressLineOne(),
                         store.getAddress().getAddressLineTwo(),
                         store.getAddress().getCity(),
@@ -420,6 +828,25 @@ final class SQLStoreRepository implements StoreRepository
                         store.getAddress().getZipCode(),
                         store.getAddress().getLocalZipCode(),
                         storeId);
+
+        statePartitions.include(store);
+        storeChanges.storesChanged();
+    }
+
+    /**
+     * A search query, and the arguments to run it with.
+     */
+    private static final class SearchQuery
+    {
+
+        private final String sql;
+        private final Object[] arguments;
+
+        SearchQuery(String sql, Object[] arguments)
+        {
+            this.sql = sql;
+            this.arguments = arguments;
+        }
     }
 
 }
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.sirwellington.alchemy.annotations.access.NonInstantiable;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+import static tech.blacksource.blacknectar.service.stores.Location.validLocation;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.*;
+
+/**
+ * Divides the globe into a grid of cells, and gives each cell a 64-bit ID.
+ * <p>
+ * A cell ID interleaves the bits of the quantized longitude and latitude (a Z-order curve), so the cells inside a
+ * larger cell make up one contiguous range of IDs. This lets a radius search be narrowed down to a few
+ * {@linkplain #cover(Location, double) ranges} of a B-tree indexed column before running the exact distance check.
+ * The IDs never change for a given location, so they also make good cache keys.
+ *
+ * @author SirWellington
+ */
+@NonInstantiable
+public final class SpatialCells
+{
+
+    /**
+     * The number of bits per axis in a cell ID. Two axes makes 62 bits, so cell IDs are never negative.
+     */
+    public static final int MAX_LEVEL = 31;
+
+    /**
+     * {@link #cover(Location, double)} never returns more ranges than this.
+     */
+    public static final int MAX_RANGES = 4;
+
+    /**
+     * The shortest length of one degree of latitude, at the equator. Using the shortest length makes the covered area a
+     * little larger than it needs to be, never smaller.
+     */
+    private static final double MIN_METERS_PER_DEGREE = 110_574;
+
+    private static final double SAFETY_MARGIN = 1.01;
+
+    SpatialCells() throws IllegalAccessException
+    {
+        throw new IllegalAccessException("cannot instantiate");
+    }
+
+    /**
+     * Computes the full-precision cell ID for the specified location.
+     *
+     * @param location
+     * @return
+     */
+    public static long cellIdOf(@Required Location location)
+    {
+        checkThat(location)
+                .is(notNull())
+                .is(validLocation());
+
+        return cellIdOf(location.getLatitude(), location.getLongitude());
+    }
+
+    public static long cellIdOf(double latitude, double longitude)
+    {
+        return interleave(quantizeLongitude(longitude), quantizeLatitude(latitude));
+    }
+
+    /**
+     * Computes the ID of the cell at {@code level} that contains the specified location. Lower levels are larger cells.
+     *
+     * @param location
+     * @param level    Between 0 and {@link #MAX_LEVEL}.
+     * @return
+     */
+    public static long cellIdOf(@Required Location location, int level)
+    {
+        checkLevel(level);
+
+        return cellIdOf(location) >>> (2 * (MAX_LEVEL - level));
+    }
+
+    /**
+     * Finds the ranges of cell IDs that cover a circle around the {@code center}. Every location within
+     * {@code radiusInMeters} of the center has a cell ID within one of the ranges, but the ranges may also include
+     * locations that are a little further away.
+     *
+     * @param center
+     * @param radiusInMeters Must be {@code >= 0}.
+     * @return Between 1 and {@link #MAX_RANGES} ranges, or an empty list if the circle crosses a pole or the
+     *         180th meridian, in which case the cells cannot be used.
+     */
+    public static List<Range> cover(@Required Location center, double radiusInMeters)
+    {
+        checkThat(center)
+                .is(notNull())
+                .is(validLocation());
+
+        checkThat(radiusInMeters)
+                .is(greaterThanOrEqualTo(0.0));
+
+        double[] box = boxAround(center, radiusInMeters);
+
+        if (box == null)
+        {
+            return Collections.emptyList();
+        }
+
+        double minLatitude = box[0];
+        double maxLatitude = box[1];
+        double minLongitude = box[2];
+        double maxLongitude = box[3];
+        double latitudeDelta = (maxLatitude - minLatitude) / 2;
+        double longitudeDelta = (maxLongitude - minLongitude) / 2;
+
+        int level = levelThatFits(2 * latitudeDelta, 2 * longitudeDelta);
+        int shift = MAX_LEVEL - level;
+
+        long minX = quantizeLongitude(minLongitude) >>> shift;
+        long maxX = quantizeLongitude(maxLongitude) >>> shift;
+        long minY = quantizeLatitude(minLatitude) >>> shift;
+        long maxY = quantizeLatitude(maxLatitude) >>> shift;
+
+        List<Range> ranges = new ArrayList<>();
+
+        for (long x = minX; x <= maxX; ++x)
+        {
+            for (long y = minY; y <= maxY; ++y)
+            {
+                long prefix = interleave(x, y);
+                long first = prefix << (2 * shift);
+                long last = ((prefix + 1) << (2 * shift)) - 1;
+
+                ranges.add(new Range(first, last));
+            }
+        }
+
+        return merge(ranges);
+    }
+
+    /**
+     * Finds the cells at {@code level} that together cover a circle around the {@code center}.
+     *
+     * @param level          Between 0 and {@link #MAX_LEVEL}.
+     * @param center
+     * @param radiusInMeters Must be {@code >= 0}.
+     * @return The IDs of the cells, in the same form as {@link #cellIdOf(Location, int)}, or an empty list if the
+     *         circle crosses a pole or the 180th meridian.
+     */
+    public static List<Long> cellsAt(int level, @Required Location center, double radiusInMeters)
+    {
+        checkLevel(level);
+
+        checkThat(center)
+                .is(notNull())
+                .is(validLocation());
+
+        checkThat(radiusInMeters)
+                .is(greaterThanOrEqualTo(0.0));
+
+        double[] box = boxAround(center, radiusInMeters);
+
+        if (box == null)
+        {
+            return Collections.emptyList();
+        }
+
+        return cellsAt(level, box[0], box[1], box[2], box[3]);
+    }
+
+    /**
+     * Finds the cells at {@code level} that together cover a box.
+     *
+     * @param level Between 0 and {@link #MAX_LEVEL}.
+     * @param box
+     * @return The IDs of the cells, in the same form as {@link #cellIdOf(Location, int)}.
+     */
+    public static List<Long> cellsAt(int level, @Required BoundingBox box)
+    {
+        checkLevel(level);
+        checkThat(box).is(notNull());
+
+        return cellsAt(level, box.getMinLatitude(), box.getMaxLatitude(), box.getMinLongitude(), box.getMaxLongitude());
+    }
+
+    private static List<Long> cellsAt(int level,
+                                      double minLatitude,
+                                      double maxLatitude,
+                                      double minLongitude,
+                                      double maxLongitude)
+    {
+        int shift = MAX_LEVEL - level;
+
+        long minX = quantizeLongitude(minLongitude) >>> shift;
+        long maxX = quantizeLongitude(maxLongitude) >>> shift;
+        long minY = quantizeLatitude(minLatitude) >>> shift;
+        long maxY = quantizeLatitude(maxLatitude) >>> shift;
+
+        List<Long> cells = new ArrayList<>();
+
+        for (long x = minX; x <= maxX; ++x)
+        {
+            for (long y = minY; y <= maxY; ++y)
+            {
+                cells.add(interleave(x, y));
+            }
+        }
+
+        return cells;
+    }
+
+    /**
+     * Finds the south-west corner of a cell. The cell spans {@link #latitudeSpanOf(int)} degrees north, and
+     * {@link #longitudeSpanOf(int)} degrees east, of it.
+     *
+     * @param cellId The ID of the cell, as returned by {@link #cellIdOf(Location, int)}.
+     * @param level  The level of the cell.
+     * @return
+     */
+    public static Location cornerOf(long cellId, int level)
+    {
+        checkLevel(level);
+
+        long x = compact(cellId);
+        long y = compact(cellId >>> 1);
+
+        return Location.with(y * latitudeSpanOf(level) - 90, x * longitudeSpanOf(level) - 180);
+    }
+
+    public static double latitudeSpanOf(int level)
+    {
+        return 180.0 / (1L << level);
+    }
+
+    public static double longitudeSpanOf(int level)
+    {
+        return 360.0 / (1L << level);
+    }
+
+    private static void checkLevel(int level)
+    {
+        checkThat(level)
+                .usingMessage("level must be between 0 and " + MAX_LEVEL)
+                .is(greaterThanOrEqualTo(0))
+                .is(lessThanOrEqualTo(MAX_LEVEL));
+    }
+
+    /**
+     * Finds the box of latitudes and longitudes around a circle.
+     *
+     * @return {@code [minLatitude, maxLatitude, minLongitude, maxLongitude]}, or {@code null} if the circle crosses a
+     *         pole or the 180th meridian.
+     */
+    private static double[] boxAround(Location center, double radiusInMeters)
+    {
+        double latitude = center.getLatitude();
+        double longitude = center.getLongitude();
+
+        double latitudeDelta = SAFETY_MARGIN * radiusInMeters / MIN_METERS_PER_DEGREE;
+        double longitudeDelta = SAFETY_MARGIN * radiusInMeters / (MIN_METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+
+        double minLatitude = latitude - latitudeDelta;
+        double maxLatitude = latitude + latitudeDelta;
+        double minLongitude = longitude - longitudeDelta;
+        double maxLongitude = longitude + longitudeDelta;
+
+        if (minLatitude < -90 || maxLatitude > 90 || minLongitude < -180 || maxLongitude > 180)
+        {
+            return null;
+        }
+
+        return new double[] { minLatitude, maxLatitude, minLongitude, maxLongitude };
+    }
+
+    /**
+     * Finds the smallest cells that are at least as large as the specified box, so that the box touches at most two
+     * cells along each axis.
+     */
+    private static int levelThatFits(double latitudeSpan, double longitudeSpan)
+    {
+        int level = MAX_LEVEL;
+
+        while (level > 0 && (180.0 / (1L << level) < latitudeSpan || 360.0 / (1L << level) < longitudeSpan))
+        {
+            --level;
+        }
+
+        return level;
+    }
+
+    private static List<Range> merge(List<Range> ranges)
+    {
+        ranges.sort(Comparator.comparingLong(Range::getFirst));
+
+        LinkedList<Range> merged = new LinkedList<>();
+
+        for (Range range : ranges)
+        {
+            if (!merged.isEmpty() && merged.getLast().getLast() + 1 >= range.getFirst())
+            {
+                Range previous = merged.removeLast();
+                merged.add(new Range(previous.getFirst(), Math.max(previous.getLast(), range.getLast())));
+            }
+            else
+            {
+                merged.add(range);
+            }
+        }
+
+        return new ArrayList<>(merged);
+    }
+
+    private static long quantizeLatitude(double latitude)
+    {
+        return quantize(latitude + 90, 180);
+    }
+
+    private static long quantizeLongitude(double longitude)
+    {
+        return quantize(longitude + 180, 360);
+    }
+
+    private static long quantize(double offset, double span)
+    {
+        long cells = 1L << MAX_LEVEL;
+        long cell = (long) Math.floor(offset / span * cells);
+
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    private static long interleave(long x, long y)
+    {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * The reverse of {@link #spread(long)}: gathers the even bits of {@code value} into the lower 31 bits.
+     */
+    private static long compact(long value)
+    {
+        long result = value & 0x5555555555555555L;
+        result = (result | (result >>> 1)) & 0x3333333333333333L;
+        result = (result | (result >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        result = (result | (result >>> 4)) & 0x00FF00FF00FF00FFL;
+        result = (result | (result >>> 8)) & 0x0000FFFF0000FFFFL;
+        result = (result | (result >>> 16)) & 0x00000000FFFFFFFFL;
+
+        return result;
+    }
+
+    /**
+     * Spreads the lower 31 bits of {@code value} out into the even bits of the result.
+     */
+    private static long spread(long value)
+    {
+        long result = value & 0x7FFFFFFFL;
+        result = (result | (result << 16)) & 0x0000FFFF0000FFFFL;
+        result = (result | (result << 8)) & 0x00FF00FF00FF00FFL;
+        result = (result | (result << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        result = (result | (result << 2)) & 0x3333333333333333L;
+        result = (result | (result << 1)) & 0x5555555555555555L;
+
+        return result;
+    }
+
+    /**
+     * An inclusive range of cell IDs.
+     */
+    public static final class Range
+    {
+
+        private final long first;
+        private final long last;
+
+        Range(long first, long last)
+        {
+            this.first = first;
+            this.last = last;
+        }
+
+        public long getFirst()
+        {
+            return first;
+        }
+
+        public long getLast()
+        {
+            return last;
+        }
+
+        public boolean contains(long cellId)
+        {
+            return cellId >= first && cellId <= last;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(first, last);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass())
+            {
+                return false;
+            }
+
+            Range other = (Range) obj;
+            return this.first == other.first && this.last == other.last;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Range{" + "first=" + first + ", last=" + last + '}';
+        }
+
+    }
+
+}
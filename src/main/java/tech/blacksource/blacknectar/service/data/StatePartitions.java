@@ -0,0 +1,375 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import sir.wellington.alchemy.collections.sets.Sets;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static java.util.stream.Collectors.joining;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.trueStatement;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Keeps track of whether the Stores table is partitioned by state, and works out which states a search can be
+ * narrowed down to, so that PostgreSQL can skip the partitions of every other state.
+ * <p>
+ * A zip code search is narrowed to the states that zip code has Stores in. A location search is narrowed to the
+ * states whose Stores lie within reach of the search circle. Both are learned from the Stores themselves.
+ * <p>
+ * Stores written by this process widen what is known as they are written. Stores written by other processes, like
+ * the scripts, are only learned once the {@link DatasetVersion} notices the change, and the states are
+ * {@linkplain StoreChanges reloaded}. Until then, which is a few seconds, a search may be narrowed to miss a Store
+ * that landed outside of what was known about its state. When a search can't be narrowed, all partitions are
+ * searched, just like before.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+final class StatePartitions
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(StatePartitions.class);
+
+    /**
+     * How often the partitions, and the states of the Stores, are reloaded from the database. This picks up Stores
+     * that were written by other processes, like the scripts.
+     */
+    static final long REFRESH_INTERVAL_MINUTES = 10;
+
+    /**
+     * How long to wait after the Stores change before reloading, so that a burst of changes causes a single reload.
+     */
+    static final long CHANGE_DELAY_SECONDS = 1;
+
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private static final String WHERE = "\nWHERE ";
+
+    private final JdbcTemplate database;
+    private final Map<String, Bounds> stateBounds = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> zipCodeStates = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+    private volatile boolean partitioned = false;
+
+    @Inject
+    StatePartitions(JdbcTemplate database, StoreChanges storeChanges)
+    {
+        this(database, storeChanges, Executors.newSingleThreadScheduledExecutor(StatePartitions::newDaemonThread));
+    }
+
+    StatePartitions(@Required JdbcTemplate database,
+                    @Required StoreChanges storeChanges,
+                    @Required ScheduledExecutorService scheduler)
+    {
+        checkThat(database, storeChanges, scheduler).are(notNull());
+
+        this.database = database;
+
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, REFRESH_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        storeChanges.addListener(() -> refreshSoon(scheduler));
+    }
+
+    private StatePartitions()
+    {
+        this.database = null;
+    }
+
+    /**
+     * @return An instance that never narrows searches, for when the Stores table is not partitioned.
+     */
+    static StatePartitions disabled()
+    {
+        return new StatePartitions();
+    }
+
+    boolean isPartitioned()
+    {
+        return partitioned;
+    }
+
+    /**
+     * Works out which states the results of a search can be in.
+     *
+     * @param request The search.
+     * @return The states to search, or an empty set if the search can't be narrowed down.
+     */
+    Set<String> statesFor(@Required BlackNectarSearchRequest request)
+    {
+        checkThat(request).is(notNull());
+
+        if (!partitioned)
+        {
+            return Collections.emptySet();
+        }
+
+        if (request.hasZipCode())
+        {
+            Set<String> states = zipCodeStates.get(request.zipCode);
+            return states == null ? Collections.emptySet() : Sets.copyOf(states);
+        }
+
+        if (request.hasBoundingBox())
+        {
+            BoundingBox box = request.boundingBox;
+
+            return statesIntersecting(new Bounds(box.getMinLatitude(),
+                                                 box.getMaxLatitude(),
+                                                 box.getMinLongitude(),
+                                                 box.getMaxLongitude()));
+        }
+
+        if (request.hasCenter())
+        {
+            return statesNear(request.center, request.radiusInMeters);
+        }
+
+        return Collections.emptySet();
+    }
+
+    /**
+     * Widens what is known about the states with the specified Store. Call this whenever a Store is written, so that
+     * searches made here afterwards are not narrowed to miss it.
+     *
+     * @param store The Store that was written.
+     */
+    void include(@Required Store store)
+    {
+        checkThat(store).is(notNull());
+
+        if (database == null)
+        {
+            return;
+        }
+
+        String state = store.getAddress().getState();
+        Location location = store.getLocation();
+
+        include(state, store.getAddress().getZipCode());
+        include(state, Bounds.of(location.getLatitude(), location.getLongitude()));
+    }
+
+    /**
+     * Reloads the partitions of the Stores table, and the states of the Stores, from the database.
+     */
+    void refresh()
+    {
+        if (database == null)
+        {
+            return;
+        }
+
+        try
+        {
+            List<String> partitions = database.queryForList(SQLQueries.QUERY_STORES_PARTITIONS, String.class);
+            boolean isPartitioned = partitions != null && !partitions.isEmpty();
+
+            if (isPartitioned)
+            {
+                loadStates();
+            }
+
+            if (isPartitioned != partitioned)
+            {
+                LOG.info("Stores table is {}partitioned by state: {}", isPartitioned ? "" : "not ", partitions);
+            }
+
+            partitioned = isPartitioned;
+        }
+        catch (DataAccessException ex)
+        {
+            //Stop narrowing searches until we know more; searching all the partitions is always correct.
+            partitioned = false;
+            LOG.warn("Failed to load the partitions of the Stores table", ex);
+        }
+    }
+
+    private void refreshSoon(ScheduledExecutorService scheduler)
+    {
+        if (!refreshPending.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        scheduler.schedule(() ->
+        {
+            refreshPending.set(false);
+            refresh();
+        }, CHANGE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds a {@code state IN (...)} condition to the start of the WHERE clause of one of the Store queries.
+     * The arguments for the states have to be inserted before the arguments for the rest of the WHERE clause.
+     *
+     * @param query  One of the Store queries in {@link SQLQueries}.
+     * @param states The number of states to search.
+     * @return
+     */
+    static String restrictToStates(@Required String query, int states)
+    {
+        checkThat(query).is(nonEmptyString());
+        checkThat(states).is(greaterThan(0));
+
+        int where = query.indexOf(WHERE);
+
+        checkThat(where >= 0)
+                .usingMessage("query has no WHERE clause: " + query)
+                .is(trueStatement());
+
+        String placeholders = Collections.nCopies(states, "?")
+                                         .stream()
+                                         .collect(joining(", "));
+
+        int conditionsStart = where + WHERE.length();
+
+        return query.substring(0, conditionsStart) +
+               "Stores.state IN (" + placeholders + ") AND " +
+               query.substring(conditionsStart);
+    }
+
+    private void loadStates()
+    {
+        database.query(SQLQueries.QUERY_STORE_STATE_BOUNDS, row ->
+                   {
+                       Bounds bounds = new Bounds(row.getDouble("min_latitude"),
+                                                  row.getDouble("max_latitude"),
+                                                  row.getDouble("min_longitude"),
+                                                  row.getDouble("max_longitude"));
+
+                       include(row.getString("state"), bounds);
+                   });
+
+        database.query(SQLQueries.QUERY_STORE_ZIP_CODE_STATES, row ->
+                   {
+                       include(row.getString("state"), row.getString("zip_code"));
+                   });
+    }
+
+    private void include(String state, Bounds bounds)
+    {
+        stateBounds.merge(state, bounds, Bounds::union);
+    }
+
+    private void include(String state, String zipCode)
+    {
+        zipCodeStates.computeIfAbsent(zipCode, zip -> ConcurrentHashMap.newKeySet())
+                     .add(state);
+    }
+
+    private Set<String> statesNear(Location center, double radiusInMeters)
+    {
+        double latitude = center.getLatitude();
+        double longitude = center.getLongitude();
+
+        double latitudeDelta = radiusInMeters / METERS_PER_DEGREE;
+        double longitudeDelta = radiusInMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+
+        Bounds circle = new Bounds(latitude - latitudeDelta,
+                                   latitude + latitudeDelta,
+                                   longitude - longitudeDelta,
+                                   longitude + longitudeDelta);
+
+        //Circles that wrap around the 180th meridian are rare enough to just search everywhere.
+        if (circle.minLongitude < -180 || circle.maxLongitude > 180)
+        {
+            return Collections.emptySet();
+        }
+
+        return statesIntersecting(circle);
+    }
+
+    private Set<String> statesIntersecting(Bounds area)
+    {
+        Set<String> states = new HashSet<>();
+
+        stateBounds.forEach((state, bounds) ->
+        {
+            if (bounds.intersects(area))
+            {
+                states.add(state);
+            }
+        });
+
+        return states;
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "store-partitions-refresh");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * A latitude and longitude box.
+     */
+    private static final class Bounds
+    {
+
+        private final double minLatitude;
+        private final double maxLatitude;
+        private final double minLongitude;
+        private final double maxLongitude;
+
+        Bounds(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude)
+        {
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+
+        static Bounds of(double latitude, double longitude)
+        {
+            return new Bounds(latitude, latitude, longitude, longitude);
+        }
+
+        Bounds union(Bounds other)
+        {
+            return new Bounds(Math.min(minLatitude, other.minLatitude),
+                              Math.max(maxLatitude, other.maxLatitude),
+                              Math.min(minLongitude, other.minLongitude),
+                              Math.max(maxLongitude, other.maxLongitude));
+        }
+
+        boolean intersects(Bounds other)
+        {
+            return minLatitude <= other.maxLatitude &&
+                   maxLatitude >= other.minLatitude &&
+                   minLongitude <= other.maxLongitude &&
+                   maxLongitude >= other.minLongitude;
+        }
+    }
+
+}
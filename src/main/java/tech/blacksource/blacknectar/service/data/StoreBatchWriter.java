@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+
+import tech.blacksource.blacknectar.service.exceptions.BlackNectarAPIException;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+/**
+ * Writes many Stores at once, for when one statement per Store is too slow.
+ *
+ * @author SirWellington
+ */
+@Internal
+interface StoreBatchWriter
+{
+
+    /**
+     * Inserts each Store, or updates it if it already exists. A Store with the same name and location as a different
+     * Store is skipped, without failing the rest of the batch.
+     *
+     * @param stores
+     * @return The Stores that were skipped as duplicates.
+     * @throws BlackNectarAPIException If the batch could not be written. Some of it may have been written anyway.
+     */
+    List<Store> upsertStores(@Required List<Store> stores) throws BlackNectarAPIException;
+
+    /**
+     * Deletes the Stores with the specified IDs.
+     *
+     * @param storeIds
+     * @throws BlackNectarAPIException If the batch could not be written. Some of it may have been written anyway.
+     */
+    void deleteStores(@Required List<String> storeIds) throws BlackNectarAPIException;
+
+}
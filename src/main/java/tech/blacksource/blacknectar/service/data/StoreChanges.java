@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Keeps count of the changes made to the Stores, so that anything built from them, like a cached response, can tell
+ * when it is out of date.
+ * <p>
+ * Changes made by this process are seen right away. Changes made by other processes, like the scripts, are seen once
+ * the {@link DatasetVersion} notices them.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+public class StoreChanges
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(StoreChanges.class);
+
+    private final AtomicLong version = new AtomicLong();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    @Inject
+    public StoreChanges()
+    {
+    }
+
+    /**
+     * @return A number that goes up every time the Stores change.
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Registers a listener to run every time the Stores change. Listeners run on the thread that made the change, so
+     * they should be quick.
+     *
+     * @param listener
+     */
+    public void addListener(@Required Runnable listener)
+    {
+        checkThat(listener).is(notNull());
+
+        listeners.add(listener);
+    }
+
+    /**
+     * Called after Stores are added, updated, or deleted.
+     */
+    public void storesChanged()
+    {
+        version.incrementAndGet();
+
+        for (Runnable listener : listeners)
+        {
+            try
+            {
+                listener.run();
+            }
+            catch (RuntimeException ex)
+            {
+                LOG.warn("Store change listener failed", ex);
+            }
+        }
+    }
+
+}
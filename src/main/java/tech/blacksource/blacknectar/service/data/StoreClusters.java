@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.Immutable;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.*;
+
+/**
+ * A hierarchy of clusters of Stores, with one level per zoom level of a map, used to draw map tiles.
+ * <p>
+ * It is built the same way as <a href="https://github.com/mapbox/supercluster">supercluster</a>. The most detailed
+ * level holds the Stores themselves. Each level above it is built from the one below, by merging everything within
+ * {@link #RADIUS_PIXELS} pixels of a point into a single cluster at the weighted centroid of what it merged. The whole
+ * hierarchy is built up front, so {@linkplain #getTile(int, int, int) getting a tile} is just a range lookup.
+ * <p>
+ * Points are kept in Web Mercator coordinates, scaled so that the whole world is the unit square, with {@code (0, 0)}
+ * at the north-west corner. At zoom level {@code z}, tile {@code (x, y)} covers
+ * {@code [x / 2^z, (x + 1) / 2^z) x [y / 2^z, (y + 1) / 2^z)}.
+ *
+ * @author SirWellington
+ */
+@Immutable
+@ThreadSafe
+public final class StoreClusters
+{
+
+    /**
+     * The most detailed zoom level that has clusters. Tiles at deeper levels show every Store on its own.
+     */
+    public static final int MAX_CLUSTER_ZOOM = 16;
+
+    /**
+     * The deepest zoom level that tiles can be requested for.
+     */
+    public static final int MAX_ZOOM = 22;
+
+    /**
+     * Points closer than this, in pixels on the map, are merged into one cluster.
+     */
+    static final int RADIUS_PIXELS = 60;
+
+    /**
+     * The width of a tile, in pixels, that {@link #RADIUS_PIXELS} is measured against.
+     */
+    static final int TILE_SIZE_PIXELS = 512;
+
+    /**
+     * How many points a tile looks at between checks of its deadline.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1_024;
+
+    private static final Comparator<Cluster> BY_X = Comparator.comparingDouble(Cluster::getX);
+
+    /**
+     * The points at each zoom level, sorted by X. Level {@code MAX_CLUSTER_ZOOM + 1} holds the Stores.
+     */
+    private final Cluster[][] levels;
+    private final int totalStores;
+
+    private StoreClusters(Cluster[][] levels, int totalStores)
+    {
+        this.levels = levels;
+        this.totalStores = totalStores;
+    }
+
+    /**
+     * Builds the hierarchy of clusters for the specified Stores.
+     *
+     * @param stores
+     * @return
+     */
+    public static StoreClusters of(@Required Collection<Store> stores)
+    {
+        checkThat(stores).is(notNull());
+
+        Cluster[][] levels = new Cluster[MAX_CLUSTER_ZOOM + 2][];
+
+        Cluster[] points = stores.stream()
+                                 .filter(Objects::nonNull)
+                                 .map(Cluster::of)
+                                 .sorted(BY_X)
+                                 .toArray(Cluster[]::new);
+
+        levels[MAX_CLUSTER_ZOOM + 1] = points;
+
+        for (int zoom = MAX_CLUSTER_ZOOM; zoom >= 0; --zoom)
+        {
+            levels[zoom] = cluster(levels[zoom + 1], zoom);
+        }
+
+        return new StoreClusters(levels, points.length);
+    }
+
+    /**
+     * Gets the clusters and Stores inside a map tile. Each point belongs to the one tile that contains it.
+     *
+     * @param zoom From 0 to {@link #MAX_ZOOM}.
+     * @param x    From 0 to {@code 2^zoom - 1}.
+     * @param y    From 0 to {@code 2^zoom - 1}.
+     * @return The points in the tile, in no particular order. Points that stand for a single Store have
+     *         {@linkplain Cluster#getStore() the Store}.
+     */
+    public List<Cluster> getTile(int zoom, int x, int y)
+    {
+        return getTile(zoom, x, y, null);
+    }
+
+    /**
+     * Gets the clusters and Stores inside a map tile, like {@link #getTile(int, int, int)}, but stops looking once the
+     * deadline passes or is cancelled.
+     *
+     * @param deadline The deadline of the request, if any.
+     * @throws DeadlineExceededException If the deadline is done before the tile is.
+     */
+    public List<Cluster> getTile(int zoom, int x, int y, Deadline deadline) throws DeadlineExceededException
+    {
+        checkTile(zoom, x, y);
+
+        Cluster[] level = levels[Math.min(zoom, MAX_CLUSTER_ZOOM + 1)];
+
+        double tileSize = 1.0 / (1L << zoom);
+        double minX = x * tileSize;
+        double maxX = (x + 1) * tileSize;
+        double minY = y * tileSize;
+        double maxY = (y + 1) * tileSize;
+
+        List<Cluster> result = new ArrayList<>();
+        int first = firstIndexAtOrAfter(level, minX);
+
+        for (int i = first; i < level.length && level[i].x < maxX; ++i)
+        {
+            if (deadline != null && (i - first) % DEADLINE_CHECK_INTERVAL == 0)
+            {
+                deadline.checkNotDone();
+            }
+
+            Cluster point = level[i];
+
+            if (point.y >= minY && point.y < maxY)
+            {
+                result.add(point);
+            }
+        }
+
+        return result;
+    }
+
+    public int getTotalStores()
+    {
+        return totalStores;
+    }
+
+    /**
+     * Checks that a tile exists.
+     *
+     * @throws IllegalArgumentException If it doesn't.
+     */
+    public static void checkTile(int zoom, int x, int y) throws IllegalArgumentException
+    {
+        checkThat(zoom)
+                .usingMessage("zoom must be between 0 and " + MAX_ZOOM)
+                .is(greaterThanOrEqualTo(0))
+                .is(lessThanOrEqualTo(MAX_ZOOM));
+
+        int tiles = 1 << zoom;
+
+        checkThat(x, y)
+                .usingMessage("x and y must be between 0 and " + (tiles - 1) + " at zoom " + zoom)
+                .are(greaterThanOrEqualTo(0))
+                .are(lessThan(tiles));
+    }
+
+    /**
+     * Merges the points of the level below {@code zoom} into clusters. Points are visited in order of X, so the only
+     * neighbors that haven't been merged yet come after it, within the radius in X.
+     */
+    private static Cluster[] cluster(Cluster[] points, int zoom)
+    {
+        double radius = RADIUS_PIXELS / (TILE_SIZE_PIXELS * (double) (1L << zoom));
+        double radiusSquared = radius * radius;
+
+        boolean[] merged = new boolean[points.length];
+        List<Cluster> result = new ArrayList<>();
+
+        for (int i = 0; i < points.length; ++i)
+        {
+            if (merged[i])
+            {
+                continue;
+            }
+
+            merged[i] = true;
+
+            Cluster point = points[i];
+            double weightedX = point.x * point.count;
+            double weightedY = point.y * point.count;
+            int count = point.count;
+
+            for (int j = i + 1; j < points.length && points[j].x - point.x <= radius; ++j)
+            {
+                Cluster neighbor = points[j];
+
+                if (merged[j] || distanceSquared(point, neighbor) > radiusSquared)
+                {
+                    continue;
+                }
+
+                merged[j] = true;
+                weightedX += neighbor.x * neighbor.count;
+                weightedY += neighbor.y * neighbor.count;
+                count += neighbor.count;
+            }
+
+            if (count == point.count)
+            {
+                result.add(point);
+            }
+            else
+            {
+                result.add(new Cluster(weightedX / count, weightedY / count, count, null));
+            }
+        }
+
+        Cluster[] level = result.toArray(new Cluster[result.size()]);
+        Arrays.sort(level, BY_X);
+
+        return level;
+    }
+
+    private static double distanceSquared(Cluster first, Cluster second)
+    {
+        double dx = first.x - second.x;
+        double dy = first.y - second.y;
+
+        return dx * dx + dy * dy;
+    }
+
+    private static int firstIndexAtOrAfter(Cluster[] level, double x)
+    {
+        int low = 0;
+        int high = level.length;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (level[middle].x < x)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    static double xOf(double longitude)
+    {
+        return clamp(longitude / 360 + 0.5);
+    }
+
+    static double yOf(double latitude)
+    {
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+
+        return clamp(y);
+    }
+
+    static double longitudeOf(double x)
+    {
+        return (x - 0.5) * 360;
+    }
+
+    static double latitudeOf(double y)
+    {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    /**
+     * Keeps points inside the unit square, so that a Store at the edge of the world still falls inside a tile.
+     */
+    private static double clamp(double value)
+    {
+        return Math.max(0, Math.min(Math.nextDown(1.0), value));
+    }
+
+    /**
+     * A point on the map: either a group of Stores, or a single Store.
+     */
+    @Immutable
+    public static final class Cluster
+    {
+
+        private final double x;
+        private final double y;
+        private final int count;
+        private final Store store;
+
+        Cluster(double x, double y, int count, Store store)
+        {
+            this.x = x;
+            this.y = y;
+            this.count = count;
+            this.store = store;
+        }
+
+        static Cluster of(Store store)
+        {
+            Location location = store.getLocation();
+
+            return new Cluster(xOf(location.getLongitude()), yOf(location.getLatitude()), 1, store);
+        }
+
+        /**
+         * @return The X coordinate, where the whole world is {@code [0, 1)}.
+         */
+        public double getX()
+        {
+            return x;
+        }
+
+        /**
+         * @return The Y coordinate, where the whole world is {@code [0, 1)}, from north to south.
+         */
+        public double getY()
+        {
+            return y;
+        }
+
+        public double getLatitude()
+        {
+            return latitudeOf(y);
+        }
+
+        public double getLongitude()
+        {
+            return longitudeOf(x);
+        }
+
+        /**
+         * @return How many Stores this point stands for.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return The Store, if this point stands for exactly one; {@code null} otherwise.
+         */
+        public Store getStore()
+        {
+            return store;
+        }
+
+        public boolean isSingleStore()
+        {
+            return store != null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Cluster{" + "x=" + x + ", y=" + y + ", count=" + count + ", store=" + store + '}';
+        }
+
+    }
+
+}
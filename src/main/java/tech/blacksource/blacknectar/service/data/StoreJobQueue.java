@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * A queue of work to do for each Store, kept in the {@code Store_Jobs} table, so that the enrichment scripts can be
+ * run by as many workers, on as many machines, as we like.
+ * <p>
+ * Workers {@linkplain #claim(String, String, int) claim} batches of Stores with {@code FOR UPDATE SKIP LOCKED}, so no
+ * two workers get the same Store, and then mark each one {@linkplain #complete(String, Store, String) done} or
+ * {@linkplain #fail(String, Store, String, String) failed}. Failed jobs are tried again until they run out of
+ * attempts, and jobs whose worker went away are claimed again once their lease runs out. A job whose worker went
+ * away on its last attempt can't be claimed again, so it is {@linkplain #failExpired(String) marked failed} instead.
+ * <p>
+ * A job that is done stays done, so running a script again only finishes what the last run didn't. To process every
+ * Store again, for example to refresh their data, {@linkplain #requeueAll(String) requeue} the job type first. The
+ * scripts do this when they are run with {@code --rerun}.
+ *
+ * @author SirWellington
+ */
+@ThreadSafe
+public class StoreJobQueue
+{
+
+    /**
+     * How many times a job is tried before it is given up on.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * How long a worker may hold a job before another worker may claim it.
+     */
+    public static final long LEASE_SECONDS = TimeUnit.MINUTES.toSeconds(30);
+
+    private final JdbcTemplate database;
+    private final SQLStoreMapper storeMapper;
+
+    @Inject
+    StoreJobQueue(JdbcTemplate database)
+    {
+        this(database, SQLStoreMapper.INSTANCE);
+    }
+
+    StoreJobQueue(@Required JdbcTemplate database, @Required SQLStoreMapper storeMapper)
+    {
+        checkThat(database, storeMapper)
+                .are(notNull());
+
+        this.database = database;
+        this.storeMapper = storeMapper;
+    }
+
+    /**
+     * Creates the {@code Store_Jobs} table, if it isn't there already.
+     */
+    public void createTableIfMissing()
+    {
+        database.execute(SQLQueries.CREATE_STORE_JOBS_TABLE);
+    }
+
+    /**
+     * Adds a job of the specified type for every Store that doesn't have one yet. Stores that already have one, even if
+     * it is done, are left alone, so this is safe to call from every worker.
+     *
+     * @param jobType The type of job, for example "Google Data".
+     * @return The number of jobs added.
+     */
+    public int enqueueAllStores(@NonEmpty String jobType)
+    {
+        checkJobType(jobType);
+
+        return database.update(SQLQueries.ENQUEUE_STORE_JOBS, jobType);
+    }
+
+    /**
+     * Puts every job of the specified type that is done, or has failed, back in the queue with all of its attempts, so
+     * that its Store is processed again. Jobs that are running are left alone, unless their lease has run out.
+     * <p>
+     * Call this once, before the workers start. Calling it while they run makes them process Stores again that they
+     * just finished.
+     *
+     * @param jobType The type of job.
+     * @return The number of jobs put back in the queue.
+     */
+    public int requeueAll(@NonEmpty String jobType)
+    {
+        checkJobType(jobType);
+
+        return database.update(SQLQueries.REQUEUE_STORE_JOBS, jobType, LEASE_SECONDS);
+    }
+
+    /**
+     * Marks the jobs of the specified type as failed if their lease ran out on their last attempt. Their worker went
+     * away without finishing them, and with no attempts left, no other worker will claim them.
+     *
+     * @param jobType The type of job.
+     * @return The number of jobs marked as failed.
+     */
+    public int failExpired(@NonEmpty String jobType)
+    {
+        checkJobType(jobType);
+
+        return database.update(SQLQueries.FAIL_EXPIRED_STORE_JOBS,
+                               "Lease expired on the last attempt",
+                               jobType,
+                               MAX_ATTEMPTS,
+                               LEASE_SECONDS);
+    }
+
+    /**
+     * Claims up to {@code batchSize} jobs for the specified worker.
+     *
+     * @param jobType   The type of job.
+     * @param workerId  Identifies the worker. It must be unique among all workers.
+     * @param batchSize The most jobs to claim at once.
+     * @return The Stores of the claimed jobs. Empty once there is nothing left to do.
+     */
+    public List<Store> claim(@NonEmpty String jobType, @NonEmpty String workerId, int batchSize)
+    {
+        checkJobType(jobType);
+        checkWorkerId(workerId);
+
+        checkThat(batchSize)
+                .usingMessage("batchSize must be > 0")
+                .is(greaterThan(0));
+
+        List<Store> stores = database.query(SQLQueries.CLAIM_STORE_JOBS,
+                                            storeMapper,
+                                            workerId,
+                                            jobType,
+                                            MAX_ATTEMPTS,
+                                            LEASE_SECONDS,
+                                            batchSize);
+
+        return Lists.nullToEmpty(stores);
+    }
+
+    /**
+     * Marks the job of a Store as done.
+     *
+     * @return {@code false} if the worker no longer held the job, because its lease ran out and another worker claimed
+     *         it.
+     */
+    public boolean complete(@NonEmpty String jobType, @Required Store store, @NonEmpty String workerId)
+    {
+        checkJobType(jobType);
+        checkThat(store).is(notNull());
+        checkWorkerId(workerId);
+
+        int updated = database.update(SQLQueries.COMPLETE_STORE_JOB,
+                                      jobType,
+                                      UUID.fromString(store.getStoreId()),
+                                      workerId);
+
+        return updated > 0;
+    }
+
+    /**
+     * Marks the job of a Store as failed. It will be claimed again while it has attempts left.
+     *
+     * @param reason Why the job failed. Kept in the table, to help figure out what went wrong.
+     * @return {@code false} if the worker no longer held the job.
+     */
+    public boolean fail(@NonEmpty String jobType, @Required Store store, @NonEmpty String workerId, String reason)
+    {
+        checkJobType(jobType);
+        checkThat(store).is(notNull());
+        checkWorkerId(workerId);
+
+        int updated = database.update(SQLQueries.FAIL_STORE_JOB,
+                                      reason,
+                                      jobType,
+                                      UUID.fromString(store.getStoreId()),
+                                      workerId);
+
+        return updated > 0;
+    }
+
+    private void checkJobType(String jobType)
+    {
+        checkThat(jobType)
+                .usingMessage("jobType cannot be empty")
+                .is(nonEmptyString());
+    }
+
+    private void checkWorkerId(String workerId)
+    {
+        checkThat(workerId)
+                .usingMessage("workerId cannot be empty")
+                .is(nonEmptyString());
+    }
+
+}
@@ -17,14 +17,19 @@
 
 package tech.blacksource.blacknectar.service.data;
 
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.jdbc.core.JdbcTemplate;
 import sir.wellington.alchemy.collections.lists.Lists;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
 import tech.blacksource.blacknectar.service.stores.Store;
+import tech.blacksource.blacknectar.service.stores.StoreField;
 import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
 import tech.sirwellington.alchemy.annotations.arguments.Required;
 
@@ -86,6 +91,19 @@ public interface StoreRepository
      */
     List<Store> getAllStores(int limit) throws BlackNectarAPIException;
 
+    /**
+     * Get all of the EBT stores, along with whether they may be stale. Use this instead of asking
+     * {@link #isServingStaleData()} afterwards, which may have changed in the meantime.
+     * <p>
+     * Repositories that can serve stale data must override this, and decorators must pass it on.
+     *
+     * @return All of the Stores.
+     */
+    default AllStores fetchAllStores() throws BlackNectarAPIException
+    {
+        return AllStores.fresh(getAllStores());
+    }
+
     /**
      * Searches for stores that match the given criteria.
      *
@@ -95,6 +113,62 @@ public interface StoreRepository
      */
     List<Store> searchForStores(@Required BlackNectarSearchRequest request) throws BlackNectarAPIException;
 
+    /**
+     * Searches for stores that match the given criteria, and writes them to {@code out} as a JSON Array, where each
+     * element is in the format of {@link Store#asJSON()}, narrowed down to the request's
+     * {@linkplain BlackNectarSearchRequest#fields fields}.
+     *
+     * @param request
+     * @param out     Where to write the JSON to.
+     * @return The number of Stores written.
+     * @throws BlackNectarAPIException
+     * @see #searchForStoresAsJSON(BlackNectarSearchRequest, JsonStreamWriter)
+     */
+    default int searchForStoresAsJSON(@Required BlackNectarSearchRequest request, @Required Writer out) throws BlackNectarAPIException
+    {
+        checkThat(out)
+                .throwing(BadArgumentException.class)
+                .is(notNull());
+
+        return searchForStoresAsJSON(request, JsonStreamWriter.arrayTo(out));
+    }
+
+    /**
+     * Searches for stores that match the given criteria, and writes each of them to {@code out}, in the format of
+     * {@link Store#asJSON()}, narrowed down to the request's {@linkplain BlackNectarSearchRequest#fields fields}.
+     * <p>
+     * By default this just serializes the results of {@link #searchForStores(BlackNectarSearchRequest)}, but
+     * repositories may be able to do it more cheaply.
+     *
+     * @param request
+     * @param out     Where to write the Stores to. Decides whether they are written as an Array or one per line.
+     * @return The number of Stores written.
+     * @throws BlackNectarAPIException
+     */
+    default int searchForStoresAsJSON(@Required BlackNectarSearchRequest request, @Required JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        checkThat(out)
+                .throwing(BadArgumentException.class)
+                .is(notNull());
+
+        List<Store> stores = searchForStores(request);
+
+        Set<StoreField> fields = request.hasFieldProjection() ? request.fields : StoreField.ALL;
+
+        try
+        {
+            out.begin();
+            stores.forEach(store -> out.write(store.asJSON(fields)));
+            out.end();
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw new OperationFailedException("Failed to write stores", ex);
+        }
+
+        return stores.size();
+    }
+
     /**
      * Unlike {@link #addStore(tech.blacksource.blacknectar.service.stores.Store) }, this operation is for
      * updating an existing {@link Store} with new information.
@@ -136,6 +210,27 @@ public interface StoreRepository
      */
     void deleteStore(@NonEmpty String storeId) throws BlackNectarAPIException;
 
+    /**
+     * Writes any changes that are still buffered. Most repositories write changes right away, so by default this
+     * does nothing.
+     *
+     * @throws BlackNectarAPIException
+     */
+    default void flush() throws BlackNectarAPIException
+    {
+    }
+
+    /**
+     * Determines whether results from this repository may currently be stale; for example, when the database
+     * is unavailable and results are served from an in-memory copy.
+     *
+     * @return {@code true} if results may be stale, {@code false} otherwise.
+     */
+    default boolean isServingStaleData()
+    {
+        return false;
+    }
+
     /**
      * Creates a new in-memory service that performs all operations in-memory.
      * <p>
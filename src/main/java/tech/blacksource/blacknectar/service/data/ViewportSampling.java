@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.access.NonInstantiable;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+
+/**
+ * Orders the Stores found in a {@link BoundingBox}, so that cutting them off at a limit keeps a sample that is spread
+ * out across the whole box.
+ * <p>
+ * The box is divided into a {@link #GRID_SIZE} by {@link #GRID_SIZE} grid, and the Stores in each grid cell are
+ * ranked by their ID. The Stores ranked first in every cell come first, then the ones ranked second, and so on. When
+ * a large box has more Stores than the limit, a city with thousands of Stores is thinned out, while a rural county
+ * with a handful keeps all of them. When there are fewer Stores than the limit, nothing is left out.
+ * <p>
+ * {@link SQLQueries#QUERY_STORES_IN_BOX} does the same thing in the database, with the same grid.
+ *
+ * @author SirWellington
+ */
+@Internal
+@NonInstantiable
+final class ViewportSampling
+{
+
+    /**
+     * The number of grid cells along each side of the box.
+     */
+    static final int GRID_SIZE = 16;
+
+    /**
+     * Keeps the grid cells of a box with no width or height from being empty.
+     */
+    private static final double MIN_CELL_DEGREES = 0.000_001;
+
+    private static final Comparator<Store> BY_ID = Comparator.comparing(Store::getStoreId);
+
+    ViewportSampling() throws IllegalAccessException
+    {
+        throw new IllegalAccessException("cannot instantiate");
+    }
+
+    /**
+     * @return The width of a grid cell of the box, in degrees of longitude.
+     */
+    static double cellWidthOf(@Required BoundingBox box)
+    {
+        checkThat(box).is(notNull());
+
+        return Math.max(MIN_CELL_DEGREES, box.getLongitudeSpan() / GRID_SIZE);
+    }
+
+    /**
+     * @return The height of a grid cell of the box, in degrees of latitude.
+     */
+    static double cellHeightOf(@Required BoundingBox box)
+    {
+        checkThat(box).is(notNull());
+
+        return Math.max(MIN_CELL_DEGREES, box.getLatitudeSpan() / GRID_SIZE);
+    }
+
+    /**
+     * Puts the Stores in sampling order, and cuts them off at the limit.
+     *
+     * @param stores The Stores inside the box.
+     * @param box    The box that was searched.
+     * @param limit  The most Stores to keep. 0 keeps all of them.
+     * @return
+     */
+    static List<Store> sample(@Required Collection<Store> stores, @Required BoundingBox box, int limit)
+    {
+        checkThat(stores, box).are(notNull());
+        checkThat(limit).is(greaterThanOrEqualTo(0));
+
+        double cellWidth = cellWidthOf(box);
+        double cellHeight = cellHeightOf(box);
+
+        Map<List<Long>, List<Store>> cells = new HashMap<>();
+
+        for (Store store : stores)
+        {
+            Location location = store.getLocation();
+            List<Long> cell = Arrays.asList((long) Math.floor(location.getLongitude() / cellWidth),
+                                            (long) Math.floor(location.getLatitude() / cellHeight));
+
+            cells.computeIfAbsent(cell, key -> new ArrayList<>()).add(store);
+        }
+
+        Map<Store, Integer> ranks = new IdentityHashMap<>();
+
+        for (List<Store> cell : cells.values())
+        {
+            cell.sort(BY_ID);
+
+            for (int i = 0; i < cell.size(); ++i)
+            {
+                ranks.put(cell.get(i), i);
+            }
+        }
+
+        List<Store> results = new ArrayList<>(stores);
+        results.sort(Comparator.<Store>comparingInt(ranks::get).thenComparing(BY_ID));
+
+        if (limit > 0 && results.size() > limit)
+        {
+            results = new ArrayList<>(results.subList(0, limit));
+        }
+
+        return results;
+    }
+
+}
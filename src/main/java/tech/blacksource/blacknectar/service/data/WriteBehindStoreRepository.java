@@ -0,0 +1,555 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static java.util.stream.Collectors.toList;
+import static tech.blacksource.blacknectar.service.stores.Store.validStore;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.validUUID;
+
+/**
+ * A {@link StoreRepository} that buffers writes and flushes them to the database in batches.
+ * <p>
+ * Adds, updates and deletes go into a bounded buffer, keyed by Store ID, so that several writes to the same Store
+ * turn into one. The buffer is flushed when it holds {@linkplain #BATCH_SIZE enough writes}, every
+ * {@linkplain #FLUSH_INTERVAL_MILLIS second}, and when the repository is {@linkplain #close() closed}. When the buffer is
+ * full, writers wait for room.
+ * <p>
+ * Adds and updates both become upserts. A Store with the same name and location as a different Store is skipped and
+ * reported, as is a write that fails even on its own. Reads go straight to the database, so they may not see writes
+ * that are still buffered, except for {@link #containsStore(String)}. This is meant for scripts and bulk loads, where
+ * throughput matters more than reading your own writes. The Service's own {@link StoreRepository} is not buffered.
+ *
+ * @author SirWellington
+ */
+@ThreadSafe
+public final class WriteBehindStoreRepository implements StoreRepository, AutoCloseable
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(WriteBehindStoreRepository.class);
+
+    /**
+     * The most writes the buffer holds before writers have to wait.
+     */
+    static final int CAPACITY = 10_000;
+
+    /**
+     * A flush is started as soon as this many writes are buffered.
+     */
+    static final int BATCH_SIZE = 500;
+
+    static final long FLUSH_INTERVAL_MILLIS = 1_000;
+
+    /**
+     * How long a writer waits for room in a full buffer before giving up.
+     */
+    static final long MAX_WAIT_MILLIS = 30_000;
+
+    private final Aroma aroma;
+    private final StoreRepository delegate;
+    private final StoreBatchWriter batchWriter;
+    private final ScheduledExecutorService scheduler;
+    private final int capacity;
+    private final int batchSize;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+
+    /**
+     * Pending writes, by Store ID. An empty write means the Store should be deleted.
+     */
+    private final Map<String, Optional<Store>> pending = new LinkedHashMap<>();
+    private int inFlight = 0;
+    private boolean closed = false;
+
+    private final AtomicInteger storesWritten = new AtomicInteger();
+    private final AtomicInteger storesDeleted = new AtomicInteger();
+    private final AtomicInteger duplicatesSkipped = new AtomicInteger();
+    private final AtomicInteger writesDropped = new AtomicInteger();
+
+    @Inject
+    WriteBehindStoreRepository(Aroma aroma, SQLStoreRepository delegate)
+    {
+        this(aroma,
+             delegate,
+             delegate,
+             Executors.newSingleThreadScheduledExecutor(WriteBehindStoreRepository::newDaemonThread),
+             CAPACITY,
+             BATCH_SIZE);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "store-write-behind-shutdown"));
+    }
+
+    WriteBehindStoreRepository(Aroma aroma,
+                               StoreRepository delegate,
+                               StoreBatchWriter batchWriter,
+                               ScheduledExecutorService scheduler,
+                               int capacity,
+                               int batchSize)
+    {
+        checkThat(aroma, delegate, batchWriter, scheduler)
+                .are(notNull());
+
+        checkThat(capacity, batchSize)
+                .are(greaterThan(0));
+
+        this.aroma = aroma;
+        this.delegate = delegate;
+        this.batchWriter = batchWriter;
+        this.scheduler = scheduler;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+
+        scheduler.scheduleWithFixedDelay(this::flushBuffer, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addStore(@Required Store store) throws BlackNectarAPIException
+    {
+        checkThat(store)
+                .throwing(BadArgumentException.class)
+                .is(notNull())
+                .is(validStore());
+
+        enqueue(store.getStoreId(), Optional.of(store));
+    }
+
+    @Override
+    public boolean containsStore(String storeId) throws BlackNectarAPIException
+    {
+        synchronized (lock)
+        {
+            Optional<Store> write = pending.get(storeId);
+
+            if (write != null)
+            {
+                return write.isPresent();
+            }
+        }
+
+        return delegate.containsStore(storeId);
+    }
+
+    @Override
+    public List<Store> getAllStores(int limit) throws BlackNectarAPIException
+    {
+        return delegate.getAllStores(limit);
+    }
+
+    @Override
+    public AllStores fetchAllStores() throws BlackNectarAPIException
+    {
+        return delegate.fetchAllStores();
+    }
+
+    @Override
+    public List<Store> searchForStores(BlackNectarSearchRequest request) throws BlackNectarAPIException
+    {
+        return delegate.searchForStores(request);
+    }
+
+    @Override
+    public int searchForStoresAsJSON(BlackNectarSearchRequest request, JsonStreamWriter out) throws BlackNectarAPIException
+    {
+        return delegate.searchForStoresAsJSON(request, out);
+    }
+
+    @Override
+    public void updateStore(@Required Store store) throws BlackNectarAPIException
+    {
+        checkThat(store)
+                .throwing(BadArgumentException.class)
+                .is(notNull())
+                .is(validStore());
+
+        enqueue(store.getStoreId(), Optional.of(store));
+    }
+
+    @Override
+    public void deleteStore(String storeId) throws BlackNectarAPIException
+    {
+        checkThat(storeId)
+                .throwing(BadArgumentException.class)
+                .is(validUUID());
+
+        enqueue(storeId, Optional.empty());
+    }
+
+    /**
+     * @return The number of writes that have not been flushed yet.
+     */
+    public int getPendingWrites()
+    {
+        synchronized (lock)
+        {
+            return pending.size() + inFlight;
+        }
+    }
+
+    /**
+     * @return The number of Stores added or updated by flushes so far.
+     */
+    public int getStoresWritten()
+    {
+        return storesWritten.get();
+    }
+
+    /**
+     * @return The number of Stores deleted by flushes so far.
+     */
+    public int getStoresDeleted()
+    {
+        return storesDeleted.get();
+    }
+
+    /**
+     * @return The number of Stores that flushes skipped so far, because a different Store already has the same name and
+     *         location.
+     */
+    public int getDuplicatesSkipped()
+    {
+        return duplicatesSkipped.get();
+    }
+
+    /**
+     * @return The number of writes that flushes failed to make so far, even one at a time.
+     */
+    public int getWritesDropped()
+    {
+        return writesDropped.get();
+    }
+
+    /**
+     * Writes everything that is currently buffered to the database, and reports how many Stores have been written,
+     * skipped, or dropped so far. Scripts call this when they are done, so the report sums up their whole run.
+     */
+    @Override
+    public void flush()
+    {
+        flushBuffer();
+        makeNoteOfTotals();
+    }
+
+    private void flushBuffer()
+    {
+        synchronized (flushLock)
+        {
+            Map<String, Optional<Store>> writes = drain();
+
+            if (writes.isEmpty())
+            {
+                return;
+            }
+
+            try
+            {
+                write(writes);
+            }
+            finally
+            {
+                synchronized (lock)
+                {
+                    inFlight = 0;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting writes, and flushes whatever is left in the buffer.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (lock)
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            closed = true;
+            lock.notifyAll();
+        }
+
+        scheduler.shutdown();
+        flush();
+
+        LOG.info("Write-behind buffer closed and flushed");
+    }
+
+    private void enqueue(String storeId, Optional<Store> write) throws BlackNectarAPIException
+    {
+        boolean shouldFlush;
+
+        synchronized (lock)
+        {
+            long waitUntil = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+
+            while (!closed && pending.size() + inFlight >= capacity && !pending.containsKey(storeId))
+            {
+                long remaining = waitUntil - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                {
+                    throw new OperationFailedException("Write buffer is full");
+                }
+
+                try
+                {
+                    lock.wait(remaining);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new OperationFailedException("Interrupted while waiting for room in write buffer", ex);
+                }
+            }
+
+            if (closed)
+            {
+                throw new OperationFailedException("Write buffer is closed");
+            }
+
+            pending.put(storeId, write);
+            shouldFlush = pending.size() >= batchSize;
+        }
+
+        if (shouldFlush)
+        {
+            triggerFlush();
+        }
+    }
+
+    private void triggerFlush()
+    {
+        try
+        {
+            scheduler.execute(this::flushBuffer);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            LOG.debug("Could not schedule flush", ex);
+        }
+    }
+
+    private Map<String, Optional<Store>> drain()
+    {
+        synchronized (lock)
+        {
+            Map<String, Optional<Store>> writes = new LinkedHashMap<>(pending);
+            pending.clear();
+            inFlight = writes.size();
+
+            return writes;
+        }
+    }
+
+    private void write(Map<String, Optional<Store>> writes)
+    {
+        List<Store> upserts = Lists.create();
+        List<String> deletes = Lists.create();
+
+        writes.forEach((storeId, write) ->
+        {
+            if (write.isPresent())
+            {
+                upserts.add(write.get());
+            }
+            else
+            {
+                deletes.add(storeId);
+            }
+        });
+
+        long begin = System.currentTimeMillis();
+
+        List<Store> duplicates = Lists.create();
+        List<String> dropped = Lists.create();
+
+        for (List<Store> batch : partition(upserts))
+        {
+            try
+            {
+                duplicates.addAll(batchWriter.upsertStores(batch));
+            }
+            catch (RuntimeException ex)
+            {
+                LOG.warn("Batch of {} upserts failed. Writing them one at a time.", batch.size(), ex);
+
+                for (Store store : batch)
+                {
+                    tryToUpsertStore(store, duplicates, dropped);
+                }
+            }
+        }
+
+        int droppedUpserts = dropped.size();
+
+        for (List<String> batch : partition(deletes))
+        {
+            try
+            {
+                batchWriter.deleteStores(batch);
+            }
+            catch (RuntimeException ex)
+            {
+                LOG.warn("Batch of {} deletes failed. Deleting them one at a time.", batch.size(), ex);
+
+                for (String storeId : batch)
+                {
+                    tryToDeleteStore(storeId, dropped);
+                }
+            }
+        }
+
+        int written = upserts.size() - duplicates.size() - droppedUpserts;
+        int deleted = deletes.size() - (dropped.size() - droppedUpserts);
+
+        storesWritten.addAndGet(written);
+        storesDeleted.addAndGet(deleted);
+        duplicatesSkipped.addAndGet(duplicates.size());
+        writesDropped.addAndGet(dropped.size());
+
+        makeNoteOfFlush(written, deleted, System.currentTimeMillis() - begin);
+
+        if (!duplicates.isEmpty())
+        {
+            makeNoteOfDuplicates(duplicates);
+        }
+
+        if (!dropped.isEmpty())
+        {
+            makeNoteOfDroppedWrites(dropped);
+        }
+    }
+
+    private <T> List<List<T>> partition(List<T> list)
+    {
+        List<List<T>> batches = Lists.create();
+
+        for (int i = 0; i < list.size(); i += batchSize)
+        {
+            batches.add(list.subList(i, Math.min(i + batchSize, list.size())));
+        }
+
+        return batches;
+    }
+
+    //Single writes go through the batch writer too, since it reports duplicates, and throws when a write fails,
+    //unlike the delegate's deleteStore().
+    private void tryToUpsertStore(Store store, List<Store> duplicates, List<String> dropped)
+    {
+        try
+        {
+            duplicates.addAll(batchWriter.upsertStores(Lists.createFrom(store)));
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.error("Failed to write Store [{}] from write-behind buffer", store.getStoreId(), ex);
+            dropped.add(store.getStoreId());
+        }
+    }
+
+    private void tryToDeleteStore(String storeId, List<String> dropped)
+    {
+        try
+        {
+            batchWriter.deleteStores(Lists.createFrom(storeId));
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.error("Failed to delete Store [{}] from write-behind buffer", storeId, ex);
+            dropped.add(storeId);
+        }
+    }
+
+    private void makeNoteOfFlush(int upserts, int deletes, long delay)
+    {
+        String message = "Flushed {} upserts and {} deletes in {}ms";
+        LOG.debug(message, upserts, deletes, delay);
+
+        aroma.begin().titled("Write-Behind Flush")
+             .withBody(message, upserts, deletes, delay)
+             .withPriority(Priority.LOW)
+             .send();
+    }
+
+    private void makeNoteOfTotals()
+    {
+        String message = "So far: {} Stores written, {} deleted, {} duplicates skipped, and {} writes dropped";
+        Object[] arguments = { storesWritten.get(), storesDeleted.get(), duplicatesSkipped.get(), writesDropped.get() };
+
+        LOG.info(message, arguments);
+
+        aroma.begin().titled("Write-Behind Totals")
+             .withBody(message, arguments)
+             .withPriority(writesDropped.get() > 0 ? Priority.HIGH : Priority.LOW)
+             .send();
+    }
+
+    private void makeNoteOfDuplicates(List<Store> duplicates)
+    {
+        List<String> storeIds = duplicates.stream().map(Store::getStoreId).collect(toList());
+
+        String message = "Skipped {} Stores with the same name and location as other Stores: {}";
+        LOG.warn(message, storeIds.size(), storeIds);
+
+        aroma.begin().titled("Duplicate Stores Skipped")
+             .withBody(message, storeIds.size(), storeIds)
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+    private void makeNoteOfDroppedWrites(List<String> storeIds)
+    {
+        String message = "Failed to write {} Stores from write-behind buffer: {}";
+        LOG.error(message, storeIds.size(), storeIds);
+
+        aroma.begin().titled("Writes Dropped")
+             .withBody(message, storeIds.size(), storeIds)
+             .withPriority(Priority.HIGH)
+             .send();
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "store-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
 import tech.blacksource.blacknectar.service.data.StoreRepository;
+import tech.blacksource.blacknectar.service.data.WriteBehind;
 import tech.blacksource.blacknectar.service.exceptions.BlackNectarAPIException;
 import tech.blacksource.blacknectar.service.stores.Store;
 
@@ -45,7 +46,7 @@ public class RunStoreTransformation implements Callable<Void>
     private final StoreTransformation transformation;
 
     @Inject
-    RunStoreTransformation(Aroma aroma, StoreRepository storeRepository, StoreTransformation transformation)
+    RunStoreTransformation(Aroma aroma, @WriteBehind StoreRepository storeRepository, StoreTransformation transformation)
     {
         checkThat(aroma, storeRepository, transformation)
                 .are(notNull());
@@ -95,6 +96,8 @@ public class RunStoreTransformation implements Callable<Void>
                 tryToUpdateStore(updatedStore);
             });
 
+        storeRepository.flush();
+
     }
 
     private boolean updateNeeded(Store store)
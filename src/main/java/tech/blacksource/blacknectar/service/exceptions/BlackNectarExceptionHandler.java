@@ -27,6 +27,7 @@ import spark.*;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
 import tech.blacksource.blacknectar.ebt.balance.State;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.redroma.yelp.exceptions.YelpException;
 import tech.sirwellington.alchemy.annotations.arguments.Required;
 import tech.sirwellington.alchemy.arguments.FailedAssertionException;
@@ -87,6 +88,15 @@ public final class BlackNectarExceptionHandler implements ExceptionHandler
 
             response.status(NOT_IMPLEMENTED);
         }
+        else if (ex instanceof ServiceOverloadedException)
+        {
+            //Shed requests are reported by the admission control, rather than one at a time.
+            LOG.warn("Request from IP [{}] rejected: {}", ip, ex.getMessage());
+
+            ServiceOverloadedException overloaded = (ServiceOverloadedException) ex;
+            response.header(Responses.Headers.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()));
+            response.status(overloaded.getStatusCode());
+        }
         else if (ex instanceof BlackNectarAPIException)
         {
             LOG.error("Internal Operation failed", ex);
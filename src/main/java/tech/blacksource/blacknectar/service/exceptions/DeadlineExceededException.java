@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.exceptions;
+
+/**
+ * Thrown when an operation runs past its deadline, or is cancelled because the client went away.
+ *
+ * @author SirWellington
+ */
+public class DeadlineExceededException extends BlackNectarAPIException
+{
+
+    public DeadlineExceededException()
+    {
+    }
+
+    public DeadlineExceededException(String message)
+    {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+
+    public DeadlineExceededException(Throwable cause)
+    {
+        super(cause);
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return 504;
+    }
+
+}
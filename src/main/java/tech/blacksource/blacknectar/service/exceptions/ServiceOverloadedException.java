@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.exceptions;
+
+/**
+ * Thrown when a request is turned away because the service is already handling as much as it can. The client should
+ * try again after {@link #getRetryAfterSeconds()}.
+ *
+ * @author SirWellington
+ */
+public class ServiceOverloadedException extends BlackNectarAPIException
+{
+
+    private final int retryAfterSeconds;
+
+    public ServiceOverloadedException(String message, int retryAfterSeconds)
+    {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds()
+    {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return 503;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.exceptions;
+
+/**
+ * Thrown when a single client sends more requests than its share. Unlike its parent, this is the client's doing, so
+ * it is reported as a {@code 429 Too Many Requests}.
+ *
+ * @author SirWellington
+ */
+public class TooManyRequestsException extends ServiceOverloadedException
+{
+
+    public TooManyRequestsException(String message, int retryAfterSeconds)
+    {
+        super(message, retryAfterSeconds);
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return 429;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.images;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import com.google.common.hash.Hashing;
+import tech.sirwellington.alchemy.annotations.access.NonInstantiable;
+import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Image IDs are 64-bit hashes of the Image's URL. In the database they are stored as a {@code BIGINT} key, and
+ * everywhere else they are written as 16 hex digits.
+ * <p>
+ * The hash is the first 8 bytes of the MD5 of the URL, which PostgreSQL can compute too, with
+ * {@code ('x' || substr(md5(url), 1, 16))::bit(64)::bigint}. That is how existing Images were migrated.
+ *
+ * @author SirWellington
+ */
+@NonInstantiable
+public final class ImageIds
+{
+
+    /**
+     * IDs are written in lowercase, but clients may hand them back in uppercase, which is the same key.
+     */
+    private static final Pattern HEX_KEY = Pattern.compile("[0-9a-f]{16}", Pattern.CASE_INSENSITIVE);
+
+    ImageIds() throws IllegalAccessException
+    {
+        throw new IllegalAccessException("cannot instantiate");
+    }
+
+    /**
+     * @param url The URL of the Image.
+     * @return The ID of the Image at that URL.
+     */
+    public static String forURL(@Required URL url)
+    {
+        checkThat(url).is(notNull());
+
+        return fromKey(hash(url.toString()));
+    }
+
+    /**
+     * Turns an Image ID into its database key. The hex digits may be in either case.
+     * <p>
+     * IDs that are not in the 16 hex digit format, like the URLs that used to be used as IDs, are hashed the same way
+     * as URLs are, so they still find their Image.
+     *
+     * @param imageId The ID of the Image.
+     * @return The database key.
+     */
+    public static long toKey(@NonEmpty String imageId)
+    {
+        checkThat(imageId).is(nonEmptyString());
+
+        if (HEX_KEY.matcher(imageId).matches())
+        {
+            return Long.parseUnsignedLong(imageId, 16);
+        }
+
+        return hash(imageId);
+    }
+
+    /**
+     * Turns a database key back into an Image ID.
+     *
+     * @param key The database key.
+     * @return The ID of the Image.
+     */
+    public static String fromKey(long key)
+    {
+        return String.format("%016x", key);
+    }
+
+    private static long hash(String value)
+    {
+        byte[] digest = Hashing.md5()
+                               .hashString(value, StandardCharsets.UTF_8)
+                               .asBytes();
+
+        return ByteBuffer.wrap(digest).getLong();
+    }
+
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.json;
+
+import java.io.*;
+import java.util.Map;
+
+import com.google.gson.*;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadUnsafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+
+/**
+ * Writes JSON elements as <a href="https://tools.ietf.org/html/rfc7049">CBOR</a>, a binary encoding of the same data
+ * model as JSON. Numbers take their natural binary size instead of one byte per digit, and nothing needs escaping or
+ * parsing, so responses are smaller and much cheaper for clients to decode.
+ * <p>
+ * Since CBOR has the same data model as JSON, anything that can be written as JSON, like a {@link
+ * tech.blacksource.blacknectar.service.stores.Store} and its fields, can be written as CBOR without a separate schema.
+ * <p>
+ * The writer encodes into its own buffer, including text, so writing an element allocates nothing. Call
+ * {@link #flush()} when done. Failures to write are thrown as {@link UncheckedIOException}.
+ *
+ * @author SirWellington
+ */
+@ThreadUnsafe
+public final class CborWriter
+{
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /*
+     * The major types, already shifted into the top 3 bits of the initial byte.
+     */
+    private static final int UNSIGNED_INTEGER = 0x00;
+    private static final int NEGATIVE_INTEGER = 0x20;
+    private static final int TEXT_STRING = 0x60;
+    private static final int ARRAY = 0x80;
+    private static final int MAP = 0xA0;
+
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT_32 = 0xFA;
+    private static final int FLOAT_64 = 0xFB;
+
+    /**
+     * Integers beyond this can't all be represented by a double, so they may not be integers at all.
+     */
+    private static final double MAX_SAFE_INTEGER = 9_007_199_254_740_991.0;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+
+    public CborWriter(@Required OutputStream out)
+    {
+        checkThat(out).is(notNull());
+
+        this.out = out;
+    }
+
+    /**
+     * Encodes a single element.
+     *
+     * @param element
+     * @return The CBOR encoding of the element.
+     */
+    public static byte[] toBytes(@Required JsonElement element)
+    {
+        checkThat(element).is(notNull());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CborWriter writer = new CborWriter(bytes);
+        writer.write(element);
+        writer.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Starts an Array of {@code size} elements, which must be {@linkplain #write(JsonElement) written} next.
+     *
+     * @param size Must be {@code >= 0}.
+     */
+    public void writeArrayHeader(int size)
+    {
+        checkThat(size)
+                .usingMessage("size must be >= 0")
+                .is(greaterThanOrEqualTo(0));
+
+        writeHeader(ARRAY, size);
+    }
+
+    public void write(@Required JsonElement element)
+    {
+        checkThat(element).is(notNull());
+
+        writeElement(element);
+    }
+
+    /**
+     * Writes out everything that is still buffered, and flushes the output.
+     */
+    public void flush()
+    {
+        try
+        {
+            drain();
+            out.flush();
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void writeElement(JsonElement element)
+    {
+        if (element.isJsonObject())
+        {
+            writeObject(element.getAsJsonObject());
+        }
+        else if (element.isJsonArray())
+        {
+            writeArray(element.getAsJsonArray());
+        }
+        else if (element.isJsonPrimitive())
+        {
+            writePrimitive(element.getAsJsonPrimitive());
+        }
+        else
+        {
+            writeByte(NULL);
+        }
+    }
+
+    private void writeObject(JsonObject object)
+    {
+        writeHeader(MAP, object.entrySet().size());
+
+        for (Map.Entry<String, JsonElement> entry : object.entrySet())
+        {
+            writeText(entry.getKey());
+            writeElement(entry.getValue());
+        }
+    }
+
+    private void writeArray(JsonArray array)
+    {
+        writeHeader(ARRAY, array.size());
+
+        for (JsonElement element : array)
+        {
+            writeElement(element);
+        }
+    }
+
+    private void writePrimitive(JsonPrimitive primitive)
+    {
+        if (primitive.isBoolean())
+        {
+            writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+        }
+        else if (primitive.isNumber())
+        {
+            writeNumber(primitive.getAsNumber().doubleValue());
+        }
+        else
+        {
+            writeText(primitive.getAsString());
+        }
+    }
+
+    /**
+     * Writes a number in the fewest bytes that represent it exactly.
+     */
+    private void writeNumber(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) <= MAX_SAFE_INTEGER)
+        {
+            long integer = (long) value;
+
+            if (integer >= 0)
+            {
+                writeHeader(UNSIGNED_INTEGER, integer);
+            }
+            else
+            {
+                writeHeader(NEGATIVE_INTEGER, -1 - integer);
+            }
+        }
+        else if ((float) value == value || Double.isNaN(value))
+        {
+            ensureRoom(5);
+            buffer[position++] = (byte) FLOAT_32;
+            putBytes(Float.floatToIntBits((float) value), 4);
+        }
+        else
+        {
+            ensureRoom(9);
+            buffer[position++] = (byte) FLOAT_64;
+            putBytes(Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    /**
+     * Writes a text string as UTF-8, encoding straight into the buffer. Like {@link String#getBytes(java.nio.charset.Charset)},
+     * unpaired surrogates are written as {@code '?'}.
+     */
+    private void writeText(String text)
+    {
+        writeHeader(TEXT_STRING, utf8LengthOf(text));
+
+        int length = text.length();
+
+        for (int i = 0; i < length; ++i)
+        {
+            char c = text.charAt(i);
+            ensureRoom(4);
+
+            if (c < 0x80)
+            {
+                buffer[position++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (isSurrogatePairAt(text, i))
+            {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                buffer[position++] = (byte) '?';
+            }
+            else
+            {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static long utf8LengthOf(String text)
+    {
+        long bytes = 0;
+        int length = text.length();
+
+        for (int i = 0; i < length; ++i)
+        {
+            char c = text.charAt(i);
+
+            if (c < 0x80)
+            {
+                bytes += 1;
+            }
+            else if (c < 0x800)
+            {
+                bytes += 2;
+            }
+            else if (isSurrogatePairAt(text, i))
+            {
+                bytes += 4;
+                ++i;
+            }
+            else if (Character.isSurrogate(c))
+            {
+                bytes += 1;
+            }
+            else
+            {
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static boolean isSurrogatePairAt(String text, int index)
+    {
+        return Character.isHighSurrogate(text.charAt(index)) &&
+               index + 1 < text.length() &&
+               Character.isLowSurrogate(text.charAt(index + 1));
+    }
+
+    /**
+     * Writes the initial byte of an item, followed by its argument (a length, or the value of an integer) in the
+     * fewest bytes that hold it.
+     */
+    private void writeHeader(int majorType, long argument)
+    {
+        ensureRoom(9);
+
+        if (argument < 24)
+        {
+            buffer[position++] = (byte) (majorType | argument);
+        }
+        else if (argument < 0x100)
+        {
+            buffer[position++] = (byte) (majorType | 24);
+            putBytes(argument, 1);
+        }
+        else if (argument < 0x10000)
+        {
+            buffer[position++] = (byte) (majorType | 25);
+            putBytes(argument, 2);
+        }
+        else if (argument < 0x100000000L)
+        {
+            buffer[position++] = (byte) (majorType | 26);
+            putBytes(argument, 4);
+        }
+        else
+        {
+            buffer[position++] = (byte) (majorType | 27);
+            putBytes(argument, 8);
+        }
+    }
+
+    private void writeByte(int value)
+    {
+        ensureRoom(1);
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Puts the lowest {@code count} bytes of {@code value} into the buffer, in network (big-endian) order.
+     */
+    private void putBytes(long value, int count)
+    {
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8)
+        {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensureRoom(int bytes)
+    {
+        if (position + bytes > buffer.length)
+        {
+            try
+            {
+                drain();
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        if (position > 0)
+        {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+}
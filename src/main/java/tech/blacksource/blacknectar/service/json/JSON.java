@@ -37,22 +37,26 @@ public final class JSON
             .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
             .create();
 
+    /**
+     * Collects elements into a {@link JsonArray}, in the order of the stream. {@link JsonArray} is not thread-safe, so
+     * parallel streams each fill their own array, and the arrays are combined at the end.
+     *
+     * @return
+     */
     public static Collector<JsonElement, JsonArray, JsonArray> collectArray()
     {
         Supplier<JsonArray> supplier = JsonArray::new;
         BiConsumer<JsonArray, JsonElement> accumulator = JsonArray::add;
         BinaryOperator<JsonArray> combiner = (first, second) ->
         {
-            JsonArray result = new JsonArray();
-            result.addAll(first);
-            result.addAll(second);
-            return result;
+            first.addAll(second);
+            return first;
         };
 
         Collector<JsonElement, JsonArray, JsonArray> collector = Collector.of(supplier,
                                                                               accumulator,
                                                                               combiner,
-                                                                              Collector.Characteristics.CONCURRENT);
+                                                                              Collector.Characteristics.IDENTITY_FINISH);
         return collector;
     }
 }
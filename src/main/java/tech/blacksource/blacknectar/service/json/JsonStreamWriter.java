@@ -0,0 +1,323 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.json;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import tech.blacksource.blacknectar.service.data.MediaTypes;
+import tech.sirwellington.alchemy.annotations.arguments.Optional;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadUnsafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Writes a sequence of JSON elements to a {@link Writer} one at a time, either as a single JSON Array, or as
+ * <a href="http://ndjson.org">newline-delimited JSON</a>, where each element is on its own line.
+ * <p>
+ * Each element is written with a Gson {@link JsonWriter} straight to the output, so no String holding the whole
+ * response is ever built, and the client starts receiving elements as soon as the first one is ready.
+ * <p>
+ * The output is flushed after each element, so what has reached the stream underneath always ends on an element
+ * boundary.
+ * <p>
+ * The elements may also be {@linkplain #recordTo(Recording) recorded} as they are written, so that they can be written
+ * again to other writers, in their own format.
+ * <p>
+ * Failures to write are thrown as {@link UncheckedIOException}.
+ *
+ * @author SirWellington
+ */
+@ThreadUnsafe
+public final class JsonStreamWriter
+{
+
+    private static final TypeAdapter<JsonElement> ELEMENT_ADAPTER = JSON.GSON.getAdapter(JsonElement.class);
+
+    public enum Format
+    {
+        /**
+         * A single JSON Array: {@code [{...},{...}]}
+         */
+        ARRAY(MediaTypes.APPLICATION_JSON),
+
+        /**
+         * One JSON element per line: {@code {...}\n{...}\n}
+         */
+        LINES(MediaTypes.APPLICATION_NDJSON);
+
+        private final String mediaType;
+
+        Format(String mediaType)
+        {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType()
+        {
+            return mediaType;
+        }
+    }
+
+    private final Writer out;
+    private final Format format;
+    private final JsonWriter jsonWriter;
+    private int count = 0;
+    private Recording recording;
+
+    public JsonStreamWriter(@Required Writer out, @Required Format format)
+    {
+        checkThat(out, format)
+                .are(notNull());
+
+        this.out = out;
+        this.format = format;
+
+        //Lenient, so that it accepts more than one top-level value.
+        this.jsonWriter = new JsonWriter(out);
+        this.jsonWriter.setLenient(true);
+    }
+
+    public static JsonStreamWriter arrayTo(@Required Writer out)
+    {
+        return new JsonStreamWriter(out, Format.ARRAY);
+    }
+
+    public Format getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Keeps a reference to each element written from now on in {@code recording}.
+     *
+     * @param recording Where to keep the elements, or {@code null} to stop recording.
+     */
+    public void recordTo(@Optional Recording recording)
+    {
+        this.recording = recording;
+    }
+
+    public void begin()
+    {
+        if (format == Format.ARRAY)
+        {
+            writeRaw("[");
+        }
+    }
+
+    public void write(@Required JsonElement element)
+    {
+        checkThat(element).is(notNull());
+
+        keep(element);
+        beforeElement();
+
+        try
+        {
+            ELEMENT_ADAPTER.write(jsonWriter, element);
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+
+        afterElement();
+    }
+
+    /**
+     * Writes an element that has already been serialized, for example by the database.
+     *
+     * @param json A single JSON element, on one line.
+     */
+    public void writeSerialized(@Required String json)
+    {
+        checkThat(json).is(notNull());
+
+        keep(json);
+        beforeElement();
+        writeRaw(json);
+        afterElement();
+    }
+
+    /**
+     * Finishes the sequence and flushes the output.
+     */
+    public void end()
+    {
+        if (format == Format.ARRAY)
+        {
+            writeRaw("]");
+        }
+
+        flush();
+    }
+
+    /**
+     * @return The number of elements written so far.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    private void keep(Object element)
+    {
+        if (recording != null)
+        {
+            recording.keep(element);
+        }
+    }
+
+    private void beforeElement()
+    {
+        if (format == Format.ARRAY && count > 0)
+        {
+            writeRaw(",");
+        }
+    }
+
+    private void afterElement()
+    {
+        if (format == Format.LINES)
+        {
+            writeRaw("\n");
+        }
+
+        ++count;
+        flush();
+    }
+
+    private void flush()
+    {
+        try
+        {
+            out.flush();
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void writeRaw(String string)
+    {
+        try
+        {
+            out.write(string);
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * The elements written by a {@link JsonStreamWriter}, kept by reference, so that they can be written again once it
+     * is done.
+     * <p>
+     * Whether anything is kept at all is decided when the first element is written, so a recording that turns out not
+     * to be needed holds nothing.
+     */
+    @ThreadUnsafe
+    public static final class Recording
+    {
+
+        private final BooleanSupplier wanted;
+        private boolean decided = false;
+        private List<Object> elements;
+
+        /**
+         * @param wanted Asked once, just before the first element is written, whether the elements should be kept.
+         */
+        public Recording(@Required BooleanSupplier wanted)
+        {
+            checkThat(wanted).is(notNull());
+
+            this.wanted = wanted;
+        }
+
+        /**
+         * @return {@code true} if every element written so far was kept.
+         */
+        public boolean isKept()
+        {
+            return !decided || elements != null;
+        }
+
+        /**
+         * Writes the kept elements as a whole sequence, in the format of {@code out}.
+         *
+         * @param out
+         * @return The number of elements written.
+         * @throws IllegalStateException If the elements were not kept.
+         */
+        public int writeTo(@Required JsonStreamWriter out) throws IllegalStateException
+        {
+            checkThat(out).is(notNull());
+
+            if (!isKept())
+            {
+                throw new IllegalStateException("The elements were not kept");
+            }
+
+            List<Object> kept = elements == null ? Collections.<Object>emptyList() : elements;
+
+            out.begin();
+
+            for (Object element : kept)
+            {
+                if (element instanceof JsonElement)
+                {
+                    out.write((JsonElement) element);
+                }
+                else
+                {
+                    out.writeSerialized((String) element);
+                }
+            }
+
+            out.end();
+
+            return kept.size();
+        }
+
+        private void keep(Object element)
+        {
+            if (!decided)
+            {
+                decided = true;
+                elements = wanted.getAsBoolean() ? new ArrayList<>() : null;
+            }
+
+            if (elements != null)
+            {
+                elements.add(element);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.concurrent.TimeUnit;
+
+import tech.sirwellington.alchemy.annotations.access.Internal;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.trueStatement;
+
+/**
+ * Limits how many requests may run at once, and adjusts that limit to the latency it observes.
+ * <p>
+ * Only the latency of calls to the backend is observed, not how long it takes to write the response to the client.
+ * The limit follows the gradient between two averages of that latency: the baseline, over the last
+ * {@link #LATENCY_WINDOW} calls, which is what the mix of calls normally costs, and one over the last
+ * {@link #RECENT_WINDOW}, which is what it costs right now. While the two are close, the limit keeps growing by about
+ * its square root. When recent calls start taking longer than {@link #LATENCY_TOLERANCE} times the baseline,
+ * something downstream is queueing, and the limit shrinks towards what it can serve. Failed calls cut the limit by
+ * {@link #BACKOFF_RATIO}.
+ * <p>
+ * The baseline is a long-window average rather than the lowest latency seen, because calls differ: a search around a
+ * neighborhood costs a fraction of a search across a state, and comparing the second against the first would look
+ * like queueing.
+ * <p>
+ * When the limit is reached, a few requests may wait a short while for a slot. Everything else is rejected
+ * immediately, so that a slow database turns into fast failures instead of an unbounded queue.
+ *
+ * @author SirWellington
+ */
+@Internal
+@ThreadSafe
+final class AdaptiveConcurrencyLimit
+{
+
+    /**
+     * How much slower than the baseline the recent calls may be, on average, before the limit starts shrinking.
+     */
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * How much of each new estimate is blended into the limit, so that a single slow request doesn't halve it.
+     */
+    static final double SMOOTHING = 0.2;
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * About how many calls the baseline latency is averaged over. It is long enough that a burst of queueing barely
+     * moves it, but it still follows lasting changes, for example when the database moves to slower hardware.
+     */
+    static final int LATENCY_WINDOW = 1_000;
+
+    /**
+     * About how many calls the recent latency is averaged over, so that a single slow call doesn't count as queueing.
+     */
+    static final int RECENT_WINDOW = 20;
+
+    /**
+     * The limit is left alone until this many latencies have been seen. Until then, both averages are plain means.
+     */
+    static final int WARM_UP_SAMPLES = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rejections;
+
+    private double baselineLatencyNanos;
+    private double recentLatencyNanos;
+    private long samples;
+
+    /**
+     * @param initialLimit  The limit to start with, before any latency has been observed.
+     * @param minLimit      The limit never drops below this. Must be {@code >= 1}.
+     * @param maxLimit      The limit never grows above this.
+     * @param maxQueued     How many requests may wait for a slot at once. Can be {@code 0}.
+     * @param maxWaitMillis How long a request may wait for a slot before it is rejected.
+     */
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, int maxQueued, long maxWaitMillis)
+    {
+        checkThat(minLimit >= 1 && minLimit <= initialLimit && initialLimit <= maxLimit)
+                .usingMessage("limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit")
+                .is(trueStatement());
+
+        checkThat(maxQueued >= 0 && maxWaitMillis >= 0)
+                .usingMessage("maxQueued and maxWaitMillis must be >= 0")
+                .is(trueStatement());
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Takes a slot, waiting briefly for one to free up if the limit has been reached. Every successful call must be
+     * followed by a call to {@link #release(long, boolean)}.
+     *
+     * @return {@code true} if the request may proceed, {@code false} if it should be rejected.
+     * @throws InterruptedException
+     */
+    synchronized boolean tryAcquire() throws InterruptedException
+    {
+        if (inFlight < getLimit())
+        {
+            ++inFlight;
+            return true;
+        }
+
+        if (queued >= maxQueued)
+        {
+            ++rejections;
+            return false;
+        }
+
+        ++queued;
+
+        try
+        {
+            long waitUntil = System.nanoTime() + maxWaitNanos;
+
+            while (inFlight >= getLimit())
+            {
+                long remaining = waitUntil - System.nanoTime();
+
+                if (remaining <= 0)
+                {
+                    ++rejections;
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            ++inFlight;
+            return true;
+        }
+        finally
+        {
+            --queued;
+        }
+    }
+
+    /**
+     * Gives back a slot, and adjusts the limit to how the request's call to the backend went.
+     *
+     * @param latencyNanos How long the call to the backend took, or {@code 0} if it shouldn't affect the limit, for
+     *                     example because the request was answered from a cache.
+     * @param failed       {@code true} if the request failed because of the service, for example a timeout. Bad
+     *                     requests from the client should not count as failures.
+     */
+    synchronized void release(long latencyNanos, boolean failed)
+    {
+        //The request itself is still counted, to tell whether the limit was actually being used.
+        boolean busy = inFlight * 2 >= limit;
+        --inFlight;
+
+        if (failed)
+        {
+            limit = clamp(limit * BACKOFF_RATIO);
+        }
+        else if (latencyNanos > 0)
+        {
+            adjustLimit(latencyNanos, busy);
+        }
+
+        notifyAll();
+    }
+
+    private void adjustLimit(long latencyNanos, boolean busy)
+    {
+        ++samples;
+        baselineLatencyNanos = average(baselineLatencyNanos, latencyNanos, LATENCY_WINDOW);
+        recentLatencyNanos = average(recentLatencyNanos, latencyNanos, RECENT_WINDOW);
+
+        if (samples < WARM_UP_SAMPLES)
+        {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, LATENCY_TOLERANCE * baselineLatencyNanos / recentLatencyNanos));
+        double estimate = limit * gradient + Math.sqrt(limit);
+
+        //A limit that is mostly unused says nothing about whether more requests could be served.
+        if (estimate > limit && !busy)
+        {
+            return;
+        }
+
+        limit = clamp(limit * (1 - SMOOTHING) + estimate * SMOOTHING);
+    }
+
+    /**
+     * An exponential moving average over about {@code window} samples, which is a plain mean during the warm up.
+     */
+    private double average(double average, long latencyNanos, int window)
+    {
+        double weight = samples <= WARM_UP_SAMPLES ? 1.0 / samples : 2.0 / (window + 1);
+        return average + (latencyNanos - average) * weight;
+    }
+
+    private double clamp(double newLimit)
+    {
+        return Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+
+    synchronized int getQueued()
+    {
+        return queued;
+    }
+
+    synchronized long getRejections()
+    {
+        return rejections;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "AdaptiveConcurrencyLimit{" + "limit=" + getLimit() + ", inFlight=" + inFlight + ", queued=" + queued + ", rejections=" + rejections + '}';
+    }
+
+}
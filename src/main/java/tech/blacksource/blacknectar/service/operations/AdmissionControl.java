@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Route;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.data.Deadline;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Sheds load per route once the service can't keep up.
+ * <p>
+ * Each {@linkplain #limit(String, Route) limited} route gets its own {@link AdaptiveConcurrencyLimit}, shared by both
+ * ports. Requests over the limit fail fast with a {@link ServiceOverloadedException}, which becomes a {@code 503}
+ * with a {@code Retry-After} header. The current limit and the number of rejections of each route are available
+ * here, and are reported to Aroma while a route is shedding load.
+ * <p>
+ * The limit only learns from the work it protects. Routes {@linkplain #sample(Request, Deadline, Supplier) sample}
+ * the calls that reach the database or another backend; requests answered from a cache, {@code 304}s, rate limited
+ * requests and bad requests only give back their slot, since how fast they are says nothing about the backend.
+ * <p>
+ * A slot is given back as soon as the sampled call returns, rather than once the response has been written, so that
+ * slow clients don't hold slots that the backend could use. Calls that stream their results straight to the client
+ * hold their slot until the stream ends, since the backend is working until then.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+public class AdmissionControl
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(AdmissionControl.class);
+
+    static final int INITIAL_LIMIT = 20;
+    static final int MIN_LIMIT = 2;
+    static final int MAX_LIMIT = 200;
+
+    /**
+     * How many requests may wait for a slot on each route, and for how long.
+     */
+    static final int MAX_QUEUED = 20;
+    static final long MAX_WAIT_MILLIS = 250;
+
+    static final int RETRY_AFTER_SECONDS = 1;
+
+    /**
+     * A route that keeps shedding load is reported at most this often.
+     */
+    static final long NOTE_INTERVAL_MILLIS = 60_000;
+
+    /**
+     * The request attribute that holds the {@link Slot} of a limited request, so that
+     * {@link #sample(Request, Deadline, Supplier)} can give it back.
+     */
+    static final String SLOT_ATTRIBUTE = AdmissionControl.class.getName() + ".slot";
+
+    private final Aroma aroma;
+    private final Map<String, AdaptiveConcurrencyLimit> limits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> lastNotes = new ConcurrentHashMap<>();
+
+    @Inject
+    AdmissionControl(Aroma aroma)
+    {
+        checkThat(aroma).is(notNull());
+
+        this.aroma = aroma;
+    }
+
+    /**
+     * Wraps a route with the concurrency limit called {@code name}. Routes wrapped with the same name share the same
+     * limit.
+     *
+     * @param name  The name of the route, for example {@code /stores}.
+     * @param route The route to protect.
+     * @return
+     */
+    public Route limit(@Required String name, @Required Route route)
+    {
+        checkThat(name).is(nonEmptyString());
+        checkThat(route).is(notNull());
+
+        AdaptiveConcurrencyLimit limit = limits.computeIfAbsent(name, this::newLimit);
+
+        return (request, response) ->
+        {
+            Slot slot = admit(name, limit);
+            request.attribute(SLOT_ATTRIBUTE, slot);
+
+            try
+            {
+                return route.handle(request, response);
+            }
+            finally
+            {
+                //Only requests that never sampled a call still hold their slot here.
+                slot.release(0, false);
+            }
+        };
+    }
+
+    /**
+     * Runs a call to the backend that a limited route protects, records how it went for the route's limit, and gives
+     * back the request's slot.
+     * <p>
+     * Calls that fail because of the service, such as timeouts, count as failures. Calls that fail because of the
+     * client, with a {@link BadArgumentException}, or because the client went away and its {@link Deadline} was
+     * {@linkplain Deadline#isCancelled() cancelled}, are not recorded at all.
+     *
+     * @param request  The request being served.
+     * @param deadline The deadline of the call, if any. Can be {@code null}.
+     * @param call     The call to the backend.
+     * @return The result of the call.
+     */
+    public static <T> T sample(@Required Request request, Deadline deadline, @Required Supplier<T> call)
+    {
+        return sample(request, deadline, call, result -> true);
+    }
+
+    /**
+     * Like {@link #sample(Request, Deadline, Supplier)}, for calls that sometimes turn out not to have reached the
+     * backend after all, for example a search that was answered from a snapshot while the database was down.
+     *
+     * @param reachedBackend Tells from the result of the call whether it reached the backend. Calls that didn't only
+     *                       give back their slot.
+     */
+    public static <T> T sample(@Required Request request,
+                               Deadline deadline,
+                               @Required Supplier<T> call,
+                               @Required Predicate<? super T> reachedBackend)
+    {
+        checkThat(request, call, reachedBackend)
+                .are(notNull());
+
+        long begin = System.nanoTime();
+        T result;
+
+        try
+        {
+            result = call.get();
+        }
+        catch (BadArgumentException ex)
+        {
+            release(request, 0, false);
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            release(request, 0, deadline == null || !deadline.isCancelled());
+            throw ex;
+        }
+
+        long latency = Math.max(1, System.nanoTime() - begin);
+        release(request, reachedBackend.test(result) ? latency : 0, false);
+
+        return result;
+    }
+
+    private static void release(Request request, long latencyNanos, boolean failed)
+    {
+        Object slot = request.attribute(SLOT_ATTRIBUTE);
+
+        if (slot instanceof Slot)
+        {
+            ((Slot) slot).release(latencyNanos, failed);
+        }
+    }
+
+    /**
+     * @return The current concurrency limit of the route, or {@code 0} if the route isn't limited.
+     */
+    public int getLimit(String name)
+    {
+        AdaptiveConcurrencyLimit limit = limits.get(name);
+        return limit == null ? 0 : limit.getLimit();
+    }
+
+    /**
+     * @return How many requests to the route have been rejected so far.
+     */
+    public long getRejections(String name)
+    {
+        AdaptiveConcurrencyLimit limit = limits.get(name);
+        return limit == null ? 0 : limit.getRejections();
+    }
+
+    AdaptiveConcurrencyLimit newLimit(String name)
+    {
+        return new AdaptiveConcurrencyLimit(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT, MAX_QUEUED, MAX_WAIT_MILLIS);
+    }
+
+    private Slot admit(String name, AdaptiveConcurrencyLimit limit) throws ServiceOverloadedException
+    {
+        boolean admitted;
+
+        try
+        {
+            admitted = limit.tryAcquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+
+        if (!admitted)
+        {
+            makeNoteThatRequestWasShed(name, limit);
+            throw new ServiceOverloadedException("Too many requests to " + name + ". Try again shortly.", RETRY_AFTER_SECONDS);
+        }
+
+        return new Slot(limit);
+    }
+
+    private void makeNoteThatRequestWasShed(String name, AdaptiveConcurrencyLimit limit)
+    {
+        AtomicLong lastNote = lastNotes.computeIfAbsent(name, key -> new AtomicLong());
+        long now = System.currentTimeMillis();
+        long last = lastNote.get();
+
+        if (now - last < NOTE_INTERVAL_MILLIS || !lastNote.compareAndSet(last, now))
+        {
+            return;
+        }
+
+        String message = "Shedding load on {}. {}";
+        LOG.warn(message, name, limit);
+
+        aroma.begin().titled("Shedding Load")
+             .withBody(message, name, limit)
+             .withPriority(Priority.HIGH)
+             .send();
+    }
+
+    /**
+     * A request's slot in a limit, which is given back only once, by whichever comes first: the sampled call, or the
+     * end of the request.
+     */
+    static final class Slot
+    {
+
+        private final AdaptiveConcurrencyLimit limit;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot(AdaptiveConcurrencyLimit limit)
+        {
+            this.limit = limit;
+        }
+
+        void release(long latencyNanos, boolean failed)
+        {
+            if (released.compareAndSet(false, true))
+            {
+                limit.release(latencyNanos, failed);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import tech.blacksource.blacknectar.service.data.Deadline;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Watches in-flight requests and {@linkplain Deadline#cancel() cancels} their {@link Deadline} when the client's
+ * connection goes away, so that we stop doing work that nobody is waiting for.
+ * <p>
+ * Detection is best-effort: it relies on Jetty noticing that the connection was closed.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+public class ClientDisconnectMonitor
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(ClientDisconnectMonitor.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 250;
+
+    private final Map<Deadline, HttpServletRequest> watchedRequests = new ConcurrentHashMap<>();
+
+    @Inject
+    ClientDisconnectMonitor()
+    {
+        this(Executors.newSingleThreadScheduledExecutor(ClientDisconnectMonitor::newDaemonThread));
+    }
+
+    ClientDisconnectMonitor(@Required ScheduledExecutorService scheduler)
+    {
+        checkThat(scheduler).is(notNull());
+
+        scheduler.scheduleWithFixedDelay(this::checkConnections,
+                                         CHECK_INTERVAL_MILLIS,
+                                         CHECK_INTERVAL_MILLIS,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching the connection of the specified request until the returned {@link Watch} is closed.
+     *
+     * @param request  The request to watch.
+     * @param deadline The deadline to cancel if the client disconnects.
+     * @return
+     */
+    public Watch watch(@Required Request request, @Required Deadline deadline)
+    {
+        checkThat(request, deadline).are(notNull());
+
+        HttpServletRequest raw = request.raw();
+
+        if (raw == null)
+        {
+            return () -> {};
+        }
+
+        watchedRequests.put(deadline, raw);
+
+        return () -> watchedRequests.remove(deadline);
+    }
+
+    void checkConnections()
+    {
+        for (Map.Entry<Deadline, HttpServletRequest> entry : watchedRequests.entrySet())
+        {
+            Deadline deadline = entry.getKey();
+
+            if (deadline.isDone())
+            {
+                continue;
+            }
+
+            if (!isClientConnected(entry.getValue()))
+            {
+                LOG.info("Client disconnected. Cancelling request.");
+
+                watchedRequests.remove(deadline);
+                deadline.cancel();
+            }
+        }
+    }
+
+    private boolean isClientConnected(HttpServletRequest request)
+    {
+        try
+        {
+            org.eclipse.jetty.server.Request jettyRequest = org.eclipse.jetty.server.Request.getBaseRequest(request);
+
+            if (jettyRequest == null)
+            {
+                return true;
+            }
+
+            HttpChannel channel = jettyRequest.getHttpChannel();
+            EndPoint endPoint = channel == null ? null : channel.getEndPoint();
+
+            return endPoint == null || endPoint.isOpen();
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.debug("Could not check client connection", ex);
+            return true;
+        }
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "client-disconnect-monitor");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Stops watching a request when closed.
+     */
+    @FunctionalInterface
+    public interface Watch extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import tech.blacksource.blacknectar.service.exceptions.TooManyRequestsException;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.trueStatement;
+
+/**
+ * Keeps any single client from using more than its share of the service, with one token bucket per client IP.
+ * <p>
+ * Each request spends tokens according to how expensive it is, and each bucket refills at a steady rate up to its
+ * capacity, so that a client can burst for a while, but not sustain more than the refill rate. Buckets that have
+ * refilled completely are evicted in the background, since a new bucket would start out full as well.
+ * <p>
+ * Buckets live in a {@link ConcurrentHashMap} and lock only themselves, so clients never wait on each other.
+ * <p>
+ * Clients are told apart by {@link Parameters.Headers#getClientAddressFrom(Request, boolean)}, which only trusts the
+ * proxy's {@code X-Forwarded-For} header when the Service is started with
+ * {@code -D}{@value Parameters.Headers#BEHIND_PROXY_PROPERTY}{@code =true}.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+public class ClientRateLimiter
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(ClientRateLimiter.class);
+
+    /**
+     * The most tokens a client can spend in one burst.
+     */
+    static final double CAPACITY = 100;
+
+    static final double REFILL_PER_SECOND = 10;
+
+    static final long EVICTION_INTERVAL_MINUTES = 1;
+
+    private final double capacity;
+    private final double refillPerMilli;
+    private final LongSupplier clock;
+    private final boolean behindProxy;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    @Inject
+    ClientRateLimiter()
+    {
+        this(CAPACITY,
+             REFILL_PER_SECOND,
+             System::currentTimeMillis,
+             Executors.newSingleThreadScheduledExecutor(ClientRateLimiter::newDaemonThread),
+             Boolean.getBoolean(Parameters.Headers.BEHIND_PROXY_PROPERTY));
+    }
+
+    ClientRateLimiter(double capacity,
+                      double refillPerSecond,
+                      LongSupplier clock,
+                      ScheduledExecutorService scheduler,
+                      boolean behindProxy)
+    {
+        checkThat(capacity > 0 && refillPerSecond > 0)
+                .usingMessage("capacity and refillPerSecond must be > 0")
+                .is(trueStatement());
+
+        checkThat(clock, scheduler).are(notNull());
+
+        this.capacity = capacity;
+        this.refillPerMilli = refillPerSecond / 1_000;
+        this.clock = clock;
+        this.behindProxy = behindProxy;
+
+        scheduler.scheduleWithFixedDelay(this::evictIdleBuckets,
+                                         EVICTION_INTERVAL_MINUTES,
+                                         EVICTION_INTERVAL_MINUTES,
+                                         TimeUnit.MINUTES);
+    }
+
+    /**
+     * Spends {@code cost} tokens from the bucket of the client that made the request.
+     *
+     * @param request The request, which identifies the client.
+     * @param cost    How many tokens the request costs. Must be {@code > 0}, and is capped at the capacity of a
+     *                bucket.
+     * @throws TooManyRequestsException If the client doesn't have enough tokens left.
+     */
+    public void spend(@Required Request request, double cost) throws TooManyRequestsException
+    {
+        checkThat(request).is(notNull());
+
+        spend(clientOf(request), cost);
+    }
+
+    void spend(String client, double cost) throws TooManyRequestsException
+    {
+        checkThat(cost > 0)
+                .usingMessage("cost must be > 0")
+                .is(trueStatement());
+
+        cost = Math.min(cost, capacity);
+
+        //Looking the bucket up first avoids locking the map's bin on every request.
+        Bucket bucket = buckets.get(client);
+
+        if (bucket == null)
+        {
+            bucket = buckets.computeIfAbsent(client, key -> new Bucket(capacity, clock.getAsLong()));
+        }
+
+        double missing = bucket.trySpend(cost, clock.getAsLong());
+
+        if (missing > 0)
+        {
+            int retryAfterSeconds = (int) Math.ceil(missing / refillPerMilli / 1_000);
+
+            LOG.info("Client [{}] is over its rate limit", client);
+            throw new TooManyRequestsException("Too many requests. Try again in " + retryAfterSeconds + "s.", retryAfterSeconds);
+        }
+    }
+
+    void evictIdleBuckets()
+    {
+        long now = clock.getAsLong();
+        int before = buckets.size();
+
+        //A client racing with the eviction may spend from a bucket that was just removed, and get one request for free.
+        buckets.values().removeIf(bucket -> bucket.isFullAt(now));
+
+        LOG.debug("Evicted {} full rate limit buckets", before - buckets.size());
+    }
+
+    int size()
+    {
+        return buckets.size();
+    }
+
+    private String clientOf(Request request)
+    {
+        return Parameters.Headers.getClientAddressFrom(request, behindProxy);
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "rate-limit-eviction");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private final class Bucket
+    {
+
+        private double tokens;
+        private long updatedAt;
+
+        private Bucket(double tokens, long now)
+        {
+            this.tokens = tokens;
+            this.updatedAt = now;
+        }
+
+        /**
+         * @return {@code 0} if the tokens were spent, or how many tokens are missing otherwise.
+         */
+        private synchronized double trySpend(double cost, long now)
+        {
+            refill(now);
+
+            if (tokens >= cost)
+            {
+                tokens -= cost;
+                return 0;
+            }
+
+            return cost - tokens;
+        }
+
+        private synchronized boolean isFullAt(long now)
+        {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now)
+        {
+            if (now > updatedAt)
+            {
+                tokens = Math.min(capacity, tokens + (now - updatedAt) * refillPerMilli);
+                updatedAt = now;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import spark.Request;
+import spark.Response;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.sirwellington.alchemy.annotations.access.NonInstantiable;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+
+/**
+ * Creates ETags for responses, and answers conditional requests ({@code If-None-Match}) with
+ * {@code 304 Not Modified}, so that clients that already have a response don't download it again.
+ * <p>
+ * ETags are strong: the same ETag always means the same bytes.
+ *
+ * @author SirWellington
+ */
+@NonInstantiable
+public final class ConditionalRequests
+{
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    ConditionalRequests() throws IllegalAccessException
+    {
+        throw new IllegalAccessException("cannot instantiate");
+    }
+
+    /**
+     * Creates an ETag for a response that is determined entirely by the version of the data it was built from, and the
+     * request it answers.
+     *
+     * @param version The version of the data. Must be {@code >= 0}.
+     * @param key     Describes everything about the request that changes the bytes of the response, including its
+     *                format and encoding.
+     * @return
+     */
+    public static String etagOf(long version, @Required String key)
+    {
+        checkThat(version)
+                .usingMessage("version must be >= 0")
+                .is(greaterThanOrEqualTo(0L));
+
+        checkThat(key).is(notNull());
+
+        return quote(version + "-" + hashOf(key));
+    }
+
+    /**
+     * Creates an ETag from the body of a response.
+     *
+     * @param content
+     * @return
+     */
+    public static String etagOf(@Required String content)
+    {
+        checkThat(content).is(notNull());
+
+        return quote(hashOf(content));
+    }
+
+    /**
+     * Determines whether the client already has the response with the specified ETag, according to its
+     * {@code If-None-Match} header.
+     * <p>
+     * As required for {@code If-None-Match}, ETags are compared weakly, so {@code W/"abc"} matches {@code "abc"}.
+     *
+     * @param request The incoming request.
+     * @param etag    The ETag of the response that would be sent.
+     * @return
+     */
+    public static boolean isNotModified(@Required Request request, @Required String etag)
+    {
+        checkThat(request, etag).are(notNull());
+
+        return matches(request.headers(Parameters.Headers.IF_NONE_MATCH), etag);
+    }
+
+    static boolean matches(String ifNoneMatch, String etag)
+    {
+        if (Strings.isNullOrEmpty(ifNoneMatch))
+        {
+            return false;
+        }
+
+        String expected = withoutWeakPrefix(etag.trim());
+
+        for (String candidate : ifNoneMatch.split(","))
+        {
+            candidate = candidate.trim();
+
+            if (candidate.equals("*") || withoutWeakPrefix(candidate).equals(expected))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Answers with {@code 304 Not Modified}, and no body.
+     *
+     * @param response The response to the request.
+     * @return The empty body to return to Spark.
+     */
+    public static String notModified(@Required Response response)
+    {
+        checkThat(response).is(notNull());
+
+        response.status(Responses.StatusCodes.NOT_MODIFIED);
+
+        return "";
+    }
+
+    /**
+     * Sets the {@code ETag} and {@code Cache-Control} headers of a response.
+     *
+     * @param response     The response to the request.
+     * @param etag         The ETag of the response.
+     * @param cacheControl The caching policy of the route.
+     */
+    public static void tag(@Required Response response, @Required String etag, @Required String cacheControl)
+    {
+        checkThat(response, etag, cacheControl).are(notNull());
+
+        response.header(Responses.Headers.ETAG, etag);
+        response.header(Responses.Headers.CACHE_CONTROL, cacheControl);
+    }
+
+    private static String hashOf(String value)
+    {
+        return HASH.hashString(value, StandardCharsets.UTF_8).toString();
+    }
+
+    private static String quote(String value)
+    {
+        return "\"" + value + "\"";
+    }
+
+    private static String withoutWeakPrefix(String etag)
+    {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+}
@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.blacksource.blacknectar.ebt.balance.StateWebsiteFactory;
 import tech.blacksource.blacknectar.service.images.ModuleImageLoader;
+import tech.blacksource.blacknectar.service.operations.stores.GetStoreTileOperation;
 import tech.blacksource.blacknectar.service.operations.stores.SearchStoresOperation;
 import tech.blacksource.blacknectar.service.stores.ModuleStores;
 
@@ -42,6 +43,9 @@ public final class ModuleOperations extends AbstractModule
         bind(GetSampleStoreOperation.class);
         bind(SayHelloOperation.class);
         bind(SearchStoresOperation.class);
+        bind(GetStoreTileOperation.class);
+        bind(AdmissionControl.class);
+        bind(ClientRateLimiter.class);
 
         bind(StateWebsiteFactory.class).toInstance(StateWebsiteFactory.create());
     }
@@ -1,14 +1,20 @@
 package tech.blacksource.blacknectar.service.operations;
 
+import com.google.common.base.Strings;
+import com.google.common.net.InetAddresses;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
 import tech.blacksource.blacknectar.ebt.balance.State;
+import tech.blacksource.blacknectar.service.data.MediaTypes;
 import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
 import tech.sirwellington.alchemy.annotations.arguments.Required;
 
 import static tech.sirwellington.alchemy.arguments.Arguments.checkThat;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.integerString;
 import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
 
 /**
@@ -17,6 +23,202 @@ import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.n
 public final class Parameters
 {
 
+    /**
+     * Request Headers understood by the Service.
+     */
+    public static final class Headers
+    {
+
+        /**
+         * Lets a client ask for a shorter (or longer, up to a limit) time budget than the route's default, in
+         * milliseconds.
+         */
+        public static final String REQUEST_TIMEOUT = "X-Request-Timeout-Millis";
+
+        public static final String ACCEPT = "Accept";
+
+        public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+        public static final String IF_NONE_MATCH = "If-None-Match";
+
+        /**
+         * Set by the HTTP/2 proxy in front of the Service to the address of the client it forwards for.
+         *
+         * @see #getClientAddressFrom(Request, boolean)
+         */
+        public static final String FORWARDED_FOR = "X-Forwarded-For";
+
+        /**
+         * The system property that tells the Service it is deployed behind the proxy in
+         * {@code deploy/nginx/blacknectar.conf}. Unless it is {@code true}, the {@link #FORWARDED_FOR} header is never
+         * trusted.
+         */
+        public static final String BEHIND_PROXY_PROPERTY = "blacknectar.behindProxy";
+
+        /**
+         * Determines the address of the client that sent a request. When the Service is behind the proxy, requests
+         * relayed by it from the same host get the address that the proxy added to the {@link #FORWARDED_FOR} header.
+         * The header of any other request is ignored, so that clients can't claim to be someone else.
+         *
+         * @param request     The incoming request.
+         * @param behindProxy Whether the Service is {@linkplain #BEHIND_PROXY_PROPERTY behind the proxy}.
+         * @return The address of the client, or an empty String if it's unknown.
+         */
+        public static String getClientAddressFrom(@Required Request request, boolean behindProxy)
+        {
+            checkThat(request).is(notNull());
+
+            String address = Strings.nullToEmpty(request.ip());
+
+            if (!behindProxy)
+            {
+                return address;
+            }
+
+            String forwardedFor = request.headers(FORWARDED_FOR);
+
+            if (Strings.isNullOrEmpty(forwardedFor) || !isLoopback(address))
+            {
+                return address;
+            }
+
+            //The proxy appends the address it received the request from, after whatever the client sent.
+            String[] addresses = forwardedFor.split(",");
+            String client = addresses[addresses.length - 1].trim();
+
+            return client.isEmpty() ? address : client;
+        }
+
+        private static boolean isLoopback(String address)
+        {
+            return InetAddresses.isInetAddress(address) && InetAddresses.forString(address).isLoopbackAddress();
+        }
+
+        /**
+         * Determines the time budget for a request, taking the {@link #REQUEST_TIMEOUT} header into account if present.
+         *
+         * @param request       The incoming request.
+         * @param defaultMillis The route's default budget.
+         * @param maxMillis     The most a client may ask for.
+         * @return The time budget, in milliseconds.
+         * @throws BadArgumentException If the header is present, but not a positive number.
+         */
+        public static long getTimeBudgetFrom(@Required Request request, long defaultMillis, long maxMillis) throws BadArgumentException
+        {
+            checkThat(request).is(notNull());
+
+            String header = request.headers(REQUEST_TIMEOUT);
+
+            if (Strings.isNullOrEmpty(header))
+            {
+                return defaultMillis;
+            }
+
+            checkThat(header)
+                    .throwing(BadArgumentException.class)
+                    .usingMessage(REQUEST_TIMEOUT + " must be a number")
+                    .is(integerString());
+
+            long budget = Long.valueOf(header);
+
+            checkThat(budget)
+                    .throwing(BadArgumentException.class)
+                    .usingMessage(REQUEST_TIMEOUT + " must be > 0")
+                    .is(greaterThan(0L));
+
+            return Math.min(budget, maxMillis);
+        }
+
+        /**
+         * Determines how a list of results should be written, based on the {@link #ACCEPT} header. Clients that accept
+         * {@linkplain MediaTypes#APPLICATION_NDJSON newline-delimited JSON} get one result per line; everyone else gets
+         * a JSON Array.
+         *
+         * @param request The incoming request.
+         * @return
+         */
+        public static JsonStreamWriter.Format getJsonFormatFrom(@Required Request request)
+        {
+            checkThat(request).is(notNull());
+
+            String header = request.headers(ACCEPT);
+
+            if (!Strings.isNullOrEmpty(header) && header.contains(MediaTypes.APPLICATION_NDJSON))
+            {
+                return JsonStreamWriter.Format.LINES;
+            }
+
+            return JsonStreamWriter.Format.ARRAY;
+        }
+
+        /**
+         * Determines whether the client would rather have {@linkplain MediaTypes#APPLICATION_CBOR CBOR} than JSON,
+         * based on the {@link #ACCEPT} header.
+         *
+         * @param request The incoming request.
+         * @return
+         * @see tech.blacksource.blacknectar.service.json.CborWriter
+         */
+        public static boolean acceptsCbor(@Required Request request)
+        {
+            checkThat(request).is(notNull());
+
+            String header = request.headers(ACCEPT);
+
+            return !Strings.isNullOrEmpty(header) && header.contains(MediaTypes.APPLICATION_CBOR);
+        }
+    }
+
+    /**
+     * Parameters of the map tile API.
+     */
+    public static final class Tiles
+    {
+
+        public static final String ZOOM = ":z";
+
+        public static final String X = ":x";
+
+        public static final String Y = ":y";
+
+        public static int getZoomFrom(@Required Request request) throws BadArgumentException
+        {
+            return getIntegerFrom(request, ZOOM);
+        }
+
+        public static int getXFrom(@Required Request request) throws BadArgumentException
+        {
+            return getIntegerFrom(request, X);
+        }
+
+        public static int getYFrom(@Required Request request) throws BadArgumentException
+        {
+            return getIntegerFrom(request, Y);
+        }
+
+        private static int getIntegerFrom(Request request, String parameter) throws BadArgumentException
+        {
+            checkThat(request).is(notNull());
+
+            String value = request.params(parameter);
+
+            checkThat(value)
+                    .throwing(BadArgumentException.class)
+                    .usingMessage(parameter.substring(1) + " must be a number")
+                    .is(nonEmptyString())
+                    .is(integerString());
+
+            try
+            {
+                return Integer.parseInt(value);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new BadArgumentException(parameter.substring(1) + " is out of range", ex);
+            }
+        }
+    }
+
     /**
      * Parameters specifically used by the EBT API.
      */
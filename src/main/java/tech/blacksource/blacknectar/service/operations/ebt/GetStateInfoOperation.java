@@ -24,9 +24,12 @@ import org.slf4j.LoggerFactory;
 import spark.*;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.ebt.balance.*;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.blacksource.blacknectar.service.data.MediaTypes;
 import tech.blacksource.blacknectar.service.exceptions.UnsupportedStateException;
+import tech.blacksource.blacknectar.service.json.CborWriter;
 import tech.blacksource.blacknectar.service.json.JSON;
+import tech.blacksource.blacknectar.service.operations.ConditionalRequests;
 import tech.blacksource.blacknectar.service.operations.Parameters;
 
 import static tech.blacksource.blacknectar.service.BlackNectarAssertions.supportedState;
@@ -40,6 +43,11 @@ public class GetStateInfoOperation implements Route
 {
     private final static Logger LOG = LoggerFactory.getLogger(GetStateInfoOperation.class);
 
+    /**
+     * The features of a state only change with a new release.
+     */
+    private final static String CACHE_CONTROL = "public, max-age=86400";
+
     private final Aroma aroma;
     private final StateWebsiteFactory websiteFactory;
 
@@ -52,8 +60,12 @@ public class GetStateInfoOperation implements Route
         this.websiteFactory = websiteFactory;
     }
 
+    /**
+     * Answers with {@code 304 Not Modified} if the client already has the current features of the state. Clients that
+     * {@linkplain Parameters.Headers#acceptsCbor(Request) accept} CBOR get it instead of JSON.
+     */
     @Override
-    public JsonElement handle(Request request, Response response) throws Exception
+    public Object handle(Request request, Response response) throws Exception
     {
         checkThat(request, response).are(notNull());
 
@@ -68,9 +80,21 @@ public class GetStateInfoOperation implements Route
         JsonArray result = getFeaturesFor(stateWebsite);
 
         makeNoteOfFeatures(state, result);
-        response.type(MediaTypes.APPLICATION_JSON);
 
-        return result;
+        boolean binary = Parameters.Headers.acceptsCbor(request);
+        response.type(binary ? MediaTypes.APPLICATION_CBOR : MediaTypes.APPLICATION_JSON);
+        response.header(Responses.Headers.VARY, Parameters.Headers.ACCEPT);
+
+        String content = result.toString();
+        String etag = ConditionalRequests.etagOf(binary ? MediaTypes.APPLICATION_CBOR + "|" + content : content);
+        ConditionalRequests.tag(response, etag, CACHE_CONTROL);
+
+        if (ConditionalRequests.isNotModified(request, etag))
+        {
+            return ConditionalRequests.notModified(response);
+        }
+
+        return binary ? CborWriter.toBytes(result) : result;
     }
 
     private JsonArray getFeaturesFor(StateWebsite stateWebsite)
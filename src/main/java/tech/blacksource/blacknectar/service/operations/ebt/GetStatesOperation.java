@@ -25,9 +25,13 @@ import spark.*;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.ebt.balance.StateWebsiteFactory;
 import tech.blacksource.blacknectar.service.data.MediaTypes;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.json.CborWriter;
 import tech.blacksource.blacknectar.service.json.EBTJsonSerializer;
 import tech.blacksource.blacknectar.service.json.JSON;
+import tech.blacksource.blacknectar.service.operations.ConditionalRequests;
+import tech.blacksource.blacknectar.service.operations.Parameters;
 
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
@@ -42,6 +46,11 @@ public class GetStatesOperation implements Route
 
     private final static Logger LOG = LoggerFactory.getLogger(GetStatesOperation.class);
 
+    /**
+     * The supported states only change with a new release.
+     */
+    private final static String CACHE_CONTROL = "public, max-age=86400";
+
     private final Aroma aroma;
     private final EBTJsonSerializer jsonSerializer;
     private final StateWebsiteFactory stateWebsites;
@@ -57,14 +66,20 @@ public class GetStatesOperation implements Route
         this.stateWebsites = stateWebsites;
     }
 
+    /**
+     * Answers with {@code 304 Not Modified} if the client already has the current list of states. Clients that
+     * {@linkplain Parameters.Headers#acceptsCbor(Request) accept} CBOR get it instead of JSON.
+     */
     @Override
-    public JsonArray handle(Request request, Response response) throws Exception
+    public Object handle(Request request, Response response) throws Exception
     {
         checkThat(request, response)
                 .throwing(BadArgumentException.class)
                 .are(notNull());
 
-        response.type(MediaTypes.APPLICATION_JSON);
+        boolean binary = Parameters.Headers.acceptsCbor(request);
+        response.type(binary ? MediaTypes.APPLICATION_CBOR : MediaTypes.APPLICATION_JSON);
+        response.header(Responses.Headers.VARY, Parameters.Headers.ACCEPT);
 
         JsonArray results = stateWebsites.getSupportedStates()
                                          .stream()
@@ -73,7 +88,16 @@ public class GetStatesOperation implements Route
 
         makeNoteOfResults(request, results);
 
-        return results;
+        String content = results.toString();
+        String etag = ConditionalRequests.etagOf(binary ? MediaTypes.APPLICATION_CBOR + "|" + content : content);
+        ConditionalRequests.tag(response, etag, CACHE_CONTROL);
+
+        if (ConditionalRequests.isNotModified(request, etag))
+        {
+            return ConditionalRequests.notModified(response);
+        }
+
+        return binary ? CborWriter.toBytes(results) : results;
     }
 
     private void makeNoteOfResults(Request request, JsonArray results)
@@ -17,7 +17,7 @@
 package tech.blacksource.blacknectar.service.operations.ebt;
 
 import java.util.List;
-
+import java.util.concurrent.*;
 import javax.inject.Inject;
 
 import com.google.gson.JsonObject;
@@ -28,11 +28,13 @@ import spark.*;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.ebt.balance.*;
 import tech.blacksource.blacknectar.service.Responses;
+import tech.blacksource.blacknectar.service.data.Deadline;
 import tech.blacksource.blacknectar.service.data.MediaTypes;
-import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
-import tech.blacksource.blacknectar.service.exceptions.UnsupportedStateException;
+import tech.blacksource.blacknectar.service.exceptions.*;
 import tech.blacksource.blacknectar.service.json.EBTJsonSerializer;
 import tech.blacksource.blacknectar.service.json.OperationResult;
+import tech.blacksource.blacknectar.service.operations.AdmissionControl;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
 import tech.blacksource.blacknectar.service.operations.Parameters;
 
 import static tech.blacksource.blacknectar.service.BlackNectarAssertions.supportedState;
@@ -40,25 +42,73 @@ import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
 
 /**
+ * Signs into a state's EBT website.
+ * <p>
+ * Signing in waits on the state's website, so it gets a {@link Deadline}, just like a search does. It runs on a
+ * separate thread, so that the request can give up on it when the deadline passes, or when the client disconnects.
+ *
  * @author SirWellington
  */
 public class SignInOperation implements Route
 {
     private final static Logger LOG = LoggerFactory.getLogger(SignInOperation.class);
 
+    /**
+     * How long signing in may take, unless the client asks for less.
+     */
+    private final static long DEFAULT_TIME_BUDGET_MILLIS = 15_000;
+
+    /**
+     * The longest time budget a client may ask for.
+     */
+    private final static long MAX_TIME_BUDGET_MILLIS = 30_000;
+
+    /**
+     * The most sign-ins that may be waiting on state websites at once, including ones that ran past their deadline
+     * and have not stopped yet.
+     */
+    private final static int MAX_THREADS = 64;
+
+    private final static int RETRY_AFTER_SECONDS = 1;
+
     private final Aroma aroma;
     private final EBTJsonSerializer jsonSerializer;
     private final StateWebsiteFactory websiteFactory;
+    private final ClientDisconnectMonitor disconnectMonitor;
+    private final ExecutorService executor;
 
     @Inject
-    SignInOperation(Aroma aroma, EBTJsonSerializer jsonSerializer, StateWebsiteFactory websiteFactory)
+    SignInOperation(Aroma aroma,
+                    EBTJsonSerializer jsonSerializer,
+                    StateWebsiteFactory websiteFactory,
+                    ClientDisconnectMonitor disconnectMonitor)
     {
-        checkThat(aroma, jsonSerializer, websiteFactory)
+        this(aroma,
+             jsonSerializer,
+             websiteFactory,
+             disconnectMonitor,
+             new ThreadPoolExecutor(0,
+                                    MAX_THREADS,
+                                    60,
+                                    TimeUnit.SECONDS,
+                                    new SynchronousQueue<>(),
+                                    SignInOperation::newDaemonThread));
+    }
+
+    SignInOperation(Aroma aroma,
+                    EBTJsonSerializer jsonSerializer,
+                    StateWebsiteFactory websiteFactory,
+                    ClientDisconnectMonitor disconnectMonitor,
+                    ExecutorService executor)
+    {
+        checkThat(aroma, jsonSerializer, websiteFactory, disconnectMonitor, executor)
                 .are(notNull());
 
         this.aroma = aroma;
         this.jsonSerializer = jsonSerializer;
         this.websiteFactory = websiteFactory;
+        this.disconnectMonitor = disconnectMonitor;
+        this.executor = executor;
     }
 
     @Override
@@ -81,6 +131,9 @@ public class SignInOperation implements Route
 
         makeNoteThatRequestReceived(request, state);
 
+        long timeBudget = Parameters.Headers.getTimeBudgetFrom(request, DEFAULT_TIME_BUDGET_MILLIS, MAX_TIME_BUDGET_MILLIS);
+        Deadline deadline = Deadline.after(timeBudget, TimeUnit.MILLISECONDS);
+
         String requestBody = request.body();
 
         List<FieldValue> fieldValues = jsonSerializer.deserializeFieldValues(requestBody);
@@ -91,12 +144,72 @@ public class SignInOperation implements Route
             return Responses.badArgument("Field values missing from request", response);
         }
 
-        OperationResult result = tryToSignIntoState(state, fieldValues);
+        OperationResult result;
+
+        try (ClientDisconnectMonitor.Watch watch = disconnectMonitor.watch(request, deadline))
+        {
+            result = AdmissionControl.sample(request, deadline, () -> signInBefore(deadline, state, fieldValues));
+        }
+        catch (DeadlineExceededException ex)
+        {
+            makeNoteThatSignInRanPastDeadline(request, state, deadline);
+            throw ex;
+        }
+
         response.type(MediaTypes.APPLICATION_JSON);
 
         return result.asJson();
     }
 
+    private OperationResult signInBefore(Deadline deadline, State state, List<FieldValue> fieldValues)
+    {
+        Future<OperationResult> attempt;
+
+        try
+        {
+            attempt = executor.submit(() -> tryToSignIntoState(state, fieldValues));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            throw new ServiceOverloadedException("Too many sign-ins in progress. Try again shortly.", RETRY_AFTER_SECONDS);
+        }
+
+        deadline.onCancel(() -> attempt.cancel(true));
+
+        try
+        {
+            return attempt.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException ex)
+        {
+            attempt.cancel(true);
+            throw new DeadlineExceededException("Sign in ran past its deadline", ex);
+        }
+        catch (CancellationException ex)
+        {
+            throw new DeadlineExceededException("Sign in was cancelled", ex);
+        }
+        catch (InterruptedException ex)
+        {
+            attempt.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new OperationFailedException("Interrupted while signing in", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw new OperationFailedException("Failed to sign in", ex.getCause());
+        }
+        finally
+        {
+            deadline.clearCancelHook();
+        }
+    }
+
     private OperationResult tryToSignIntoState(State state, List<FieldValue> fieldValues)
     {
 
@@ -130,4 +243,18 @@ public class SignInOperation implements Route
         LOG.warn(message, requestBody);
         aroma.sendMediumPriorityMessage("Bad Argument", message, requestBody);
     }
+
+    private void makeNoteThatSignInRanPastDeadline(Request request, State state, Deadline deadline)
+    {
+        String message = "Sign in to state {} from [{}] was stopped. Cancelled: {}";
+        LOG.warn(message, state, request.ip(), deadline.isCancelled());
+        aroma.sendMediumPriorityMessage("Request Stopped", message, state, request.ip(), deadline.isCancelled());
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "ebt-sign-in");
+        thread.setDaemon(true);
+        return thread;
+    }
 }
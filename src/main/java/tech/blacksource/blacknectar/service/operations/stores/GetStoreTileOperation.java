@@ -0,0 +1,346 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.*;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.blacksource.blacknectar.service.data.Deadline;
+import tech.blacksource.blacknectar.service.data.MediaTypes;
+import tech.blacksource.blacknectar.service.data.StoreClusters;
+import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.blacksource.blacknectar.service.json.CborWriter;
+import tech.blacksource.blacknectar.service.operations.AdmissionControl;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
+import tech.blacksource.blacknectar.service.operations.ConditionalRequests;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * Draws a map tile of Stores: {@code /stores/tiles/:z/:x/:y}.
+ * <p>
+ * Tiles up to {@link StoreClusters#MAX_CLUSTER_ZOOM} show {@linkplain StoreClusters clusters} of Stores, with how many
+ * Stores each one stands for and where its centroid is. Stores that are far enough from the others, and every Store on
+ * deeper tiles, are shown on their own, with their {@linkplain StoreField#MAP_VIEW map fields}.
+ * <p>
+ * With {@code ?packed=true}, positions are written like a vector tile: as whole numbers from 0 to {@link #EXTENT}
+ * inside the tile, in flat arrays, instead of as latitudes and longitudes.
+ * <p>
+ * Tiles only change with the {@linkplain tech.blacksource.blacknectar.service.data.DatasetVersion version of the
+ * data}, which every tile includes. A tile requested with {@code ?v=} set to the current version can be cached by the
+ * client forever.
+ * <p>
+ * Drawing a tile gets a {@link Deadline}, just like a search does, which also stops it when the client disconnects.
+ *
+ * @author SirWellington
+ */
+public class GetStoreTileOperation implements Route
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(GetStoreTileOperation.class);
+
+    /**
+     * The size of a tile, in the units of packed positions.
+     */
+    static final int EXTENT = 4096;
+
+    /**
+     * Tiles without a version in the URL are revalidated with their ETag after an hour.
+     */
+    private final static String CACHE_CONTROL = "public, max-age=3600";
+
+    /**
+     * The content of a URL with a version never changes.
+     */
+    private final static String VERSIONED_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /**
+     * How long drawing a tile may take, unless the client asks for less.
+     */
+    private final static long DEFAULT_TIME_BUDGET_MILLIS = 2_000;
+
+    /**
+     * The longest time budget a client may ask for.
+     */
+    private final static long MAX_TIME_BUDGET_MILLIS = 15_000;
+
+    /**
+     * In packed tiles the position of a Store is written separately, so it is left out of the Store itself.
+     */
+    private final static Set<StoreField> PACKED_FIELDS = Collections.unmodifiableSet(EnumSet.of(StoreField.STORE_ID,
+                                                                                                StoreField.NAME));
+
+    private final Aroma aroma;
+    private final StoreTiles tiles;
+    private final ClientDisconnectMonitor disconnectMonitor;
+
+    @Inject
+    GetStoreTileOperation(Aroma aroma, StoreTiles tiles, ClientDisconnectMonitor disconnectMonitor)
+    {
+        checkThat(aroma, tiles, disconnectMonitor)
+                .are(notNull());
+
+        this.aroma = aroma;
+        this.tiles = tiles;
+        this.disconnectMonitor = disconnectMonitor;
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception
+    {
+        checkThat(request, response)
+                .usingMessage("request and response cannot be null")
+                .throwing(BadArgumentException.class)
+                .are(notNull());
+
+        long begin = System.currentTimeMillis();
+
+        long timeBudget = Parameters.Headers.getTimeBudgetFrom(request, DEFAULT_TIME_BUDGET_MILLIS, MAX_TIME_BUDGET_MILLIS);
+        Deadline deadline = Deadline.after(timeBudget, TimeUnit.MILLISECONDS);
+
+        int zoom = Parameters.Tiles.getZoomFrom(request);
+        int x = Parameters.Tiles.getXFrom(request);
+        int y = Parameters.Tiles.getYFrom(request);
+
+        try
+        {
+            StoreClusters.checkTile(zoom, x, y);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new BadArgumentException(ex.getMessage(), ex);
+        }
+
+        boolean packed = Boolean.parseBoolean(request.queryParams(QueryKeys.PACKED));
+        boolean binary = Parameters.Headers.acceptsCbor(request);
+        String mediaType = binary ? MediaTypes.APPLICATION_CBOR : MediaTypes.APPLICATION_JSON;
+        String key = mediaType + "|" + zoom + "/" + x + "/" + y + "|" + packed;
+
+        StoreTiles.Snapshot snapshot = tiles.getSnapshot();
+
+        String etag = null;
+        String cacheControl = null;
+
+        if (snapshot.isVersioned())
+        {
+            etag = ConditionalRequests.etagOf(snapshot.getVersion(), key);
+            boolean versionedURL = String.valueOf(snapshot.getVersion()).equals(request.queryParams(QueryKeys.VERSION));
+            cacheControl = versionedURL ? VERSIONED_CACHE_CONTROL : CACHE_CONTROL;
+
+            if (ConditionalRequests.isNotModified(request, etag))
+            {
+                prepareResponse(response, mediaType, etag, cacheControl);
+                return ConditionalRequests.notModified(response);
+            }
+        }
+
+        byte[] body = snapshot.getTile(key);
+
+        if (body == null)
+        {
+            JsonObject tile;
+
+            try (ClientDisconnectMonitor.Watch watch = disconnectMonitor.watch(request, deadline))
+            {
+                tile = AdmissionControl.sample(request, deadline, () -> draw(snapshot, deadline, zoom, x, y, packed));
+            }
+            catch (DeadlineExceededException ex)
+            {
+                makeNoteThatTileRanPastDeadline(request, zoom, x, y, deadline);
+                throw ex;
+            }
+
+            body = binary ? CborWriter.toBytes(tile) : tile.toString().getBytes(StandardCharsets.UTF_8);
+
+            snapshot.putTile(key, body);
+        }
+
+        //The response is only tagged once the tile is drawn, so that a tile that ran past its deadline is not cached.
+        prepareResponse(response, mediaType, etag, cacheControl);
+
+        makeNoteOfTileDrawn(request, zoom, x, y, System.currentTimeMillis() - begin);
+
+        return binary ? body : new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tags the response with its ETag, or marks it as stale if the data it was drawn from has no version.
+     */
+    private void prepareResponse(Response response, String mediaType, String etag, String cacheControl)
+    {
+        response.type(mediaType);
+        response.header(Responses.Headers.VARY, Parameters.Headers.ACCEPT);
+
+        if (etag != null)
+        {
+            ConditionalRequests.tag(response, etag, cacheControl);
+        }
+        else
+        {
+            response.header(Responses.Headers.CACHE_CONTROL, "no-cache");
+            response.header(Responses.Headers.WARNING, Responses.Headers.STALE_WARNING);
+        }
+    }
+
+    private JsonObject draw(StoreTiles.Snapshot snapshot, Deadline deadline, int zoom, int x, int y, boolean packed)
+    {
+        List<StoreClusters.Cluster> points = snapshot.getClusters().getTile(zoom, x, y, deadline);
+
+        JsonObject tile = new JsonObject();
+        tile.addProperty(Keys.ZOOM, zoom);
+        tile.addProperty(Keys.X, x);
+        tile.addProperty(Keys.Y, y);
+
+        if (snapshot.isVersioned())
+        {
+            tile.addProperty(Keys.VERSION, snapshot.getVersion());
+        }
+
+        JsonArray clusters = new JsonArray();
+        JsonArray stores = new JsonArray();
+
+        if (packed)
+        {
+            JsonArray storePoints = new JsonArray();
+            double scale = (1L << zoom) * (double) EXTENT;
+
+            for (StoreClusters.Cluster point : points)
+            {
+                int packedX = pack(point.getX(), x, scale);
+                int packedY = pack(point.getY(), y, scale);
+
+                if (point.isSingleStore())
+                {
+                    stores.add(point.getStore().asJSON(PACKED_FIELDS));
+                    storePoints.add(new JsonPrimitive(packedX));
+                    storePoints.add(new JsonPrimitive(packedY));
+                }
+                else
+                {
+                    clusters.add(new JsonPrimitive(packedX));
+                    clusters.add(new JsonPrimitive(packedY));
+                    clusters.add(new JsonPrimitive(point.getCount()));
+                }
+            }
+
+            tile.addProperty(Keys.EXTENT, EXTENT);
+            tile.add(Keys.CLUSTERS, clusters);
+            tile.add(Keys.STORES, stores);
+            tile.add(Keys.STORE_POINTS, storePoints);
+
+            return tile;
+        }
+
+        for (StoreClusters.Cluster point : points)
+        {
+            if (point.isSingleStore())
+            {
+                stores.add(point.getStore().asJSON(StoreField.MAP_VIEW));
+            }
+            else
+            {
+                JsonObject cluster = new JsonObject();
+                cluster.addProperty(Keys.COUNT, point.getCount());
+                cluster.addProperty(Keys.LATITUDE, point.getLatitude());
+                cluster.addProperty(Keys.LONGITUDE, point.getLongitude());
+
+                clusters.add(cluster);
+            }
+        }
+
+        tile.add(Keys.CLUSTERS, clusters);
+        tile.add(Keys.STORES, stores);
+
+        return tile;
+    }
+
+    /**
+     * Converts a coordinate of the whole world into a position inside the tile, from 0 to {@code EXTENT - 1}.
+     */
+    private static int pack(double coordinate, int tile, double scale)
+    {
+        int position = (int) Math.floor(coordinate * scale - (double) tile * EXTENT);
+
+        return Math.max(0, Math.min(EXTENT - 1, position));
+    }
+
+    private void makeNoteOfTileDrawn(Request request, int zoom, int x, int y, long delay)
+    {
+        String message = "Drew tile {}/{}/{} in {}ms for IP [{}]";
+        LOG.debug(message, zoom, x, y, delay, request.ip());
+
+        aroma.begin()
+             .titled("Tile Drawn")
+             .withBody(message, zoom, x, y, delay, request.ip())
+             .withPriority(Priority.LOW)
+             .send();
+    }
+
+    private void makeNoteThatTileRanPastDeadline(Request request, int zoom, int x, int y, Deadline deadline)
+    {
+        String message = "Drawing tile {}/{}/{} for IP [{}] was stopped. Cancelled: {}";
+        LOG.warn(message, zoom, x, y, request.ip(), deadline.isCancelled());
+
+        aroma.begin()
+             .titled("Request Stopped")
+             .withBody(message, zoom, x, y, request.ip(), deadline.isCancelled())
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+    static class QueryKeys
+    {
+
+        static final String PACKED = "packed";
+        static final String VERSION = "v";
+    }
+
+    /**
+     * The Keys used in a tile.
+     */
+    static class Keys
+    {
+
+        static final String ZOOM = "zoom";
+        static final String X = "x";
+        static final String Y = "y";
+        static final String VERSION = "version";
+        static final String EXTENT = "extent";
+        static final String CLUSTERS = "clusters";
+        static final String STORES = "stores";
+        static final String STORE_POINTS = "store_points";
+        static final String COUNT = "count";
+        static final String LATITUDE = "latitude";
+        static final String LONGITUDE = "longitude";
+    }
+
+}
@@ -16,9 +16,14 @@
 
 package tech.blacksource.blacknectar.service.operations.stores;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Strings;
 import com.google.gson.JsonArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,21 +31,30 @@ import sir.wellington.alchemy.collections.sets.Sets;
 import spark.*;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
-import tech.blacksource.blacknectar.service.data.BlackNectarSearchRequest;
-import tech.blacksource.blacknectar.service.data.StoreRepository;
-import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
-import tech.blacksource.blacknectar.service.exceptions.OperationFailedException;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.blacksource.blacknectar.service.data.*;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.CborWriter;
 import tech.blacksource.blacknectar.service.json.JSON;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.operations.AdmissionControl;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
+import tech.blacksource.blacknectar.service.operations.ClientRateLimiter;
+import tech.blacksource.blacknectar.service.operations.ConditionalRequests;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.blacksource.blacknectar.service.operations.ResponseCompression;
 import tech.blacksource.blacknectar.service.stores.Location;
 import tech.blacksource.blacknectar.service.stores.Store;
+import tech.blacksource.blacknectar.service.stores.StoreField;
 import tech.sirwellington.alchemy.arguments.AlchemyAssertion;
 import tech.sirwellington.alchemy.arguments.assertions.CollectionAssertions;
 
 import static tech.blacksource.blacknectar.service.BlackNectarAssertions.argumentWithSaneLength;
-import static tech.blacksource.blacknectar.service.data.MediaTypes.APPLICATION_JSON;
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.AddressAssertions.validZipCodeString;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.falseStatement;
+import static tech.sirwellington.alchemy.arguments.assertions.BooleanAssertions.trueStatement;
 import static tech.sirwellington.alchemy.arguments.assertions.CollectionAssertions.elementInCollection;
 import static tech.sirwellington.alchemy.arguments.assertions.GeolocationAssertions.validLatitude;
 import static tech.sirwellington.alchemy.arguments.assertions.GeolocationAssertions.validLongitude;
@@ -61,28 +75,114 @@ public class SearchStoresOperation implements Route
     /**
      * In the event that queries do not include a limit, this one is injected.
      */
-    private final static int DEFAULT_LIMIT = 250;
+    final static int DEFAULT_LIMIT = 250;
 
     /**
      * The Maximum
      */
     private final static double MAX_RADIUS_METERS = 100_000;
 
+    /**
+     * The most Stores a search of a {@linkplain BoundingBox bounding box} returns. Larger boxes are
+     * {@linkplain QueryKeys#BOUNDING_BOX sampled} down to this many.
+     */
+    final static int MAX_BOUNDING_BOX_LIMIT = 1_000;
+
+    /**
+     * How long a search may take, unless the client asks for less.
+     */
+    private final static long DEFAULT_TIME_BUDGET_MILLIS = 5_000;
+
+    /**
+     * The longest time budget a client may ask for.
+     */
+    private final static long MAX_TIME_BUDGET_MILLIS = 15_000;
+
+    /**
+     * Responses depend on both the format and the encoding that the client accepts.
+     */
+    private final static String VARY_HEADERS = Parameters.Headers.ACCEPT + ", " + Parameters.Headers.ACCEPT_ENCODING;
+
+    /**
+     * Clients may reuse a response for a few minutes, and revalidate it with its ETag after that.
+     */
+    private final static String CACHE_CONTROL = "public, max-age=300";
+
+    /**
+     * Responses built while the database is down are not tagged, and must not be reused.
+     */
+    private final static String STALE_CACHE_CONTROL = "no-cache";
+
+    /**
+     * A search costs one {@linkplain ClientRateLimiter rate limit} token for every this many meters of radius.
+     */
+    private final static double METERS_PER_TOKEN = 5_000;
+
+    /**
+     * What the most expensive searches cost, including searches by name across the whole country.
+     */
+    private final static double MAX_SEARCH_COST = 20;
+
+    private final static double METERS_PER_DEGREE = 111_000;
+
+    /**
+     * Requests with this attribute set to {@code true} are {@linkplain SearchWarmUp warm-ups}. They run through the
+     * same code as any other search, but are never answered from or kept in the {@link StoreResponseCache}, are not
+     * charged to a {@linkplain ClientRateLimiter rate limit}, and are not reported.
+     */
+    static final String WARM_UP_ATTRIBUTE = SearchStoresOperation.class.getName() + ".warmUp";
+
     private final Aroma aroma;
     private final StoreRepository storesRepository;
+    private final ClientDisconnectMonitor disconnectMonitor;
+    private final StoreResponseCache responseCache;
+    private final DatasetVersion datasetVersion;
+    private final ClientRateLimiter rateLimiter;
 
     @Inject
-    SearchStoresOperation(Aroma aroma, StoreRepository storesRepository)
+    SearchStoresOperation(Aroma aroma,
+                          StoreRepository storesRepository,
+                          ClientDisconnectMonitor disconnectMonitor,
+                          StoreResponseCache responseCache,
+                          DatasetVersion datasetVersion,
+                          ClientRateLimiter rateLimiter)
     {
-        checkThat(aroma, storesRepository)
+        checkThat(aroma, storesRepository, disconnectMonitor, responseCache, datasetVersion, rateLimiter)
                 .are(notNull());
 
         this.aroma = aroma;
         this.storesRepository = storesRepository;
+        this.disconnectMonitor = disconnectMonitor;
+        this.responseCache = responseCache;
+        this.datasetVersion = datasetVersion;
+        this.rateLimiter = rateLimiter;
     }
 
+    /**
+     * When the underlying servlet response is available, the Stores are streamed to it as JSON, one at a time, and an
+     * empty body is returned to Spark. The first few are {@linkplain StreamedResponseBody held back}, so that a search
+     * that fails early still gets an error response. Otherwise the Stores are returned as a {@link JsonArray}.
+     * <p>
+     * Clients that {@linkplain Parameters.Headers#getJsonFormatFrom(Request) accept}
+     * {@linkplain MediaTypes#APPLICATION_NDJSON newline-delimited JSON} get one Store per line instead of an Array.
+     * Clients that {@linkplain Parameters.Headers#acceptsCbor(Request) accept} {@linkplain CborWriter CBOR} get the
+     * same Array in binary.
+     * <p>
+     * Streamed and cached responses are {@linkplain ResponseCompression compressed} with gzip or deflate, if the client
+     * accepts it.
+     * <p>
+     * Responses are kept in the {@link StoreResponseCache}, and repeat searches are answered from it.
+     * <p>
+     * Responses are tagged with the {@linkplain DatasetVersion version of the data} and the search, and clients that
+     * already have the current response get a {@code 304 Not Modified} without the search being run at all.
+     * <p>
+     * Searches that actually run are charged to the client's {@linkplain ClientRateLimiter rate limit}, by
+     * {@linkplain #costOf(BlackNectarSearchRequest) how large} they are.
+     * <p>
+     * {@linkplain #WARM_UP_ATTRIBUTE Warm-ups} skip the response cache and the rate limit.
+     */
     @Override
-    public JsonArray handle(Request request, Response response) throws Exception
+    public Object handle(Request request, Response response) throws Exception
     {
         checkThat(request, response)
                 .usingMessage("request and response cannot be null")
@@ -97,28 +197,364 @@ public class SearchStoresOperation implements Route
 
         makeNoteOfRequestReceived(request);
 
-        List<Store> stores = findStores(request);
+        long timeBudget = Parameters.Headers.getTimeBudgetFrom(request, DEFAULT_TIME_BUDGET_MILLIS, MAX_TIME_BUDGET_MILLIS);
+        JsonStreamWriter.Format format = Parameters.Headers.getJsonFormatFrom(request);
+        boolean binary = Parameters.Headers.acceptsCbor(request);
+        String mediaType = binary ? MediaTypes.APPLICATION_CBOR : format.getMediaType();
+        Deadline deadline = Deadline.after(timeBudget, TimeUnit.MILLISECONDS);
+
+        BlackNectarSearchRequest searchRequest = createSearchRequestFrom(request);
+        searchRequest.withDeadline(deadline);
+        responseCache.quantize(searchRequest);
+
+        String cacheKey = responseCache.keyFor(searchRequest, mediaType);
+        ResponseCompression.Encoding encoding = ResponseCompression.negotiate(request);
+
+        String etag = etagFor(cacheKey, encoding);
+
+        if (etag != null && ConditionalRequests.isNotModified(request, etag))
+        {
+            ConditionalRequests.tag(response, etag, CACHE_CONTROL);
+            response.header(Responses.Headers.VARY, VARY_HEADERS);
+            makeNoteOfRequestNotModified(begin, request);
+            return ConditionalRequests.notModified(response);
+        }
+
+        boolean warmUp = isWarmUp(request);
+        StoreResponseCache.Entry cached = warmUp ? null : responseCache.get(cacheKey);
+
+        if (cached != null)
+        {
+            return respondFromCache(request, response, begin, cacheKey, cached, mediaType, encoding, etag);
+        }
+
+        if (!warmUp)
+        {
+            rateLimiter.spend(request, costOf(searchRequest));
+        }
+
+        long version = responseCache.currentVersion();
+
+        if (binary)
+        {
+            return respondWithCbor(request, response, begin, searchRequest, cacheKey, version, encoding, etag);
+        }
+
+        HttpServletResponse rawResponse = response.raw();
+
+        if (rawResponse != null)
+        {
+            //The first Stores are held back, so that a search that fails early turns into an error instead of a
+            //truncated 200. The response is only prepared once it opens, after the search has started to succeed.
+            StreamedResponseBody body = new StreamedResponseBody(() ->
+            {
+                prepareResponse(response, mediaType, searchRequest, etag);
+                return ResponseCompression.compress(rawResponse, encoding);
+            });
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+            JsonStreamWriter writer = new JsonStreamWriter(out, format);
+            int totalStores;
+
+            try (ClientDisconnectMonitor.Watch watch = disconnectMonitor.watch(request, deadline))
+            {
+                totalStores = streamStores(request, searchRequest, writer);
+            }
+            catch (RuntimeException ex)
+            {
+                if (!body.isOpen())
+                {
+                    throw ex;
+                }
+
+                //The status has already been sent, so the most that can be done is to end the body cleanly.
+                makeNoteThatStreamEndedEarly(request, writer.getCount(), ex);
+                body.endEarly(format);
+                return "";
+            }
+
+            body.finish();
+
+            cacheIfFresh(request, searchRequest, cacheKey, body.getBytes(), totalStores, version);
+            makeNoteOfRequestCompleted(begin, request, totalStores);
+
+            return "";
+        }
+
+        List<Store> stores;
+
+        try (ClientDisconnectMonitor.Watch watch = disconnectMonitor.watch(request, deadline))
+        {
+            stores = findStores(request, searchRequest);
+        }
+
+        prepareResponse(response, mediaType, searchRequest, etag);
+
+        if (format == JsonStreamWriter.Format.LINES)
+        {
+            StringWriter lines = new StringWriter();
+            JsonStreamWriter writer = new JsonStreamWriter(lines, format);
+
+            writer.begin();
+            stores.forEach(store -> writer.write(store.asJSON(searchRequest.fields)));
+            writer.end();
+
+            cacheIfFresh(request, searchRequest, cacheKey, lines.toString().getBytes(StandardCharsets.UTF_8), stores.size(), version);
+            makeNoteOfRequestCompleted(begin, request, stores.size());
+
+            return lines.toString();
+        }
 
         JsonArray json = stores.stream()
-                               .map(Store::asJSON)
+                               .map(store -> store.asJSON(searchRequest.fields))
                                .collect(JSON.collectArray());
 
-        makeNoteOfRequestCompleted(begin, request, json);
+        cacheIfFresh(request, searchRequest, cacheKey, json.toString().getBytes(StandardCharsets.UTF_8), json.size(), version);
+        makeNoteOfRequestCompleted(begin, request, json.size());
 
+        return json;
+    }
+
+    /**
+     * Searches cost more the larger the area they cover, from 1 token for a search around a neighborhood, up to
+     * {@link #MAX_SEARCH_COST} for a search by name with no area at all.
+     */
+    static double costOf(BlackNectarSearchRequest request)
+    {
+        double radius;
+
+        if (request.hasBoundingBox())
+        {
+            BoundingBox box = request.boundingBox;
+            radius = Math.max(box.getLatitudeSpan(), box.getLongitudeSpan()) * METERS_PER_DEGREE / 2;
+        }
+        else if (request.hasCenter())
+        {
+            radius = request.radiusInMeters;
+        }
+        else if (request.hasZipCode())
+        {
+            return 1;
+        }
+        else
+        {
+            return MAX_SEARCH_COST;
+        }
+
+        return Math.max(1, Math.min(MAX_SEARCH_COST, radius / METERS_PER_TOKEN));
+    }
+
+    private Object respondFromCache(Request request,
+                                    Response response,
+                                    long begin,
+                                    String cacheKey,
+                                    StoreResponseCache.Entry cached,
+                                    String mediaType,
+                                    ResponseCompression.Encoding encoding,
+                                    String etag) throws IOException
+    {
+        //Only fresh responses are cached, so there is no need for a Warning header.
         response.status(200);
-        response.type(APPLICATION_JSON);
+        response.type(mediaType);
+        response.header(Responses.Headers.VARY, VARY_HEADERS);
+        tagResponse(response, etag, false);
 
-        return json;
+        makeNoteOfRequestCompleted(begin, request, cached.totalStores);
+
+        HttpServletResponse rawResponse = response.raw();
+
+        if (rawResponse == null && MediaTypes.APPLICATION_CBOR.equals(mediaType))
+        {
+            return cached.json;
+        }
+
+        if (rawResponse == null)
+        {
+            return new String(cached.json, StandardCharsets.UTF_8);
+        }
+
+        OutputStream out = rawResponse.getOutputStream();
+
+        if (encoding != ResponseCompression.Encoding.IDENTITY && cached.json.length >= ResponseCompression.MIN_BYTES)
+        {
+            ResponseCompression.Deflated deflated = responseCache.deflatedBodyOf(cacheKey, cached);
+
+            response.header(Responses.Headers.CONTENT_ENCODING, encoding.getToken());
+            rawResponse.setContentLength(deflated.lengthAs(encoding));
+            deflated.writeTo(out, encoding);
+        }
+        else
+        {
+            rawResponse.setContentLength(cached.json.length);
+            out.write(cached.json);
+        }
+
+        out.flush();
+
+        return "";
     }
 
-    private List<Store> findStores(Request request)
+    /**
+     * Works out the ETag that a fresh response to the search would have. No headers are set here, since whether the
+     * response may be tagged is only known once the search has run, from its
+     * {@linkplain BlackNectarSearchRequest#servedStale own flag}.
+     * <p>
+     * A client whose copy has this ETag already has the current data, so it may be told so even while searches are
+     * served from the snapshot.
+     *
+     * @return The ETag, or {@code null} if the version of the data is unknown.
+     */
+    private String etagFor(String cacheKey, ResponseCompression.Encoding encoding)
     {
+        long version = datasetVersion.getVersion();
 
-        BlackNectarSearchRequest searchRequest = createSearchRequestFrom(request);
+        if (version == DatasetVersion.UNKNOWN)
+        {
+            return null;
+        }
+
+        //The same search is sent as different bytes in each encoding, so each gets its own ETag.
+        return ConditionalRequests.etagOf(version, cacheKey + "|" + encoding.getToken());
+    }
+
+    /**
+     * Sets the {@code ETag} and {@code Cache-Control} headers of a response that is about to be sent. Responses that
+     * were {@linkplain BlackNectarSearchRequest#servedStale served from stale data} are never tagged, and carry a
+     * {@code Warning} instead.
+     */
+    private void tagResponse(Response response, String etag, boolean servedStale)
+    {
+        if (servedStale)
+        {
+            response.header(Responses.Headers.CACHE_CONTROL, STALE_CACHE_CONTROL);
+            response.header(Responses.Headers.WARNING, Responses.Headers.STALE_WARNING);
+        }
+        else if (etag == null)
+        {
+            response.header(Responses.Headers.CACHE_CONTROL, STALE_CACHE_CONTROL);
+        }
+        else
+        {
+            ConditionalRequests.tag(response, etag, CACHE_CONTROL);
+        }
+    }
+
+    /**
+     * Stores in the database are serialized as JSON text, so CBOR responses are always built from the Store objects.
+     */
+    private Object respondWithCbor(Request request,
+                                   Response response,
+                                   long begin,
+                                   BlackNectarSearchRequest searchRequest,
+                                   String cacheKey,
+                                   long version,
+                                   ResponseCompression.Encoding encoding,
+                                   String etag) throws IOException
+    {
+        List<Store> stores;
+
+        try (ClientDisconnectMonitor.Watch watch = disconnectMonitor.watch(request, searchRequest.deadline))
+        {
+            stores = findStores(request, searchRequest);
+        }
+
+        prepareResponse(response, MediaTypes.APPLICATION_CBOR, searchRequest, etag);
+
+        HttpServletResponse rawResponse = response.raw();
+        byte[] body;
+
+        if (rawResponse != null)
+        {
+            ResponseCompression.CompressingOutputStream compressed = ResponseCompression.compress(rawResponse, encoding);
+            StoreResponseCache.Capture capture = new StoreResponseCache.Capture(compressed);
+
+            writeCbor(stores, searchRequest.fields, capture);
+            compressed.finish();
+            body = capture.getBytes();
+        }
+        else
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeCbor(stores, searchRequest.fields, bytes);
+            body = bytes.toByteArray();
+        }
+
+        cacheIfFresh(request, searchRequest, cacheKey, body, stores.size(), version);
+        makeNoteOfRequestCompleted(begin, request, stores.size());
+
+        return rawResponse != null ? "" : body;
+    }
+
+    private void writeCbor(List<Store> stores, Set<StoreField> fields, OutputStream out)
+    {
+        CborWriter writer = new CborWriter(out);
+
+        writer.writeArrayHeader(stores.size());
+        stores.forEach(store -> writer.write(store.asJSON(fields)));
+        writer.flush();
+    }
+
+    private void cacheIfFresh(Request request,
+                              BlackNectarSearchRequest searchRequest,
+                              String cacheKey,
+                              byte[] json,
+                              int totalStores,
+                              long version)
+    {
+        //Responses from the in-memory snapshot may be out of date, and shouldn't outlive the outage.
+        if (searchRequest.servedStale || isWarmUp(request))
+        {
+            return;
+        }
+
+        responseCache.put(cacheKey, json, totalStores, version);
+    }
+
+    /**
+     * Called once the search has run, so that the response is tagged by how the search was actually served.
+     */
+    private void prepareResponse(Response response, String mediaType, BlackNectarSearchRequest searchRequest, String etag)
+    {
+        response.status(200);
+        response.type(mediaType);
+        response.header(Responses.Headers.VARY, VARY_HEADERS);
+
+        tagResponse(response, etag, searchRequest.servedStale);
+    }
 
+    private List<Store> findStores(Request request, BlackNectarSearchRequest searchRequest)
+    {
+        try
+        {
+            return AdmissionControl.sample(request,
+                                           searchRequest.deadline,
+                                           () -> storesRepository.searchForStores(searchRequest),
+                                           stores -> reachedDatabase(searchRequest));
+        }
+        catch (DeadlineExceededException ex)
+        {
+            makeNoteThatRequestRanPastDeadline(request, searchRequest.deadline);
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            throw new OperationFailedException(ex);
+        }
+    }
+
+    private int streamStores(Request request, BlackNectarSearchRequest searchRequest, JsonStreamWriter writer)
+    {
         try
         {
-            return storesRepository.searchForStores(searchRequest);
+            return AdmissionControl.sample(request,
+                                           searchRequest.deadline,
+                                           () -> storesRepository.searchForStoresAsJSON(searchRequest, writer),
+                                           totalStores -> reachedDatabase(searchRequest));
+        }
+        catch (DeadlineExceededException ex)
+        {
+            makeNoteThatRequestRanPastDeadline(request, searchRequest.deadline);
+            throw ex;
         }
         catch (Exception ex)
         {
@@ -126,6 +562,12 @@ public class SearchStoresOperation implements Route
         }
     }
 
+    private static boolean reachedDatabase(BlackNectarSearchRequest searchRequest)
+    {
+        //A search answered from the snapshot says nothing about how the database is doing.
+        return !searchRequest.servedStale;
+    }
+
     private BlackNectarSearchRequest createSearchRequestFrom(Request request)
     {
         BlackNectarSearchRequest searchRequest = new BlackNectarSearchRequest();
@@ -137,6 +579,8 @@ public class SearchStoresOperation implements Route
         insertSearchTermIfPresentInto(searchRequest, queryParameters);
         insertLimitIfPresentInto(searchRequest, queryParameters);
         insertZipCodeIfPresentInto(searchRequest, queryParameters);
+        insertFieldsIfPresentInto(searchRequest, queryParameters);
+        insertBoundingBoxIfPresentInto(searchRequest, queryParameters);
 
         return searchRequest;
     }
@@ -259,6 +703,72 @@ public class SearchStoresOperation implements Route
 
     }
 
+    private void insertFieldsIfPresentInto(BlackNectarSearchRequest request, QueryParamsMap queryParameters)
+    {
+        if (!hasFieldsParameter(queryParameters))
+        {
+            return;
+        }
+
+        String fields = queryParameters.value(QueryKeys.FIELDS);
+
+        try
+        {
+            request.withFields(StoreField.parse(fields));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new BadArgumentException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Reads a box in the form {@code minLongitude,minLatitude,maxLongitude,maxLatitude}, the same order used by
+     * GeoJSON and {@code ST_MakeEnvelope}. The limit of a box search is capped at {@link #MAX_BOUNDING_BOX_LIMIT}.
+     */
+    private void insertBoundingBoxIfPresentInto(BlackNectarSearchRequest request, QueryParamsMap queryParameters)
+    {
+        if (!hasBoundingBoxParameter(queryParameters))
+        {
+            return;
+        }
+
+        String[] corners = Strings.nullToEmpty(queryParameters.value(QueryKeys.BOUNDING_BOX)).split(",");
+
+        checkThat(corners.length == 4)
+                .throwing(BadArgumentException.class)
+                .usingMessage("bbox must be minLongitude,minLatitude,maxLongitude,maxLatitude")
+                .is(trueStatement());
+
+        double[] values = new double[corners.length];
+
+        for (int i = 0; i < corners.length; ++i)
+        {
+            String corner = corners[i].trim();
+
+            checkThat(corner)
+                    .throwing(BadArgumentException.class)
+                    .usingMessage("bbox values must be numerical")
+                    .is(decimalString());
+
+            values[i] = Double.valueOf(corner);
+        }
+
+        try
+        {
+            request.withBoundingBox(BoundingBox.of(values[0], values[1], values[2], values[3]));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new BadArgumentException("Invalid bbox: " + ex.getMessage(), ex);
+        }
+
+        if (!request.hasLimit() || request.limit > MAX_BOUNDING_BOX_LIMIT)
+        {
+            request.withLimit(MAX_BOUNDING_BOX_LIMIT);
+        }
+    }
+
     private boolean hasLocationParameters(QueryParamsMap queryParams)
     {
         return queryParams.hasKey(QueryKeys.LATITUDE) &&
@@ -285,6 +795,16 @@ public class SearchStoresOperation implements Route
         return queryParamsMap.hasKey(QueryKeys.ZIP_CODE);
     }
 
+    private boolean hasFieldsParameter(QueryParamsMap queryParamsMap)
+    {
+        return queryParamsMap.hasKey(QueryKeys.FIELDS);
+    }
+
+    private boolean hasBoundingBoxParameter(QueryParamsMap queryParamsMap)
+    {
+        return queryParamsMap.hasKey(QueryKeys.BOUNDING_BOX);
+    }
+
     private AlchemyAssertion<Request> validRequest()
     {
         return request ->
@@ -306,9 +826,22 @@ public class SearchStoresOperation implements Route
             }
 
             checkThat(queryParams)
-                    .usingMessage("query parameters must contain at least one of 'searchTerm', 'zipCode', 'latitude', 'longitude")
+                    .usingMessage("query parameters must contain at least one of 'searchTerm', 'zipCode', 'latitude', 'longitude', 'bbox'")
                     .is(CollectionAssertions.collectionContainingAtLeastOnceOf(QueryKeys.SEARCH_TERM, QueryKeys.LATITUDE,
-                                                                               QueryKeys.LONGITUDE, QueryKeys.ZIP_CODE));
+                                                                               QueryKeys.LONGITUDE, QueryKeys.ZIP_CODE,
+                                                                               QueryKeys.BOUNDING_BOX));
+
+            if (queryParams.contains(QueryKeys.BOUNDING_BOX))
+            {
+                boolean hasOtherArea = queryParams.contains(QueryKeys.LATITUDE) ||
+                                       queryParams.contains(QueryKeys.LONGITUDE) ||
+                                       queryParams.contains(QueryKeys.RADIUS) ||
+                                       queryParams.contains(QueryKeys.ZIP_CODE);
+
+                checkThat(hasOtherArea)
+                        .usingMessage("'bbox' cannot be used with 'latitude', 'longitude', 'radius', or 'zipCode'")
+                        .is(falseStatement());
+            }
 
             if (queryParams.contains(QueryKeys.LATITUDE) || queryParams.contains(QueryKeys.LONGITUDE))
             {
@@ -319,8 +852,18 @@ public class SearchStoresOperation implements Route
         };
     }
 
+    private static boolean isWarmUp(Request request)
+    {
+        return Boolean.TRUE.equals(request.attribute(WARM_UP_ATTRIBUTE));
+    }
+
     private void makeNoteOfRequestReceived(Request request)
     {
+        if (isWarmUp(request))
+        {
+            return;
+        }
+
         LOG.info("Received GET request to search stores from IP [{}]", request.ip());
 
         aroma.begin()
@@ -330,15 +873,57 @@ public class SearchStoresOperation implements Route
              .send();
     }
 
-    private void makeNoteOfRequestCompleted(long begin, Request request, JsonArray jsonArray)
+    private void makeNoteThatRequestRanPastDeadline(Request request, Deadline deadline)
+    {
+        String message = "Search for stores with query parameters [{}] from IP [{}] was stopped. Cancelled: {}";
+        LOG.warn(message, request.queryString(), request.ip(), deadline.isCancelled());
+
+        aroma.begin()
+             .titled("Request Stopped")
+             .withBody(message, request.queryString(), request.ip(), deadline.isCancelled())
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+    private void makeNoteThatStreamEndedEarly(Request request, int totalStores, Exception ex)
+    {
+        String message = "Search for stores with query parameters [{}] from IP [{}] failed after sending {} stores. Ending the response early: {}";
+        LOG.warn(message, request.queryString(), request.ip(), totalStores, ex.getMessage());
+
+        aroma.begin()
+             .titled("Response Ended Early")
+             .withBody(message, request.queryString(), request.ip(), totalStores, ex)
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+    private void makeNoteOfRequestCompleted(long begin, Request request, int totalStores)
     {
+        if (isWarmUp(request))
+        {
+            return;
+        }
+
         long delay = System.currentTimeMillis() - begin;
         String message = "Operation to search for stores with query parameters [{}] took {}ms and resulted in {} stores";
-        LOG.debug(message, request.queryString(), delay, jsonArray.size());
+        LOG.debug(message, request.queryString(), delay, totalStores);
 
         aroma.begin()
              .titled("Request Complete")
-             .withBody(message, request.queryString(), delay, jsonArray.size())
+             .withBody(message, request.queryString(), delay, totalStores)
+             .withPriority(Priority.LOW)
+             .send();
+    }
+
+    private void makeNoteOfRequestNotModified(long begin, Request request)
+    {
+        long delay = System.currentTimeMillis() - begin;
+        String message = "Search for stores with query parameters [{}] was not modified. Took {}ms";
+        LOG.debug(message, request.queryString(), delay);
+
+        aroma.begin()
+             .titled("Request Not Modified")
+             .withBody(message, request.queryString(), delay)
              .withPriority(Priority.LOW)
              .send();
     }
@@ -352,8 +937,10 @@ public class SearchStoresOperation implements Route
         static final String RADIUS = "radius";
         static final String SEARCH_TERM = "searchTerm";
         static final String ZIP_CODE = "zipCode";
+        static final String FIELDS = "fields";
+        static final String BOUNDING_BOX = "bbox";
 
-        static Set<String> KEYS = Collections.unmodifiableSet(Sets.createFrom(LATITUDE, LONGITUDE, LIMIT, RADIUS, SEARCH_TERM, ZIP_CODE));
+        static Set<String> KEYS = Collections.unmodifiableSet(Sets.createFrom(LATITUDE, LONGITUDE, LIMIT, RADIUS, SEARCH_TERM, ZIP_CODE, FIELDS, BOUNDING_BOX));
     }
 
 }
@@ -0,0 +1,528 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import javax.inject.Inject;
+
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.data.*;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThanOrEqualTo;
+
+/**
+ * Runs a mix of synthetic searches through {@link SearchStoresOperation#handle(spark.Request, spark.Response)}, so
+ * that the JIT has compiled the whole search path, from parsing the query to writing the compressed response, before
+ * the first client arrives.
+ * <p>
+ * The searches are sent as {@linkplain WarmUpRequest warm-up requests}, in turn asking for each format and encoding
+ * that clients can ask for. Nothing is kept in the {@link StoreResponseCache}, and no client is charged for them.
+ * <p>
+ * By default the searches are made around Stores that are already in the {@link StoreRepository}, and each
+ * {@linkplain Kind kind of search} is picked by its weight, which can be set with
+ * {@code -Dblacknectar.warmup.weights}, for example {@code center=50,zipCode=10,bbox=20,name=5,map=15}. To warm up
+ * with the searches that clients actually make, point {@code -Dblacknectar.warmup.queries} at a file of recorded query
+ * strings, one per line, for example taken from the access log. They are replayed in order.
+ * <p>
+ * The number of searches can be set with {@code -Dblacknectar.warmup.searches}, where {@code 0} turns it off, and how
+ * long it may run with {@code -Dblacknectar.warmup.maxMillis}.
+ *
+ * @author SirWellington
+ */
+public class SearchWarmUp
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(SearchWarmUp.class);
+
+    static final int DEFAULT_SEARCHES = 500;
+
+    static final long DEFAULT_MAX_MILLIS = 60_000;
+
+    /**
+     * How many Stores the searches are made around.
+     */
+    static final int SEED_STORES = 100;
+
+    /**
+     * What the searches ask for, in turn.
+     */
+    static final String[] ACCEPTS = { MediaTypes.APPLICATION_JSON, MediaTypes.APPLICATION_NDJSON, MediaTypes.APPLICATION_CBOR };
+    static final String[] ENCODINGS = { "gzip", "deflate", "identity" };
+
+    /**
+     * The kinds of search that are made, and how often each is made by default.
+     */
+    enum Kind
+    {
+        CENTER("center", 40),
+        ZIP_CODE("zipCode", 10),
+        BOUNDING_BOX("bbox", 20),
+        NAME("name", 10),
+        MAP("map", 20);
+
+        final String key;
+        final int defaultWeight;
+
+        Kind(String key, int defaultWeight)
+        {
+            this.key = key;
+            this.defaultWeight = defaultWeight;
+        }
+
+        static Map<Kind, Integer> defaultWeights()
+        {
+            Map<Kind, Integer> weights = new EnumMap<>(Kind.class);
+
+            for (Kind kind : values())
+            {
+                weights.put(kind, kind.defaultWeight);
+            }
+
+            return weights;
+        }
+
+        /**
+         * Reads weights in the form {@code center=40,bbox=20}. Kinds that are left out keep their default weight, and
+         * bad entries are ignored.
+         */
+        static Map<Kind, Integer> parseWeights(String weights)
+        {
+            Map<Kind, Integer> result = defaultWeights();
+
+            if (Strings.isNullOrEmpty(weights))
+            {
+                return result;
+            }
+
+            for (String entry : weights.split(","))
+            {
+                String[] parts = entry.split("=");
+                Kind kind = parts.length == 2 ? forKey(parts[0].trim()) : null;
+
+                try
+                {
+                    int weight = Integer.parseInt(parts[parts.length - 1].trim());
+
+                    if (kind != null && weight >= 0)
+                    {
+                        result.put(kind, weight);
+                        continue;
+                    }
+                }
+                catch (NumberFormatException ex)
+                {
+                    //Reported below
+                }
+
+                LOG.warn("Ignoring bad warm-up weight: [{}]", entry);
+            }
+
+            if (result.values().stream().mapToInt(Integer::intValue).sum() == 0)
+            {
+                LOG.warn("Every warm-up weight is 0. Using the default weights.");
+                return defaultWeights();
+            }
+
+            return result;
+        }
+
+        private static Kind forKey(String key)
+        {
+            for (Kind kind : values())
+            {
+                if (kind.key.equalsIgnoreCase(key))
+                {
+                    return kind;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private final Aroma aroma;
+    private final StoreRepository repository;
+    private final SearchStoresOperation searchOperation;
+    private final int searches;
+    private final long maxMillis;
+    private final Map<Kind, Integer> weights;
+    private final int totalWeight;
+    private final List<String> recordedQueries;
+    private final Random random = new Random();
+
+    @Inject
+    SearchWarmUp(Aroma aroma, StoreRepository repository, SearchStoresOperation searchOperation)
+    {
+        this(aroma,
+             repository,
+             searchOperation,
+             Integer.getInteger("blacknectar.warmup.searches", DEFAULT_SEARCHES),
+             Long.getLong("blacknectar.warmup.maxMillis", DEFAULT_MAX_MILLIS),
+             Kind.parseWeights(System.getProperty("blacknectar.warmup.weights")),
+             readQueries(System.getProperty("blacknectar.warmup.queries")));
+    }
+
+    SearchWarmUp(Aroma aroma, StoreRepository repository, SearchStoresOperation searchOperation, int searches, long maxMillis)
+    {
+        this(aroma, repository, searchOperation, searches, maxMillis, Kind.defaultWeights(), Lists.emptyList());
+    }
+
+    SearchWarmUp(Aroma aroma,
+                 StoreRepository repository,
+                 SearchStoresOperation searchOperation,
+                 int searches,
+                 long maxMillis,
+                 Map<Kind, Integer> weights,
+                 List<String> recordedQueries)
+    {
+        checkThat(aroma, repository, searchOperation, weights, recordedQueries).are(notNull());
+
+        checkThat(searches)
+                .usingMessage("searches must be >= 0")
+                .is(greaterThanOrEqualTo(0));
+
+        checkThat(maxMillis)
+                .usingMessage("maxMillis must be >= 0")
+                .is(greaterThanOrEqualTo(0L));
+
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+
+        checkThat(total)
+                .usingMessage("weights must add up to more than 0")
+                .is(greaterThanOrEqualTo(1));
+
+        this.aroma = aroma;
+        this.repository = repository;
+        this.searchOperation = searchOperation;
+        this.searches = searches;
+        this.maxMillis = maxMillis;
+        this.weights = new EnumMap<>(weights);
+        this.totalWeight = total;
+        this.recordedQueries = Lists.copy(recordedQueries);
+    }
+
+    /**
+     * Runs the mix, and blocks until it is done, or until it runs out of time. Failed searches are counted, but never
+     * stop the warm-up.
+     *
+     * @return How long the warm-up took, in milliseconds.
+     */
+    public long run()
+    {
+        if (searches == 0)
+        {
+            LOG.info("Warm-up is turned off");
+            return 0;
+        }
+
+        long begin = System.currentTimeMillis();
+        List<Store> seeds = recordedQueries.isEmpty() ? loadSeeds() : Lists.emptyList();
+
+        int completed = 0;
+        int failed = 0;
+        long bytesWritten = 0;
+
+        for (int i = 0; i < searches; ++i)
+        {
+            if (System.currentTimeMillis() - begin > maxMillis)
+            {
+                LOG.warn("Warm-up ran out of time after {} searches", completed + failed);
+                break;
+            }
+
+            try
+            {
+                String query = recordedQueries.isEmpty()
+                               ? queryFor(createSearch(pickKind(), seeds.get(random.nextInt(seeds.size()))))
+                               : recordedQueries.get(i % recordedQueries.size());
+
+                bytesWritten += runSearch(query, i);
+                ++completed;
+            }
+            catch (Exception ex)
+            {
+                LOG.debug("Warm-up search failed", ex);
+                ++failed;
+            }
+        }
+
+        long delay = System.currentTimeMillis() - begin;
+        makeNoteOfWarmUp(completed, failed, bytesWritten, delay);
+
+        return delay;
+    }
+
+    int getSearches()
+    {
+        return searches;
+    }
+
+    long getMaxMillis()
+    {
+        return maxMillis;
+    }
+
+    Map<Kind, Integer> getWeights()
+    {
+        return Collections.unmodifiableMap(weights);
+    }
+
+    List<String> getRecordedQueries()
+    {
+        return recordedQueries;
+    }
+
+    private List<Store> loadSeeds()
+    {
+        try
+        {
+            List<Store> stores = repository.getAllStores(SEED_STORES);
+
+            if (!Lists.isEmpty(stores))
+            {
+                return stores;
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.warn("Could not load Stores to warm up with. Using the sample Store instead.", ex);
+        }
+
+        return Lists.createFrom(Store.SAMPLE_STORE);
+    }
+
+    Kind pickKind()
+    {
+        int pick = random.nextInt(totalWeight);
+
+        for (Map.Entry<Kind, Integer> entry : weights.entrySet())
+        {
+            pick -= entry.getValue();
+
+            if (pick < 0)
+            {
+                return entry.getKey();
+            }
+        }
+
+        return Kind.CENTER;
+    }
+
+    BlackNectarSearchRequest createSearch(Kind kind, Store seed)
+    {
+        Location location = seed.getLocation();
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest();
+
+        switch (kind)
+        {
+            case CENTER:
+                request.withCenter(location).withRadius(1_000 + random.nextInt(25_000));
+                break;
+            case ZIP_CODE:
+                String zipCode = seed.getAddress() == null ? null : seed.getAddress().getZipCode();
+
+                try
+                {
+                    request.withZipCode(zipCode);
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    request.withCenter(location);
+                }
+                break;
+            case BOUNDING_BOX:
+                double span = 0.05 + random.nextDouble() / 2;
+                double latitude = Math.max(-90 + span, Math.min(90 - span, location.getLatitude()));
+                double longitude = Math.max(-180 + span, Math.min(180 - span, location.getLongitude()));
+
+                request.withBoundingBox(BoundingBox.of(longitude - span, latitude - span, longitude + span, latitude + span))
+                       .withLimit(SearchStoresOperation.MAX_BOUNDING_BOX_LIMIT);
+                break;
+            case NAME:
+                String name = Strings.nullToEmpty(seed.getName()).trim().split("\\s+")[0];
+
+                request.withCenter(location).withRadius(5_000 + random.nextInt(50_000));
+
+                if (name.length() >= 2)
+                {
+                    request.withSearchTerm(name);
+                }
+                break;
+            default:
+                request.withCenter(location)
+                       .withRadius(10_000 + random.nextInt(90_000))
+                       .withFields(StoreField.MAP_VIEW);
+                break;
+        }
+
+        return request;
+    }
+
+    /**
+     * Writes a search as the query string a client would send for it.
+     */
+    static String queryFor(BlackNectarSearchRequest request)
+    {
+        List<String> parameters = new ArrayList<>();
+
+        if (request.hasCenter())
+        {
+            parameters.add(SearchStoresOperation.QueryKeys.LATITUDE + "=" + plain(request.center.getLatitude()));
+            parameters.add(SearchStoresOperation.QueryKeys.LONGITUDE + "=" + plain(request.center.getLongitude()));
+
+            if (request.hasRadius())
+            {
+                parameters.add(SearchStoresOperation.QueryKeys.RADIUS + "=" + plain(request.radiusInMeters));
+            }
+        }
+
+        if (request.hasZipCode())
+        {
+            parameters.add(SearchStoresOperation.QueryKeys.ZIP_CODE + "=" + encode(request.zipCode));
+        }
+
+        if (request.hasBoundingBox())
+        {
+            BoundingBox box = request.boundingBox;
+            String corners = plain(box.getMinLongitude()) + "," + plain(box.getMinLatitude()) + "," +
+                             plain(box.getMaxLongitude()) + "," + plain(box.getMaxLatitude());
+
+            parameters.add(SearchStoresOperation.QueryKeys.BOUNDING_BOX + "=" + encode(corners));
+        }
+
+        if (request.hasSearchTerm())
+        {
+            parameters.add(SearchStoresOperation.QueryKeys.SEARCH_TERM + "=" + encode(request.searchTerm));
+        }
+
+        if (request.hasLimit())
+        {
+            parameters.add(SearchStoresOperation.QueryKeys.LIMIT + "=" + request.limit);
+        }
+
+        if (request.hasFieldProjection())
+        {
+            String fields = request.fields.stream()
+                                          .map(StoreField::getKey)
+                                          .collect(joining(","));
+
+            parameters.add(SearchStoresOperation.QueryKeys.FIELDS + "=" + encode(fields));
+        }
+
+        return String.join("&", parameters);
+    }
+
+    /**
+     * Runs one search through the operation, asking for the {@code i}-th combination of format and encoding.
+     *
+     * @return How many bytes the response had.
+     */
+    private long runSearch(String query, int i) throws Exception
+    {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(Parameters.Headers.ACCEPT, ACCEPTS[i % ACCEPTS.length]);
+        headers.put(Parameters.Headers.ACCEPT_ENCODING, ENCODINGS[(i / ACCEPTS.length) % ENCODINGS.length]);
+
+        WarmUpRequest request = new WarmUpRequest(query, headers);
+        WarmUpResponse response = new WarmUpResponse();
+
+        searchOperation.handle(request, response);
+
+        return response.getBytesWritten();
+    }
+
+    /**
+     * Reads recorded query strings, skipping blank lines and lines that start with {@code #}.
+     *
+     * @param path The file to read. May be {@code null}, in which case there are none.
+     * @return
+     */
+    static List<String> readQueries(String path)
+    {
+        if (Strings.isNullOrEmpty(path))
+        {
+            return Lists.emptyList();
+        }
+
+        try
+        {
+            List<String> queries = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)
+                                        .stream()
+                                        .map(String::trim)
+                                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                                        .collect(toList());
+
+            LOG.info("Read {} recorded warm-up queries from [{}]", queries.size(), path);
+            return queries;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            LOG.warn("Could not read warm-up queries from [{}]. Using the synthetic mix instead.", path, ex);
+            return Lists.emptyList();
+        }
+    }
+
+    private static String plain(double value)
+    {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private static String encode(String value)
+    {
+        try
+        {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void makeNoteOfWarmUp(int completed, int failed, long bytesWritten, long delay)
+    {
+        String message = "Warmed up with {} searches ({} failed) that wrote {} bytes in {}ms";
+        LOG.info(message, completed, failed, bytesWritten, delay);
+
+        aroma.begin().titled("Warm-Up Complete")
+             .withBody(message, completed, failed, bytesWritten, delay)
+             .withPriority(failed > completed ? Priority.MEDIUM : Priority.LOW)
+             .send();
+    }
+
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.blacksource.blacknectar.service.data.BlackNectarSearchRequest;
+import tech.blacksource.blacknectar.service.data.BoundingBox;
+import tech.blacksource.blacknectar.service.data.StoreChanges;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.operations.ResponseCompression;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static java.util.stream.Collectors.joining;
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Keeps recent responses of {@link SearchStoresOperation}, already serialized, so that repeat searches skip both the
+ * repository and the JSON serialization.
+ * <p>
+ * Searches are {@linkplain #quantize(BlackNectarSearchRequest) quantized} before they are run and keyed. Centers are
+ * snapped to a fine grid of {@link #CENTER_GRID_DEGREES}, which moves a search by less than the error of a phone's
+ * location, so that users standing in the same spot share a response. Bounding boxes are grown out to a coarser grid of
+ * {@link #GRID_DEGREES}, so that maps panned by a few meters share a response. Entries expire after
+ * {@link #TTL_MILLIS}, and all of them are dropped when the {@linkplain StoreChanges Stores change}.
+ * <p>
+ * The grids, the time to live, and the size of the cache can be tuned with the {@code blacknectar.cache.gridDegrees},
+ * {@code blacknectar.cache.centerGridDegrees}, {@code blacknectar.cache.ttlMillis}, and
+ * {@code blacknectar.cache.maxBytes} system properties.
+ * <p>
+ * The cache is a segmented LRU, bounded by the number of bytes it holds. New responses go into a small probation
+ * segment, and only move into the protected segment when they are asked for again. A burst of one-off searches, like a
+ * crawler walking the map, only churns the probation segment, and can't push out the responses that are popular.
+ * <p>
+ * Entries also keep a {@linkplain #deflatedBodyOf(String, Entry) compressed copy} of the response once a client that
+ * accepts compression asks for them, so popular responses are compressed only once.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+final class StoreResponseCache
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(StoreResponseCache.class);
+
+    /**
+     * The size of the grid that bounding boxes are grown out to. 0.001 degrees is about 110 meters of latitude.
+     */
+    static final double GRID_DEGREES = 0.001;
+
+    /**
+     * The size of the grid that centers are snapped to. 0.0001 degrees is about 11 meters of latitude, so a search is
+     * moved by 8 meters at most, which is within the accuracy of a phone's location.
+     */
+    static final double CENTER_GRID_DEGREES = 0.0001;
+
+    /**
+     * How long a response is served from the cache. This bounds how stale a response gets when Stores are changed by
+     * another process.
+     */
+    static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * The most bytes of responses the cache holds.
+     */
+    static final long MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Responses bigger than this are not cached.
+     */
+    static final int MAX_ENTRY_BYTES = 512 * 1024;
+
+    /**
+     * The share of {@link #MAX_BYTES} given to the probation segment.
+     */
+    static final double PROBATION_RATIO = 0.2;
+
+    private final StoreChanges storeChanges;
+    private final double gridDegrees;
+    private final double centerGridDegrees;
+    private final long ttlMillis;
+    private final long maxProbationBytes;
+    private final long maxProtectedBytes;
+
+    //Both segments are in access order, so their first entry is the least recently used.
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    @Inject
+    StoreResponseCache(StoreChanges storeChanges)
+    {
+        this(storeChanges,
+             doubleProperty("blacknectar.cache.gridDegrees", GRID_DEGREES),
+             doubleProperty("blacknectar.cache.centerGridDegrees", CENTER_GRID_DEGREES),
+             Long.getLong("blacknectar.cache.ttlMillis", TTL_MILLIS),
+             Long.getLong("blacknectar.cache.maxBytes", MAX_BYTES));
+    }
+
+    StoreResponseCache(@Required StoreChanges storeChanges,
+                       double gridDegrees,
+                       double centerGridDegrees,
+                       long ttlMillis,
+                       long maxBytes)
+    {
+        checkThat(storeChanges).is(notNull());
+
+        checkThat(gridDegrees)
+                .usingMessage("gridDegrees must be > 0")
+                .is(greaterThan(0.0));
+
+        checkThat(centerGridDegrees)
+                .usingMessage("centerGridDegrees must be > 0")
+                .is(greaterThan(0.0));
+
+        checkThat(ttlMillis)
+                .usingMessage("ttlMillis must be > 0")
+                .is(greaterThan(0L));
+
+        checkThat(maxBytes)
+                .usingMessage("maxBytes must be > 0")
+                .is(greaterThan(0L));
+
+        this.storeChanges = storeChanges;
+        this.gridDegrees = gridDegrees;
+        this.centerGridDegrees = centerGridDegrees;
+        this.ttlMillis = ttlMillis;
+        this.maxProbationBytes = Math.max(1, (long) (maxBytes * PROBATION_RATIO));
+        this.maxProtectedBytes = Math.max(1, maxBytes - maxProbationBytes);
+
+        storeChanges.addListener(this::clear);
+    }
+
+    /**
+     * Snaps the center of the request, if any, to the nearest point on the center grid, and grows its bounding box, if
+     * any, out to the grid lines around it. The search must be run with the quantized request, so that every request
+     * that shares a key also shares the same results.
+     * <p>
+     * Growing the box only adds Stores near its edges, so a map still shows everything it asked for. The center grid is
+     * kept fine, so that the Stores near the edge of the radius are the ones a user would expect to see from where they
+     * are.
+     *
+     * @param request
+     */
+    void quantize(@Required BlackNectarSearchRequest request)
+    {
+        checkThat(request).is(notNull());
+
+        if (request.hasBoundingBox())
+        {
+            request.boundingBox = request.boundingBox.snappedOutTo(gridDegrees);
+        }
+
+        if (request.hasCenter())
+        {
+            double latitude = Math.round(request.center.getLatitude() / centerGridDegrees) * centerGridDegrees;
+            double longitude = Math.round(request.center.getLongitude() / centerGridDegrees) * centerGridDegrees;
+
+            //Rounding can step just past the poles or the date line.
+            request.center = new Location(clamp(latitude, 90), clamp(longitude, 180));
+        }
+    }
+
+    /**
+     * Creates the key of a request. Requests that would return the same response have the same key. The deadline of
+     * the request is not part of it.
+     *
+     * @param request
+     * @param format  How the response is written.
+     * @return
+     */
+    String keyFor(@Required BlackNectarSearchRequest request, @Required JsonStreamWriter.Format format)
+    {
+        checkThat(format).is(notNull());
+
+        return keyFor(request, format.getMediaType());
+    }
+
+    /**
+     * Like {@link #keyFor(BlackNectarSearchRequest, JsonStreamWriter.Format)}, for responses that aren't written as
+     * JSON.
+     *
+     * @param request
+     * @param mediaType The type of the response.
+     * @return
+     */
+    String keyFor(@Required BlackNectarSearchRequest request, @NonEmpty String mediaType)
+    {
+        checkThat(request).is(notNull());
+        checkThat(mediaType).is(nonEmptyString());
+
+        String center = "";
+
+        if (request.hasCenter())
+        {
+            center = Math.round(request.center.getLatitude() / centerGridDegrees) + "," +
+                     Math.round(request.center.getLongitude() / centerGridDegrees);
+        }
+
+        String box = "";
+
+        if (request.hasBoundingBox())
+        {
+            BoundingBox boundingBox = request.boundingBox;
+
+            box = Math.round(boundingBox.getMinLongitude() / gridDegrees) + "," +
+                  Math.round(boundingBox.getMinLatitude() / gridDegrees) + "," +
+                  Math.round(boundingBox.getMaxLongitude() / gridDegrees) + "," +
+                  Math.round(boundingBox.getMaxLatitude() / gridDegrees);
+        }
+
+        String fields = request.fields == null ? "" : request.fields.stream()
+                                                                    .sorted()
+                                                                    .map(StoreField::name)
+                                                                    .collect(joining(","));
+
+        //The search term goes last, since it is the only part that may contain the separator.
+        return mediaType + "|" +
+               center + "|" +
+               box + "|" +
+               request.radiusInMeters + "|" +
+               Strings.nullToEmpty(request.zipCode) + "|" +
+               request.limit + "|" +
+               fields + "|" +
+               Strings.nullToEmpty(request.searchTerm);
+    }
+
+    /**
+     * @return The current version of the Stores. Pass it to {@link #put(String, byte[], int, long)} along with the
+     *         response, so that a response built before a change is not cached after it.
+     */
+    long currentVersion()
+    {
+        return storeChanges.getVersion();
+    }
+
+    /**
+     * @param key
+     * @return The cached response, or {@code null} if there is none.
+     */
+    synchronized Entry get(@NonEmpty String key)
+    {
+        checkThat(key).is(nonEmptyString());
+
+        long now = System.currentTimeMillis();
+
+        Entry entry = protectedSegment.get(key);
+
+        if (entry == null)
+        {
+            entry = probation.remove(key);
+
+            if (entry != null)
+            {
+                probationBytes -= entry.sizeInBytes();
+
+                if (!entry.isExpired(now, ttlMillis))
+                {
+                    promote(key, entry);
+                }
+            }
+        }
+
+        if (entry == null || entry.isExpired(now, ttlMillis))
+        {
+            if (entry != null)
+            {
+                removeFromProtected(key);
+            }
+
+            ++misses;
+            return null;
+        }
+
+        ++hits;
+        return entry;
+    }
+
+    /**
+     * Caches a response, unless it is too big, or the Stores have changed since {@code version}.
+     *
+     * @param key         The {@linkplain #keyFor(BlackNectarSearchRequest, JsonStreamWriter.Format) key} of the request.
+     * @param json        The serialized response. May be {@code null} if it was too big to keep.
+     * @param totalStores The number of Stores in the response.
+     * @param version     The {@linkplain #currentVersion() version} from before the search was run.
+     * @return {@code true} if the response was cached.
+     */
+    synchronized boolean put(@NonEmpty String key, byte[] json, int totalStores, long version)
+    {
+        checkThat(key).is(nonEmptyString());
+
+        if (json == null || json.length > MAX_ENTRY_BYTES)
+        {
+            return false;
+        }
+
+        if (version != storeChanges.getVersion())
+        {
+            LOG.debug("Stores changed during search. Not caching response for [{}]", key);
+            return false;
+        }
+
+        Entry entry = new Entry(json, totalStores, System.currentTimeMillis());
+
+        Entry previous = probation.remove(key);
+        if (previous != null)
+        {
+            probationBytes -= previous.sizeInBytes();
+        }
+
+        if (protectedSegment.containsKey(key))
+        {
+            removeFromProtected(key);
+            promote(key, entry);
+            return true;
+        }
+
+        probation.put(key, entry);
+        probationBytes += entry.sizeInBytes();
+        evict(probation, maxProbationBytes, true);
+
+        return true;
+    }
+
+    /**
+     * Gets the compressed body of a cached response, compressing it the first time it is asked for. Compressed bodies
+     * count towards the size of the cache.
+     *
+     * @param key   The key the entry was {@linkplain #get(String) found} under.
+     * @param entry
+     * @return
+     */
+    ResponseCompression.Deflated deflatedBodyOf(@NonEmpty String key, @Required Entry entry)
+    {
+        checkThat(key).is(nonEmptyString());
+        checkThat(entry).is(notNull());
+
+        ResponseCompression.Deflated deflated = entry.deflated;
+
+        if (deflated != null)
+        {
+            return deflated;
+        }
+
+        //Compressing can take a few milliseconds, so it is done outside of the lock. Two threads may race to
+        //compress the same entry, in which case the first one wins.
+        deflated = ResponseCompression.Deflated.of(entry.json);
+
+        synchronized (this)
+        {
+            if (entry.deflated != null)
+            {
+                return entry.deflated;
+            }
+
+            entry.deflated = deflated;
+            charge(key, entry, deflated.size());
+        }
+
+        return deflated;
+    }
+
+    /**
+     * Drops every cached response.
+     */
+    synchronized void clear()
+    {
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    synchronized int size()
+    {
+        return probation.size() + protectedSegment.size();
+    }
+
+    synchronized long getSizeInBytes()
+    {
+        return probationBytes + protectedBytes;
+    }
+
+    synchronized long getHits()
+    {
+        return hits;
+    }
+
+    synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    private void promote(String key, Entry entry)
+    {
+        protectedSegment.put(key, entry);
+        protectedBytes += entry.sizeInBytes();
+
+        //Entries pushed out of the protected segment get another chance in probation.
+        evict(protectedSegment, maxProtectedBytes, false);
+        evict(probation, maxProbationBytes, true);
+    }
+
+    /**
+     * Counts extra bytes against the segment that holds the entry, if it is still cached.
+     */
+    private void charge(String key, Entry entry, int bytes)
+    {
+        if (probation.get(key) == entry)
+        {
+            probationBytes += bytes;
+            evict(probation, maxProbationBytes, true);
+        }
+        else if (protectedSegment.get(key) == entry)
+        {
+            protectedBytes += bytes;
+            evict(protectedSegment, maxProtectedBytes, false);
+            evict(probation, maxProbationBytes, true);
+        }
+    }
+
+    private void removeFromProtected(String key)
+    {
+        Entry removed = protectedSegment.remove(key);
+
+        if (removed != null)
+        {
+            protectedBytes -= removed.sizeInBytes();
+        }
+    }
+
+    private void evict(LinkedHashMap<String, Entry> segment, long maxBytes, boolean isProbation)
+    {
+        Iterator<Map.Entry<String, Entry>> iterator = segment.entrySet().iterator();
+
+        while (bytesOf(isProbation) > maxBytes && iterator.hasNext())
+        {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+
+            int length = eldest.getValue().sizeInBytes();
+
+            if (isProbation)
+            {
+                probationBytes -= length;
+            }
+            else
+            {
+                protectedBytes -= length;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationBytes += length;
+            }
+        }
+    }
+
+    private long bytesOf(boolean isProbation)
+    {
+        return isProbation ? probationBytes : protectedBytes;
+    }
+
+    private static double clamp(double degrees, double limit)
+    {
+        return Math.max(-limit, Math.min(limit, degrees));
+    }
+
+    private static double doubleProperty(String name, double defaultValue)
+    {
+        String value = System.getProperty(name);
+
+        if (Strings.isNullOrEmpty(value))
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException ex)
+        {
+            LOG.warn("Ignoring bad value for {}: [{}]", name, value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    static final class Entry
+    {
+
+        final byte[] json;
+        final int totalStores;
+        final long createdAt;
+
+        /**
+         * Set the first time a client that accepts compression asks for this entry.
+         */
+        volatile ResponseCompression.Deflated deflated;
+
+        Entry(byte[] json, int totalStores, long createdAt)
+        {
+            this.json = json;
+            this.totalStores = totalStores;
+            this.createdAt = createdAt;
+        }
+
+        int sizeInBytes()
+        {
+            ResponseCompression.Deflated compressed = deflated;
+
+            return json.length + (compressed == null ? 0 : compressed.size());
+        }
+
+        boolean isExpired(long now, long ttlMillis)
+        {
+            return now - createdAt >= ttlMillis;
+        }
+
+    }
+
+    /**
+     * Passes everything written to it through to the response, and keeps a copy of it for the cache, as long as it
+     * stays under {@link #MAX_ENTRY_BYTES}.
+     */
+    static final class Capture extends FilterOutputStream
+    {
+
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        Capture(@Required OutputStream out)
+        {
+            super(out);
+
+            checkThat(out).is(notNull());
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            keep(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            out.write(bytes, offset, length);
+            keep(bytes, offset, length);
+        }
+
+        /**
+         * @return What was written, or {@code null} if it was too big to keep.
+         */
+        byte[] getBytes()
+        {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        private void keep(byte[] bytes, int offset, int length)
+        {
+            if (copy == null)
+            {
+                return;
+            }
+
+            if (copy.size() + length > MAX_ENTRY_BYTES)
+            {
+                copy = null;
+                return;
+            }
+
+            copy.write(bytes, offset, length);
+        }
+
+    }
+
+}
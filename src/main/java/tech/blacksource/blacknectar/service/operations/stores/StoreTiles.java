@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.blacksource.blacknectar.service.data.*;
+import tech.blacksource.blacknectar.service.exceptions.ServiceOverloadedException;
+import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadSafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Keeps the {@link StoreClusters} of all the Stores for {@link GetStoreTileOperation}, along with the tiles already
+ * drawn from them.
+ * <p>
+ * The clusters are always built in the background, starting as soon as the Service does. Until the first build is
+ * done, requests for tiles are turned away with a {@code 503}, rather than kept waiting on a build of every Store.
+ * When the {@linkplain StoreChanges Stores change}, the clusters are rebuilt, and the previous ones are served in the
+ * meantime. Each {@link Snapshot} remembers the {@linkplain DatasetVersion version} of the data it was built from, so
+ * its tiles never change.
+ *
+ * @author SirWellington
+ */
+@Singleton
+@ThreadSafe
+final class StoreTiles
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(StoreTiles.class);
+
+    /**
+     * The most tiles kept per snapshot.
+     */
+    static final int MAX_CACHED_TILES = 8_192;
+
+    /**
+     * How long clients are told to wait before asking again while the first clusters are being built.
+     */
+    static final int RETRY_AFTER_SECONDS = 5;
+
+    private final StoreRepository storeRepository;
+    private final DatasetVersion datasetVersion;
+    private final Executor rebuilder;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final AtomicBoolean rebuildPending = new AtomicBoolean(false);
+    private volatile boolean lastBuildFailed = false;
+
+    @Inject
+    StoreTiles(StoreRepository storeRepository, StoreChanges storeChanges, DatasetVersion datasetVersion)
+    {
+        this(storeRepository, storeChanges, datasetVersion, Executors.newSingleThreadExecutor(StoreTiles::newDaemonThread));
+    }
+
+    StoreTiles(@Required StoreRepository storeRepository,
+               @Required StoreChanges storeChanges,
+               @Required DatasetVersion datasetVersion,
+               @Required Executor rebuilder)
+    {
+        checkThat(storeRepository, storeChanges, datasetVersion, rebuilder)
+                .are(notNull());
+
+        this.storeRepository = storeRepository;
+        this.datasetVersion = datasetVersion;
+        this.rebuilder = rebuilder;
+
+        storeChanges.addListener(this::scheduleRebuild);
+        scheduleRebuild();
+    }
+
+    /**
+     * @return The current snapshot.
+     * @throws ServiceOverloadedException If the first snapshot hasn't been built yet.
+     */
+    Snapshot getSnapshot() throws ServiceOverloadedException
+    {
+        Snapshot snapshot = current.get();
+
+        if (snapshot == null && lastBuildFailed)
+        {
+            scheduleRebuild();
+            snapshot = current.get();
+        }
+
+        if (snapshot == null)
+        {
+            throw new ServiceOverloadedException("Store clusters are still being built. Try again shortly.", RETRY_AFTER_SECONDS);
+        }
+
+        //Clusters built from the in-memory fallback are replaced once the data can be versioned again. The breaker's
+        //state only decides when to try; the rebuild is tagged by how its own Stores were served.
+        if (!snapshot.isVersioned() && datasetVersion.isKnown() && !storeRepository.isServingStaleData())
+        {
+            scheduleRebuild();
+        }
+
+        return snapshot;
+    }
+
+    void scheduleRebuild()
+    {
+        if (rebuildPending.compareAndSet(false, true))
+        {
+            rebuilder.execute(this::rebuild);
+        }
+    }
+
+    private void rebuild()
+    {
+        //Cleared first, so that changes made during the build schedule another one.
+        rebuildPending.set(false);
+        lastBuildFailed = false;
+
+        try
+        {
+            current.set(build());
+        }
+        catch (RuntimeException ex)
+        {
+            lastBuildFailed = true;
+            LOG.error("Failed to build Store clusters. Serving the previous ones, if any.", ex);
+        }
+    }
+
+    private Snapshot build()
+    {
+        long begin = System.currentTimeMillis();
+
+        //Read before the Stores, so that the snapshot is never newer than its version says.
+        long version = datasetVersion.getVersion();
+        AllStores stores = storeRepository.fetchAllStores();
+
+        if (stores.isServedStale())
+        {
+            version = DatasetVersion.UNKNOWN;
+        }
+
+        StoreClusters clusters = StoreClusters.of(stores.getStores());
+
+        LOG.info("Built clusters of {} Stores at version {} in {}ms",
+                 clusters.getTotalStores(),
+                 version,
+                 System.currentTimeMillis() - begin);
+
+        return new Snapshot(version, clusters);
+    }
+
+    private static Thread newDaemonThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "store-clusters-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * The clusters of the Stores at one version of the data, and the tiles drawn from them.
+     */
+    @ThreadSafe
+    static final class Snapshot
+    {
+
+        private final long version;
+        private final StoreClusters clusters;
+
+        //In access order, so the first entry is the least recently used.
+        private final Map<String, byte[]> tiles = new LinkedHashMap<String, byte[]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest)
+            {
+                return size() > MAX_CACHED_TILES;
+            }
+        };
+
+        Snapshot(long version, @Required StoreClusters clusters)
+        {
+            checkThat(clusters).is(notNull());
+
+            this.version = version;
+            this.clusters = clusters;
+        }
+
+        /**
+         * @return The version of the data the clusters were built from, or {@link DatasetVersion#UNKNOWN} if it isn't
+         *         known, for example when the database was down.
+         */
+        long getVersion()
+        {
+            return version;
+        }
+
+        boolean isVersioned()
+        {
+            return version != DatasetVersion.UNKNOWN;
+        }
+
+        StoreClusters getClusters()
+        {
+            return clusters;
+        }
+
+        synchronized byte[] getTile(@NonEmpty String key)
+        {
+            return tiles.get(key);
+        }
+
+        synchronized void putTile(@NonEmpty String key, @Required byte[] body)
+        {
+            checkThat(key).is(nonEmptyString());
+            checkThat(body).is(notNull());
+
+            tiles.put(key, body);
+        }
+
+        synchronized int getTotalTiles()
+        {
+            return tiles.size();
+        }
+
+    }
+
+}
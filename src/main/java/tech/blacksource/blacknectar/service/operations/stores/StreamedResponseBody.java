@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.operations.ResponseCompression;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadUnsafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.NumberAssertions.greaterThan;
+
+/**
+ * The body of a streamed {@link SearchStoresOperation} response.
+ * <p>
+ * The first few Stores are held back until {@link #HOLD_BACK_BYTES} of them have been written, or the search ends.
+ * Only then is the response {@linkplain Opener opened}, and everything after that goes out as it is written. A search
+ * that fails before then hasn't sent anything, so it still turns into a proper error instead of a truncated 200.
+ * <p>
+ * Each {@link #flush()} marks the end of a Store, which {@link JsonStreamWriter} does after every element. Only whole
+ * Stores are sent, so a search that fails once the response is open can still {@linkplain #endEarly(JsonStreamWriter.Format)
+ * end the body} cleanly.
+ * <p>
+ * A copy of the body is kept for the {@link StoreResponseCache}, and dropped once it grows past
+ * {@link StoreResponseCache#MAX_ENTRY_BYTES}.
+ *
+ * @author SirWellington
+ */
+@ThreadUnsafe
+final class StreamedResponseBody extends OutputStream
+{
+
+    /**
+     * How much of the response is held back before it is sent. About the size of the first packets of a response.
+     */
+    static final int HOLD_BACK_BYTES = 4 * 1024;
+
+    /**
+     * Opens the response once the body is ready to be sent.
+     */
+    @FunctionalInterface
+    interface Opener
+    {
+
+        /**
+         * Sets the status and headers of the response.
+         *
+         * @return Where to send the body.
+         * @throws IOException
+         */
+        ResponseCompression.CompressingOutputStream open() throws IOException;
+    }
+
+    private final Opener opener;
+    private final int holdBackBytes;
+
+    //What has been written since the end of the last Store.
+    private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    private ByteArrayOutputStream heldBack = new ByteArrayOutputStream();
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private ResponseCompression.CompressingOutputStream out;
+
+    StreamedResponseBody(@Required Opener opener)
+    {
+        this(opener, HOLD_BACK_BYTES);
+    }
+
+    StreamedResponseBody(@Required Opener opener, int holdBackBytes)
+    {
+        checkThat(opener).is(notNull());
+
+        checkThat(holdBackBytes)
+                .usingMessage("holdBackBytes must be > 0")
+                .is(greaterThan(0));
+
+        this.opener = opener;
+        this.holdBackBytes = holdBackBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        partial.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        partial.write(bytes, offset, length);
+    }
+
+    /**
+     * Marks the end of a Store. It is sent once the response is open, and held back until then.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        keep(partial);
+
+        if (out != null)
+        {
+            partial.writeTo(out);
+            partial.reset();
+            return;
+        }
+
+        partial.writeTo(heldBack);
+        partial.reset();
+
+        if (heldBack.size() >= holdBackBytes)
+        {
+            open();
+        }
+    }
+
+    /**
+     * Sends whatever is left, opening the response first if that hasn't happened yet.
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException
+    {
+        flush();
+
+        if (out == null)
+        {
+            open();
+        }
+
+        out.finish();
+    }
+
+    /**
+     * Ends the body after the last whole Store, when the search fails after the response was opened. The part of a
+     * Store that was still being written is dropped, and the body is closed off so that it still parses. The response
+     * is no longer cached.
+     *
+     * @param format How the Stores were written.
+     * @throws IOException
+     */
+    void endEarly(@Required JsonStreamWriter.Format format) throws IOException
+    {
+        checkThat(format).is(notNull());
+
+        if (out == null)
+        {
+            throw new IllegalStateException("The response hasn't been opened");
+        }
+
+        partial.reset();
+        copy = null;
+
+        if (format == JsonStreamWriter.Format.ARRAY)
+        {
+            out.write("]".getBytes(StandardCharsets.UTF_8));
+        }
+
+        out.finish();
+    }
+
+    /**
+     * @return {@code true} once the status and headers have been set, after which the search can no longer fail with
+     *         an error response.
+     */
+    boolean isOpen()
+    {
+        return out != null;
+    }
+
+    /**
+     * @return The whole body, or {@code null} if it was too big to keep, or the body {@linkplain #endEarly(JsonStreamWriter.Format)
+     *         ended early}.
+     */
+    byte[] getBytes()
+    {
+        return copy == null ? null : copy.toByteArray();
+    }
+
+    private void open() throws IOException
+    {
+        out = opener.open();
+        heldBack.writeTo(out);
+        heldBack = null;
+
+        //Sends the headers, so the client can start on the response.
+        out.flush();
+    }
+
+    private void keep(ByteArrayOutputStream bytes) throws IOException
+    {
+        if (copy == null)
+        {
+            return;
+        }
+
+        if (copy.size() + bytes.size() > StoreResponseCache.MAX_ENTRY_BYTES)
+        {
+            copy = null;
+            return;
+        }
+
+        bytes.writeTo(copy);
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.google.common.base.Strings;
+import spark.QueryParamsMap;
+import spark.Request;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadUnsafe;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * A request to {@code /stores} that no client sent, made by the {@link SearchWarmUp}. It answers what
+ * {@link SearchStoresOperation} reads from a request: the query parameters, the headers, the client's address, and
+ * attributes. It has no servlet request behind it, so anything else is not available.
+ * <p>
+ * It is marked as a {@linkplain SearchStoresOperation#WARM_UP_ATTRIBUTE warm-up}.
+ *
+ * @author SirWellington
+ */
+@ThreadUnsafe
+final class WarmUpRequest extends Request
+{
+
+    static final String LOCALHOST = "127.0.0.1";
+
+    private final String queryString;
+    private final Map<String, String[]> queryParameters = new LinkedHashMap<>();
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    /**
+     * @param queryString The query, for example {@code latitude=34.05&longitude=-118.24&radius=5000}. A leading path,
+     *                    like {@code /stores?}, is ignored, so lines copied from an access log can be used as they are.
+     * @param headers     The headers of the request, such as {@code Accept}.
+     */
+    WarmUpRequest(@Required String queryString, @Required Map<String, String> headers)
+    {
+        checkThat(queryString, headers).are(notNull());
+
+        int start = queryString.indexOf('?');
+        this.queryString = queryString.substring(start + 1).trim();
+        this.headers.putAll(headers);
+
+        parseQuery();
+        attributes.put(SearchStoresOperation.WARM_UP_ATTRIBUTE, true);
+    }
+
+    @Override
+    public QueryParamsMap queryMap()
+    {
+        return new QueryParamsMap(queryParameters)
+        {
+        };
+    }
+
+    @Override
+    public Set<String> queryParams()
+    {
+        return Collections.unmodifiableSet(queryParameters.keySet());
+    }
+
+    @Override
+    public String queryParams(String name)
+    {
+        String[] values = queryParameters.get(name);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public String[] queryParamsValues(String name)
+    {
+        return queryParameters.get(name);
+    }
+
+    @Override
+    public String queryString()
+    {
+        return queryString;
+    }
+
+    @Override
+    public String headers(String name)
+    {
+        return headers.get(name);
+    }
+
+    @Override
+    public Set<String> headers()
+    {
+        return Collections.unmodifiableSet(headers.keySet());
+    }
+
+    @Override
+    public String ip()
+    {
+        return LOCALHOST;
+    }
+
+    @Override
+    public String requestMethod()
+    {
+        return "GET";
+    }
+
+    @Override
+    public void attribute(String name, Object value)
+    {
+        if (value == null)
+        {
+            attributes.remove(name);
+        }
+        else
+        {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T attribute(String name)
+    {
+        return (T) attributes.get(name);
+    }
+
+    @Override
+    public Set<String> attributes()
+    {
+        return Collections.unmodifiableSet(attributes.keySet());
+    }
+
+    private void parseQuery()
+    {
+        for (String pair : queryString.split("&"))
+        {
+            if (pair.isEmpty())
+            {
+                continue;
+            }
+
+            int equals = pair.indexOf('=');
+            String name = decode(equals < 0 ? pair : pair.substring(0, equals));
+            String value = equals < 0 ? "" : decode(pair.substring(equals + 1));
+
+            String[] values = queryParameters.get(name);
+
+            if (values == null)
+            {
+                queryParameters.put(name, new String[] { value });
+            }
+            else
+            {
+                String[] more = Arrays.copyOf(values, values.length + 1);
+                more[values.length] = value;
+                queryParameters.put(name, more);
+            }
+        }
+    }
+
+    private static String decode(String text)
+    {
+        try
+        {
+            return URLDecoder.decode(Strings.nullToEmpty(text), StandardCharsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException ex)
+        {
+            return text;
+        }
+    }
+
+}
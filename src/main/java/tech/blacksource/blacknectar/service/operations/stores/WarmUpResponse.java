@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Response;
+import tech.sirwellington.alchemy.annotations.concurrency.ThreadUnsafe;
+
+/**
+ * The response to a {@link WarmUpRequest}. Its body is counted, then thrown away.
+ * <p>
+ * It has a {@linkplain #raw() servlet response} behind it, so that {@link SearchStoresOperation} streams to it the
+ * same way it streams to clients. The servlet response only keeps the status and headers, and answers anything else
+ * with nothing.
+ *
+ * @author SirWellington
+ */
+@ThreadUnsafe
+final class WarmUpResponse extends Response
+{
+
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final CountingOutputStream body = new CountingOutputStream();
+    private final HttpServletResponse raw;
+    private int status = 200;
+    private String type;
+    private String stringBody;
+
+    WarmUpResponse()
+    {
+        this.raw = (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                                                                new Class<?>[] { HttpServletResponse.class },
+                                                                (proxy, method, args) -> answer(proxy, method, args));
+    }
+
+    @Override
+    public void status(int statusCode)
+    {
+        this.status = statusCode;
+    }
+
+    @Override
+    public int status()
+    {
+        return status;
+    }
+
+    @Override
+    public void type(String contentType)
+    {
+        this.type = contentType;
+    }
+
+    @Override
+    public String type()
+    {
+        return type;
+    }
+
+    @Override
+    public void header(String header, String value)
+    {
+        headers.put(header, value);
+    }
+
+    @Override
+    public void body(String body)
+    {
+        this.stringBody = body;
+    }
+
+    @Override
+    public String body()
+    {
+        return stringBody;
+    }
+
+    @Override
+    public HttpServletResponse raw()
+    {
+        return raw;
+    }
+
+    String header(String name)
+    {
+        return headers.get(name);
+    }
+
+    /**
+     * @return How many bytes were written to the body.
+     */
+    long getBytesWritten()
+    {
+        return body.count;
+    }
+
+    private Object answer(Object proxy, Method method, Object[] args)
+    {
+        switch (method.getName())
+        {
+            case "getOutputStream":
+                return body;
+            case "getCharacterEncoding":
+                return StandardCharsets.UTF_8.name();
+            case "getStatus":
+                return status;
+            case "setStatus":
+                status = (Integer) args[0];
+                return null;
+            case "setContentType":
+                type = (String) args[0];
+                return null;
+            case "getContentType":
+                return type;
+            case "setHeader":
+            case "addHeader":
+                headers.put((String) args[0], String.valueOf(args[1]));
+                return null;
+            case "getHeader":
+                return headers.get((String) args[0]);
+            case "containsHeader":
+                return headers.containsKey((String) args[0]);
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "WarmUpResponse";
+            default:
+                return nothingOf(method.getReturnType());
+        }
+    }
+
+    private static Object nothingOf(Class<?> type)
+    {
+        if (type == boolean.class)
+        {
+            return false;
+        }
+
+        if (type == int.class)
+        {
+            return 0;
+        }
+
+        if (type == long.class)
+        {
+            return 0L;
+        }
+
+        return null;
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream
+    {
+
+        private long count = 0;
+
+        @Override
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            count += length;
+        }
+
+    }
+
+}
@@ -33,7 +33,6 @@ import tech.blacksource.blacknectar.service.ModuleDatabaseTesting;
 import tech.blacksource.blacknectar.service.ModuleServer;
 import tech.blacksource.blacknectar.service.algorithms.StoreSearchAlgorithm;
 import tech.blacksource.blacknectar.service.data.SQLQueries;
-import tech.blacksource.blacknectar.service.data.StoreRepository;
 import tech.blacksource.blacknectar.service.stores.Store;
 import tech.redroma.google.places.GooglePlacesAPI;
 import tech.redroma.google.places.data.*;
@@ -44,6 +43,10 @@ import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull
 
 /**
  * This Script loads data from Google Places for EBT Stores.
+ * <p>
+ * The Stores are shared out through a {@link StoreJobWorker}, so this can be run on as many machines at once as we
+ * like, and running it again picks up where the last run left off. Run it with {@code --rerun} to load the data of
+ * every Store again.
  *
  * @author SirWellington
  */
@@ -52,28 +55,33 @@ public class RunLoadGoogleData implements Callable<Void>
 
     private final static Logger LOG = LoggerFactory.getLogger(RunLoadGoogleData.class);
 
+    static final String JOB_TYPE = "Google Data";
+
     private final Aroma aroma;
     private final Gson gson;
     private final GooglePlacesAPI googlePlaces;
-    private final StoreRepository storeRepository;
+    private final StoreJobWorker worker;
     private final StoreSearchAlgorithm<Place> storeSearch;
     private final JdbcTemplate database;
 
+    private int succeeded = 0;
+    private int failed = 0;
+
     @Inject
     RunLoadGoogleData(Aroma aroma,
                       Gson gson,
                       GooglePlacesAPI googlePlaces,
-                      StoreRepository storeRepository,
+                      StoreJobWorker worker,
                       StoreSearchAlgorithm<Place> storeSearch,
                       JdbcTemplate database)
     {
-        checkThat(aroma, gson, googlePlaces, storeRepository, storeSearch, database)
+        checkThat(aroma, gson, googlePlaces, worker, storeSearch, database)
                 .are(notNull());
 
         this.aroma = aroma;
         this.gson = gson;
         this.googlePlaces = googlePlaces;
-        this.storeRepository = storeRepository;
+        this.worker = worker;
         this.storeSearch = storeSearch;
         this.database = database;
     }
@@ -83,52 +91,52 @@ public class RunLoadGoogleData implements Callable<Void>
         Injector injector = Guice.createInjector(new ModuleServer(), new ModuleDatabaseTesting());
 
         RunLoadGoogleData instance = injector.getInstance(RunLoadGoogleData.class);
+
+        if (StoreJobWorker.isRerun(args))
+        {
+            injector.getInstance(StoreJobWorker.class).requeueAll(JOB_TYPE);
+        }
+
         instance.call();
     }
 
     @Override
     public Void call() throws Exception
     {
-        List<Store> stores = storeRepository.getAllStores();
+        makeNoteThatScriptStarted();
 
-        int totalStores = stores.size();
-        int processed = -1;
-        int succeeded = 0;
-        int failed = 0;
+        int processed = worker.run(JOB_TYPE, this::processStore);
 
-        makeNoteThatScriptStartedWith(totalStores);
+        makeNoteThatScriptCompleted(succeeded, failed, processed);
 
-        for (Store store : stores)
-        {
-            ++processed;
-
-            Place place = tryToFindMatchFor(store);
-
-            if (place == null)
-            {
-                ++failed;
-                makeNoteThatNoPlaceFound(store, failed, processed, totalStores);
-                continue;
-            }
-
-            boolean success = tryToStorePlaceInformation(place, store);
-
-            if (success)
-            {
-                ++succeeded;
-                makeNoteOfSuccess(succeeded, processed, totalStores);
-            }
-            else
-            {
-                ++failed;
-                makeNoteOfFailure(failed, processed, totalStores);
-            }
+        return null;
+    }
 
+    private boolean processStore(Store store)
+    {
+        Place place = tryToFindMatchFor(store);
+
+        if (place == null)
+        {
+            ++failed;
+            makeNoteThatNoPlaceFound(store, failed);
+            return false;
         }
 
-        makeNoteThatScriptCompleted(succeeded, failed, totalStores);
+        boolean success = tryToStorePlaceInformation(place, store);
 
-        return null;
+        if (success)
+        {
+            ++succeeded;
+            makeNoteOfSuccess(succeeded);
+        }
+        else
+        {
+            ++failed;
+            makeNoteOfFailure(failed);
+        }
+
+        return success;
     }
 
     private Place tryToFindMatchFor(Store store)
@@ -241,62 +249,59 @@ public class RunLoadGoogleData implements Callable<Void>
         return gson.toJson(object);
     }
 
-    private void makeNoteThatScriptStartedWith(int totalStores)
+    private void makeNoteThatScriptStarted()
     {
-        String message = "Script Started with {} Total stores for processing.";
-        LOG.debug(message, totalStores);
+        String message = "Script Started. Stores will be taken from the [{}] job queue.";
+        LOG.debug(message, JOB_TYPE);
 
         aroma.begin().titled("Script Began")
-             .withBody(message, totalStores)
+             .withBody(message, JOB_TYPE)
              .withPriority(Priority.LOW)
              .send();
     }
 
-    private void makeNoteThatNoPlaceFound(Store store, int failed, int processed, int totalStores)
+    private void makeNoteThatNoPlaceFound(Store store, int failed)
     {
-        String message = "[{} failed, {} processed, {} remaining, {} total] - No matching place found for store: {}";
-        int remaining = totalStores - processed;
+        String message = "[{} failed] - No matching place found for store: {}";
 
-        LOG.info(message, failed, processed, remaining, totalStores, store);
+        LOG.info(message, failed, store);
 
         aroma.begin().titled("Store Skipped")
-             .withBody(message, failed, processed, remaining, totalStores, store)
+             .withBody(message, failed, store)
              .withPriority(Priority.MEDIUM)
              .send();
     }
 
-    private void makeNoteThatScriptCompleted(int completed, int failed, int totalStores)
+    private void makeNoteThatScriptCompleted(int completed, int failed, int processed)
     {
-        String message = "[{} completed, {} failed, {} total stores] - Completed processing all stores.";
+        String message = "[{} completed, {} failed, {} processed] - Completed processing all stores.";
 
-        LOG.info(message, completed, failed, totalStores);
+        LOG.info(message, completed, failed, processed);
 
         aroma.begin().titled("Script Complete")
-             .withBody(message, completed, failed, totalStores)
+             .withBody(message, completed, failed, processed)
              .withPriority(Priority.HIGH)
              .send();
     }
 
-    private void makeNoteOfSuccess(int completed, int processed, int totalStores)
+    private void makeNoteOfSuccess(int completed)
     {
-        int remaining = totalStores - processed;
-        String message = "[{} succeeded, {} processed, {} remaining, {} total] - Successfully stored Place Information.";
+        String message = "[{} succeeded] - Successfully stored Place Information.";
 
-        LOG.info(message, completed, processed, remaining, totalStores);
+        LOG.info(message, completed);
         aroma.begin().titled("Google Place Saved")
-             .withBody(message, completed, processed, remaining, totalStores)
+             .withBody(message, completed)
              .withPriority(Priority.LOW)
              .send();
     }
 
-    private void makeNoteOfFailure(int failed, int processed, int totalStores)
+    private void makeNoteOfFailure(int failed)
     {
-        String message = "[{} failed, {} processed, {} remaining, {} total] - Failed to store Place Information.";
-        int remaining = totalStores - processed;
+        String message = "[{} failed] - Failed to store Place Information.";
 
-        LOG.warn(message, failed, processed, remaining, totalStores);
+        LOG.warn(message, failed);
         aroma.begin().titled("Database Insert Failed")
-             .withBody(message, failed, processed, remaining, totalStores)
+             .withBody(message, failed)
              .withPriority(Priority.MEDIUM)
              .send();
     }
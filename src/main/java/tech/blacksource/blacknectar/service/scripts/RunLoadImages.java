@@ -34,6 +34,7 @@ import sir.wellington.alchemy.collections.lists.Lists;
 import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
 import tech.blacksource.blacknectar.service.data.SQLQueries;
+import tech.blacksource.blacknectar.service.images.ImageIds;
 import tech.blacksource.blacknectar.service.images.ImageLoader;
 import tech.blacksource.blacknectar.service.stores.Store;
 import tech.sirwellington.alchemy.annotations.arguments.*;
@@ -123,6 +124,25 @@ class RunLoadImages implements Consumer<RunLoadImages.Arguments>
         makeNoteOfScriptCompletion(args, totalSuccesses, totalStoresProcessed, totalStores, runtimeHours);
     }
 
+    /**
+     * Finds and saves the images of a single Store, instead of the Stores in the arguments. This is used when the
+     * Stores come from a {@link StoreJobWorker}.
+     *
+     * @param store The Store to process.
+     * @param args  The arguments to use. Their Stores are ignored.
+     * @return {@code true} if images were found and saved for the Store.
+     */
+    boolean acceptOne(@Required Store store, @Required Arguments args)
+    {
+        checkThat(store, args)
+                .are(notNull());
+
+        boolean success = tryToProcessStore(store, args);
+        tryToSleepFor(args.sleepTimeMillis);
+
+        return success;
+    }
+
     private void tryToSleepFor(long sleepTime)
     {
         if (sleepTime <= 0)
@@ -246,11 +266,11 @@ class RunLoadImages implements Consumer<RunLoadImages.Arguments>
 
         UUID storeId = UUID.fromString(store.getStoreId());
         String imageLink = imageUrl.toString();
-        String imageId = imageLink;
+        long imageKey = ImageIds.toKey(ImageIds.forURL(imageUrl));
 
         database.update(statementToInsertImage,
                         storeId,
-                        imageId,
+                        imageKey,
                         height,
                         width,
                         size,
@@ -363,10 +383,6 @@ class RunLoadImages implements Consumer<RunLoadImages.Arguments>
             checkThat(source, imageLoader, stores)
                     .are(notNull());
 
-            checkThat((Collection<Store>) stores)
-                    .usingMessage("stores cannot be empty")
-                    .is(nonEmptyCollection());
-
             checkThat(sleepTimeMillis).is(greaterThanOrEqualTo(0L));
 
             this.sleepTimeMillis = sleepTimeMillis;
@@ -497,9 +513,6 @@ class RunLoadImages implements Consumer<RunLoadImages.Arguments>
                         .usingMessage("imageLoader is missing")
                         .is(notNull());
 
-                checkThat((Collection<Store>) stores)
-                        .is(nonEmptyCollection());
-
                 return new Arguments(sleepTimeMillis, source, imageLoader, stores);
             }
 
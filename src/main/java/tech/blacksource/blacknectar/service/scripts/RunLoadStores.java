@@ -29,6 +29,7 @@ import tech.aroma.client.Aroma;
 import tech.aroma.client.Priority;
 import tech.blacksource.blacknectar.service.ModuleServer;
 import tech.blacksource.blacknectar.service.data.StoreRepository;
+import tech.blacksource.blacknectar.service.data.WriteBehind;
 import tech.blacksource.blacknectar.service.stores.Store;
 import tech.blacksource.blacknectar.service.stores.StoreDataSource;
 
@@ -36,6 +37,12 @@ import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
 
 /**
+ * Loads every Store from the {@link StoreDataSource} into the database.
+ * <p>
+ * The Stores are written through the {@linkplain WriteBehind write-behind} repository, so that they go to the database
+ * in batches instead of one statement each. How many were saved, skipped as duplicates, or dropped is reported by its
+ * final {@linkplain StoreRepository#flush() flush}.
+ *
  * @author SirWellington
  */
 public final class RunLoadStores implements Callable<Void>
@@ -44,18 +51,18 @@ public final class RunLoadStores implements Callable<Void>
     private final static Logger LOG = LoggerFactory.getLogger(RunLoadStores.class);
 
     private final Aroma aroma;
-    private final StoreRepository service;
-    private final StoreDataSource storeRepository;
+    private final StoreRepository storeRepository;
+    private final StoreDataSource dataSource;
 
     @Inject
-    RunLoadStores(Aroma aroma, StoreRepository service, StoreDataSource storeRepository)
+    RunLoadStores(Aroma aroma, @WriteBehind StoreRepository storeRepository, StoreDataSource dataSource)
     {
-        checkThat(aroma, service, storeRepository)
+        checkThat(aroma, storeRepository, dataSource)
                 .are(notNull());
 
         this.aroma = aroma;
-        this.service = service;
         this.storeRepository = storeRepository;
+        this.dataSource = dataSource;
     }
 
     public static void main(String[] args) throws Exception
@@ -71,14 +78,14 @@ public final class RunLoadStores implements Callable<Void>
     @Override
     public Void call() throws Exception
     {
-        List<Store> stores = storeRepository.getAllStores();
+        List<Store> stores = dataSource.getAllStores();
         AtomicInteger counter = new AtomicInteger();
 
         stores.parallelStream().forEach((store) ->
         {
             try
             {
-                service.addStore(store);
+                storeRepository.addStore(store);
                 counter.incrementAndGet();
             }
             catch (Exception ex)
@@ -91,10 +98,16 @@ public final class RunLoadStores implements Callable<Void>
                     .send();
             }
         });
-        
-        LOG.info("Successfully saved {} stores", counter.get());
+
+        storeRepository.flush();
+
+        //The counter only says how many Stores were buffered. The flush reports what actually reached the database.
+        String message = "Buffered and flushed {} of {} stores";
+
+        LOG.info(message, counter.get(), stores.size());
         aroma.begin().titled("RunLoadStores Complete")
-             .withBody("Finished loading {} stores", counter.get())
+             .withBody(message, counter.get(), stores.size())
+             .withPriority(Priority.LOW)
              .send();
 
         return null;
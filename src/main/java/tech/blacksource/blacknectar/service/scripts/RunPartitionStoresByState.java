@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.scripts;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+import javax.inject.Inject;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.ModuleDatabaseProduction;
+import tech.blacksource.blacknectar.service.ModuleServer;
+import tech.blacksource.blacknectar.service.data.SQLQueries;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * This Script turns the Stores table into one that is list-partitioned by state, with a partition for each state that
+ * has Stores, and a default partition for the rest. It needs PostgreSQL 11 or later.
+ * <p>
+ * Everything happens in a single transaction, so either all of the Stores end up in the partitioned table, or nothing
+ * changes. A Store that collides with one already copied is left behind, and reported. The old table is kept as
+ * {@code Stores_Unpartitioned}, and can be dropped once the new one checks out.
+ * The Service picks up the partitions on its own.
+ *
+ * @author SirWellington
+ */
+public final class RunPartitionStoresByState implements Callable<Void>
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(RunPartitionStoresByState.class);
+
+    /**
+     * Only states that look like this get a partition of their own, since the state also goes into the table name.
+     * Stores in any other state go to the default partition.
+     */
+    private static final Pattern PARTITIONED_STATE = Pattern.compile("[A-Z]{2}");
+
+    private final Aroma aroma;
+    private final JdbcTemplate database;
+
+    @Inject
+    RunPartitionStoresByState(Aroma aroma, JdbcTemplate database)
+    {
+        checkThat(aroma, database)
+                .are(notNull());
+
+        this.aroma = aroma;
+        this.database = database;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Injector injector = Guice.createInjector(new ModuleServer(), new ModuleDatabaseProduction());
+
+        RunPartitionStoresByState instance = injector.getInstance(RunPartitionStoresByState.class);
+        instance.call();
+    }
+
+    @Override
+    public Void call() throws Exception
+    {
+        List<String> skipped = new ArrayList<>();
+
+        int totalStores = database.execute((Connection connection) ->
+        {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try
+            {
+                int copied = partition(connection, skipped);
+                connection.commit();
+
+                return copied;
+            }
+            catch (SQLException | RuntimeException ex)
+            {
+                connection.rollback();
+                throw ex;
+            }
+            finally
+            {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+
+        aroma.begin().titled("RunPartitionStoresByState Complete")
+             .withBody("Moved {} stores into the partitioned Stores table", totalStores)
+             .withPriority(Priority.MEDIUM)
+             .send();
+
+        if (!skipped.isEmpty())
+        {
+            aroma.begin().titled("RunPartitionStoresByState Skipped Stores")
+                 .withBody("{} stores collided with others and were left in Stores_Unpartitioned:\n{}",
+                           skipped.size(),
+                           String.join("\n", skipped))
+                 .withPriority(Priority.HIGH)
+                 .send();
+        }
+
+        return null;
+    }
+
+    private int partition(Connection connection, List<String> skipped) throws SQLException
+    {
+        try (Statement statement = connection.createStatement())
+        {
+            statement.execute(SQLQueries.PARTITION_STORES_BY_STATE);
+
+            List<String> states = getStates(statement);
+
+            for (String state : states)
+            {
+                statement.execute(String.format(SQLQueries.CREATE_STORES_PARTITION, state));
+            }
+
+            LOG.info("Created partitions for {} states: {}", states.size(), states);
+
+            int copied = statement.executeUpdate(SQLQueries.COPY_STORES_INTO_PARTITIONS);
+            LOG.info("Copied {} stores into the partitioned Stores table", copied);
+
+            skipped.addAll(getStoresNotCopied(statement));
+
+            statement.execute(SQLQueries.ENFORCE_UNIQUE_STORE_IDS);
+
+            return copied;
+        }
+    }
+
+    private List<String> getStates(Statement statement) throws SQLException
+    {
+        List<String> states = new ArrayList<>();
+
+        try (ResultSet results = statement.executeQuery(SQLQueries.QUERY_UNPARTITIONED_STORE_STATES))
+        {
+            while (results.next())
+            {
+                String state = results.getString("state");
+
+                if (PARTITIONED_STATE.matcher(state).matches())
+                {
+                    states.add(state);
+                }
+                else
+                {
+                    LOG.warn("State [{}] will go in the default partition", state);
+                }
+            }
+        }
+
+        return states;
+    }
+
+    private List<String> getStoresNotCopied(Statement statement) throws SQLException
+    {
+        List<String> stores = new ArrayList<>();
+
+        try (ResultSet results = statement.executeQuery(SQLQueries.QUERY_STORES_NOT_PARTITIONED))
+        {
+            while (results.next())
+            {
+                String store = String.format("%s [%s] in [%s]",
+                                             results.getString("store_id"),
+                                             results.getString("store_name"),
+                                             results.getString("state"));
+
+                LOG.warn("Store {} was not copied into the partitioned Stores table", store);
+                stores.add(store);
+            }
+        }
+
+        return stores;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.scripts;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import javax.inject.Inject;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.ModuleDatabaseProduction;
+import tech.blacksource.blacknectar.service.ModuleServer;
+import tech.blacksource.blacknectar.service.data.SQLQueries;
+import tech.blacksource.blacknectar.service.data.SpatialCells;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * This Script adds the {@code cell_id} column to the Stores table, if needed, and computes it for every Store that
+ * does not have one yet.
+ *
+ * @author SirWellington
+ */
+public final class RunPopulateCellIds implements Callable<Void>
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(RunPopulateCellIds.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private final Aroma aroma;
+    private final JdbcTemplate database;
+
+    @Inject
+    RunPopulateCellIds(Aroma aroma, JdbcTemplate database)
+    {
+        checkThat(aroma, database)
+                .are(notNull());
+
+        this.aroma = aroma;
+        this.database = database;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Injector injector = Guice.createInjector(new ModuleServer(), new ModuleDatabaseProduction());
+
+        RunPopulateCellIds instance = injector.getInstance(RunPopulateCellIds.class);
+        instance.call();
+    }
+
+    @Override
+    public Void call() throws Exception
+    {
+        database.execute(SQLQueries.ADD_CELL_ID_TO_STORES);
+
+        List<Object[]> updates = database.query(SQLQueries.QUERY_STORES_WITHOUT_CELL_ID, (results, row) ->
+                                            {
+                                                UUID storeId = UUID.fromString(results.getString("store_id"));
+                                                double latitude = results.getDouble("latitude");
+                                                double longitude = results.getDouble("longitude");
+
+                                                return new Object[] { SpatialCells.cellIdOf(latitude, longitude), storeId };
+                                            });
+
+        LOG.info("Computing cell IDs for {} stores", updates.size());
+
+        for (int i = 0; i < updates.size(); i += BATCH_SIZE)
+        {
+            List<Object[]> batch = updates.subList(i, Math.min(i + BATCH_SIZE, updates.size()));
+            database.batchUpdate(SQLQueries.UPDATE_STORE_CELL_ID, batch);
+
+            LOG.info("Updated {}/{} stores", i + batch.size(), updates.size());
+        }
+
+        aroma.begin().titled("RunPopulateCellIds Complete")
+             .withBody("Computed cell IDs for {} stores", updates.size())
+             .withPriority(Priority.LOW)
+             .send();
+
+        return null;
+    }
+
+}
@@ -16,13 +16,10 @@
 
 package tech.blacksource.blacknectar.service.scripts;
 
-import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
-import com.google.common.collect.Queues;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.slf4j.Logger;
@@ -30,15 +27,15 @@ import org.slf4j.LoggerFactory;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.service.ModuleDatabaseProduction;
 import tech.blacksource.blacknectar.service.ModuleServer;
-import tech.blacksource.blacknectar.service.data.StoreRepository;
 import tech.blacksource.blacknectar.service.images.Google;
 import tech.blacksource.blacknectar.service.images.ImageLoader;
-import tech.blacksource.blacknectar.service.stores.Store;
 
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
 
 /**
+ * Searches Google for images of each Store. The Stores are shared out through a {@link StoreJobWorker}, so this can be
+ * run on as many machines at once as we like. Run it with {@code --rerun} to search for every Store again.
  *
  * @author SirWellington
  */
@@ -46,27 +43,28 @@ public final class RunSearchGoogleImages implements Callable<Void>
 {
 
     private final static Logger LOG = LoggerFactory.getLogger(RunSearchGoogleImages.class);
+
+    static final String JOB_TYPE = "Google Images";
     
     private final Aroma aroma;
     private final ImageLoader googleImageLoader;
     private final String source = "Google";
     private final RunLoadImages runner;
-    private final StoreRepository storeRepository;
-    private final int startNumber = 0;
+    private final StoreJobWorker worker;
 
     @Inject
     RunSearchGoogleImages(Aroma aroma,
                           @Google ImageLoader googleImageLoader,
                           RunLoadImages runner,
-                          StoreRepository storeRepository)
+                          StoreJobWorker worker)
     {
-        checkThat(aroma, googleImageLoader, runner, storeRepository)
+        checkThat(aroma, googleImageLoader, runner, worker)
             .are(notNull());
         
         this.aroma = aroma;
         this.googleImageLoader = googleImageLoader;
         this.runner = runner;
-        this.storeRepository = storeRepository;
+        this.worker = worker;
     }
 
     public static void main(String[] args) throws Exception
@@ -74,6 +72,12 @@ public final class RunSearchGoogleImages implements Callable<Void>
         Injector injector = Guice.createInjector(new ModuleServer(), new ModuleDatabaseProduction());
 
         RunSearchGoogleImages instance = injector.getInstance(RunSearchGoogleImages.class);
+
+        if (StoreJobWorker.isRerun(args))
+        {
+            injector.getInstance(StoreJobWorker.class).requeueAll(JOB_TYPE);
+        }
+
         instance.call();
     }
 
@@ -82,19 +86,13 @@ public final class RunSearchGoogleImages implements Callable<Void>
     {
         LOG.debug("Beginning script.");
 
-        List<Store> stores = storeRepository.getAllStores();
-        stores = stores.subList(startNumber, stores.size());
-        
-        Queue<Store> queue = Queues.newLinkedBlockingQueue(stores);
-
         RunLoadImages.Arguments args = RunLoadImages.Arguments.Builder.newInstance()
             .withSleepTime(100, TimeUnit.MILLISECONDS)
             .withSource(source)
             .withImageLoader(googleImageLoader)
-            .withStores(queue)
             .build();
 
-        runner.accept(args);
+        worker.run(JOB_TYPE, store -> runner.acceptOne(store, args));
 
         return null;
     }
@@ -16,13 +16,10 @@
 
 package tech.blacksource.blacknectar.service.scripts;
 
-import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
-import com.google.common.collect.Queues;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.slf4j.Logger;
@@ -30,15 +27,15 @@ import org.slf4j.LoggerFactory;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.service.ModuleDatabaseProduction;
 import tech.blacksource.blacknectar.service.ModuleServer;
-import tech.blacksource.blacknectar.service.data.StoreRepository;
 import tech.blacksource.blacknectar.service.images.ImageLoader;
 import tech.blacksource.blacknectar.service.images.Yelp;
-import tech.blacksource.blacknectar.service.stores.Store;
 
 import static tech.sirwellington.alchemy.arguments.Arguments.*;
 import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
 
 /**
+ * Searches Yelp for images of each Store. The Stores are shared out through a {@link StoreJobWorker}, so this can be
+ * run on as many machines at once as we like. Run it with {@code --rerun} to search for every Store again.
  *
  * @author SirWellington
  */
@@ -47,25 +44,27 @@ public final class RunSearchYelpImages implements Callable<Void>
 
     private final static Logger LOG = LoggerFactory.getLogger(RunSearchYelpImages.class);
 
+    static final String JOB_TYPE = "Yelp Images";
+
     private final Aroma aroma;
     private final ImageLoader yelpImageLoader;
     private final String source = "Yelp";
     private final RunLoadImages runner;
-    private final StoreRepository storeRepository;
+    private final StoreJobWorker worker;
 
     @Inject
     RunSearchYelpImages(Aroma aroma,
                         @Yelp ImageLoader yelpImageLoader,
                         RunLoadImages runner,
-                        StoreRepository storeRepository)
+                        StoreJobWorker worker)
     {
-        checkThat(aroma, yelpImageLoader, runner, storeRepository)
+        checkThat(aroma, yelpImageLoader, runner, worker)
             .are(notNull());
         
         this.aroma = aroma;
         this.yelpImageLoader = yelpImageLoader;
         this.runner = runner;
-        this.storeRepository = storeRepository;
+        this.worker = worker;
     }
     
     public static void main(String[] args) throws Exception
@@ -73,6 +72,12 @@ public final class RunSearchYelpImages implements Callable<Void>
         Injector injector = Guice.createInjector(new ModuleServer(), new ModuleDatabaseProduction());
         
         RunSearchYelpImages instance = injector.getInstance(RunSearchYelpImages.class);
+
+        if (StoreJobWorker.isRerun(args))
+        {
+            injector.getInstance(StoreJobWorker.class).requeueAll(JOB_TYPE);
+        }
+
         instance.call();
     }
 
@@ -81,17 +86,13 @@ public final class RunSearchYelpImages implements Callable<Void>
     {
         LOG.debug("Beginning script.");
 
-        List<Store> stores = storeRepository.getAllStores();
-        Queue<Store> queue = Queues.newLinkedBlockingQueue(stores);
-
         RunLoadImages.Arguments args = RunLoadImages.Arguments.Builder.newInstance()
             .withSleepTime(400, TimeUnit.MILLISECONDS)
             .withSource(source)
             .withImageLoader(yelpImageLoader)
-            .withStores(queue)
             .build();
 
-        runner.accept(args);
+        worker.run(JOB_TYPE, store -> runner.acceptOne(store, args));
         
         return null;
     }
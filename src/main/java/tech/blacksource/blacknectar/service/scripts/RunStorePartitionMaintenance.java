@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.scripts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import javax.inject.Inject;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.ModuleDatabaseProduction;
+import tech.blacksource.blacknectar.service.ModuleServer;
+import tech.blacksource.blacknectar.service.data.SQLQueries;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+
+/**
+ * This Script vacuums and reindexes the partitions of the Stores table one at a time, so that only one state's Stores
+ * are locked at once. Pass the names of partitions, like {@code stores_ca}, to only maintain those.
+ *
+ * @author SirWellington
+ * @see RunPartitionStoresByState
+ */
+public final class RunStorePartitionMaintenance implements Callable<Void>
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(RunStorePartitionMaintenance.class);
+
+    private final Aroma aroma;
+    private final JdbcTemplate database;
+
+    @Inject
+    RunStorePartitionMaintenance(Aroma aroma, JdbcTemplate database)
+    {
+        checkThat(aroma, database)
+                .are(notNull());
+
+        this.aroma = aroma;
+        this.database = database;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Injector injector = Guice.createInjector(new ModuleServer(), new ModuleDatabaseProduction());
+
+        RunStorePartitionMaintenance instance = injector.getInstance(RunStorePartitionMaintenance.class);
+        instance.maintain(Arrays.asList(args));
+    }
+
+    @Override
+    public Void call() throws Exception
+    {
+        maintain(Collections.emptyList());
+        return null;
+    }
+
+    /**
+     * Vacuums and reindexes the specified partitions, one at a time.
+     *
+     * @param partitions The partitions to maintain. If empty, all of them are maintained.
+     */
+    void maintain(List<String> partitions)
+    {
+        List<String> existingPartitions = database.queryForList(SQLQueries.QUERY_STORES_PARTITIONS, String.class);
+
+        if (existingPartitions.isEmpty())
+        {
+            LOG.warn("The Stores table is not partitioned. Run RunPartitionStoresByState first.");
+            return;
+        }
+
+        List<String> toMaintain = partitions.isEmpty() ? existingPartitions : partitions;
+        int maintained = 0;
+
+        for (String partition : toMaintain)
+        {
+            //The partition goes into the statement, so only ever use names that the database gave us.
+            if (!existingPartitions.contains(partition))
+            {
+                LOG.warn("Skipping unknown partition [{}]", partition);
+                continue;
+            }
+
+            if (maintainPartition(partition))
+            {
+                ++maintained;
+            }
+        }
+
+        aroma.begin().titled("RunStorePartitionMaintenance Complete")
+             .withBody("Vacuumed and reindexed {}/{} partitions of the Stores table", maintained, toMaintain.size())
+             .withPriority(Priority.LOW)
+             .send();
+    }
+
+    private boolean maintainPartition(String partition)
+    {
+        long begin = System.currentTimeMillis();
+
+        try
+        {
+            database.execute(String.format(SQLQueries.VACUUM_STORES_PARTITION, partition));
+            database.execute(String.format(SQLQueries.REINDEX_STORES_PARTITION, partition));
+        }
+        catch (DataAccessException ex)
+        {
+            LOG.error("Failed to maintain partition [{}]", partition, ex);
+
+            aroma.begin().titled("Partition Maintenance Failed")
+                 .withBody("Failed to vacuum and reindex partition [{}]: {}", partition, ex)
+                 .withPriority(Priority.MEDIUM)
+                 .send();
+
+            return false;
+        }
+
+        LOG.info("Vacuumed and reindexed partition [{}] in {}ms", partition, System.currentTimeMillis() - begin);
+
+        return true;
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.scripts;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.aroma.client.Aroma;
+import tech.aroma.client.Priority;
+import tech.blacksource.blacknectar.service.data.StoreJobQueue;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.annotations.arguments.NonEmpty;
+import tech.sirwellington.alchemy.annotations.arguments.Required;
+
+import static tech.sirwellington.alchemy.arguments.Arguments.*;
+import static tech.sirwellington.alchemy.arguments.assertions.Assertions.notNull;
+import static tech.sirwellington.alchemy.arguments.assertions.StringAssertions.nonEmptyString;
+
+/**
+ * Runs a job against Stores taken from the {@link StoreJobQueue}, until there are none left.
+ * <p>
+ * Any number of workers can run the same job, in as many processes as we like, and each Store is only processed by
+ * one of them. Running a script again picks up where the last run left off, including any Stores that failed.
+ * <p>
+ * Stores whose worker went away on their last attempt are {@linkplain StoreJobQueue#failExpired(String) marked failed}
+ * before a worker starts, and again once the queue runs dry, so they don't stay running forever.
+ * <p>
+ * To process every Store again, run one worker with {@value #RERUN_FLAG}, and start the others once it has begun.
+ *
+ * @author SirWellington
+ */
+final class StoreJobWorker
+{
+
+    private final static Logger LOG = LoggerFactory.getLogger(StoreJobWorker.class);
+
+    /**
+     * How many Stores a worker claims at a time.
+     */
+    static final int BATCH_SIZE = 25;
+
+    /**
+     * The command line flag that puts all of the finished jobs back in the queue before the worker starts.
+     */
+    static final String RERUN_FLAG = "--rerun";
+
+    private final Aroma aroma;
+    private final StoreJobQueue queue;
+    private final String workerId;
+
+    @Inject
+    StoreJobWorker(Aroma aroma, StoreJobQueue queue)
+    {
+        this(aroma, queue, ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID());
+    }
+
+    StoreJobWorker(@Required Aroma aroma, @Required StoreJobQueue queue, @NonEmpty String workerId)
+    {
+        checkThat(aroma, queue)
+                .are(notNull());
+
+        checkThat(workerId).is(nonEmptyString());
+
+        this.aroma = aroma;
+        this.queue = queue;
+        this.workerId = workerId;
+    }
+
+    /**
+     * Runs the job until the queue is empty.
+     *
+     * @param jobType The type of job, for example "Google Data". Each type has its own queue.
+     * @param job     Processes one Store, and returns whether it succeeded.
+     * @return The number of Stores this worker processed.
+     */
+    int run(@NonEmpty String jobType, @Required Predicate<Store> job)
+    {
+        checkThat(jobType).is(nonEmptyString());
+        checkThat(job).is(notNull());
+
+        queue.createTableIfMissing();
+        int added = queue.enqueueAllStores(jobType);
+        int expired = queue.failExpired(jobType);
+
+        makeNoteThatWorkerStarted(jobType, added, expired);
+
+        int processed = 0;
+        int failed = 0;
+
+        List<Store> batch = queue.claim(jobType, workerId, BATCH_SIZE);
+
+        while (!batch.isEmpty())
+        {
+            for (Store store : batch)
+            {
+                ++processed;
+
+                if (!tryToRun(jobType, job, store))
+                {
+                    ++failed;
+                }
+            }
+
+            batch = queue.claim(jobType, workerId, BATCH_SIZE);
+        }
+
+        //Leases that ran out while this worker was busy.
+        expired = queue.failExpired(jobType);
+
+        makeNoteThatWorkerFinished(jobType, processed, failed, expired);
+
+        return processed;
+    }
+
+    /**
+     * @param args The command line arguments of a script.
+     * @return Whether the script was asked to {@linkplain #requeueAll(String) process every Store again}.
+     */
+    static boolean isRerun(String[] args)
+    {
+        return args != null && Arrays.asList(args).contains(RERUN_FLAG);
+    }
+
+    /**
+     * Puts all of the finished jobs of a type back in the queue, so that every Store is processed again.
+     *
+     * @param jobType The type of job.
+     * @return The number of jobs put back in the queue.
+     */
+    int requeueAll(@NonEmpty String jobType)
+    {
+        checkThat(jobType).is(nonEmptyString());
+
+        queue.createTableIfMissing();
+        int requeued = queue.requeueAll(jobType);
+
+        makeNoteThatJobsRequeued(jobType, requeued);
+
+        return requeued;
+    }
+
+    private boolean tryToRun(String jobType, Predicate<Store> job, Store store)
+    {
+        boolean success;
+        String reason = "Job was unsuccessful";
+
+        try
+        {
+            success = job.test(store);
+        }
+        catch (RuntimeException ex)
+        {
+            LOG.error("Job [{}] failed for Store: {}", jobType, store, ex);
+            success = false;
+            reason = ex.toString();
+        }
+
+        if (success)
+        {
+            queue.complete(jobType, store, workerId);
+        }
+        else
+        {
+            queue.fail(jobType, store, workerId, reason);
+        }
+
+        return success;
+    }
+
+    private void makeNoteThatWorkerStarted(String jobType, int added, int expired)
+    {
+        String message = "Worker [{}] started on [{}] jobs. {} new jobs were added, {} abandoned jobs failed.";
+        LOG.info(message, workerId, jobType, added, expired);
+
+        aroma.begin().titled("Worker Started")
+             .withBody(message, workerId, jobType, added, expired)
+             .withPriority(Priority.LOW)
+             .send();
+    }
+
+    private void makeNoteThatJobsRequeued(String jobType, int requeued)
+    {
+        String message = "Worker [{}] put {} [{}] jobs back in the queue.";
+        LOG.info(message, workerId, requeued, jobType);
+
+        aroma.begin().titled("Jobs Requeued")
+             .withBody(message, workerId, requeued, jobType)
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+    private void makeNoteThatWorkerFinished(String jobType, int processed, int failed, int expired)
+    {
+        String message = "Worker [{}] finished [{}] jobs. {} processed, {} failed, {} abandoned by other workers.";
+        LOG.info(message, workerId, jobType, processed, failed, expired);
+
+        aroma.begin().titled("Worker Finished")
+             .withBody(message, workerId, jobType, processed, failed, expired)
+             .withPriority(Priority.MEDIUM)
+             .send();
+    }
+
+}
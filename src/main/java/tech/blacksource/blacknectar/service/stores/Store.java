@@ -17,6 +17,7 @@
 package tech.blacksource.blacknectar.service.stores;
 
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 import com.google.gson.JsonObject;
@@ -184,6 +185,34 @@ public class Store implements JSONRepresentable
         return json;
     }
 
+    /**
+     * Like {@link #asJSON()}, but only includes the specified fields.
+     *
+     * @param fields The fields to include.
+     * @return
+     */
+    public JsonObject asJSON(@Required Set<StoreField> fields)
+    {
+        checkThat(fields).is(notNull());
+
+        if (fields.containsAll(StoreField.ALL))
+        {
+            return json;
+        }
+
+        JsonObject projection = new JsonObject();
+
+        for (StoreField field : fields)
+        {
+            if (json.has(field.getKey()))
+            {
+                projection.add(field.getKey(), json.get(field.getKey()));
+            }
+        }
+
+        return projection;
+    }
+
     @Override
     public int hashCode()
     {
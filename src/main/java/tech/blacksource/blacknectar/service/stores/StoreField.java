@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.stores;
+
+import java.util.*;
+
+import com.google.common.base.Strings;
+import tech.sirwellington.alchemy.annotations.arguments.Optional;
+
+/**
+ * The fields of a {@link Store} that a client can ask for, named after their keys in {@link Store#asJSON()}.
+ * <p>
+ * Clients that only need a few fields, like a map that just draws pins, can ask for those, and both the database query
+ * and the response shrink accordingly.
+ *
+ * @author SirWellington
+ */
+public enum StoreField
+{
+    STORE_ID(Store.Keys.STORE_ID),
+    NAME(Store.Keys.NAME),
+    STORE_CODE(Store.Keys.STORE_CODE),
+    IS_FARMERS_MARKET(Store.Keys.IS_FARMERS_MARKET),
+    LOCATION(Store.Keys.LOCATION),
+    ADDRESS(Store.Keys.ADDRESS),
+    MAIN_IMAGE(Store.Keys.MAIN_IMAGE);
+
+    /**
+     * All of the fields; this is what clients get when they don't ask for anything specific.
+     */
+    public static final Set<StoreField> ALL = Collections.unmodifiableSet(EnumSet.allOf(StoreField.class));
+
+    /**
+     * Just enough to draw a Store on a map. Clients can ask for these with {@code "map"}.
+     */
+    public static final Set<StoreField> MAP_VIEW = Collections.unmodifiableSet(EnumSet.of(STORE_ID, NAME, LOCATION));
+
+    private static final String MAP_VIEW_NAME = "map";
+
+    private final String key;
+
+    private StoreField(String key)
+    {
+        this.key = key;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Parses a comma-separated list of field keys, for example {@code "store_id,store_name,location"}, or
+     * {@code "map"} for the {@link #MAP_VIEW}. The Store ID is always included, so that clients can tell the Stores
+     * apart.
+     *
+     * @param fields The fields to parse. If empty, {@link #ALL} fields are returned.
+     * @return
+     * @throws IllegalArgumentException If any of the fields is unknown.
+     */
+    public static Set<StoreField> parse(@Optional String fields) throws IllegalArgumentException
+    {
+        if (Strings.isNullOrEmpty(fields) || fields.trim().isEmpty())
+        {
+            return ALL;
+        }
+
+        if (MAP_VIEW_NAME.equalsIgnoreCase(fields.trim()))
+        {
+            return MAP_VIEW;
+        }
+
+        Set<StoreField> result = EnumSet.of(STORE_ID);
+
+        for (String field : fields.split(","))
+        {
+            String key = field.trim();
+
+            if (key.isEmpty())
+            {
+                continue;
+            }
+
+            result.add(forKey(key));
+        }
+
+        return result.containsAll(ALL) ? ALL : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @param key The JSON key of the field, for example {@code "store_name"}.
+     * @return
+     * @throws IllegalArgumentException If no field has that key.
+     */
+    public static StoreField forKey(String key) throws IllegalArgumentException
+    {
+        for (StoreField field : values())
+        {
+            if (field.key.equalsIgnoreCase(key))
+            {
+                return field;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown Store field: " + key);
+    }
+
+}
@@ -0,0 +1,7 @@
+-- Adds the cell_id column to an existing Stores table.
+-- Run RunPopulateCellIds afterwards to fill it in for existing stores.
+-- ===========================================================================
+
+ALTER TABLE Stores ADD COLUMN IF NOT EXISTS cell_id BIGINT;
+
+CREATE INDEX IF NOT EXISTS Stores_Cell_Id ON Stores(cell_id);
@@ -0,0 +1,5 @@
+-- Adds the index used by the bounding box searches to an existing Stores table.
+-- On a partitioned table, this also adds it to every partition.
+-- ===========================================================================
+
+CREATE INDEX IF NOT EXISTS Stores_Location_Geometry ON Stores USING GIST ((location::geometry));
@@ -0,0 +1,38 @@
+-- Claims a batch of jobs for a worker, and returns their Stores.
+-- A job can be claimed if it is pending, if it failed and has attempts left,
+-- or if the worker that claimed it has not finished it within its lease.
+-- SKIP LOCKED lets workers claim batches at the same time without waiting on, or getting, each other's jobs.
+-- Takes the worker, the job_type, the max attempts, the lease in seconds, and the batch size.
+-- ===========================================================================
+
+WITH Claimed AS
+(
+	UPDATE Store_Jobs
+	SET status = 'RUNNING',
+		attempts = attempts + 1,
+		claimed_by = ?,
+		claimed_at = now()
+	WHERE (job_type, store_id) IN
+	(
+		SELECT job_type, store_id
+		FROM Store_Jobs
+		WHERE job_type = ?
+		AND attempts < ?
+		AND
+		(
+			status = 'PENDING'
+			OR status = 'FAILED'
+			OR (status = 'RUNNING' AND claimed_at < now() - make_interval(secs => ?))
+		)
+		LIMIT ?
+		FOR UPDATE SKIP LOCKED
+	)
+	RETURNING store_id
+)
+SELECT
+	Stores.*,
+	Store_Images.url
+FROM Claimed
+JOIN Stores USING(store_id)
+LEFT JOIN Store_Cover_Images USING(store_id)
+LEFT JOIN Store_Images USING(store_id, image_id)
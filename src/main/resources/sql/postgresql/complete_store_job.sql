@@ -0,0 +1,12 @@
+-- Marks a job as done, as long as the worker still holds it.
+-- Takes the job_type, the store_id, and the worker.
+-- ===========================================================================
+
+UPDATE Store_Jobs
+SET status = 'DONE',
+	completed_at = now(),
+	last_error = NULL
+WHERE job_type = ?
+AND store_id = ?
+AND claimed_by = ?
+AND status = 'RUNNING'
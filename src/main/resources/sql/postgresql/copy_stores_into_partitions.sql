@@ -0,0 +1,10 @@
+-- Copies the Stores from the old, unpartitioned table into the partitioned one.
+-- Each Store is routed to the partition for its state.
+-- A Store that collides with one already copied is skipped, instead of failing the whole copy.
+-- RunPartitionStoresByState reports every Store that was skipped.
+-- ===========================================================================
+
+INSERT INTO Stores(store_id, store_name, store_code, latitude, longitude, location, cell_id, address_line_one, address_line_two, city, state, county, zip_code, local_zip_code, is_farmers_market)
+SELECT store_id, store_name, store_code, latitude, longitude, location, cell_id, address_line_one, address_line_two, city, COALESCE(state, ''), county, zip_code, local_zip_code, is_farmers_market
+FROM Stores_Unpartitioned
+ON CONFLICT DO NOTHING
@@ -0,0 +1,50 @@
+-- A single version number for all of the Store data, which only ever goes up.
+-- Every statement that changes the Stores, or which Image is a Store's cover, bumps it,
+-- whether it comes from the Service or from one of the import scripts.
+-- DatasetVersion reads it, and it is part of the ETags of responses.
+--
+-- The version is a sequence rather than a row, so that writers never wait on each other to bump it.
+-- nextval is not transactional, so the version can move a moment before the change it stands for is
+-- committed, and moves even if that change is rolled back. DatasetVersion waits for the version to
+-- settle before it trusts it.
+-- Safe to run more than once.
+-- ===========================================================================
+
+CREATE SEQUENCE IF NOT EXISTS Dataset_Version_Sequence;
+
+-- The version used to be kept in a single-row table. It is carried over, so that it never goes down.
+DO $$
+BEGIN
+	IF to_regclass('dataset_version') IS NOT NULL THEN
+		PERFORM setval('dataset_version_sequence',
+		               GREATEST((SELECT MAX(version) FROM Dataset_Version),
+		                        (SELECT last_value FROM Dataset_Version_Sequence)));
+		DROP TABLE Dataset_Version;
+	END IF;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION bump_dataset_version() RETURNS TRIGGER AS $$
+BEGIN
+	PERFORM nextval('dataset_version_sequence');
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Statement-level, so that a bulk import bumps the version once per statement, not once per row.
+-- The triggers are looked up by table, since partitioning Stores by state creates a new Stores table.
+DO $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'bump_dataset_version' AND tgrelid = 'Stores'::regclass) THEN
+		CREATE TRIGGER bump_dataset_version
+		AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Stores
+		FOR EACH STATEMENT EXECUTE PROCEDURE bump_dataset_version();
+	END IF;
+
+	IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'bump_dataset_version' AND tgrelid = 'Store_Cover_Images'::regclass) THEN
+		CREATE TRIGGER bump_dataset_version
+		AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Store_Cover_Images
+		FOR EACH STATEMENT EXECUTE PROCEDURE bump_dataset_version();
+	END IF;
+END
+$$;
@@ -0,0 +1,59 @@
+-- Keeps each Store's Cover image in Store_Cover_Images up to date as rows of Store_Images are inserted and deleted,
+-- whether by SQLImageRepository, by the import scripts, or by hand.
+-- The Cover is the Image with the smallest image_id, the same rule as populate_store_cover_images.sql.
+-- The triggers run as part of the statement that changes Store_Images, so the Cover never goes
+-- missing or stale, even if that statement fails half way.
+-- Safe to run more than once.
+-- ===========================================================================
+
+-- The Cover has to let go of an Image before the Image can be deleted.
+CREATE OR REPLACE FUNCTION release_store_cover_image() RETURNS TRIGGER AS $$
+BEGIN
+	DELETE
+	FROM Store_Cover_Images
+	WHERE store_id = OLD.store_id
+	AND image_id = OLD.image_id;
+
+	RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Only writes when the Cover actually changes. Does nothing if the Store has no images left.
+CREATE OR REPLACE FUNCTION pick_store_cover_image() RETURNS TRIGGER AS $$
+DECLARE
+	changed_store uuid;
+BEGIN
+	IF TG_OP = 'DELETE' THEN
+		changed_store := OLD.store_id;
+	ELSE
+		changed_store := NEW.store_id;
+	END IF;
+
+	INSERT INTO Store_Cover_Images(store_id, image_id)
+	SELECT store_id, min(image_id)
+	FROM Store_Images
+	WHERE store_id = changed_store
+	GROUP BY store_id
+	ON CONFLICT (store_id) DO UPDATE
+	SET image_id = EXCLUDED.image_id
+	WHERE Store_Cover_Images.image_id IS DISTINCT FROM EXCLUDED.image_id;
+
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DO $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'release_store_cover_image' AND tgrelid = 'Store_Images'::regclass) THEN
+		CREATE TRIGGER release_store_cover_image
+		BEFORE DELETE ON Store_Images
+		FOR EACH ROW EXECUTE PROCEDURE release_store_cover_image();
+	END IF;
+
+	IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'pick_store_cover_image' AND tgrelid = 'Store_Images'::regclass) THEN
+		CREATE TRIGGER pick_store_cover_image
+		AFTER INSERT OR DELETE ON Store_Images
+		FOR EACH ROW EXECUTE PROCEDURE pick_store_cover_image();
+	END IF;
+END
+$$;
@@ -4,7 +4,7 @@
 CREATE TABLE IF NOT EXISTS Store_Cover_Images
 (
 		store_id uuid,
-		image_id text NOT NULL,
+		image_id BIGINT NOT NULL,
 
 		CONSTRAINT foreign_key FOREIGN KEY(store_id, image_id) REFERENCES Store_Images(store_id, image_id),
 
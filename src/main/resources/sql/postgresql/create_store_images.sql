@@ -4,7 +4,8 @@
 CREATE TABLE IF NOT EXISTS Store_Images
 (
 		store_id uuid REFERENCES Stores(store_id),
-		image_id text,
+		-- A 64-bit hash of the url. See ImageIds.
+		image_id BIGINT,
 		height INT,
 		width INT,
 		size_in_bytes INT,
@@ -0,0 +1,22 @@
+-- A queue of work to do for each Store, like loading its Google data or images.
+-- Workers claim jobs with FOR UPDATE SKIP LOCKED, so any number of them can share the queue.
+-- See StoreJobQueue.
+-- ===========================================================================
+
+CREATE TABLE IF NOT EXISTS Store_Jobs
+(
+		-- What to do, e.g. 'Google Data' or 'Yelp Images'
+		job_type TEXT NOT NULL,
+		store_id uuid NOT NULL,
+		-- PENDING, RUNNING, DONE, or FAILED
+		status TEXT NOT NULL DEFAULT 'PENDING',
+		attempts INT NOT NULL DEFAULT 0,
+		claimed_by TEXT,
+		claimed_at TIMESTAMP WITH TIME ZONE,
+		completed_at TIMESTAMP WITH TIME ZONE,
+		last_error TEXT,
+
+		PRIMARY KEY (job_type, store_id)
+);
+
+CREATE INDEX IF NOT EXISTS Store_Jobs_Status ON Store_Jobs(job_type, status);
@@ -10,6 +10,8 @@ CREATE TABLE IF NOT EXISTS Stores
     latitude NUMERIC NOT NULL,
     longitude NUMERIC NOT NULL,
     location GEOGRAPHY,
+		-- A Z-order key of the location, computed by SpatialCells. Nearby stores have nearby keys.
+		cell_id BIGINT,
     address_line_one TEXT,
     address_line_two TEXT,
     city TEXT,
@@ -21,3 +23,7 @@ CREATE TABLE IF NOT EXISTS Stores
 
     CONSTRAINT Unique_Stores UNIQUE(store_name, latitude, longitude)
 );
+
+CREATE INDEX IF NOT EXISTS Stores_Cell_Id ON Stores(cell_id);
+
+CREATE INDEX IF NOT EXISTS Stores_Location_Geometry ON Stores USING GIST ((location::geometry));
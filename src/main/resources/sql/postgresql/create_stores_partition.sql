@@ -0,0 +1,5 @@
+-- Creates the partition of the Stores table that holds the Stores of one state.
+-- Use String.format() to insert the state, which is used in the table name too.
+-- ===========================================================================
+
+CREATE TABLE IF NOT EXISTS Stores_%1$s PARTITION OF Stores FOR VALUES IN ('%1$s')
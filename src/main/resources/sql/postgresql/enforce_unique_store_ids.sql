@@ -0,0 +1,32 @@
+-- Keeps each store_id in a single state, once Stores is partitioned by state.
+-- A partitioned table can only be unique on keys that include the state,
+-- so the primary key alone would allow the same Store in two states.
+-- The advisory lock makes two writers of the same store_id check one after the other,
+-- so that neither misses the other's row.
+-- Run by RunPartitionStoresByState after the Stores are copied over. Safe to run more than once.
+-- ===========================================================================
+
+CREATE OR REPLACE FUNCTION check_unique_store_id() RETURNS TRIGGER AS $$
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext(NEW.store_id::text));
+
+	IF EXISTS (SELECT 1 FROM Stores WHERE store_id = NEW.store_id AND state <> NEW.state) THEN
+		RAISE EXCEPTION 'Store % is already in another state than %', NEW.store_id, NEW.state
+		USING ERRCODE = 'unique_violation';
+	END IF;
+
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- An AFTER trigger sees the whole statement, so moving a Store to another state
+-- by deleting and inserting it in one statement still passes.
+DO $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'check_unique_store_id' AND tgrelid = 'Stores'::regclass) THEN
+		CREATE TRIGGER check_unique_store_id
+		AFTER INSERT OR UPDATE OF store_id, state ON Stores
+		FOR EACH ROW EXECUTE PROCEDURE check_unique_store_id();
+	END IF;
+END
+$$;
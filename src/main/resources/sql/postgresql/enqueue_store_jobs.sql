@@ -0,0 +1,9 @@
+-- Adds a job of the given type for every Store that does not have one yet.
+-- Safe to run from many workers at once.
+-- Takes the job_type.
+-- ===========================================================================
+
+INSERT INTO Store_Jobs(job_type, store_id)
+SELECT ?, store_id
+FROM Stores
+ON CONFLICT DO NOTHING
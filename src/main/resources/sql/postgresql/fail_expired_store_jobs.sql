@@ -0,0 +1,12 @@
+-- Gives up on jobs that were running on their last attempt when their worker went away.
+-- They can't be claimed again, so without this they would stay RUNNING forever.
+-- Takes the error, the job_type, the max attempts, and the lease in seconds.
+-- ===========================================================================
+
+UPDATE Store_Jobs
+SET status = 'FAILED',
+	last_error = ?
+WHERE job_type = ?
+AND status = 'RUNNING'
+AND attempts >= ?
+AND claimed_at < now() - make_interval(secs => ?)
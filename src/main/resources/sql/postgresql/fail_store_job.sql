@@ -0,0 +1,12 @@
+-- Marks a job as failed, as long as the worker still holds it.
+-- It will be claimed again while it has attempts left.
+-- Takes the error, the job_type, the store_id, and the worker.
+-- ===========================================================================
+
+UPDATE Store_Jobs
+SET status = 'FAILED',
+	last_error = ?
+WHERE job_type = ?
+AND store_id = ?
+AND claimed_by = ?
+AND status = 'RUNNING'
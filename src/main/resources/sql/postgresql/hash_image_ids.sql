@@ -0,0 +1,25 @@
+-- Changes image_id from the Image's URL to a 64-bit hash of it, which makes
+-- the primary key of Store_Images, and everything that joins on it, much smaller.
+-- The URL itself stays in the url column, and is what gets hashed, since that is
+-- what ImageIds.forURL() hashes for new Images. Older rows without a url fall back
+-- to their image_id, which was the URL back then.
+-- The hash must match ImageIds.forURL(): the first 8 bytes of the MD5 of the URL.
+-- ===========================================================================
+
+ALTER TABLE Store_Cover_Images DROP CONSTRAINT IF EXISTS foreign_key;
+
+-- Store_Cover_Images has no url of its own, so it takes the url of its Image first.
+UPDATE Store_Cover_Images
+SET image_id = COALESCE(Store_Images.url, Store_Images.image_id)
+FROM Store_Images
+WHERE Store_Images.store_id = Store_Cover_Images.store_id
+AND Store_Images.image_id = Store_Cover_Images.image_id;
+
+ALTER TABLE Store_Images
+ALTER COLUMN image_id TYPE BIGINT USING ('x' || substr(md5(COALESCE(url, image_id)), 1, 16))::bit(64)::bigint;
+
+ALTER TABLE Store_Cover_Images
+ALTER COLUMN image_id TYPE BIGINT USING ('x' || substr(md5(image_id), 1, 16))::bit(64)::bigint;
+
+ALTER TABLE Store_Cover_Images
+ADD CONSTRAINT foreign_key FOREIGN KEY(store_id, image_id) REFERENCES Store_Images(store_id, image_id);
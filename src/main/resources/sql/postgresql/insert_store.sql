@@ -1,2 +1,2 @@
-INSERT INTO Stores(store_id, store_name, store_code, latitude, longitude, location, address_line_one, address_line_two, city, state, county, zip_code, local_zip_code)
-VALUES (?, ?, ?, ?, ?, public.ST_SetSRID(public.ST_Point(?, ?), 4326)::public.geography, ?, ?, ?, ?, ?, ?, ?)
+INSERT INTO Stores(store_id, store_name, store_code, latitude, longitude, location, cell_id, address_line_one, address_line_two, city, state, county, zip_code, local_zip_code)
+VALUES (?, ?, ?, ?, ?, public.ST_SetSRID(public.ST_Point(?, ?), 4326)::public.geography, ?, ?, ?, ?, ?, ?, ?, ?)
@@ -0,0 +1,49 @@
+-- Turns the Stores table into one that is partitioned by state. Needs PostgreSQL 11 or later.
+-- Run RunPartitionStoresByState instead of this file, since that also creates
+-- a partition for each state and copies the Stores over.
+-- The old table is kept as Stores_Unpartitioned, to be checked and dropped by hand.
+-- ===========================================================================
+
+-- A partitioned table can only be unique on keys that include the state,
+-- so store_id alone can no longer be the target of a foreign key.
+-- It stays unique through the check in enforce_unique_store_ids.sql instead.
+ALTER TABLE Store_Images DROP CONSTRAINT IF EXISTS store_images_store_id_fkey;
+ALTER TABLE Stores_Google_Data DROP CONSTRAINT IF EXISTS stores_google_data_store_id_fkey;
+
+ALTER TABLE Stores RENAME TO Stores_Unpartitioned;
+ALTER TABLE Stores_Unpartitioned RENAME CONSTRAINT stores_pkey TO stores_unpartitioned_pkey;
+ALTER TABLE Stores_Unpartitioned RENAME CONSTRAINT Unique_Stores TO Unique_Stores_Unpartitioned;
+ALTER INDEX IF EXISTS Stores_Cell_Id RENAME TO Stores_Unpartitioned_Cell_Id;
+ALTER INDEX IF EXISTS Stores_Location_Geometry RENAME TO Stores_Unpartitioned_Location_Geometry;
+
+CREATE TABLE Stores
+(
+		store_id uuid DEFAULT gen_random_uuid(),
+    store_name TEXT,
+		-- This is an extra column that is included in some chain stores. It represents the stores' unique code.
+		store_code TEXT,
+    latitude NUMERIC NOT NULL,
+    longitude NUMERIC NOT NULL,
+    location GEOGRAPHY,
+		-- A Z-order key of the location, computed by SpatialCells. Nearby stores have nearby keys.
+		cell_id BIGINT,
+    address_line_one TEXT,
+    address_line_two TEXT,
+    city TEXT,
+    state TEXT NOT NULL,
+    county TEXT,
+    zip_code TEXT,
+    local_zip_code TEXT,
+		is_farmers_market BOOLEAN DEFAULT false,
+
+    PRIMARY KEY (store_id, state),
+    CONSTRAINT Unique_Stores UNIQUE(store_name, latitude, longitude, state)
+)
+PARTITION BY LIST (state);
+
+-- Stores in a state that does not have its own partition yet end up here.
+CREATE TABLE Stores_Default PARTITION OF Stores DEFAULT;
+
+CREATE INDEX Stores_Cell_Id ON Stores(cell_id);
+CREATE INDEX Stores_Zip_Code ON Stores(zip_code);
+CREATE INDEX Stores_Location_Geometry ON Stores USING GIST ((location::geometry));
@@ -1,22 +1,15 @@
 -- This script searches through the store_images table, picks one image for each store,
 -- and loads it into the store_cover_images table.
+-- It can be run any number of times; Covers that are already right are left alone.
+-- Once create_store_cover_image_triggers.sql has run, the Covers are kept up to date as images change,
+-- so this is only needed to backfill Covers for images that were loaded before the triggers existed.
 -- ===========================================================================
 
-WITH UniqueImage AS
-(
-	SELECT store_id, min(image_id) AS image_id
-	FROM store_images
-	GROUP BY store_id
-)
-,
-OneImage AS
-(
-	SELECT *
-	FROM UniqueImage
-	INNER JOIN store_images
-		USING (store_id, image_id)
-)
-INSERT INTO store_cover_images
-SELECT store_id, image_id
-FROM OneImage
+INSERT INTO store_cover_images(store_id, image_id)
+SELECT store_id, min(image_id) AS image_id
+FROM store_images
+GROUP BY store_id
+ON CONFLICT (store_id) DO UPDATE
+SET image_id = EXCLUDED.image_id
+WHERE store_cover_images.image_id IS DISTINCT FROM EXCLUDED.image_id
 ;
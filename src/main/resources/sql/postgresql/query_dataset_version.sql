@@ -0,0 +1,4 @@
+-- Gets the current version of the Store data. See create_dataset_version.sql
+-- ===========================================================================
+
+SELECT last_value FROM Dataset_Version_Sequence
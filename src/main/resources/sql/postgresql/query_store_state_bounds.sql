@@ -0,0 +1,12 @@
+-- Finds the box that each state's Stores fall within.
+-- ===========================================================================
+
+SELECT
+	state,
+	MIN(latitude) AS min_latitude,
+	MAX(latitude) AS max_latitude,
+	MIN(longitude) AS min_longitude,
+	MAX(longitude) AS max_longitude
+FROM Stores
+WHERE state IS NOT NULL
+GROUP BY state
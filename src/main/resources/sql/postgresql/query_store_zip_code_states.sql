@@ -0,0 +1,7 @@
+-- Finds the states that each zip code has Stores in.
+-- ===========================================================================
+
+SELECT DISTINCT zip_code, state
+FROM Stores
+WHERE zip_code IS NOT NULL
+AND state IS NOT NULL
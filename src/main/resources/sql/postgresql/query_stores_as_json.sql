@@ -0,0 +1,42 @@
+-- Wraps one of the Store queries, and turns each resulting row into JSON text,
+-- in the same shape as Store.asJSON(). The wrapped query goes where the %s is.
+-- Optional fields are left out when they are empty, just like in Store.asJSON().
+-- The rows come out in the order of the wrapped query.
+-- ===========================================================================
+
+SELECT
+	(
+		jsonb_build_object(
+			'store_id', store_id,
+			'store_name', store_name,
+			'location', jsonb_build_object(
+				'latitude', latitude::double precision,
+				'longitude', longitude::double precision
+			),
+			'address', jsonb_build_object(
+				'address_line_1', address_line_one,
+				'city', city,
+				'state', state,
+				'county', county,
+				'zip_code', zip_code,
+				'local_zip_code', local_zip_code
+			)
+			|| CASE WHEN COALESCE(address_line_two, '') <> ''
+				THEN jsonb_build_object('address_line_2', address_line_two)
+				ELSE '{}'::jsonb
+			END,
+			'is_farmers_market', COALESCE(is_farmers_market, false)
+		)
+		|| CASE WHEN COALESCE(store_code, '') <> ''
+			THEN jsonb_build_object('store_code', store_code)
+			ELSE '{}'::jsonb
+		END
+		|| CASE WHEN COALESCE(url, '') <> ''
+			THEN jsonb_build_object('main_image_url', url)
+			ELSE '{}'::jsonb
+		END
+	)::text AS store_json
+FROM
+(
+%s
+) AS Results
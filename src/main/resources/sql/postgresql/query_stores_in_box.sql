@@ -0,0 +1,20 @@
+-- Find Stores inside a box of latitudes and longitudes, like the viewport of a map.
+-- The box is matched with && against the GiST index on location::geometry.
+-- Stores are ranked within a grid laid over the box, and the first of every grid cell come first,
+-- so that a LIMIT keeps Stores from all over the box instead of the densest part of it.
+-- Takes the width and height of a grid cell, then the box as
+-- minimum longitude, minimum latitude, maximum longitude, maximum latitude.
+-- ===========================================================================
+
+SELECT
+	Stores.*,
+	Store_Images.url,
+	ROW_NUMBER() OVER (
+		PARTITION BY floor(Stores.longitude / ?), floor(Stores.latitude / ?)
+		ORDER BY Stores.store_id
+	) AS grid_rank
+FROM Stores
+LEFT JOIN Store_Cover_Images USING(store_id)
+LEFT JOIN Store_Images USING(store_id, image_id)
+WHERE location::geometry && ST_MakeEnvelope(?, ?, ?, ?, 4326)
+ORDER BY grid_rank, Stores.store_id
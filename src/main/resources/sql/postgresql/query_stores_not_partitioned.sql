@@ -0,0 +1,7 @@
+-- Finds the Stores in the old, unpartitioned table that did not make it into the partitioned one.
+-- ===========================================================================
+
+SELECT store_id, store_name, state
+FROM Stores_Unpartitioned AS Old
+WHERE NOT EXISTS (SELECT 1 FROM Stores WHERE Stores.store_id = Old.store_id)
+ORDER BY state, store_name
@@ -0,0 +1,12 @@
+-- Finds the partitions of the Stores table.
+-- Returns nothing if the Stores table is not partitioned.
+-- ===========================================================================
+
+SELECT child.relname AS partition_name
+FROM pg_inherits
+JOIN pg_class parent ON parent.oid = pg_inherits.inhparent
+JOIN pg_class child ON child.oid = pg_inherits.inhrelid
+WHERE parent.relname = 'stores'
+AND parent.relkind = 'p'
+AND parent.relnamespace = (SELECT oid FROM pg_namespace WHERE nspname = current_schema())
+ORDER BY child.relname
@@ -0,0 +1,17 @@
+-- Find Stores that match a name inside a box of latitudes and longitudes.
+-- Works the same way as query_stores_in_box.sql, and takes the name last.
+-- ===========================================================================
+
+SELECT
+	Stores.*,
+	Store_Images.url,
+	ROW_NUMBER() OVER (
+		PARTITION BY floor(Stores.longitude / ?), floor(Stores.latitude / ?)
+		ORDER BY Stores.store_id
+	) AS grid_rank
+FROM Stores
+LEFT JOIN Store_Cover_Images USING(store_id)
+LEFT JOIN Store_Images USING(store_id, image_id)
+WHERE location::geometry && ST_MakeEnvelope(?, ?, ?, ?, 4326)
+AND store_name LIKE ?
+ORDER BY grid_rank, Stores.store_id
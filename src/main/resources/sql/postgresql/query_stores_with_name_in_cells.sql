@@ -0,0 +1,20 @@
+-- Find Stores that match a name around a Geolocation, using the cell ranges that cover
+-- the search radius to narrow down the Stores before the exact distance check.
+-- Returns stores that match the specified name and the distance.
+-- ===========================================================================
+
+SELECT
+	Stores.*,
+	Store_Images.url,
+	ST_Distance(location, ST_SetSRID(ST_Point(?, ?), 4326)::geography) AS distance_meters
+FROM Stores
+LEFT JOIN Store_Cover_Images USING(store_id)
+LEFT JOIN Store_Images USING(store_id, image_id)
+WHERE (cell_id IS NULL
+       OR cell_id BETWEEN ? AND ?
+       OR cell_id BETWEEN ? AND ?
+       OR cell_id BETWEEN ? AND ?
+       OR cell_id BETWEEN ? AND ?)
+AND ST_DWithin(location, ST_SetSRID(ST_Point(?, ?), 4326)::geography, ?)
+AND store_name LIKE ?
+ORDER BY distance_meters
@@ -0,0 +1,6 @@
+-- Finds Stores whose cell_id has not been computed yet
+-- ===========================================================================
+
+SELECT store_id, latitude, longitude
+FROM Stores
+WHERE cell_id IS NULL
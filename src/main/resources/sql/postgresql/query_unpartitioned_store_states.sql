@@ -0,0 +1,7 @@
+-- Finds all of the states in the old, unpartitioned Stores table.
+-- ===========================================================================
+
+SELECT DISTINCT state
+FROM Stores_Unpartitioned
+WHERE state IS NOT NULL
+ORDER BY state
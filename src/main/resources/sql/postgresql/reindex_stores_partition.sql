@@ -0,0 +1,5 @@
+-- Rebuilds the indexes of a single partition of the Stores table.
+-- Use String.format() to insert the name of the partition.
+-- ===========================================================================
+
+REINDEX TABLE %s
@@ -0,0 +1,19 @@
+-- Puts every finished job of a type back in the queue, so that its Stores are processed again.
+-- Done jobs, failed jobs that ran out of attempts, and running jobs whose lease has run out start over with all of
+-- their attempts. Jobs that are still within their lease are left to their workers.
+-- Takes the job_type and the lease in seconds.
+-- ===========================================================================
+
+UPDATE Store_Jobs
+SET status = 'PENDING',
+	attempts = 0,
+	claimed_by = NULL,
+	claimed_at = NULL,
+	completed_at = NULL,
+	last_error = NULL
+WHERE job_type = ?
+AND
+(
+	status IN ('DONE', 'FAILED')
+	OR (status = 'RUNNING' AND claimed_at < now() - make_interval(secs => ?))
+)
@@ -7,6 +7,7 @@ SET store_id=?,
     latitude=?,
     longitude=?,
     location=public.ST_SetSRID(public.ST_Point(?, ?), 4326)::public.geography,
+    cell_id=?,
     address_line_one=?,
     address_line_two=?,
     city=?,
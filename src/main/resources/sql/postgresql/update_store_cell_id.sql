@@ -0,0 +1,5 @@
+-- Sets the cell_id of a single Store
+-- ===========================================================================
+UPDATE Stores
+SET cell_id = ?
+WHERE store_id = ?
@@ -0,0 +1,31 @@
+-- Inserts a Store, or updates it if a Store with the same ID already exists.
+-- A Store with the same name and location as another Store is skipped, and updates no rows,
+-- instead of violating Unique_Stores and failing the rest of its batch.
+-- Takes the Store's name, latitude, longitude, and ID, to look for a duplicate,
+-- followed by the same parameters as insert_store.sql
+-- ===========================================================================
+WITH Duplicate AS
+(
+	SELECT 1 FROM Stores
+	WHERE store_name = ?
+	AND latitude = CAST(? AS NUMERIC)
+	AND longitude = CAST(? AS NUMERIC)
+	AND store_id <> ?
+)
+INSERT INTO Stores(store_id, store_name, store_code, latitude, longitude, location, cell_id, address_line_one, address_line_two, city, state, county, zip_code, local_zip_code)
+SELECT ?, ?, ?, ?, ?, public.ST_SetSRID(public.ST_Point(?, ?), 4326)::public.geography, ?, ?, ?, ?, ?, ?, ?, ?
+WHERE NOT EXISTS (SELECT 1 FROM Duplicate)
+ON CONFLICT (store_id) DO UPDATE
+SET store_name = EXCLUDED.store_name,
+    store_code = EXCLUDED.store_code,
+    latitude = EXCLUDED.latitude,
+    longitude = EXCLUDED.longitude,
+    location = EXCLUDED.location,
+    cell_id = EXCLUDED.cell_id,
+    address_line_one = EXCLUDED.address_line_one,
+    address_line_two = EXCLUDED.address_line_two,
+    city = EXCLUDED.city,
+    state = EXCLUDED.state,
+    county = EXCLUDED.county,
+    zip_code = EXCLUDED.zip_code,
+    local_zip_code = EXCLUDED.local_zip_code
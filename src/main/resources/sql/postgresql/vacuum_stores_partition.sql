@@ -0,0 +1,5 @@
+-- Vacuums and analyzes a single partition of the Stores table.
+-- Use String.format() to insert the name of the partition.
+-- ===========================================================================
+
+VACUUM ANALYZE %s
@@ -18,6 +18,7 @@
 package tech.blacksource.blacknectar.service;
 
 
+import java.net.URL;
 import java.util.List;
 import java.util.UUID;
 
@@ -26,7 +27,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.blacksource.blacknectar.ebt.balance.Field;
 import tech.blacksource.blacknectar.ebt.balance.FieldValue;
+import tech.blacksource.blacknectar.service.data.BoundingBox;
 import tech.blacksource.blacknectar.service.images.Image;
+import tech.blacksource.blacknectar.service.images.ImageIds;
 import tech.blacksource.blacknectar.service.stores.*;
 import tech.sirwellington.alchemy.generator.AlchemyGenerator;
 import tech.sirwellington.alchemy.generator.StringGenerators;
@@ -57,6 +60,25 @@ public class BlackNectarGenerators
         };
     }
 
+    /**
+     * Generates boxes that are between about a kilometer and a few hundred kilometers on each side, and that stay
+     * away from the poles and the 180th meridian.
+     */
+    public static AlchemyGenerator<BoundingBox> boundingBoxes()
+    {
+        AlchemyGenerator<Double> latitudes = doubles(-70, 70);
+        AlchemyGenerator<Double> longitudes = doubles(-170, 170);
+        AlchemyGenerator<Double> spans = doubles(0.01, 5);
+
+        return () ->
+        {
+            double minLatitude = latitudes.get();
+            double minLongitude = longitudes.get();
+
+            return BoundingBox.of(minLongitude, minLatitude, minLongitude + spans.get(), minLatitude + spans.get());
+        };
+    }
+
     public static AlchemyGenerator<Address> addresses()
     {
         AlchemyGenerator<String> zipCodes = StringGenerators.numericString(5);
@@ -96,12 +118,14 @@ public class BlackNectarGenerators
     {
         return () ->
         {
+            URL url = one(httpUrls());
+
             return Image.Builder.newInstance()
                                 .withStoreID(UUID.randomUUID())
-                                .withImageID(one(hexadecimalString(20)))
+                                .withImageID(ImageIds.forURL(url))
                                 .withSizeInBytes(one(integers(100, 1_000)))
                                 .withSource(one(alphabeticString()))
-                                .withURL(one(httpUrls()))
+                                .withURL(url)
                                 .withWidthAndHeight(one(positiveIntegers()), one(positiveIntegers()))
                                 .withContentType(one(alphabeticString()))
                                 .withImageType(one(alphabeticString()))
@@ -4,14 +4,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import spark.Route;
 import spark.Service;
+import tech.blacksource.blacknectar.service.operations.AdmissionControl;
 import tech.blacksource.blacknectar.service.operations.GetSampleStoreOperation;
 import tech.blacksource.blacknectar.service.operations.SayHelloOperation;
 import tech.blacksource.blacknectar.service.operations.ebt.*;
+import tech.blacksource.blacknectar.service.operations.stores.GetStoreTileOperation;
 import tech.blacksource.blacknectar.service.operations.stores.SearchStoresOperation;
 import tech.sirwellington.alchemy.test.junit.runners.AlchemyTestRunner;
 import tech.sirwellington.alchemy.test.junit.runners.DontRepeat;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
 import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
 
 @RunWith(AlchemyTestRunner.class)
@@ -33,9 +39,15 @@ public class RoutesTest
     @Mock
     private SearchStoresOperation searchStoresOperation;
 
+    @Mock
+    private GetStoreTileOperation getStoreTileOperation;
+
     @Mock
     private SignInOperation signInOperation;
 
+    @Mock
+    private AdmissionControl admissionControl;
+
     private Service service;
 
     private Routes instance;
@@ -45,24 +57,31 @@ public class RoutesTest
     {
         service = Service.ignite();
 
+        when(admissionControl.limit(anyString(), any()))
+                .thenAnswer(invocation -> (Route) invocation.getArguments()[1]);
+
         instance = new Routes.Impl(sayHelloOperation,
                                    getSampleStoreOperation,
                                    getStatesOperation,
                                    getStateInfoOperation,
                                    searchStoresOperation,
-                                   signInOperation);
+                                   getStoreTileOperation,
+                                   signInOperation,
+                                   admissionControl);
     }
 
     @DontRepeat
     @Test
     public void testConstructor() throws Exception
     {
-        assertThrows(() -> new Routes.Impl(null, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, searchStoresOperation, signInOperation));
-        assertThrows(() -> new Routes.Impl(sayHelloOperation, null, getStatesOperation, getStateInfoOperation, searchStoresOperation, signInOperation));
-        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, null, getStateInfoOperation, searchStoresOperation, signInOperation));
-        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, null, searchStoresOperation, signInOperation));
-        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, null, signInOperation));
-        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, searchStoresOperation, null));
+        assertThrows(() -> new Routes.Impl(null, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, searchStoresOperation, getStoreTileOperation, signInOperation, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, null, getStatesOperation, getStateInfoOperation, searchStoresOperation, getStoreTileOperation, signInOperation, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, null, getStateInfoOperation, searchStoresOperation, getStoreTileOperation, signInOperation, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, null, searchStoresOperation, getStoreTileOperation, signInOperation, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, null, getStoreTileOperation, signInOperation, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, searchStoresOperation, null, signInOperation, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, searchStoresOperation, getStoreTileOperation, null, admissionControl));
+        assertThrows(() -> new Routes.Impl(sayHelloOperation, getSampleStoreOperation, getStatesOperation, getStateInfoOperation, searchStoresOperation, getStoreTileOperation, signInOperation, null));
     }
 
     @Test
@@ -75,6 +94,9 @@ public class RoutesTest
     public void setupRoutes() throws Exception
     {
         instance.setupRoutes(service);
+
+        verify(admissionControl).limit("/stores", searchStoresOperation);
+        verify(admissionControl).limit("/ebt/sign-in", signInOperation);
     }
 
 }
\ No newline at end of file
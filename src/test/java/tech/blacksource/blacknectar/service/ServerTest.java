@@ -22,6 +22,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import spark.ExceptionHandler;
 import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.operations.stores.SearchWarmUp;
 import tech.sirwellington.alchemy.test.junit.runners.AlchemyTestRunner;
 
 import static org.mockito.Answers.RETURNS_MOCKS;
@@ -44,6 +45,9 @@ public class ServerTest
     @Mock
     private Routes routes;
 
+    @Mock
+    private SearchWarmUp warmUp;
+
     private Server instance;
 
     @Before
@@ -52,7 +56,7 @@ public class ServerTest
         setupData();
         setupMocks();
 
-        instance = new Server(aroma, exceptionHandler, routes);
+        instance = new Server(aroma, exceptionHandler, routes, warmUp);
 
     }
 
@@ -67,9 +71,14 @@ public class ServerTest
     @Test
     public void testConstructor()
     {
-        assertThrows(() -> new Server(null, exceptionHandler, routes)).isInstanceOf(IllegalArgumentException.class);
-        assertThrows(() -> new Server(aroma, null, routes)).isInstanceOf(IllegalArgumentException.class);
-        assertThrows(() -> new Server(aroma, exceptionHandler, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new Server(null, exceptionHandler, routes, warmUp)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new Server(aroma, null, routes, warmUp)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new Server(aroma, exceptionHandler, null, warmUp)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new Server(aroma, exceptionHandler, routes, null)).isInstanceOf(IllegalArgumentException.class);
+
+        ServerThreads threads = ServerThreads.of(1, 8, 0);
+        assertThrows(() -> new Server(aroma, exceptionHandler, routes, warmUp, null, threads, false)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new Server(aroma, exceptionHandler, routes, warmUp, threads, null, false)).isInstanceOf(IllegalArgumentException.class);
     }
 
     @Test
@@ -79,4 +88,34 @@ public class ServerTest
 
         verify(routes, atLeastOnce()).setupRoutes(any());
     }
+
+    @Test
+    public void testSetupNonSecureBehindProxy() throws Exception
+    {
+        ServerThreads threads = ServerThreads.of(1, 8, 0);
+        instance = new Server(aroma, exceptionHandler, routes, warmUp, threads, threads, true);
+
+        instance.setupNonSecureServer();
+
+        verify(routes, atLeastOnce()).setupRoutes(any());
+    }
+
+    @Test
+    public void testWarmUp() throws Exception
+    {
+        instance.warmUp();
+
+        verify(warmUp).run();
+        verifyZeroInteractions(routes);
+    }
+
+    @Test
+    public void testWarmUpWhenItFails() throws Exception
+    {
+        when(warmUp.run()).thenThrow(new RuntimeException());
+
+        instance.warmUp();
+
+        verify(warmUp).run();
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import spark.Service;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.verify;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class ServerThreadsTest
+{
+
+    private static final String PREFIX = "blacknectar.test";
+
+    @Mock
+    private Service service;
+
+    private int minThreads;
+    private int maxThreads;
+    private int idleTimeoutMillis;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        minThreads = one(integers(1, 100));
+        maxThreads = one(integers(minThreads + ServerThreads.MIN_MAX_THREADS, 1_000));
+        idleTimeoutMillis = one(integers(0, 120_000));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        System.clearProperty(PREFIX + ".threads.min");
+        System.clearProperty(PREFIX + ".threads.max");
+        System.clearProperty(PREFIX + ".threads.idleTimeoutMillis");
+    }
+
+    @Test
+    public void testOf() throws Exception
+    {
+        ServerThreads threads = ServerThreads.of(minThreads, maxThreads, idleTimeoutMillis);
+
+        assertThat(threads.getMinThreads(), is(minThreads));
+        assertThat(threads.getMaxThreads(), is(maxThreads));
+        assertThat(threads.getIdleTimeoutMillis(), is(idleTimeoutMillis));
+    }
+
+    @DontRepeat
+    @Test
+    public void testOfWithBadArgs() throws Exception
+    {
+        assertThrows(() -> ServerThreads.of(0, 100, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ServerThreads.of(50, 40, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ServerThreads.of(1, ServerThreads.MIN_MAX_THREADS - 1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ServerThreads.of(1, 100, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testFromSystemPropertiesWithDefaults() throws Exception
+    {
+        ServerThreads threads = ServerThreads.fromSystemProperties(PREFIX);
+
+        assertThat(threads.getMinThreads(), is(ServerThreads.DEFAULT_MIN_THREADS));
+        assertThat(threads.getMaxThreads(), is(ServerThreads.DEFAULT_MAX_THREADS));
+        assertThat(threads.getIdleTimeoutMillis(), is(ServerThreads.DEFAULT_IDLE_TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void testFromSystemProperties() throws Exception
+    {
+        System.setProperty(PREFIX + ".threads.min", String.valueOf(minThreads));
+        System.setProperty(PREFIX + ".threads.max", String.valueOf(maxThreads));
+        System.setProperty(PREFIX + ".threads.idleTimeoutMillis", String.valueOf(idleTimeoutMillis));
+
+        ServerThreads threads = ServerThreads.fromSystemProperties(PREFIX);
+
+        assertThat(threads.getMinThreads(), is(minThreads));
+        assertThat(threads.getMaxThreads(), is(maxThreads));
+        assertThat(threads.getIdleTimeoutMillis(), is(idleTimeoutMillis));
+    }
+
+    @DontRepeat
+    @Test
+    public void testFromSystemPropertiesWithBadValues() throws Exception
+    {
+        System.setProperty(PREFIX + ".threads.max", "2");
+
+        assertThrows(() -> ServerThreads.fromSystemProperties(PREFIX)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ServerThreads.fromSystemProperties("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testApplyTo() throws Exception
+    {
+        ServerThreads threads = ServerThreads.of(minThreads, maxThreads, idleTimeoutMillis);
+
+        threads.applyTo(service);
+
+        verify(service).threadPool(maxThreads, minThreads, idleTimeoutMillis);
+    }
+
+    @DontRepeat
+    @Test
+    public void testApplyToWithBadArgs() throws Exception
+    {
+        ServerThreads threads = ServerThreads.of(minThreads, maxThreads, idleTimeoutMillis);
+
+        assertThrows(() -> threads.applyTo(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -24,8 +24,10 @@ import tech.sirwellington.alchemy.generator.NumberGenerators;
 import tech.sirwellington.alchemy.test.junit.runners.*;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.boundingBoxes;
 import static tech.blacksource.blacknectar.service.BlackNectarGenerators.locations;
 import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
 import static tech.sirwellington.alchemy.generator.NumberGenerators.*;
@@ -197,6 +199,41 @@ public class BlackNectarSearchRequestTest
         assertThat(result.zipCode, is(zipCode));
     }
 
+    @Test
+    public void testWithBoundingBox() throws Exception
+    {
+        BoundingBox box = one(boundingBoxes());
+
+        assertThat(instance.hasBoundingBox(), is(false));
+
+        BlackNectarSearchRequest result = instance.withBoundingBox(box);
+        assertThat(result, notNullValue());
+        assertThat(result.boundingBox, is(box));
+        assertThat(result.hasBoundingBox(), is(true));
+    }
+
+    @DontRepeat
+    @Test
+    public void testWithBoundingBoxWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.withBoundingBox(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testEqualsWithBoundingBox() throws Exception
+    {
+        BoundingBox box = one(boundingBoxes());
+
+        BlackNectarSearchRequest first = new BlackNectarSearchRequest().withBoundingBox(box);
+        BlackNectarSearchRequest second = new BlackNectarSearchRequest().withBoundingBox(box);
+
+        assertThat(first, is(second));
+        assertThat(first.hashCode(), is(second.hashCode()));
+
+        second.withBoundingBox(one(boundingBoxes()));
+        assertThat(first, not(second));
+    }
+
     @Test
     public void testHasZipCodeWithBadArgs() throws Exception
     {
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.boundingBoxes;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.doubles;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(100)
+@RunWith(AlchemyTestRunner.class)
+public class BoundingBoxTest
+{
+
+    private BoundingBox instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        instance = one(boundingBoxes());
+    }
+
+    @Test
+    public void testOf() throws Exception
+    {
+        BoundingBox result = BoundingBox.of(instance.getMinLongitude(),
+                                            instance.getMinLatitude(),
+                                            instance.getMaxLongitude(),
+                                            instance.getMaxLatitude());
+
+        assertThat(result, is(instance));
+        assertThat(result.hashCode(), is(instance.hashCode()));
+        assertThat(result.getLatitudeSpan(), greaterThan(0.0));
+        assertThat(result.getLongitudeSpan(), greaterThan(0.0));
+    }
+
+    @DontRepeat
+    @Test
+    public void testOfWithBadArgs() throws Exception
+    {
+        assertThrows(() -> BoundingBox.of(-181, 0, 10, 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> BoundingBox.of(0, -91, 10, 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> BoundingBox.of(0, 0, 181, 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> BoundingBox.of(0, 0, 10, 91)).isInstanceOf(IllegalArgumentException.class);
+
+        //The minimums must come first
+        assertThrows(() -> BoundingBox.of(10, 0, 0, 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> BoundingBox.of(0, 10, 10, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testOfWithEmptyBox() throws Exception
+    {
+        BoundingBox point = BoundingBox.of(10, 20, 10, 20);
+
+        assertThat(point.getLatitudeSpan(), is(0.0));
+        assertThat(point.contains(Location.with(20, 10)), is(true));
+    }
+
+    @Test
+    public void testGetCenter() throws Exception
+    {
+        Location center = instance.getCenter();
+
+        assertThat(instance.contains(center), is(true));
+        assertThat(center.getLatitude(), closeTo(instance.getMinLatitude() + instance.getLatitudeSpan() / 2, 0.000001));
+        assertThat(center.getLongitude(), closeTo(instance.getMinLongitude() + instance.getLongitudeSpan() / 2, 0.000001));
+    }
+
+    @Test
+    public void testContains() throws Exception
+    {
+        double latitude = one(doubles(instance.getMinLatitude(), instance.getMaxLatitude()));
+        double longitude = one(doubles(instance.getMinLongitude(), instance.getMaxLongitude()));
+
+        assertThat(instance.contains(Location.with(latitude, longitude)), is(true));
+        assertThat(instance.contains(Location.with(instance.getMinLatitude(), instance.getMinLongitude())), is(true));
+        assertThat(instance.contains(Location.with(instance.getMaxLatitude(), instance.getMaxLongitude())), is(true));
+
+        assertThat(instance.contains(Location.with(instance.getMaxLatitude() + 0.001, longitude)), is(false));
+        assertThat(instance.contains(Location.with(latitude, instance.getMinLongitude() - 0.001)), is(false));
+    }
+
+    @DontRepeat
+    @Test
+    public void testContainsWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.contains(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSnappedOutTo() throws Exception
+    {
+        double grid = 0.01;
+
+        BoundingBox result = instance.snappedOutTo(grid);
+
+        assertThat(result.getMinLatitude(), lessThanOrEqualTo(instance.getMinLatitude()));
+        assertThat(result.getMinLongitude(), lessThanOrEqualTo(instance.getMinLongitude()));
+        assertThat(result.getMaxLatitude(), greaterThanOrEqualTo(instance.getMaxLatitude()));
+        assertThat(result.getMaxLongitude(), greaterThanOrEqualTo(instance.getMaxLongitude()));
+
+        assertThat(result.getLatitudeSpan(), lessThanOrEqualTo(instance.getLatitudeSpan() + 2 * grid));
+        assertThat(result.getLongitudeSpan(), lessThanOrEqualTo(instance.getLongitudeSpan() + 2 * grid));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSnappedOutToStaysOnTheMap() throws Exception
+    {
+        BoundingBox world = BoundingBox.of(-180, -90, 180, 90);
+
+        BoundingBox result = world.snappedOutTo(7);
+
+        assertThat(result, is(world));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSnappedOutToWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.snappedOutTo(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.snappedOutTo(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testEquals() throws Exception
+    {
+        BoundingBox other = one(boundingBoxes());
+
+        assertThat(instance, not(other));
+        assertThat(instance.equals(null), is(false));
+        assertThat(instance, is(instance));
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.doubles;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class CellCachedStoreRepositoryTest
+{
+
+    @Mock
+    private StoreRepository delegate;
+
+    private StoreChanges storeChanges;
+    private StoreRepository memory;
+
+    private Location center;
+    private List<Store> stores;
+    private BlackNectarSearchRequest request;
+
+    private CellCachedStoreRepository instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        center = Location.with(one(doubles(-60, 60)), one(doubles(-170, 170)));
+
+        stores = listOf(stores(), 100)
+                .stream()
+                .map(this::moveNearCenter)
+                .collect(toList());
+
+        memory = new MemoryStoreRepository(stores, GeoCalculator.HARVESINE);
+
+        when(delegate.searchForStores(any(BlackNectarSearchRequest.class)))
+                .thenAnswer(invocation -> memory.searchForStores((BlackNectarSearchRequest) invocation.getArguments()[0]));
+
+        request = new BlackNectarSearchRequest()
+                .withCenter(center)
+                .withRadius(one(doubles(1_000, 15_000)));
+
+        storeChanges = new StoreChanges();
+
+        instance = new CellCachedStoreRepository(delegate, GeoCalculator.HARVESINE, storeChanges);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new CellCachedStoreRepository(null, GeoCalculator.HARVESINE, storeChanges))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CellCachedStoreRepository(delegate, null, storeChanges))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CellCachedStoreRepository(delegate, GeoCalculator.HARVESINE, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSearchMatchesDelegate() throws Exception
+    {
+        List<Store> expected = memory.searchForStores(request);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(expected));
+        assertThat(instance.size(), greaterThan(0));
+    }
+
+    @Test
+    public void testSearchWithLimit() throws Exception
+    {
+        request.withLimit(one(integers(1, 20)));
+
+        List<Store> expected = memory.searchForStores(request);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(expected));
+        assertThat(results.size(), lessThanOrEqualTo(request.limit));
+    }
+
+    @Test
+    public void testRepeatSearchesUseCachedCells() throws Exception
+    {
+        List<Store> first = instance.searchForStores(request);
+        List<Store> second = instance.searchForStores(request);
+
+        assertThat(second, is(first));
+        assertThat(instance.getHits(), greaterThan(0L));
+
+        verify(delegate, times(1)).searchForStores(any(BlackNectarSearchRequest.class));
+    }
+
+    @Test
+    public void testSearchBySearchTermGoesToDelegate() throws Exception
+    {
+        request.withSearchTerm(stores.get(0).getName());
+
+        instance.searchForStores(request);
+
+        verify(delegate).searchForStores(request);
+        assertThat(instance.size(), is(0));
+    }
+
+    @Test
+    public void testSearchWithoutCenterGoesToDelegate() throws Exception
+    {
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest().withLimit(10);
+
+        instance.searchForStores(request);
+
+        verify(delegate).searchForStores(request);
+        assertThat(instance.size(), is(0));
+    }
+
+    @Test
+    public void testSearchInBoundingBoxMatchesDelegate() throws Exception
+    {
+        BoundingBox box = BoundingBox.of(center.getLongitude() - 0.1,
+                                         center.getLatitude() - 0.1,
+                                         center.getLongitude() + 0.1,
+                                         center.getLatitude() + 0.1);
+
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest()
+                .withBoundingBox(box)
+                .withLimit(one(integers(1, 50)));
+
+        List<Store> expected = memory.searchForStores(request);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(expected));
+        assertThat(instance.size(), greaterThan(0));
+        verify(delegate, never()).searchForStores(request);
+    }
+
+    @Test
+    public void testSearchInHugeBoundingBoxGoesToDelegate() throws Exception
+    {
+        BoundingBox box = BoundingBox.of(-100, 20, -60, 50);
+
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest()
+                .withBoundingBox(box)
+                .withLimit(10);
+
+        instance.searchForStores(request);
+
+        verify(delegate).searchForStores(request);
+        assertThat(instance.size(), is(0));
+    }
+
+    @Test
+    public void testStoreChangesClearTheCache() throws Exception
+    {
+        instance.searchForStores(request);
+        assertThat(instance.size(), greaterThan(0));
+
+        storeChanges.storesChanged();
+        assertThat(instance.size(), is(0));
+
+        instance.searchForStores(request);
+        verify(delegate, times(2)).searchForStores(any(BlackNectarSearchRequest.class));
+    }
+
+    @Test
+    public void testDoesNotCacheStaleData() throws Exception
+    {
+        when(delegate.isServingStaleData()).thenReturn(true);
+        when(delegate.searchForStores(any(BlackNectarSearchRequest.class)))
+                .thenAnswer(invocation ->
+                {
+                    BlackNectarSearchRequest fetch = (BlackNectarSearchRequest) invocation.getArguments()[0];
+                    fetch.servedStale = true;
+                    return memory.searchForStores(fetch);
+                });
+
+        List<Store> expected = memory.searchForStores(request);
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(expected));
+        assertThat(instance.size(), is(0));
+        assertTrue(request.servedStale);
+        assertTrue(instance.isServingStaleData());
+    }
+
+    @Test
+    public void testWritesGoToDelegate() throws Exception
+    {
+        Store store = stores.get(0);
+
+        instance.addStore(store);
+        verify(delegate).addStore(store);
+
+        instance.updateStore(store);
+        verify(delegate).updateStore(store);
+
+        instance.deleteStore(store.getStoreId());
+        verify(delegate).deleteStore(store.getStoreId());
+
+        instance.flush();
+        verify(delegate).flush();
+    }
+
+    private Store moveNearCenter(Store store)
+    {
+        double distance = one(doubles(0, 20_000));
+        double bearing = one(doubles(0, 360));
+
+        Location location = GeoCalculator.HARVESINE.calculateDestinationFrom(center, distance, bearing);
+
+        return Store.Builder.fromStore(store)
+                            .withLocation(location)
+                            .build();
+    }
+
+}
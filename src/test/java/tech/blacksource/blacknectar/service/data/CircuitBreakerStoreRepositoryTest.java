@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.exceptions.OperationFailedException;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Answers.RETURNS_MOCKS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class CircuitBreakerStoreRepositoryTest
+{
+
+    @Mock(answer = RETURNS_MOCKS)
+    private Aroma aroma;
+
+    @Mock
+    private StoreRepository delegate;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private CircuitBreaker circuitBreaker;
+
+    private List<Store> stores;
+    private Store store;
+    private BlackNectarSearchRequest request;
+
+    private CircuitBreakerStoreRepository instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stores = listOf(stores());
+        store = Lists.oneOf(stores);
+
+        request = new BlackNectarSearchRequest().withSearchTerm(store.getName());
+
+        when(delegate.getAllStores()).thenReturn(stores);
+        when(delegate.searchForStores(request)).thenReturn(stores);
+
+        circuitBreaker = new CircuitBreaker(2, 0.5, 1_000, 60_000);
+
+        instance = new CircuitBreakerStoreRepository(aroma, delegate, circuitBreaker, GeoCalculator.HARVESINE, scheduler);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new CircuitBreakerStoreRepository(null, delegate, circuitBreaker, GeoCalculator.HARVESINE, scheduler))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CircuitBreakerStoreRepository(aroma, null, circuitBreaker, GeoCalculator.HARVESINE, scheduler))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CircuitBreakerStoreRepository(aroma, delegate, null, GeoCalculator.HARVESINE, scheduler))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testSchedulesSnapshotRefresh() throws Exception
+    {
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    public void testSearchWhenHealthy() throws Exception
+    {
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(stores));
+        assertFalse(instance.isServingStaleData());
+        assertFalse(request.servedStale);
+    }
+
+    @Test
+    public void testSearchFallsBackToSnapshotWhenOpen() throws Exception
+    {
+        instance.refreshSnapshot();
+        tripCircuit();
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, hasItem(store));
+        assertTrue(instance.isServingStaleData());
+        assertTrue(request.servedStale);
+    }
+
+    @Test
+    public void testFetchAllStoresWhenHealthy() throws Exception
+    {
+        AllStores result = instance.fetchAllStores();
+
+        assertThat(result.getStores(), is(stores));
+        assertFalse(result.isServedStale());
+    }
+
+    @Test
+    public void testFetchAllStoresFallsBackToSnapshotWhenOpen() throws Exception
+    {
+        instance.refreshSnapshot();
+        tripCircuit();
+
+        AllStores result = instance.fetchAllStores();
+
+        assertThat(result.getStores(), hasItem(store));
+        assertTrue(result.isServedStale());
+    }
+
+    @Test
+    public void testSearchWhenOpenWithoutSnapshot() throws Exception
+    {
+        tripCircuit();
+
+        assertThrows(() -> instance.searchForStores(request))
+                .isInstanceOf(OperationFailedException.class);
+    }
+
+    @Test
+    public void testWritesFailFastWhenOpen() throws Exception
+    {
+        tripCircuit();
+        reset(delegate);
+
+        assertThrows(() -> instance.addStore(store))
+                .isInstanceOf(OperationFailedException.class);
+
+        verifyZeroInteractions(delegate);
+    }
+
+    @Test
+    public void testBadArgumentsDoNotTripCircuit() throws Exception
+    {
+        when(delegate.searchForStores(request)).thenThrow(new BadArgumentException());
+
+        for (int i = 0; i < 5; ++i)
+        {
+            assertThrows(() -> instance.searchForStores(request))
+                    .isInstanceOf(BadArgumentException.class);
+        }
+
+        assertThat(instance.getCircuitState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    private void tripCircuit()
+    {
+        when(delegate.searchForStores(request)).thenThrow(new OperationFailedException());
+
+        for (int i = 0; i < 2; ++i)
+        {
+            assertThrows(() -> instance.searchForStores(request))
+                    .isInstanceOf(OperationFailedException.class);
+        }
+
+        assertThat(instance.getCircuitState(), is(CircuitBreaker.State.OPEN));
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.data.CircuitBreaker.State;
+import tech.sirwellington.alchemy.test.junit.runners.AlchemyTestRunner;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.*;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@RunWith(AlchemyTestRunner.class)
+public class CircuitBreakerTest
+{
+
+    private static final int WINDOW_SIZE = 10;
+    private static final long SLOW_CALL_MILLIS = 100;
+    private static final long OPEN_DURATION_MILLIS = 1_000;
+
+    private AtomicLong clock;
+
+    private CircuitBreaker instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        clock = new AtomicLong(0);
+
+        instance = new CircuitBreaker(WINDOW_SIZE, 0.5, SLOW_CALL_MILLIS, OPEN_DURATION_MILLIS, clock::get);
+    }
+
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new CircuitBreaker(0, 0.5, SLOW_CALL_MILLIS, OPEN_DURATION_MILLIS))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CircuitBreaker(WINDOW_SIZE, 0, SLOW_CALL_MILLIS, OPEN_DURATION_MILLIS))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CircuitBreaker(WINDOW_SIZE, 1.5, SLOW_CALL_MILLIS, OPEN_DURATION_MILLIS))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new CircuitBreaker(WINDOW_SIZE, 0.5, 0, OPEN_DURATION_MILLIS))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testStartsClosed() throws Exception
+    {
+        assertThat(instance.getState(), is(State.CLOSED));
+        assertTrue(instance.allowRequest());
+    }
+
+    @Test
+    public void testStaysClosedWhenHealthy() throws Exception
+    {
+        for (int i = 0; i < WINDOW_SIZE * 3; ++i)
+        {
+            instance.recordSuccess(1);
+        }
+
+        assertThat(instance.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void testOpensOnFailures() throws Exception
+    {
+        tripBreaker();
+
+        assertThat(instance.getState(), is(State.OPEN));
+        assertFalse(instance.allowRequest());
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() throws Exception
+    {
+        for (int i = 0; i < WINDOW_SIZE; ++i)
+        {
+            instance.recordSuccess(SLOW_CALL_MILLIS + 1);
+        }
+
+        assertThat(instance.getState(), is(State.OPEN));
+    }
+
+    @Test
+    public void testHalfOpenAfterDuration() throws Exception
+    {
+        tripBreaker();
+
+        clock.addAndGet(OPEN_DURATION_MILLIS);
+
+        assertTrue(instance.allowRequest());
+        assertThat(instance.getState(), is(State.HALF_OPEN));
+
+        //Only one trial call at a time
+        assertFalse(instance.allowRequest());
+    }
+
+    @Test
+    public void testClosesWhenTrialSucceeds() throws Exception
+    {
+        tripBreaker();
+        clock.addAndGet(OPEN_DURATION_MILLIS);
+
+        assertTrue(instance.allowRequest());
+        instance.recordSuccess(1);
+
+        assertThat(instance.getState(), is(State.CLOSED));
+        assertTrue(instance.allowRequest());
+    }
+
+    @Test
+    public void testReopensWhenTrialFails() throws Exception
+    {
+        tripBreaker();
+        clock.addAndGet(OPEN_DURATION_MILLIS);
+
+        assertTrue(instance.allowRequest());
+        instance.recordFailure();
+
+        assertThat(instance.getState(), is(State.OPEN));
+        assertFalse(instance.allowRequest());
+    }
+
+    private void tripBreaker()
+    {
+        for (int i = 0; i < WINDOW_SIZE; ++i)
+        {
+            instance.recordFailure();
+        }
+    }
+
+}
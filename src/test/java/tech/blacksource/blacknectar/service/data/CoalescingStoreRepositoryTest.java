@@ -0,0 +1,502 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.locations;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(10)
+@RunWith(AlchemyTestRunner.class)
+public class CoalescingStoreRepositoryTest
+{
+
+    @Mock
+    private StoreRepository delegate;
+
+    private List<Store> stores;
+    private BlackNectarSearchRequest request;
+
+    private ExecutorService executor;
+    private CountDownLatch leaderStarted;
+
+    private CoalescingStoreRepository instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stores = listOf(stores());
+
+        request = new BlackNectarSearchRequest()
+                .withCenter(one(locations()))
+                .withRadius(one(integers(100, 10_000)));
+
+        executor = Executors.newCachedThreadPool();
+        leaderStarted = new CountDownLatch(1);
+
+        instance = new CoalescingStoreRepository(delegate);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new CoalescingStoreRepository((StoreRepository) null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSearchForStores() throws Exception
+    {
+        when(delegate.searchForStores(request)).thenReturn(stores);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(stores));
+        assertThat(instance.getSearches(), is(1L));
+        assertThat(instance.getCoalescedSearches(), is(0L));
+    }
+
+    @Test
+    public void testIdenticalSearchesShareOneCall() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        blockDelegateUntil(release);
+
+        int followers = one(integers(2, 10));
+
+        Future<List<Store>> first = executor.submit(() -> instance.searchForStores(copyOf(request)));
+        waitForLeader();
+
+        List<Future<List<Store>>> rest = new ArrayList<>();
+
+        for (int i = 0; i < followers; ++i)
+        {
+            rest.add(executor.submit(() -> instance.searchForStores(copyOf(request).withDeadline(Deadline.after(10, TimeUnit.SECONDS)))));
+        }
+
+        waitForFollowers(followers);
+
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(stores));
+
+        for (Future<List<Store>> result : rest)
+        {
+            assertThat(result.get(5, TimeUnit.SECONDS), is(stores));
+        }
+
+        verify(delegate, times(1)).searchForStores(any());
+        assertThat(instance.getCoalescingRate(), is((double) followers / (followers + 1)));
+    }
+
+    @Test
+    public void testFollowersSeeStaleResults() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+
+        when(delegate.searchForStores(any()))
+                .thenAnswer(invocation ->
+                {
+                    leaderStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+
+                    ((BlackNectarSearchRequest) invocation.getArguments()[0]).servedStale = true;
+                    return stores;
+                });
+
+        BlackNectarSearchRequest leader = copyOf(request);
+        BlackNectarSearchRequest follower = copyOf(request);
+
+        Future<List<Store>> first = executor.submit(() -> instance.searchForStores(leader));
+        waitForLeader();
+
+        Future<List<Store>> second = executor.submit(() -> instance.searchForStores(follower));
+        waitForFollowers(1);
+
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(stores));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(stores));
+        assertTrue(leader.servedStale);
+        assertTrue(follower.servedStale);
+    }
+
+    @Test
+    public void testDifferentSearchesAreNotCoalesced() throws Exception
+    {
+        when(delegate.searchForStores(any())).thenReturn(stores);
+
+        instance.searchForStores(request);
+        instance.searchForStores(copyOf(request).withLimit(one(integers(1, 100))));
+
+        verify(delegate, times(2)).searchForStores(any());
+        assertThat(instance.getCoalescedSearches(), is(0L));
+    }
+
+    @Test
+    public void testResultsAreNotKept() throws Exception
+    {
+        when(delegate.searchForStores(request)).thenReturn(stores);
+
+        instance.searchForStores(request);
+        instance.searchForStores(request);
+
+        verify(delegate, times(2)).searchForStores(request);
+    }
+
+    @Test
+    public void testFailuresAreShared() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+
+        when(delegate.searchForStores(any()))
+                .thenAnswer(invocation ->
+                {
+                    leaderStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    throw new OperationFailedException();
+                })
+                .thenReturn(stores);
+
+        Future<List<Store>> first = executor.submit(() -> instance.searchForStores(copyOf(request)));
+        waitForLeader();
+
+        Future<List<Store>> second = executor.submit(() -> instance.searchForStores(copyOf(request)));
+        waitForFollowers(1);
+
+        release.countDown();
+
+        assertFailsWith(first, OperationFailedException.class);
+
+        //The follower gets the failure instead of hitting the database again.
+        assertFailsWith(second, OperationFailedException.class);
+        verify(delegate, times(1)).searchForStores(any());
+
+        //Failures aren't kept either.
+        assertThat(instance.searchForStores(request), is(stores));
+        verify(delegate, times(2)).searchForStores(any());
+    }
+
+    @Test
+    public void testFollowersRetryWhenLeaderRunsOutOfTime() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+
+        when(delegate.searchForStores(any()))
+                .thenAnswer(invocation ->
+                {
+                    leaderStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    throw new DeadlineExceededException();
+                })
+                .thenReturn(stores);
+
+        Future<List<Store>> first = executor.submit(() -> instance.searchForStores(copyOf(request)));
+        waitForLeader();
+
+        Future<List<Store>> second = executor.submit(() -> instance.searchForStores(copyOf(request)));
+        waitForFollowers(1);
+
+        release.countDown();
+
+        assertFailsWith(first, DeadlineExceededException.class);
+
+        //The follower still had time, so it ran the search on its own.
+        assertThat(second.get(5, TimeUnit.SECONDS), is(stores));
+        verify(delegate, times(2)).searchForStores(any());
+    }
+
+    @Test
+    public void testSearchForStoresAsJSON() throws Exception
+    {
+        List<String> elements = serializedStores();
+        streamFromDelegate(elements, new CountDownLatch(0));
+
+        StringWriter out = new StringWriter();
+        int count = instance.searchForStoresAsJSON(request, JsonStreamWriter.arrayTo(out));
+
+        assertThat(count, is(elements.size()));
+        assertThat(out.toString(), is("[" + String.join(",", elements) + "]"));
+
+        //The database builds the JSON, instead of the Stores being serialized here.
+        verify(delegate).searchForStoresAsJSON(eq(request), any(JsonStreamWriter.class));
+        verify(delegate, never()).searchForStores(any());
+    }
+
+    @Test
+    public void testIdenticalStreamsShareOneCall() throws Exception
+    {
+        List<String> elements = serializedStores();
+        CountDownLatch release = new CountDownLatch(1);
+        streamFromDelegate(elements, release);
+
+        StringWriter firstOut = new StringWriter();
+        StringWriter secondOut = new StringWriter();
+
+        Future<Integer> first = executor.submit(() -> instance.searchForStoresAsJSON(copyOf(request), JsonStreamWriter.arrayTo(firstOut)));
+        waitForLeader();
+
+        JsonStreamWriter lines = new JsonStreamWriter(secondOut, JsonStreamWriter.Format.LINES);
+        Future<Integer> second = executor.submit(() -> instance.searchForStoresAsJSON(copyOf(request), lines));
+        waitForFollowers(1);
+
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(elements.size()));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(elements.size()));
+
+        //Each search writes in its own format.
+        assertThat(firstOut.toString(), is("[" + String.join(",", elements) + "]"));
+        assertThat(secondOut.toString(), is(String.join("\n", elements) + "\n"));
+
+        verify(delegate, times(1)).searchForStoresAsJSON(any(BlackNectarSearchRequest.class), any(JsonStreamWriter.class));
+    }
+
+    @Test
+    public void testLeaderStreamsToItsOwnWriter() throws Exception
+    {
+        streamFromDelegate(serializedStores(), new CountDownLatch(0));
+
+        JsonStreamWriter out = JsonStreamWriter.arrayTo(new StringWriter());
+        instance.searchForStoresAsJSON(request, out);
+
+        //Nothing is collected in between when no other search is waiting.
+        verify(delegate).searchForStoresAsJSON(eq(request), same(out));
+    }
+
+    @Test
+    public void testLateStreamsRunOnTheirOwn() throws Exception
+    {
+        List<String> elements = serializedStores();
+        CountDownLatch release = new CountDownLatch(1);
+
+        when(delegate.searchForStoresAsJSON(any(BlackNectarSearchRequest.class), any(JsonStreamWriter.class)))
+                .thenAnswer(invocation ->
+                {
+                    JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                    out.begin();
+                    out.writeSerialized(elements.get(0));
+
+                    leaderStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+
+                    elements.stream().skip(1).forEach(out::writeSerialized);
+                    out.end();
+
+                    return elements.size();
+                });
+
+        StringWriter firstOut = new StringWriter();
+        StringWriter secondOut = new StringWriter();
+
+        Future<Integer> first = executor.submit(() -> instance.searchForStoresAsJSON(copyOf(request), JsonStreamWriter.arrayTo(firstOut)));
+        waitForLeader();
+
+        //The leader has started writing, so it is too late to share its Stores.
+        Future<Integer> second = executor.submit(() -> instance.searchForStoresAsJSON(copyOf(request), JsonStreamWriter.arrayTo(secondOut)));
+        verify(delegate, timeout(5_000).times(2)).searchForStoresAsJSON(any(BlackNectarSearchRequest.class), any(JsonStreamWriter.class));
+
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(elements.size()));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(elements.size()));
+        assertThat(secondOut.toString(), is(firstOut.toString()));
+        assertThat(instance.getCoalescedSearches(), is(0L));
+    }
+
+    @Test
+    public void testFollowersRetryWhenLeaderCannotWrite() throws Exception
+    {
+        List<String> elements = serializedStores();
+        CountDownLatch release = new CountDownLatch(1);
+        streamFromDelegate(elements, release);
+
+        Writer disconnected = mock(Writer.class);
+        doThrow(new IOException("Broken pipe")).when(disconnected).write(anyString());
+
+        Future<Integer> first = executor.submit(() -> instance.searchForStoresAsJSON(copyOf(request), JsonStreamWriter.arrayTo(disconnected)));
+        waitForLeader();
+
+        StringWriter secondOut = new StringWriter();
+        Future<Integer> second = executor.submit(() -> instance.searchForStoresAsJSON(copyOf(request), JsonStreamWriter.arrayTo(secondOut)));
+        waitForFollowers(1);
+
+        release.countDown();
+
+        assertFailsWith(first, UncheckedIOException.class);
+
+        //The leader's client going away says nothing about the search, so the follower ran it again.
+        assertThat(second.get(5, TimeUnit.SECONDS), is(elements.size()));
+        assertThat(secondOut.toString(), is("[" + String.join(",", elements) + "]"));
+        verify(delegate, times(2)).searchForStoresAsJSON(any(BlackNectarSearchRequest.class), any(JsonStreamWriter.class));
+    }
+
+    @Test
+    public void testStreamsWithDifferentFieldsAreNotCoalesced() throws Exception
+    {
+        streamFromDelegate(serializedStores(), new CountDownLatch(0));
+
+        instance.searchForStoresAsJSON(request, JsonStreamWriter.arrayTo(new StringWriter()));
+        instance.searchForStoresAsJSON(copyOf(request).withFields(StoreField.MAP_VIEW), JsonStreamWriter.arrayTo(new StringWriter()));
+
+        verify(delegate, times(2)).searchForStoresAsJSON(any(BlackNectarSearchRequest.class), any(JsonStreamWriter.class));
+        assertThat(instance.getCoalescedSearches(), is(0L));
+    }
+
+    @Test
+    public void testFollowerWithExpiredDeadline() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        blockDelegateUntil(release);
+
+        Future<List<Store>> first = executor.submit(() -> instance.searchForStores(copyOf(request)));
+        waitForLeader();
+
+        BlackNectarSearchRequest impatient = copyOf(request).withDeadline(Deadline.after(10, TimeUnit.MILLISECONDS));
+
+        assertThrows(() -> instance.searchForStores(impatient))
+                .isInstanceOf(DeadlineExceededException.class);
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS), is(stores));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSearchForStoresWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.searchForStores(null))
+                .isInstanceOf(BadArgumentException.class);
+    }
+
+    @Test
+    public void testWritesGoToDelegate() throws Exception
+    {
+        Store store = stores.get(0);
+
+        instance.addStore(store);
+        verify(delegate).addStore(store);
+
+        instance.updateStore(store);
+        verify(delegate).updateStore(store);
+
+        instance.deleteStore(store.getStoreId());
+        verify(delegate).deleteStore(store.getStoreId());
+    }
+
+    private void blockDelegateUntil(CountDownLatch release) throws Exception
+    {
+        when(delegate.searchForStores(any()))
+                .thenAnswer(invocation ->
+                {
+                    leaderStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return stores;
+                });
+    }
+
+    private void waitForLeader() throws Exception
+    {
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private void waitForFollowers(long followers) throws Exception
+    {
+        while (instance.getCoalescedSearches() < followers)
+        {
+            Thread.sleep(1);
+        }
+    }
+
+    private void assertFailsWith(Future<?> result, Class<? extends Exception> type) throws Exception
+    {
+        try
+        {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the search to fail");
+        }
+        catch (ExecutionException ex)
+        {
+            assertThat(ex.getCause(), instanceOf(type));
+        }
+    }
+
+    private List<String> serializedStores()
+    {
+        return stores.stream()
+                     .map(store -> store.asJSON().toString())
+                     .collect(toList());
+    }
+
+    private void streamFromDelegate(List<String> elements, CountDownLatch release) throws Exception
+    {
+        when(delegate.searchForStoresAsJSON(any(BlackNectarSearchRequest.class), any(JsonStreamWriter.class)))
+                .thenAnswer(invocation ->
+                {
+                    leaderStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+
+                    JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                    out.begin();
+                    elements.forEach(out::writeSerialized);
+                    out.end();
+
+                    return elements.size();
+                });
+    }
+
+    private BlackNectarSearchRequest copyOf(BlackNectarSearchRequest request)
+    {
+        return new BlackNectarSearchRequest()
+                .withCenter(request.center)
+                .withRadius(request.radiusInMeters);
+    }
+
+}
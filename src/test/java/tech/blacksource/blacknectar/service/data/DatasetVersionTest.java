@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.positiveLongs;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class DatasetVersionTest
+{
+
+    @Mock
+    private JdbcTemplate database;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private StoreChanges storeChanges;
+
+    private long version;
+
+    private long time;
+
+    private DatasetVersion instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        version = one(positiveLongs());
+        time = one(positiveLongs());
+        storeChanges = spy(new StoreChanges());
+
+        when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class)).thenReturn(version);
+
+        instance = new DatasetVersion(database, storeChanges, scheduler, () -> time);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new DatasetVersion(null, storeChanges, scheduler, () -> time));
+        assertThrows(() -> new DatasetVersion(database, null, scheduler, () -> time));
+        assertThrows(() -> new DatasetVersion(database, storeChanges, null, () -> time));
+        assertThrows(() -> new DatasetVersion(database, storeChanges, scheduler, null));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSchedulesPolling() throws Exception
+    {
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    public void testVersionIsUnknownUntilRead() throws Exception
+    {
+        assertThat(instance.getVersion(), is(DatasetVersion.UNKNOWN));
+        assertThat(instance.isKnown(), is(false));
+    }
+
+    @Test
+    public void testRefresh() throws Exception
+    {
+        instance.refresh(true);
+
+        assertThat(instance.getVersion(), is(version));
+        assertThat(instance.isKnown(), is(true));
+        verify(database).execute(SQLQueries.CREATE_DATASET_VERSION);
+        verify(storeChanges, never()).storesChanged();
+    }
+
+    @Test
+    public void testRefreshCreatesTableOnce() throws Exception
+    {
+        instance.refresh(true);
+        instance.refresh(true);
+
+        verify(database, times(1)).execute(SQLQueries.CREATE_DATASET_VERSION);
+        verify(database, times(2)).queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class);
+    }
+
+    @Test
+    public void testRefreshAnnouncesChangesMadeElsewhere() throws Exception
+    {
+        instance.refresh(true);
+
+        when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class)).thenReturn(version + 1);
+        instance.refresh(true);
+
+        //Not settled yet
+        assertThat(instance.getVersion(), is(DatasetVersion.UNKNOWN));
+        verify(storeChanges, never()).storesChanged();
+
+        passSeconds(DatasetVersion.SETTLE_SECONDS);
+        instance.refresh(true);
+
+        assertThat(instance.getVersion(), is(version + 1));
+        verify(storeChanges).storesChanged();
+
+        instance.refresh(true);
+        verify(storeChanges, times(1)).storesChanged();
+    }
+
+    @Test
+    public void testBurstOfChangesIsAnnouncedOnce() throws Exception
+    {
+        instance.refresh(true);
+
+        for (int i = 1; i <= 3; ++i)
+        {
+            when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class)).thenReturn(version + i);
+            instance.refresh(true);
+            passSeconds(DatasetVersion.POLL_INTERVAL_SECONDS);
+        }
+
+        verify(storeChanges, never()).storesChanged();
+
+        passSeconds(DatasetVersion.SETTLE_SECONDS);
+        instance.refresh(true);
+
+        assertThat(instance.getVersion(), is(version + 3));
+        verify(storeChanges, times(1)).storesChanged();
+    }
+
+    @Test
+    public void testLongRunningChangesAreAnnouncedPeriodically() throws Exception
+    {
+        instance.refresh(true);
+
+        long polls = DatasetVersion.MAX_ANNOUNCE_DELAY_SECONDS / DatasetVersion.POLL_INTERVAL_SECONDS;
+
+        for (int i = 1; i <= polls; ++i)
+        {
+            passSeconds(DatasetVersion.POLL_INTERVAL_SECONDS);
+            when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class)).thenReturn(version + i);
+            instance.refresh(true);
+        }
+
+        assertThat(instance.getVersion(), is(DatasetVersion.UNKNOWN));
+        verify(storeChanges, times(1)).storesChanged();
+
+        //Announced again once the last change settles, since it may not have been committed when first announced.
+        passSeconds(DatasetVersion.SETTLE_SECONDS);
+        instance.refresh(true);
+
+        assertThat(instance.getVersion(), is(version + polls));
+        verify(storeChanges, times(2)).storesChanged();
+    }
+
+    @Test
+    public void testLocalChangesAreNotAnnouncedAgain() throws Exception
+    {
+        instance.refresh(true);
+
+        when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class)).thenReturn(version + 1);
+        storeChanges.storesChanged();
+
+        assertThat(instance.getVersion(), is(version + 1));
+        verify(storeChanges, times(1)).storesChanged();
+
+        instance.refresh(true);
+        verify(storeChanges, times(1)).storesChanged();
+    }
+
+    @Test
+    public void testRefreshWhenDatabaseFails() throws Exception
+    {
+        instance.refresh(true);
+
+        when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class))
+                .thenThrow(new DataAccessResourceFailureException("down"));
+
+        instance.refresh(true);
+
+        assertThat(instance.getVersion(), is(DatasetVersion.UNKNOWN));
+        verify(storeChanges, never()).storesChanged();
+    }
+
+    @Test
+    public void testChangesDuringOutageAreAnnounced() throws Exception
+    {
+        instance.refresh(true);
+
+        when(database.queryForObject(SQLQueries.QUERY_DATASET_VERSION, Long.class))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenReturn(version + 1);
+
+        instance.refresh(true);
+        instance.refresh(true);
+        passSeconds(DatasetVersion.SETTLE_SECONDS);
+        instance.refresh(true);
+
+        assertThat(instance.getVersion(), is(version + 1));
+        verify(storeChanges).storesChanged();
+    }
+
+    private void passSeconds(long seconds)
+    {
+        time += TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class DeadlineTest
+{
+
+    @DontRepeat
+    @Test
+    public void testAfterWithBadArgs() throws Exception
+    {
+        assertThrows(() -> Deadline.after(-1, TimeUnit.SECONDS))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> Deadline.after(1, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testWhenNotExpired() throws Exception
+    {
+        Deadline instance = Deadline.after(1, TimeUnit.MINUTES);
+
+        assertFalse(instance.isDone());
+        assertThat(instance.remainingMillis(), greaterThan(0L));
+        assertThat(instance.remainingSecondsRoundedUp(), allOf(greaterThan(0), lessThanOrEqualTo(60)));
+
+        instance.checkNotDone();
+    }
+
+    @Test
+    public void testWhenExpired() throws Exception
+    {
+        Deadline instance = Deadline.after(0, TimeUnit.MILLISECONDS);
+
+        assertTrue(instance.isExpired());
+        assertThat(instance.remainingMillis(), is(0L));
+        assertThat(instance.remainingSecondsRoundedUp(), is(1));
+
+        assertThrows(instance::checkNotDone)
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+
+    @Test
+    public void testCancel() throws Exception
+    {
+        Deadline instance = Deadline.after(1, TimeUnit.MINUTES);
+        AtomicInteger calls = new AtomicInteger();
+
+        instance.onCancel(calls::incrementAndGet);
+        instance.cancel();
+
+        assertTrue(instance.isCancelled());
+        assertTrue(instance.isDone());
+        assertThat(calls.get(), is(1));
+
+        assertThrows(instance::checkNotDone)
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+
+    @Test
+    public void testOnCancelWhenAlreadyCancelled() throws Exception
+    {
+        Deadline instance = Deadline.after(1, TimeUnit.MINUTES);
+        instance.cancel();
+
+        AtomicInteger calls = new AtomicInteger();
+        instance.onCancel(calls::incrementAndGet);
+
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void testClearCancelHook() throws Exception
+    {
+        Deadline instance = Deadline.after(1, TimeUnit.MINUTES);
+        AtomicInteger calls = new AtomicInteger();
+
+        instance.onCancel(calls::incrementAndGet);
+        instance.clearCancelHook();
+        instance.cancel();
+
+        assertThat(calls.get(), is(0));
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.blacksource.blacknectar.service.exceptions.OperationFailedException;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(10)
+@RunWith(AlchemyTestRunner.class)
+public class HedgedReadsTest
+{
+
+    @Mock
+    private JdbcTemplate primary;
+
+    @Mock
+    private JdbcTemplate replica;
+
+    private ExecutorService executor;
+
+    private HedgedReads instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        executor = Executors.newCachedThreadPool();
+        instance = new HedgedReads(replica, 0.95, 10, executor);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new HedgedReads(replica, 0, 10, executor))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new HedgedReads(replica, 1.5, 10, executor))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new HedgedReads(replica, 0.95, -1, executor))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new HedgedReads(replica, 0.95, 10, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testDisabled() throws Exception
+    {
+        instance = HedgedReads.disabled();
+        assertFalse(instance.isEnabled());
+
+        String result = instance.read(primary, null, (template, deadline) -> template == primary ? "primary" : "replica");
+        assertThat(result, is("primary"));
+    }
+
+    @Test
+    public void testWhenPrimaryIsFast() throws Exception
+    {
+        String result = instance.read(primary, null, (template, deadline) -> template == primary ? "primary" : "replica");
+
+        assertThat(result, is("primary"));
+        assertThat(instance.getHedgeRate(), is(0.0));
+    }
+
+    @Test
+    public void testWhenPrimaryIsSlow() throws Exception
+    {
+        AtomicBoolean primaryCancelled = new AtomicBoolean(false);
+
+        String result = instance.read(primary, null, (template, deadline) ->
+                                  {
+                                      if (template == replica)
+                                      {
+                                          return "replica";
+                                      }
+
+                                      waitUntilDone(deadline);
+                                      primaryCancelled.set(deadline.isCancelled());
+                                      throw new DeadlineExceededException();
+                                  });
+
+        assertThat(result, is("replica"));
+        assertThat(instance.getHedgeRate(), is(1.0));
+        assertThat(instance.getWinRate(), is(1.0));
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        assertTrue(primaryCancelled.get());
+    }
+
+    @Test
+    public void testWhenBothFail() throws Exception
+    {
+        assertThrows(() -> instance.read(primary, null, (template, deadline) ->
+                             {
+                                 sleep(150);
+                                 throw new OperationFailedException();
+                             }))
+                .isInstanceOf(OperationFailedException.class);
+    }
+
+    @Test
+    public void testRecordsPrimaryLatencyWhenHedgeWins() throws Exception
+    {
+        String result = instance.read(primary, null, (template, deadline) ->
+                                  {
+                                      if (template == replica)
+                                      {
+                                          return "replica";
+                                      }
+
+                                      //Slow to notice that it was cancelled.
+                                      sleep(500);
+                                      throw new DeadlineExceededException();
+                                  });
+
+        assertThat(result, is("replica"));
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+
+        //Recorded once, up to the time the hedge won.
+        long[] latencies = instance.getLatencies();
+        assertThat(latencies.length, is(1));
+        assertThat(latencies[0], greaterThanOrEqualTo(HedgedReads.INITIAL_DELAY_MILLIS));
+        assertThat(latencies[0], lessThan(500L));
+    }
+
+    @Test
+    public void testRecordsPrimaryLatencyWhenPrimaryFails() throws Exception
+    {
+        assertThrows(() -> instance.read(primary, null, (template, deadline) ->
+                             {
+                                 throw new OperationFailedException();
+                             }))
+                .isInstanceOf(OperationFailedException.class);
+
+        assertThat(instance.getLatencies().length, is(1));
+    }
+
+    @Test
+    public void testCancellingRequestCancelsAttempts() throws Exception
+    {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        deadline.cancel();
+
+        assertThrows(() -> instance.read(primary, deadline, (template, attempt) ->
+                             {
+                                 attempt.checkNotDone();
+                                 return "done";
+                             }))
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testGetHedgeDelayMillis() throws Exception
+    {
+        assertThat(instance.getHedgeDelayMillis(), is(HedgedReads.INITIAL_DELAY_MILLIS));
+
+        for (long latency = 1; latency <= 100; ++latency)
+        {
+            instance.recordLatency(latency);
+        }
+
+        assertThat(instance.getHedgeDelayMillis(), is(95L));
+    }
+
+    private static void waitUntilDone(Deadline deadline)
+    {
+        while (!deadline.isDone())
+        {
+            sleep(5);
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
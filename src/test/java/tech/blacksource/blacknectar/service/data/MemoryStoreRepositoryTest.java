@@ -32,6 +32,7 @@ import tech.sirwellington.alchemy.test.junit.runners.*;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.boundingBoxes;
 import static tech.blacksource.blacknectar.service.BlackNectarGenerators.locations;
 import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
 import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
@@ -118,6 +119,57 @@ public class MemoryStoreRepositoryTest
         assertThat(result, contains(store));
     }
 
+    @Test
+    public void testSearchForStoresInBoundingBox()
+    {
+        BoundingBox box = one(boundingBoxes());
+        Location center = box.getCenter();
+
+        store = Store.Builder.fromStore(store).withLocation(center).build();
+        stores.add(store);
+
+        request = new BlackNectarSearchRequest()
+                .withBoundingBox(box);
+
+        List<Store> result = instance.searchForStores(request);
+        assertThat(result, hasItem(store));
+
+        for (Store found : result)
+        {
+            assertThat(box.contains(found.getLocation()), is(true));
+        }
+
+        long expected = stores.stream()
+                              .filter(s -> box.contains(s.getLocation()))
+                              .count();
+
+        assertThat((long) result.size(), is(expected));
+    }
+
+    @Test
+    public void testSearchForStoresInBoundingBoxWithLimit()
+    {
+        BoundingBox box = one(boundingBoxes());
+        Location location = box.getCenter();
+        int totalStores = one(integers(10, 100));
+        int limit = one(integers(1, totalStores / 2));
+
+        stores = listOf(stores(), totalStores)
+                .stream()
+                .map(s -> Store.Builder.fromStore(s).withLocation(location).build())
+                .collect(toList());
+
+        instance = new MemoryStoreRepository(stores, GeoCalculator.HARVESINE);
+
+        request = new BlackNectarSearchRequest()
+                .withBoundingBox(box)
+                .withLimit(limit);
+
+        List<Store> results = instance.searchForStores(request);
+        assertThat(results.size(), is(limit));
+        assertThat(results, is(ViewportSampling.sample(stores, box, limit)));
+    }
+
     @Test
     public void testContainsStoreWhenContains() throws Exception
     {
@@ -24,6 +24,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import tech.blacksource.blacknectar.service.images.Image;
+import tech.blacksource.blacknectar.service.images.ImageIds;
 import tech.sirwellington.alchemy.test.junit.runners.*;
 
 import static org.hamcrest.Matchers.is;
@@ -109,11 +110,20 @@ public class SQLImageMapperTest
         assertThat(result, is(expected));
     }
 
+    @Test
+    public void testWhenImageIdNotPresent() throws Exception
+    {
+        when(results.getLong(SQLColumns.Images.IMAGE_ID)).thenReturn(0L);
+        when(results.wasNull()).thenReturn(true);
+
+        assertThrows(() -> instance.mapRow(results, 0));
+    }
+
     @SuppressWarnings("unchecked")
     private void setupResultsWithImage(ResultSet results, Image image) throws SQLException
     {
         when(results.getObject(SQLColumns.Images.STORE_ID, UUID.class)).thenReturn(image.getStoreId());
-        when(results.getString(SQLColumns.Images.IMAGE_ID)).thenReturn(image.getImageId());
+        when(results.getLong(SQLColumns.Images.IMAGE_ID)).thenReturn(ImageIds.toKey(image.getImageId()));
         when(results.getString(SQLColumns.Images.CONTENT_TYPE)).thenReturn(image.getContentType());
         when(results.getString(SQLColumns.Images.IMAGE_TYPE)).thenReturn(image.getImageType());
         when(results.getString(SQLColumns.Images.SOURCE)).thenReturn(image.getSource());
@@ -28,6 +28,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import sir.wellington.alchemy.collections.lists.Lists;
 import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.service.images.Image;
+import tech.blacksource.blacknectar.service.images.ImageIds;
 import tech.blacksource.blacknectar.service.stores.Store;
 import tech.sirwellington.alchemy.test.junit.runners.AlchemyTestRunner;
 import tech.sirwellington.alchemy.test.junit.runners.Repeat;
@@ -71,6 +72,7 @@ public class SQLImageRepositoryTest
     private List<Image> images;
     private Image image;
     private String imageId;
+    private long imageKey;
 
     @Before
     public void setUp() throws Exception
@@ -94,6 +96,7 @@ public class SQLImageRepositoryTest
 
         image = Lists.oneOf(images);
         imageId = image.getImageId();
+        imageKey = ImageIds.toKey(imageId);
     }
 
     private void setupMocks() throws Exception
@@ -117,7 +120,7 @@ public class SQLImageRepositoryTest
         String sql = SQLQueries.INSERT_STORE_IMAGE;
         verify(database).update(sql,
                                 image.getStoreId(),
-                                image.getImageId(),
+                                imageKey,
                                 image.getHeight(),
                                 image.getWidth(),
                                 image.getSizeInBytes(),
@@ -125,13 +128,16 @@ public class SQLImageRepositoryTest
                                 image.getImageType(),
                                 image.getSource(),
                                 image.getUrl().toString());
+
+        //The Cover is picked by a trigger, within the same statement.
+        verifyNoMoreInteractions(database);
     }
 
     @Test
     public void testGetImage()
     {
         String sql = SQLQueries.QUERY_IMAGE;
-        when(database.queryForObject(sql, imageMapper, storeId, imageId))
+        when(database.queryForObject(sql, imageMapper, storeId, imageKey))
                 .thenReturn(image);
 
         Image result = instance.getImage(storeId, imageId);
@@ -178,7 +184,10 @@ public class SQLImageRepositoryTest
         instance.deleteImage(image);
 
         String sql = SQLQueries.DELETE_IMAGE;
-        verify(database).update(sql, storeId, imageId);
+        verify(database).update(sql, storeId, imageKey);
+
+        //A single statement, so the Cover can't be left pointing nowhere if it fails.
+        verifyNoMoreInteractions(database);
     }
 
 }
@@ -21,6 +21,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import tech.sirwellington.alchemy.test.junit.runners.AlchemyTestRunner;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
@@ -49,6 +50,25 @@ public class SQLQueriesTest
     {
         assertThat(SQLQueries.CREATE_ADDRESS_TABLE, not(isEmptyOrNullString()));
         assertThat(SQLQueries.CREATE_STORES_TABLE, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.CREATE_STORE_JOBS_TABLE, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.CREATE_DATASET_VERSION, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.ADD_CELL_ID_TO_STORES, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.ADD_LOCATION_INDEX_TO_STORES, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.PARTITION_STORES_BY_STATE, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.COPY_STORES_INTO_PARTITIONS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.ENFORCE_UNIQUE_STORE_IDS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.HASH_IMAGE_IDS, not(isEmptyOrNullString()));
+
+        assertThat(SQLQueries.CREATE_STORES_PARTITION, containsString("%1$s"));
+        assertThat(SQLQueries.VACUUM_STORES_PARTITION, containsString("%s"));
+        assertThat(SQLQueries.REINDEX_STORES_PARTITION, containsString("%s"));
+
+        assertThat(SQLQueries.ENQUEUE_STORE_JOBS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.CLAIM_STORE_JOBS, containsString("SKIP LOCKED"));
+        assertThat(SQLQueries.COMPLETE_STORE_JOB, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.FAIL_STORE_JOB, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.FAIL_EXPIRED_STORE_JOBS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.REQUEUE_STORE_JOBS, not(isEmptyOrNullString()));
 
         assertThat(SQLQueries.CONTAINS_STORE, not(isEmptyOrNullString()));
         assertThat(SQLQueries.COUNT_IMAGES_FOR_STORE, not(isEmptyOrNullString()));
@@ -68,10 +88,25 @@ public class SQLQueriesTest
         assertThat(SQLQueries.QUERY_STORES_WITH_ZIPCODE, not(isEmptyOrNullString()));
         assertThat(SQLQueries.QUERY_STORES_WITH_NAME_AND_LOCATION, not(isEmptyOrNullString()));
         assertThat(SQLQueries.QUERY_STORES_WITH_NAME_AND_ZIPCODE, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_IN_CELLS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_WITH_NAME_IN_CELLS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_IN_BOX, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_WITH_NAME_IN_BOX, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_WITHOUT_CELL_ID, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_DATASET_VERSION, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_PARTITIONS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORE_STATE_BOUNDS, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORE_ZIP_CODE_STATES, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_UNPARTITIONED_STORE_STATES, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_NOT_PARTITIONED, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.QUERY_STORES_AS_JSON, containsString("%s"));
         assertThat(SQLQueries.QUERY_IMAGES_FOR_STORE, not(isEmptyOrNullString()));
         assertThat(SQLQueries.QUERY_IMAGE, not(isEmptyOrNullString()));
 
         assertThat(SQLQueries.UPDATE_STORE, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.UPDATE_STORE_CELL_ID, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.UPSERT_STORE, not(isEmptyOrNullString()));
+        assertThat(SQLQueries.UPSERT_STORE_PARTITIONED, not(isEmptyOrNullString()));
     }
 
 
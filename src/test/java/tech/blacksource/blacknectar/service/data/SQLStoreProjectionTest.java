@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(10)
+@RunWith(AlchemyTestRunner.class)
+public class SQLStoreProjectionTest
+{
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(SQLStoreProjection::new).isInstanceOf(IllegalAccessException.class);
+    }
+
+    @Test
+    public void testSelectOnly()
+    {
+        String query = SQLStoreProjection.selectOnly(SQLQueries.QUERY_STORES_IN_CELLS, StoreField.MAP_VIEW);
+
+        assertThat(query, not(containsString("Stores.*")));
+        assertThat(query, containsString("Stores.store_id, Stores.store_name, Stores.latitude, Stores.longitude"));
+        assertThat(query, containsString("distance_meters"));
+        assertThat(query, not(containsString("Store_Images.url,")));
+    }
+
+    @Test
+    public void testSelectOnlyWithImage()
+    {
+        String query = SQLStoreProjection.selectOnly(SQLQueries.QUERY_STORES_WITH_NAME,
+                                                     StoreField.parse("store_name,main_image_url"));
+
+        assertThat(query, containsString("Stores.store_id, Stores.store_name, Store_Images.url"));
+    }
+
+    @Test
+    public void testSelectOnlyWithUnexpectedQuery()
+    {
+        String query = one(alphabeticString());
+
+        assertThrows(() -> SQLStoreProjection.selectOnly(query, StoreField.MAP_VIEW))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testAsJSON()
+    {
+        String query = SQLStoreProjection.asJSON(SQLQueries.QUERY_STORES_WITH_LOCATION, StoreField.MAP_VIEW);
+
+        assertThat(query, containsString("store_json"));
+        assertThat(query, containsString("'store_name'"));
+        assertThat(query, containsString("'location'"));
+        assertThat(query, not(containsString("'address'")));
+        assertThat(query, not(containsString("Stores.*")));
+    }
+
+}
@@ -16,20 +16,26 @@
 
 package tech.blacksource.blacknectar.service.data;
 
+import java.io.StringWriter;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import sir.wellington.alchemy.collections.lists.Lists;
 import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.BlackNectarGenerators;
 import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
 import tech.blacksource.blacknectar.service.exceptions.BlackNectarAPIException;
 import tech.blacksource.blacknectar.service.stores.*;
@@ -107,6 +113,19 @@ public class SQLStoreRepositoryTest
 
         when(database.queryForObject(eq(SQLQueries.CONTAINS_STORE), eq(Integer.class), any(UUID.class)))
                 .thenReturn(0);
+
+        when(database.batchUpdate(anyString(), Mockito.<List<Object[]>>any()))
+                .then(invocation -> updateEachRow(invocation, 1));
+    }
+
+    private int[] updateEachRow(InvocationOnMock invocation, int updates)
+    {
+        List<?> rows = (List<?>) invocation.getArguments()[1];
+
+        int[] results = new int[rows.size()];
+        Arrays.fill(results, updates);
+
+        return results;
     }
 
     @DontRepeat
@@ -186,6 +205,154 @@ public class SQLStoreRepositoryTest
         assertThat(results, is(stores));
     }
 
+    @Test
+    public void testSearchForStoresAsJSON() throws Exception
+    {
+        StringWriter out = new StringWriter();
+
+        int count = instance.searchForStoresAsJSON(request, out);
+
+        assertThat(count, is(0));
+        assertThat(out.toString(), is("[]"));
+        verify(database).query(Mockito.contains("store_json"), any(Object[].class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public void testSearchForStoresAsJSONWithFields() throws Exception
+    {
+        request.withFields(StoreField.MAP_VIEW);
+        StringWriter out = new StringWriter();
+
+        instance.searchForStoresAsJSON(request, out);
+
+        verify(database).query(argThat(not(containsString("Stores.*"))), any(Object[].class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public void testUpsertStores() throws Exception
+    {
+        instance.upsertStores(stores);
+
+        verify(database).batchUpdate(eq(SQLQueries.UPSERT_STORE), Mockito.<List<Object[]>>any());
+    }
+
+    @Test
+    public void testUpsertStoresReturnsDuplicates() throws Exception
+    {
+        assertThat(instance.upsertStores(stores), is(empty()));
+
+        when(database.batchUpdate(eq(SQLQueries.UPSERT_STORE), Mockito.<List<Object[]>>any()))
+                .then(invocation -> updateEachRow(invocation, 0));
+
+        List<Store> duplicates = instance.upsertStores(stores);
+        assertThat(duplicates, containsInAnyOrder(stores.toArray()));
+    }
+
+    @Test
+    public void testUpsertStoresWhenPartitioned() throws Exception
+    {
+        instance = new SQLStoreRepository(aroma, database, storeMapper, HedgedReads.disabled(), partitionedStates());
+
+        instance.upsertStores(stores);
+
+        verify(database).batchUpdate(eq(SQLQueries.UPSERT_STORE_PARTITIONED), Mockito.<List<Object[]>>any());
+    }
+
+    @Test
+    public void testSearchForStoresWithZipCodeWhenPartitioned() throws Exception
+    {
+        StatePartitions partitions = partitionedStates();
+        instance = new SQLStoreRepository(aroma, database, storeMapper, HedgedReads.disabled(), partitions);
+        partitions.include(store);
+
+        String zipCode = store.getAddress().getZipCode();
+        String state = store.getAddress().getState();
+        request = new BlackNectarSearchRequest().withZipCode(zipCode);
+
+        instance.searchForStores(request);
+
+        verify(database).query(Mockito.contains("Stores.state IN (?)"), eq(storeMapper), eq(state), eq(zipCode));
+    }
+
+    private StatePartitions partitionedStates()
+    {
+        when(database.queryForList(SQLQueries.QUERY_STORES_PARTITIONS, String.class))
+                .thenReturn(Lists.createFrom("stores_default"));
+
+        StatePartitions partitions = new StatePartitions(database, new StoreChanges(), mock(ScheduledExecutorService.class));
+        partitions.refresh();
+
+        return partitions;
+    }
+
+    @Test
+    public void testDeleteStores() throws Exception
+    {
+        instance.deleteStores(Lists.createFrom(store.getStoreId()));
+
+        verify(database).batchUpdate(eq(SQLQueries.DELETE_STORE), Mockito.<List<Object[]>>any());
+    }
+
+    @Test
+    public void testSearchForStoresUsesCells() throws Exception
+    {
+        request = new BlackNectarSearchRequest()
+                .withCenter(Location.with(34.0522, -118.2437))
+                .withRadius(5_000);
+
+        when(database.query(eq(SQLQueries.QUERY_STORES_IN_CELLS), eq(storeMapper), Mockito.<Object>anyVararg()))
+                .thenReturn(stores);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(stores));
+    }
+
+    @Test
+    public void testSearchForStoresInBoundingBox() throws Exception
+    {
+        BoundingBox box = one(BlackNectarGenerators.boundingBoxes());
+        request = new BlackNectarSearchRequest().withBoundingBox(box);
+
+        when(database.query(eq(SQLQueries.QUERY_STORES_IN_BOX), eq(storeMapper), Mockito.<Object>anyVararg()))
+                .thenReturn(stores);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(stores));
+
+        verify(database).query(SQLQueries.QUERY_STORES_IN_BOX,
+                               storeMapper,
+                               ViewportSampling.cellWidthOf(box),
+                               ViewportSampling.cellHeightOf(box),
+                               box.getMinLongitude(),
+                               box.getMinLatitude(),
+                               box.getMaxLongitude(),
+                               box.getMaxLatitude());
+    }
+
+    @Test
+    public void testSearchForStoresWithNameInBoundingBox() throws Exception
+    {
+        BoundingBox box = one(BlackNectarGenerators.boundingBoxes());
+        String searchTerm = one(alphabeticString());
+
+        request = new BlackNectarSearchRequest()
+                .withBoundingBox(box)
+                .withSearchTerm(searchTerm)
+                .withLimit(one(integers(1, 100)));
+
+        when(database.query(Mockito.startsWith(SQLQueries.QUERY_STORES_WITH_NAME_IN_BOX), eq(storeMapper), Mockito.<Object>anyVararg()))
+                .thenReturn(stores);
+
+        List<Store> results = instance.searchForStores(request);
+
+        assertThat(results, is(stores));
+        verify(database).query(Mockito.endsWith("LIMIT " + request.limit),
+                               eq(storeMapper),
+                               Mockito.<Object>anyVararg());
+    }
+
     @Test
     public void testSearchForStoresWithZipCode() throws Exception
     {
@@ -216,6 +383,22 @@ public class SQLStoreRepositoryTest
         assertStoreInsertedIntoDatabase(database, store);
     }
 
+    @Test
+    public void testWritesAreAnnouncedAsStoreChanges() throws Exception
+    {
+        StoreChanges storeChanges = new StoreChanges();
+        instance = new SQLStoreRepository(aroma, database, storeMapper, HedgedReads.disabled(), StatePartitions.disabled(), storeChanges);
+
+        instance.addStore(store);
+        assertThat(storeChanges.getVersion(), is(1L));
+
+        instance.deleteStore(store.getStoreId());
+        assertThat(storeChanges.getVersion(), is(2L));
+
+        instance.upsertStores(Lists.createFrom(store));
+        assertThat(storeChanges.getVersion(), is(3L));
+    }
+
     private void setupSQLInsertForStore()
     {
         String insert = SQLQueries.INSERT_STORE;
@@ -320,6 +503,7 @@ public class SQLStoreRepositoryTest
                                 lon,
                                 lon,
                                 lat,
+                                SpatialCells.cellIdOf(lat, lon),
                                 address.getAddressLineOne(),
                                 address.getAddressLineTwo(),
                                 address.getCity(),
@@ -345,6 +529,7 @@ public class SQLStoreRepositoryTest
                                 lon,
                                 lon,
                                 lat,
+                                SpatialCells.cellIdOf(lat, lon),
                                 address.getAddressLineOne(),
                                 address.getAddressLineTwo(),
                                 address.getCity(),
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.locations;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.doubles;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(100)
+@RunWith(AlchemyTestRunner.class)
+public class SpatialCellsTest
+{
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(SpatialCells::new).isInstanceOf(IllegalAccessException.class);
+    }
+
+    @Test
+    public void testCellIdOf() throws Exception
+    {
+        Location location = one(locations());
+
+        long cellId = SpatialCells.cellIdOf(location);
+
+        assertThat(cellId, greaterThanOrEqualTo(0L));
+        assertThat(cellId, is(SpatialCells.cellIdOf(location.getLatitude(), location.getLongitude())));
+    }
+
+    @Test
+    public void testCellIdOfWithLevel() throws Exception
+    {
+        Location location = one(locations());
+
+        assertThat(SpatialCells.cellIdOf(location, 0), is(0L));
+        assertThat(SpatialCells.cellIdOf(location, SpatialCells.MAX_LEVEL), is(SpatialCells.cellIdOf(location)));
+    }
+
+    @DontRepeat
+    @Test
+    public void testCellIdOfWithBadArgs() throws Exception
+    {
+        assertThrows(() -> SpatialCells.cellIdOf(null))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> SpatialCells.cellIdOf(Location.with(0, 0), SpatialCells.MAX_LEVEL + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testCoverContainsNearbyLocations() throws Exception
+    {
+        Location center = Location.with(one(doubles(-60, 60)), one(doubles(-170, 170)));
+        double radius = one(doubles(100, 50_000));
+
+        List<SpatialCells.Range> ranges = SpatialCells.cover(center, radius);
+
+        assertThat(ranges, not(empty()));
+        assertThat(ranges.size(), lessThanOrEqualTo(SpatialCells.MAX_RANGES));
+
+        for (int bearing = 0; bearing < 360; bearing += 15)
+        {
+            Location nearby = GeoCalculator.HARVESINE.calculateDestinationFrom(center, radius * 0.99, bearing);
+            long cellId = SpatialCells.cellIdOf(nearby);
+
+            assertTrue(ranges.stream().anyMatch(range -> range.contains(cellId)));
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testCoverAcrossTheAntimeridian() throws Exception
+    {
+        List<SpatialCells.Range> ranges = SpatialCells.cover(Location.with(0, 179.99), 10_000);
+
+        assertThat(ranges, is(empty()));
+    }
+
+    @Test
+    public void testCellsAtContainsNearbyLocations() throws Exception
+    {
+        Location center = Location.with(one(doubles(-60, 60)), one(doubles(-170, 170)));
+        double radius = one(doubles(100, 20_000));
+        int level = 11;
+
+        List<Long> cells = SpatialCells.cellsAt(level, center, radius);
+
+        assertThat(cells, hasItem(SpatialCells.cellIdOf(center, level)));
+
+        for (int bearing = 0; bearing < 360; bearing += 15)
+        {
+            Location nearby = GeoCalculator.HARVESINE.calculateDestinationFrom(center, radius * 0.99, bearing);
+
+            assertThat(cells, hasItem(SpatialCells.cellIdOf(nearby, level)));
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testCellsAtAcrossTheAntimeridian() throws Exception
+    {
+        List<Long> cells = SpatialCells.cellsAt(11, Location.with(0, 179.99), 10_000);
+
+        assertThat(cells, is(empty()));
+    }
+
+    @Test
+    public void testCellsAtWithBox() throws Exception
+    {
+        double minLatitude = one(doubles(-60, 60));
+        double minLongitude = one(doubles(-170, 170));
+        BoundingBox box = BoundingBox.of(minLongitude, minLatitude, minLongitude + one(doubles(0.01, 0.5)), minLatitude + one(doubles(0.01, 0.5)));
+        int level = 11;
+
+        List<Long> cells = SpatialCells.cellsAt(level, box);
+
+        Location inside = Location.with(one(doubles(box.getMinLatitude(), box.getMaxLatitude())),
+                                        one(doubles(box.getMinLongitude(), box.getMaxLongitude())));
+
+        assertThat(cells, hasItem(SpatialCells.cellIdOf(inside, level)));
+        assertThat(cells, hasItem(SpatialCells.cellIdOf(Location.with(box.getMinLatitude(), box.getMinLongitude()), level)));
+        assertThat(cells, hasItem(SpatialCells.cellIdOf(Location.with(box.getMaxLatitude(), box.getMaxLongitude()), level)));
+
+        for (Long cellId : cells)
+        {
+            Location corner = SpatialCells.cornerOf(cellId, level);
+
+            assertThat(corner.getLatitude(), lessThanOrEqualTo(box.getMaxLatitude()));
+            assertThat(corner.getLongitude(), lessThanOrEqualTo(box.getMaxLongitude()));
+            assertThat(corner.getLatitude() + SpatialCells.latitudeSpanOf(level), greaterThan(box.getMinLatitude()));
+            assertThat(corner.getLongitude() + SpatialCells.longitudeSpanOf(level), greaterThan(box.getMinLongitude()));
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testCellsAtWithBoxWithBadArgs() throws Exception
+    {
+        assertThrows(() -> SpatialCells.cellsAt(11, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testCornerOf() throws Exception
+    {
+        Location location = Location.with(one(doubles(-89, 89)), one(doubles(-179, 179)));
+        int level = 11;
+
+        long cellId = SpatialCells.cellIdOf(location, level);
+        Location corner = SpatialCells.cornerOf(cellId, level);
+
+        assertThat(corner.getLatitude(), lessThanOrEqualTo(location.getLatitude()));
+        assertThat(corner.getLongitude(), lessThanOrEqualTo(location.getLongitude()));
+        assertThat(corner.getLatitude() + SpatialCells.latitudeSpanOf(level), greaterThan(location.getLatitude()));
+        assertThat(corner.getLongitude() + SpatialCells.longitudeSpanOf(level), greaterThan(location.getLongitude()));
+    }
+
+    @DontRepeat
+    @Test
+    public void testCornerOfWithBadArgs() throws Exception
+    {
+        assertThrows(() -> SpatialCells.cornerOf(0, SpatialCells.MAX_LEVEL + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
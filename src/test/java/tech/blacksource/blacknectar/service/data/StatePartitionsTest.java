@@ -0,0 +1,284 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.blacksource.blacknectar.service.stores.*;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class StatePartitionsTest
+{
+
+    @Mock
+    private JdbcTemplate database;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private StoreChanges storeChanges;
+
+    private Store store;
+
+    private StatePartitions instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        store = one(stores());
+
+        when(database.queryForList(SQLQueries.QUERY_STORES_PARTITIONS, String.class))
+                .thenReturn(Lists.createFrom("stores_ca", "stores_default"));
+
+        storeChanges = new StoreChanges();
+
+        instance = new StatePartitions(database, storeChanges, scheduler);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor()
+    {
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class),
+                                                 eq(0L),
+                                                 eq(StatePartitions.REFRESH_INTERVAL_MINUTES),
+                                                 eq(TimeUnit.MINUTES));
+
+        assertThrows(() -> new StatePartitions(null, storeChanges, scheduler)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StatePartitions(database, null, scheduler)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StatePartitions(database, storeChanges, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testRefreshesWhenStoresChange()
+    {
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        storeChanges.storesChanged();
+        storeChanges.storesChanged();
+
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(captor.capture(),
+                                   eq(StatePartitions.CHANGE_DELAY_SECONDS),
+                                   eq(TimeUnit.SECONDS));
+
+        assertThat(instance.isPartitioned(), is(false));
+
+        captor.getValue().run();
+        assertThat(instance.isPartitioned(), is(true));
+
+        //Once the refresh ran, the next change schedules another
+        storeChanges.storesChanged();
+        verify(scheduler, times(2)).schedule(any(Runnable.class),
+                                             eq(StatePartitions.CHANGE_DELAY_SECONDS),
+                                             eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRefresh()
+    {
+        assertThat(instance.isPartitioned(), is(false));
+
+        instance.refresh();
+
+        assertThat(instance.isPartitioned(), is(true));
+    }
+
+    @Test
+    public void testRefreshWhenNotPartitioned()
+    {
+        when(database.queryForList(SQLQueries.QUERY_STORES_PARTITIONS, String.class))
+                .thenReturn(Lists.emptyList());
+
+        instance.refresh();
+
+        assertThat(instance.isPartitioned(), is(false));
+    }
+
+    @Test
+    public void testRefreshWhenFails()
+    {
+        instance.refresh();
+
+        when(database.queryForList(SQLQueries.QUERY_STORES_PARTITIONS, String.class))
+                .thenThrow(mock(DataAccessException.class));
+
+        instance.refresh();
+
+        assertThat(instance.isPartitioned(), is(false));
+    }
+
+    @DontRepeat
+    @Test
+    public void testDisabled()
+    {
+        StatePartitions disabled = StatePartitions.disabled();
+        disabled.refresh();
+        disabled.include(store);
+
+        assertThat(disabled.isPartitioned(), is(false));
+        assertThat(disabled.statesFor(zipCodeSearchFor(store)), is(empty()));
+    }
+
+    @Test
+    public void testStatesForWhenNotPartitioned()
+    {
+        instance.include(store);
+
+        assertThat(instance.statesFor(zipCodeSearchFor(store)), is(empty()));
+    }
+
+    @Test
+    public void testStatesForZipCode()
+    {
+        instance.refresh();
+        instance.include(store);
+
+        Set<String> states = instance.statesFor(zipCodeSearchFor(store));
+
+        assertThat(states, contains(store.getAddress().getState()));
+    }
+
+    @Test
+    public void testStatesForUnknownZipCode()
+    {
+        instance.refresh();
+
+        assertThat(instance.statesFor(zipCodeSearchFor(store)), is(empty()));
+    }
+
+    @Test
+    public void testStatesForCenter()
+    {
+        instance.refresh();
+        instance.include(store);
+
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest()
+                .withCenter(store.getLocation())
+                .withRadius(one(integers(1, 10_000)));
+
+        assertThat(instance.statesFor(request), hasItem(store.getAddress().getState()));
+    }
+
+    @Test
+    public void testStatesForCenterFarAway()
+    {
+        Store california = storeAt("CA", 34.0522, -118.2437);
+        Store newYork = storeAt("NY", 40.7128, -74.0060);
+
+        instance.refresh();
+        instance.include(california);
+        instance.include(newYork);
+
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest()
+                .withCenter(Location.with(34.05, -118.25))
+                .withRadius(5_000);
+
+        assertThat(instance.statesFor(request), contains("CA"));
+    }
+
+    @Test
+    public void testStatesForBoundingBox()
+    {
+        Store california = storeAt("CA", 34.0522, -118.2437);
+        Store newYork = storeAt("NY", 40.7128, -74.0060);
+
+        instance.refresh();
+        instance.include(california);
+        instance.include(newYork);
+
+        BlackNectarSearchRequest request = new BlackNectarSearchRequest()
+                .withBoundingBox(BoundingBox.of(-118.5, 33.9, -118.0, 34.2));
+
+        assertThat(instance.statesFor(request), contains("CA"));
+
+        request.withBoundingBox(BoundingBox.of(-120, 33, -73, 41));
+
+        assertThat(instance.statesFor(request), containsInAnyOrder("CA", "NY"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testRestrictToStates()
+    {
+        String query = StatePartitions.restrictToStates(SQLQueries.QUERY_STORES_WITH_ZIPCODE, 2);
+
+        assertThat(query, containsString("WHERE Stores.state IN (?, ?) AND zip_code = ?"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testRestrictToStatesWithBadArgs()
+    {
+        assertThrows(() -> StatePartitions.restrictToStates("SELECT * FROM Stores", 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> StatePartitions.restrictToStates(SQLQueries.QUERY_STORES_WITH_ZIPCODE, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private BlackNectarSearchRequest zipCodeSearchFor(Store store)
+    {
+        return new BlackNectarSearchRequest().withZipCode(store.getAddress().getZipCode());
+    }
+
+    private Store storeAt(String state, double latitude, double longitude)
+    {
+        Address original = store.getAddress();
+
+        Address address = Address.Builder.newBuilder()
+                                         .withAddressLineOne(original.getAddressLineOne())
+                                         .withCity(original.getCity())
+                                         .withState(state)
+                                         .withCounty(original.getCounty())
+                                         .withZipCode(original.getZipCode())
+                                         .build();
+
+        return Store.Builder.fromStore(store)
+                            .withAddress(address)
+                            .withLocation(Location.with(latitude, longitude))
+                            .build();
+    }
+
+}
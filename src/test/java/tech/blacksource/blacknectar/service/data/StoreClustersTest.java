@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.doubles;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class StoreClustersTest
+{
+
+    private List<Store> stores;
+
+    private StoreClusters instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stores = listOf(stores(), 50);
+
+        instance = StoreClusters.of(stores);
+    }
+
+    @Test
+    public void testOf() throws Exception
+    {
+        assertThat(instance.getTotalStores(), is(stores.size()));
+    }
+
+    @DontRepeat
+    @Test
+    public void testOfWithBadArgs() throws Exception
+    {
+        assertThrows(() -> StoreClusters.of(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testOfWithNoStores() throws Exception
+    {
+        instance = StoreClusters.of(new ArrayList<>());
+
+        assertThat(instance.getTotalStores(), is(0));
+        assertThat(instance.getTile(0, 0, 0), is(empty()));
+        assertThat(instance.getTile(StoreClusters.MAX_ZOOM, 0, 0), is(empty()));
+    }
+
+    @Test
+    public void testGetTileAtTopHasEveryStore() throws Exception
+    {
+        List<StoreClusters.Cluster> tile = instance.getTile(0, 0, 0);
+
+        assertThat(countOf(tile), is(stores.size()));
+    }
+
+    @Test
+    public void testGetTileWithDeadline() throws Exception
+    {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+
+        List<StoreClusters.Cluster> tile = instance.getTile(0, 0, 0, deadline);
+
+        assertThat(countOf(tile), is(stores.size()));
+    }
+
+    @Test
+    public void testGetTileWhenDeadlineIsCancelled() throws Exception
+    {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        deadline.cancel();
+
+        assertThrows(() -> instance.getTile(0, 0, 0, deadline))
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+
+    @Test
+    public void testEveryZoomHasEveryStore() throws Exception
+    {
+        int zoom = one(integers(0, 4));
+        int tiles = 1 << zoom;
+        int total = 0;
+
+        for (int x = 0; x < tiles; ++x)
+        {
+            for (int y = 0; y < tiles; ++y)
+            {
+                total += countOf(instance.getTile(zoom, x, y));
+            }
+        }
+
+        assertThat(total, is(stores.size()));
+    }
+
+    @Test
+    public void testGetTileAtDeepZoomHasSingleStores() throws Exception
+    {
+        Store store = stores.get(0);
+        int zoom = one(integers(StoreClusters.MAX_CLUSTER_ZOOM + 1, StoreClusters.MAX_ZOOM + 1));
+
+        List<StoreClusters.Cluster> tile = getTileContaining(store, zoom);
+
+        assertThat(tile, not(empty()));
+
+        for (StoreClusters.Cluster point : tile)
+        {
+            assertThat(point.isSingleStore(), is(true));
+            assertThat(point.getCount(), is(1));
+        }
+
+        assertTrue(tile.stream().anyMatch(point -> point.getStore().equals(store)));
+    }
+
+    @Test
+    public void testNearbyStoresAreClustered() throws Exception
+    {
+        double latitude = one(doubles(-60, 60));
+        double longitude = one(doubles(-170, 170));
+
+        Store first = storeAt(latitude, longitude);
+        Store second = storeAt(latitude + 0.0001, longitude + 0.0001);
+
+        List<Store> nearbyStores = new ArrayList<>();
+        nearbyStores.add(first);
+        nearbyStores.add(second);
+
+        instance = StoreClusters.of(nearbyStores);
+
+        List<StoreClusters.Cluster> top = instance.getTile(0, 0, 0);
+        assertThat(top.size(), is(1));
+
+        StoreClusters.Cluster cluster = top.get(0);
+        assertThat(cluster.getCount(), is(2));
+        assertThat(cluster.isSingleStore(), is(false));
+        assertThat(cluster.getStore(), nullValue());
+        assertThat(cluster.getLatitude(), closeTo(latitude + 0.00005, 0.001));
+        assertThat(cluster.getLongitude(), closeTo(longitude + 0.00005, 0.001));
+
+        List<StoreClusters.Cluster> deep = getTileContaining(first, StoreClusters.MAX_CLUSTER_ZOOM + 1);
+        assertTrue(deep.stream().anyMatch(point -> first.equals(point.getStore())));
+    }
+
+    @Test
+    public void testDistantStoresAreNotClustered() throws Exception
+    {
+        Store newYork = storeAt(40.71, -74.00);
+        Store losAngeles = storeAt(34.05, -118.24);
+
+        List<Store> distantStores = new ArrayList<>();
+        distantStores.add(newYork);
+        distantStores.add(losAngeles);
+
+        instance = StoreClusters.of(distantStores);
+
+        List<StoreClusters.Cluster> tile = getTileContaining(newYork, 6);
+
+        assertThat(tile.size(), is(1));
+        assertThat(tile.get(0).getStore(), is(newYork));
+    }
+
+    @DontRepeat
+    @Test
+    public void testGetTileWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.getTile(-1, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.getTile(StoreClusters.MAX_ZOOM + 1, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.getTile(0, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.getTile(0, 0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.getTile(3, -1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.getTile(3, 0, 8)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testCheckTile() throws Exception
+    {
+        int zoom = one(integers(0, StoreClusters.MAX_ZOOM + 1));
+        int tiles = 1 << zoom;
+
+        StoreClusters.checkTile(zoom, tiles - 1, tiles - 1);
+        StoreClusters.checkTile(zoom, 0, 0);
+
+        assertThrows(() -> StoreClusters.checkTile(zoom, tiles, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> StoreClusters.checkTile(zoom, 0, tiles)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testProjection() throws Exception
+    {
+        double latitude = one(doubles(-85, 85));
+        double longitude = one(doubles(-180, 180));
+
+        double x = StoreClusters.xOf(longitude);
+        double y = StoreClusters.yOf(latitude);
+
+        assertThat(x, greaterThanOrEqualTo(0.0));
+        assertThat(x, lessThan(1.0));
+        assertThat(y, greaterThanOrEqualTo(0.0));
+        assertThat(y, lessThan(1.0));
+
+        assertThat(StoreClusters.longitudeOf(x), closeTo(longitude, 0.000001));
+        assertThat(StoreClusters.latitudeOf(y), closeTo(latitude, 0.000001));
+    }
+
+    @DontRepeat
+    @Test
+    public void testProjectionAtEdges() throws Exception
+    {
+        assertThat(StoreClusters.xOf(180), lessThan(1.0));
+        assertThat(StoreClusters.yOf(90), greaterThanOrEqualTo(0.0));
+        assertThat(StoreClusters.yOf(-90), lessThan(1.0));
+        assertThat(StoreClusters.yOf(0), closeTo(0.5, 0.000001));
+    }
+
+    private List<StoreClusters.Cluster> getTileContaining(Store store, int zoom)
+    {
+        Location location = store.getLocation();
+        int tiles = 1 << zoom;
+
+        int x = (int) Math.floor(StoreClusters.xOf(location.getLongitude()) * tiles);
+        int y = (int) Math.floor(StoreClusters.yOf(location.getLatitude()) * tiles);
+
+        return instance.getTile(zoom, x, y);
+    }
+
+    private static Store storeAt(double latitude, double longitude)
+    {
+        return Store.Builder.fromStore(one(stores()))
+                            .withLocation(Location.with(latitude, longitude))
+                            .build();
+    }
+
+    private static int countOf(List<StoreClusters.Cluster> tile)
+    {
+        return tile.stream().mapToInt(StoreClusters.Cluster::getCount).sum();
+    }
+
+}
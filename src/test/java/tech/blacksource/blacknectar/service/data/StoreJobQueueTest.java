@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+import static tech.sirwellington.alchemy.test.junit.runners.GenerateString.Type.ALPHABETIC;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class StoreJobQueueTest
+{
+
+    @Mock
+    private JdbcTemplate database;
+
+    @Mock
+    private SQLStoreMapper storeMapper;
+
+    @GenerateString(ALPHABETIC)
+    private String jobType;
+
+    @GenerateString(ALPHABETIC)
+    private String workerId;
+
+    @GenerateString
+    private String reason;
+
+    private Store store;
+    private UUID storeId;
+    private List<Store> stores;
+    private int batchSize;
+
+    private StoreJobQueue instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        store = one(stores());
+        storeId = UUID.fromString(store.getStoreId());
+        stores = listOf(stores());
+        batchSize = one(integers(1, 100));
+
+        instance = new StoreJobQueue(database, storeMapper);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new StoreJobQueue(null, storeMapper)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreJobQueue(database, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testCreateTableIfMissing() throws Exception
+    {
+        instance.createTableIfMissing();
+
+        verify(database).execute(SQLQueries.CREATE_STORE_JOBS_TABLE);
+    }
+
+    @Test
+    public void testEnqueueAllStores() throws Exception
+    {
+        int added = one(integers(0, 1_000));
+        when(database.update(SQLQueries.ENQUEUE_STORE_JOBS, jobType)).thenReturn(added);
+
+        int result = instance.enqueueAllStores(jobType);
+        assertThat(result, is(added));
+    }
+
+    @Test
+    public void testRequeueAll() throws Exception
+    {
+        int requeued = one(integers(0, 1_000));
+        when(database.update(SQLQueries.REQUEUE_STORE_JOBS, jobType, StoreJobQueue.LEASE_SECONDS)).thenReturn(requeued);
+
+        int result = instance.requeueAll(jobType);
+        assertThat(result, is(requeued));
+
+        assertThrows(() -> instance.requeueAll("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testFailExpired() throws Exception
+    {
+        int expired = one(integers(0, 1_000));
+        when(database.update(eq(SQLQueries.FAIL_EXPIRED_STORE_JOBS),
+                             anyString(),
+                             eq(jobType),
+                             eq(StoreJobQueue.MAX_ATTEMPTS),
+                             eq(StoreJobQueue.LEASE_SECONDS)))
+                .thenReturn(expired);
+
+        int result = instance.failExpired(jobType);
+        assertThat(result, is(expired));
+
+        assertThrows(() -> instance.failExpired("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testClaim() throws Exception
+    {
+        when(database.query(SQLQueries.CLAIM_STORE_JOBS,
+                            storeMapper,
+                            workerId,
+                            jobType,
+                            StoreJobQueue.MAX_ATTEMPTS,
+                            StoreJobQueue.LEASE_SECONDS,
+                            batchSize))
+                .thenReturn(stores);
+
+        List<Store> result = instance.claim(jobType, workerId, batchSize);
+        assertThat(result, is(stores));
+    }
+
+    @Test
+    public void testClaimWhenNothingLeft() throws Exception
+    {
+        List<Store> result = instance.claim(jobType, workerId, batchSize);
+
+        assertThat(result, notNullValue());
+        assertThat(result, is(empty()));
+    }
+
+    @DontRepeat
+    @Test
+    public void testClaimWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.claim("", workerId, batchSize)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.claim(jobType, "", batchSize)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.claim(jobType, workerId, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testComplete() throws Exception
+    {
+        when(database.update(SQLQueries.COMPLETE_STORE_JOB, jobType, storeId, workerId)).thenReturn(1);
+
+        assertThat(instance.complete(jobType, store, workerId), is(true));
+    }
+
+    @Test
+    public void testCompleteWhenJobWasTakenOver() throws Exception
+    {
+        when(database.update(SQLQueries.COMPLETE_STORE_JOB, jobType, storeId, workerId)).thenReturn(0);
+
+        assertThat(instance.complete(jobType, store, workerId), is(false));
+    }
+
+    @Test
+    public void testFail() throws Exception
+    {
+        when(database.update(SQLQueries.FAIL_STORE_JOB, reason, jobType, storeId, workerId)).thenReturn(1);
+
+        assertThat(instance.fail(jobType, store, workerId, reason), is(true));
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.boundingBoxes;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.doubles;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class ViewportSamplingTest
+{
+
+    private BoundingBox box;
+
+    private List<Store> stores;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        box = one(boundingBoxes());
+        stores = new ArrayList<>();
+
+        for (int i = 0; i < 100; ++i)
+        {
+            stores.add(storeInside(box));
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(ViewportSampling::new).isInstanceOf(IllegalAccessException.class);
+    }
+
+    @Test
+    public void testCellSize() throws Exception
+    {
+        assertThat(ViewportSampling.cellWidthOf(box), closeTo(box.getLongitudeSpan() / ViewportSampling.GRID_SIZE, 0.000001));
+        assertThat(ViewportSampling.cellHeightOf(box), closeTo(box.getLatitudeSpan() / ViewportSampling.GRID_SIZE, 0.000001));
+    }
+
+    @DontRepeat
+    @Test
+    public void testCellSizeOfEmptyBox() throws Exception
+    {
+        BoundingBox point = BoundingBox.of(10, 20, 10, 20);
+
+        assertThat(ViewportSampling.cellWidthOf(point), greaterThan(0.0));
+        assertThat(ViewportSampling.cellHeightOf(point), greaterThan(0.0));
+    }
+
+    @Test
+    public void testSampleWithoutLimit() throws Exception
+    {
+        List<Store> result = ViewportSampling.sample(stores, box, 0);
+
+        assertThat(result.size(), is(stores.size()));
+        assertThat(new HashSet<>(result), is(new HashSet<>(stores)));
+    }
+
+    @Test
+    public void testSampleWithLimit() throws Exception
+    {
+        int limit = one(integers(1, stores.size()));
+
+        List<Store> result = ViewportSampling.sample(stores, box, limit);
+
+        assertThat(result.size(), is(limit));
+        assertThat(stores.containsAll(result), is(true));
+    }
+
+    @Test
+    public void testSampleIsStable() throws Exception
+    {
+        List<Store> shuffled = new ArrayList<>(stores);
+        Collections.shuffle(shuffled);
+
+        assertThat(ViewportSampling.sample(shuffled, box, 10), is(ViewportSampling.sample(stores, box, 10)));
+    }
+
+    @Test
+    public void testSampleSpreadsAcrossTheBox() throws Exception
+    {
+        //Thousands of Stores crowded into one corner, and a single one in the opposite corner
+        List<Store> crowded = new ArrayList<>();
+        BoundingBox corner = BoundingBox.of(box.getMinLongitude(),
+                                            box.getMinLatitude(),
+                                            box.getMinLongitude() + box.getLongitudeSpan() / 100,
+                                            box.getMinLatitude() + box.getLatitudeSpan() / 100);
+
+        for (int i = 0; i < 1_000; ++i)
+        {
+            crowded.add(storeInside(corner));
+        }
+
+        Store lonely = Store.Builder.fromStore(one(stores()))
+                                    .withLocation(Location.with(box.getMaxLatitude(), box.getMaxLongitude()))
+                                    .build();
+        crowded.add(lonely);
+
+        List<Store> result = ViewportSampling.sample(crowded, box, 5);
+
+        assertThat(result.size(), is(5));
+        assertThat(result, hasItem(lonely));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSampleWithBadArgs() throws Exception
+    {
+        assertThrows(() -> ViewportSampling.sample(null, box, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ViewportSampling.sample(stores, null, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ViewportSampling.sample(stores, box, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Store storeInside(BoundingBox box)
+    {
+        double latitude = box.getLatitudeSpan() > 0
+                          ? one(doubles(box.getMinLatitude(), box.getMaxLatitude()))
+                          : box.getMinLatitude();
+        double longitude = box.getLongitudeSpan() > 0
+                           ? one(doubles(box.getMinLongitude(), box.getMaxLongitude()))
+                           : box.getMinLongitude();
+
+        return Store.Builder.fromStore(one(stores()))
+                            .withLocation(Location.with(latitude, longitude))
+                            .build();
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.data;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.exceptions.OperationFailedException;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.*;
+import static org.mockito.Answers.RETURNS_MOCKS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class WriteBehindStoreRepositoryTest
+{
+
+    private static final int CAPACITY = 1_000;
+    private static final int BATCH_SIZE = 1_000;
+
+    @Mock(answer = RETURNS_MOCKS)
+    private Aroma aroma;
+
+    @Mock
+    private StoreRepository delegate;
+
+    @Mock
+    private StoreBatchWriter batchWriter;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private List<Store> stores;
+    private Store store;
+
+    private WriteBehindStoreRepository instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stores = listOf(stores(), 10);
+        store = Lists.oneOf(stores);
+
+        instance = new WriteBehindStoreRepository(aroma, delegate, batchWriter, scheduler, CAPACITY, BATCH_SIZE);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new WriteBehindStoreRepository(null, delegate, batchWriter, scheduler, CAPACITY, BATCH_SIZE))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new WriteBehindStoreRepository(aroma, delegate, batchWriter, scheduler, 0, BATCH_SIZE))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new WriteBehindStoreRepository(aroma, delegate, batchWriter, scheduler, CAPACITY, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testSchedulesFlush() throws Exception
+    {
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    public void testWritesAreBuffered() throws Exception
+    {
+        stores.forEach(instance::addStore);
+
+        verifyZeroInteractions(delegate, batchWriter);
+        assertThat(instance.getPendingWrites(), is(stores.size()));
+        assertTrue(instance.containsStore(store.getStoreId()));
+    }
+
+    @Test
+    public void testFlush() throws Exception
+    {
+        stores.forEach(instance::addStore);
+
+        instance.flush();
+
+        verify(batchWriter).upsertStores(stores);
+        assertThat(instance.getPendingWrites(), is(0));
+    }
+
+    @Test
+    public void testFlushReportsTotals() throws Exception
+    {
+        instance.flush();
+
+        //Even with nothing left to write, so that a script always gets its totals.
+        verifyZeroInteractions(batchWriter);
+        verify(aroma).begin();
+    }
+
+    @Test
+    public void testScheduledFlushesDoNotReportTotals() throws Exception
+    {
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).scheduleWithFixedDelay(flush.capture(), anyLong(), anyLong(), any());
+
+        flush.getValue().run();
+
+        verify(aroma, never()).begin();
+    }
+
+    @Test
+    public void testWritesAreCoalesced() throws Exception
+    {
+        instance.addStore(store);
+        instance.updateStore(store);
+        instance.deleteStore(store.getStoreId());
+
+        assertThat(instance.getPendingWrites(), is(1));
+        assertFalse(instance.containsStore(store.getStoreId()));
+
+        instance.flush();
+
+        verify(batchWriter).deleteStores(Lists.createFrom(store.getStoreId()));
+        verify(batchWriter, never()).upsertStores(any());
+    }
+
+    @Test
+    public void testFlushCountsWrites() throws Exception
+    {
+        stores.forEach(instance::addStore);
+        instance.deleteStore(one(stores()).getStoreId());
+
+        instance.flush();
+
+        assertThat(instance.getStoresWritten(), is(stores.size()));
+        assertThat(instance.getStoresDeleted(), is(1));
+        assertThat(instance.getDuplicatesSkipped(), is(0));
+        assertThat(instance.getWritesDropped(), is(0));
+    }
+
+    @Test
+    public void testFlushSkipsDuplicates() throws Exception
+    {
+        when(batchWriter.upsertStores(stores)).thenReturn(Lists.createFrom(store));
+
+        stores.forEach(instance::addStore);
+        instance.flush();
+
+        verify(batchWriter, times(1)).upsertStores(any());
+        verifyZeroInteractions(delegate);
+
+        assertThat(instance.getStoresWritten(), is(stores.size() - 1));
+        assertThat(instance.getDuplicatesSkipped(), is(1));
+        assertThat(instance.getWritesDropped(), is(0));
+    }
+
+    @Test
+    public void testFlushFallsBackToSingleWrites() throws Exception
+    {
+        doThrow(new OperationFailedException()).when(batchWriter).upsertStores(stores);
+
+        stores.forEach(instance::addStore);
+        instance.flush();
+
+        stores.forEach(s -> verify(batchWriter).upsertStores(Lists.createFrom(s)));
+        verifyZeroInteractions(delegate);
+
+        assertThat(instance.getStoresWritten(), is(stores.size()));
+        assertThat(instance.getWritesDropped(), is(0));
+    }
+
+    @Test
+    public void testFlushWhenSingleWritesFail() throws Exception
+    {
+        doThrow(new OperationFailedException()).when(batchWriter).upsertStores(any());
+
+        stores.forEach(instance::addStore);
+        instance.flush();
+
+        assertThat(instance.getStoresWritten(), is(0));
+        assertThat(instance.getWritesDropped(), is(stores.size()));
+    }
+
+    @Test
+    public void testFlushFallsBackToSingleDeletes() throws Exception
+    {
+        List<String> storeIds = stores.stream().map(Store::getStoreId).collect(toList());
+        doThrow(new OperationFailedException()).when(batchWriter).deleteStores(storeIds);
+        doThrow(new OperationFailedException()).when(batchWriter).deleteStores(Lists.createFrom(store.getStoreId()));
+
+        storeIds.forEach(instance::deleteStore);
+        instance.flush();
+
+        storeIds.forEach(storeId -> verify(batchWriter).deleteStores(Lists.createFrom(storeId)));
+        verifyZeroInteractions(delegate);
+
+        assertThat(instance.getStoresDeleted(), is(stores.size() - 1));
+        assertThat(instance.getWritesDropped(), is(1));
+    }
+
+    @Test
+    public void testFlushTriggeredBySize() throws Exception
+    {
+        instance = new WriteBehindStoreRepository(aroma, delegate, batchWriter, scheduler, CAPACITY, 1);
+
+        instance.addStore(store);
+
+        verify(scheduler).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void testClose() throws Exception
+    {
+        stores.forEach(instance::addStore);
+
+        instance.close();
+
+        verify(batchWriter).upsertStores(stores);
+        verify(scheduler).shutdown();
+
+        assertThrows(() -> instance.addStore(store))
+                .isInstanceOf(OperationFailedException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testAddStoreWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.addStore(null))
+                .isInstanceOf(BadArgumentException.class);
+
+        assertThrows(() -> instance.deleteStore("not-a-uuid"))
+                .isInstanceOf(BadArgumentException.class);
+    }
+
+}
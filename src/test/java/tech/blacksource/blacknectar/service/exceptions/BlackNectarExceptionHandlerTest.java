@@ -23,6 +23,7 @@ import org.mockito.*;
 import spark.Request;
 import spark.Response;
 import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.sirwellington.alchemy.test.junit.runners.AlchemyTestRunner;
 import tech.sirwellington.alchemy.test.junit.runners.Repeat;
 
@@ -104,6 +105,20 @@ public class BlackNectarExceptionHandlerTest
         testWithException(ex);
     }
 
+    @Test
+    public void testHandleServiceOverloaded()
+    {
+        String message = one(alphabeticString());
+        ServiceOverloadedException ex = new ServiceOverloadedException(message, 3);
+
+        instance.handle(ex, httpRequest, httpResponse);
+
+        verify(httpResponse).status(503);
+        verify(httpResponse).header(Responses.Headers.RETRY_AFTER, "3");
+        verify(httpResponse).body(message);
+        verifyZeroInteractions(aroma);
+    }
+
     private void testWithException(Exception ex)
     {
         instance.handle(ex, httpRequest, httpResponse);
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.images;
+
+import java.net.URL;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NetworkGenerators.httpUrls;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.positiveLongs;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class ImageIdsTest
+{
+
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        url = one(httpUrls());
+    }
+
+    @DontRepeat
+    @Test
+    public void testCannotInstantiate() throws Exception
+    {
+        assertThrows(ImageIds::new).isInstanceOf(IllegalAccessException.class);
+    }
+
+    @Test
+    public void testForURL() throws Exception
+    {
+        String result = ImageIds.forURL(url);
+
+        assertThat(result.matches("[0-9a-f]{16}"), is(true));
+        assertThat(ImageIds.forURL(new URL(url.toString())), is(result));
+    }
+
+    @Test
+    public void testForURLMatchesTheOldURLId() throws Exception
+    {
+        //Images that were saved with their URL as the ID must hash to the same key.
+        long expected = ImageIds.toKey(ImageIds.forURL(url));
+        long result = ImageIds.toKey(url.toString());
+
+        assertThat(result, is(expected));
+    }
+
+    @DontRepeat
+    @Test
+    public void testToKeyUsesTheFirstHalfOfMD5() throws Exception
+    {
+        //MD5("abc") = 900150983cd24fb0d6963f7d28e17f72
+        long result = ImageIds.toKey("abc");
+
+        assertThat(ImageIds.fromKey(result), is("900150983cd24fb0"));
+    }
+
+    @Test
+    public void testFromKey() throws Exception
+    {
+        long key = one(positiveLongs());
+
+        String imageId = ImageIds.fromKey(key);
+        assertThat(imageId.length(), is(16));
+        assertThat(ImageIds.toKey(imageId), is(key));
+
+        //Keys with the high bit set are negative in the database.
+        String negativeId = ImageIds.fromKey(-key);
+        assertThat(negativeId.length(), is(16));
+        assertThat(ImageIds.toKey(negativeId), is(-key));
+    }
+
+    @Test
+    public void testToKeyIgnoresCase() throws Exception
+    {
+        long key = one(positiveLongs());
+        String imageId = ImageIds.fromKey(key);
+
+        assertThat(ImageIds.toKey(imageId.toUpperCase()), is(key));
+        assertThat(ImageIds.toKey(ImageIds.forURL(url).toUpperCase()), is(ImageIds.toKey(url.toString())));
+    }
+
+    @DontRepeat
+    @Test
+    public void testWithBadArgs() throws Exception
+    {
+        assertThrows(() -> ImageIds.forURL(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ImageIds.toKey(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ImageIds.toKey("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
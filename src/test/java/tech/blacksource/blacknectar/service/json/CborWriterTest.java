@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.json;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * The expected encodings are the examples from Appendix A of RFC 7049.
+ *
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class CborWriterTest
+{
+
+    private List<JsonObject> elements;
+
+    private ByteArrayOutputStream out;
+
+    private CborWriter instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        elements = listOf(stores(), 10).stream()
+                                       .map(Store::asJSON)
+                                       .collect(toList());
+
+        out = new ByteArrayOutputStream();
+        instance = new CborWriter(out);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new CborWriter(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testIntegers() throws Exception
+    {
+        assertThat(hexOf(new JsonPrimitive(0)), is("00"));
+        assertThat(hexOf(new JsonPrimitive(23)), is("17"));
+        assertThat(hexOf(new JsonPrimitive(24)), is("1818"));
+        assertThat(hexOf(new JsonPrimitive(100)), is("1864"));
+        assertThat(hexOf(new JsonPrimitive(1000)), is("1903e8"));
+        assertThat(hexOf(new JsonPrimitive(1000000)), is("1a000f4240"));
+        assertThat(hexOf(new JsonPrimitive(1000000000000L)), is("1b000000e8d4a51000"));
+        assertThat(hexOf(new JsonPrimitive(-1)), is("20"));
+        assertThat(hexOf(new JsonPrimitive(-100)), is("3863"));
+        assertThat(hexOf(new JsonPrimitive(-1000)), is("3903e7"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testFloatingPointNumbers() throws Exception
+    {
+        assertThat(hexOf(new JsonPrimitive(1.1)), is("fb3ff199999999999a"));
+        assertThat(hexOf(new JsonPrimitive(-4.1)), is("fbc010666666666666"));
+        assertThat(hexOf(new JsonPrimitive(100000.0)), is("1a000186a0"));
+        assertThat(hexOf(new JsonPrimitive(1.5)), is("fa3fc00000"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSimpleValues() throws Exception
+    {
+        assertThat(hexOf(new JsonPrimitive(false)), is("f4"));
+        assertThat(hexOf(new JsonPrimitive(true)), is("f5"));
+        assertThat(hexOf(JsonNull.INSTANCE), is("f6"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testText() throws Exception
+    {
+        assertThat(hexOf(new JsonPrimitive("")), is("60"));
+        assertThat(hexOf(new JsonPrimitive("a")), is("6161"));
+        assertThat(hexOf(new JsonPrimitive("IETF")), is("6449455446"));
+        assertThat(hexOf(new JsonPrimitive("\"\\")), is("62225c"));
+        assertThat(hexOf(new JsonPrimitive("\u00fc")), is("62c3bc"));
+        assertThat(hexOf(new JsonPrimitive("\u6c34")), is("63e6b0b4"));
+        assertThat(hexOf(new JsonPrimitive("\ud800\udd51")), is("64f0908591"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testUnpairedSurrogatesAreReplaced() throws Exception
+    {
+        String text = "a\ud800b";
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+
+        byte[] result = CborWriter.toBytes(new JsonPrimitive(text));
+
+        assertThat(result[0], is((byte) (0x60 | expected.length)));
+        assertThat(Arrays.copyOfRange(result, 1, result.length), is(expected));
+    }
+
+    @Test
+    public void testTextLongerThanBuffer() throws Exception
+    {
+        String text = Strings.repeat("\u6c34bc", 5_000);
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+
+        byte[] result = CborWriter.toBytes(new JsonPrimitive(text));
+
+        //0x79 means the length follows in 2 bytes.
+        assertThat(result.length, is(utf8.length + 3));
+        assertThat(result[0], is((byte) 0x79));
+        assertThat(((result[1] & 0xFF) << 8) | (result[2] & 0xFF), is(utf8.length));
+        assertThat(new String(result, 3, utf8.length, StandardCharsets.UTF_8), is(text));
+    }
+
+    @DontRepeat
+    @Test
+    public void testArraysAndMaps() throws Exception
+    {
+        JsonArray array = new JsonArray();
+        array.add(new JsonPrimitive(1));
+        array.add(new JsonPrimitive(2));
+        array.add(new JsonPrimitive(3));
+
+        assertThat(hexOf(new JsonArray()), is("80"));
+        assertThat(hexOf(array), is("83010203"));
+
+        JsonArray nested = new JsonArray();
+        nested.add(new JsonPrimitive(2));
+        nested.add(new JsonPrimitive(3));
+
+        JsonObject object = new JsonObject();
+        object.add("a", new JsonPrimitive(1));
+        object.add("b", nested);
+
+        assertThat(hexOf(new JsonObject()), is("a0"));
+        assertThat(hexOf(object), is("a26161016162820203"));
+    }
+
+    @Test
+    public void testWriteArrayHeader() throws Exception
+    {
+        JsonArray array = new JsonArray();
+        elements.forEach(array::add);
+
+        instance.writeArrayHeader(elements.size());
+        elements.forEach(instance::write);
+        instance.flush();
+
+        assertThat(out.toByteArray(), is(CborWriter.toBytes(array)));
+    }
+
+    @Test
+    public void testIsSmallerThanJSON() throws Exception
+    {
+        for (JsonObject element : elements)
+        {
+            byte[] json = element.toString().getBytes(StandardCharsets.UTF_8);
+
+            assertThat(CborWriter.toBytes(element).length, lessThan(json.length));
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.write(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.writeArrayHeader(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> CborWriter.toBytes(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String hexOf(JsonElement element)
+    {
+        return BaseEncoding.base16().lowerCase().encode(CborWriter.toBytes(element));
+    }
+
+}
@@ -17,6 +17,7 @@
 package tech.blacksource.blacknectar.service.json;
 
 import java.util.List;
+import java.util.stream.IntStream;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonPrimitive;
@@ -79,5 +80,19 @@ public class JSONTest
         assertThat(result, is(expected));
     }
 
+    @DontRepeat
+    @Test
+    public void testCollectArrayInParallel() throws Exception
+    {
+        JsonArray expected = new JsonArray();
+        IntStream.range(0, 10_000).forEach(expected::add);
+
+        JsonArray result = IntStream.range(0, 10_000)
+                                    .parallel()
+                                    .mapToObj(JsonPrimitive::new)
+                                    .collect(JSON.collectArray());
+
+        assertThat(result, is(expected));
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.json;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.data.MediaTypes;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class JsonStreamWriterTest
+{
+
+    private List<JsonObject> elements;
+
+    private StringWriter out;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        elements = listOf(stores(), 10).stream()
+                                       .map(Store::asJSON)
+                                       .collect(toList());
+
+        out = new StringWriter();
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new JsonStreamWriter(null, JsonStreamWriter.Format.ARRAY))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new JsonStreamWriter(out, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testWriteArray() throws Exception
+    {
+        JsonStreamWriter instance = JsonStreamWriter.arrayTo(out);
+
+        instance.begin();
+        elements.forEach(instance::write);
+        instance.end();
+
+        String expected = elements.stream().collect(JSON.collectArray()).toString();
+
+        assertThat(out.toString(), is(expected));
+        assertThat(instance.getCount(), is(elements.size()));
+    }
+
+    @Test
+    public void testWriteLines() throws Exception
+    {
+        JsonStreamWriter instance = new JsonStreamWriter(out, JsonStreamWriter.Format.LINES);
+
+        instance.begin();
+        elements.forEach(instance::write);
+        instance.end();
+
+        String expected = elements.stream()
+                                  .map(element -> element.toString() + "\n")
+                                  .collect(joining());
+
+        assertThat(out.toString(), is(expected));
+        assertThat(instance.getCount(), is(elements.size()));
+    }
+
+    @Test
+    public void testWriteSerialized() throws Exception
+    {
+        JsonStreamWriter instance = JsonStreamWriter.arrayTo(out);
+
+        instance.begin();
+        elements.forEach(element -> instance.writeSerialized(element.toString()));
+        instance.end();
+
+        String expected = elements.stream().collect(JSON.collectArray()).toString();
+
+        assertThat(out.toString(), is(expected));
+    }
+
+    @DontRepeat
+    @Test
+    public void testWriteEmptyArray() throws Exception
+    {
+        JsonStreamWriter instance = JsonStreamWriter.arrayTo(out);
+
+        instance.begin();
+        instance.end();
+
+        assertThat(out.toString(), is("[]"));
+        assertThat(instance.getCount(), is(0));
+    }
+
+    @Test
+    public void testFlushesAfterEachElement() throws Exception
+    {
+        List<String> flushed = new ArrayList<>();
+        Writer flushRecorder = new StringWriter()
+        {
+            @Override
+            public void flush()
+            {
+                flushed.add(toString());
+            }
+        };
+
+        JsonStreamWriter instance = new JsonStreamWriter(flushRecorder, JsonStreamWriter.Format.LINES);
+        instance.begin();
+        elements.forEach(instance::write);
+
+        //Everything written so far always ends on a whole element.
+        assertThat(flushed.size(), is(elements.size()));
+        flushed.forEach(text -> assertThat(text.endsWith("\n"), is(true)));
+    }
+
+    @Test
+    public void testRecording() throws Exception
+    {
+        JsonStreamWriter.Recording recording = new JsonStreamWriter.Recording(() -> true);
+        JsonStreamWriter instance = JsonStreamWriter.arrayTo(out);
+        instance.recordTo(recording);
+
+        instance.begin();
+        elements.subList(0, 5).forEach(instance::write);
+        elements.subList(5, elements.size()).forEach(element -> instance.writeSerialized(element.toString()));
+        instance.end();
+
+        StringWriter lines = new StringWriter();
+        int count = recording.writeTo(new JsonStreamWriter(lines, JsonStreamWriter.Format.LINES));
+
+        String expected = elements.stream()
+                                  .map(Object::toString)
+                                  .collect(joining("\n", "", "\n"));
+
+        assertThat(count, is(elements.size()));
+        assertThat(lines.toString(), is(expected));
+    }
+
+    @Test
+    public void testRecordingWhenNotWanted() throws Exception
+    {
+        JsonStreamWriter.Recording recording = new JsonStreamWriter.Recording(() -> false);
+        JsonStreamWriter instance = JsonStreamWriter.arrayTo(out);
+        instance.recordTo(recording);
+
+        assertThat(recording.isKept(), is(true));
+
+        instance.begin();
+        elements.forEach(instance::write);
+        instance.end();
+
+        assertThat(recording.isKept(), is(false));
+        assertThrows(() -> recording.writeTo(JsonStreamWriter.arrayTo(new StringWriter())))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testWhenWriterFails() throws Exception
+    {
+        Writer failing = mock(Writer.class);
+        doThrow(new IOException()).when(failing).write(anyString());
+
+        JsonStreamWriter instance = JsonStreamWriter.arrayTo(failing);
+
+        assertThrows(instance::begin)
+                .isInstanceOf(UncheckedIOException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testFormatMediaTypes() throws Exception
+    {
+        assertThat(JsonStreamWriter.Format.ARRAY.getMediaType(), is(MediaTypes.APPLICATION_JSON));
+        assertThat(JsonStreamWriter.Format.LINES.getMediaType(), is(MediaTypes.APPLICATION_NDJSON));
+    }
+
+}
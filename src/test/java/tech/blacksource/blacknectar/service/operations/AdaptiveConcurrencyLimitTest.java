@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.concurrent.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class AdaptiveConcurrencyLimitTest
+{
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private int initialLimit;
+
+    private AdaptiveConcurrencyLimit instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        initialLimit = one(integers(10, 50));
+
+        instance = new AdaptiveConcurrencyLimit(initialLimit, 1, 1_000, 0, 0);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructorWithBadArgs() throws Exception
+    {
+        assertThrows(() -> new AdaptiveConcurrencyLimit(10, 0, 100, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new AdaptiveConcurrencyLimit(5, 10, 100, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new AdaptiveConcurrencyLimit(200, 10, 100, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new AdaptiveConcurrencyLimit(10, 1, 100, -1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new AdaptiveConcurrencyLimit(10, 1, 100, 0, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testRejectsOverLimit() throws Exception
+    {
+        for (int i = 0; i < initialLimit; ++i)
+        {
+            assertTrue(instance.tryAcquire());
+        }
+
+        assertFalse(instance.tryAcquire());
+        assertThat(instance.getInFlight(), is(initialLimit));
+        assertThat(instance.getRejections(), is(1L));
+    }
+
+    @Test
+    public void testReleaseFreesSlot() throws Exception
+    {
+        fill(instance);
+        assertFalse(instance.tryAcquire());
+
+        instance.release(0, false);
+
+        assertTrue(instance.tryAcquire());
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyStaysLow() throws Exception
+    {
+        for (int round = 0; round < 10; ++round)
+        {
+            int acquired = fill(instance);
+
+            for (int i = 0; i < acquired; ++i)
+            {
+                instance.release(10 * MILLIS, false);
+            }
+        }
+
+        assertThat(instance.getLimit(), greaterThan(initialLimit));
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() throws Exception
+    {
+        //Establish the latency without load first.
+        for (int i = 0; i < AdaptiveConcurrencyLimit.WARM_UP_SAMPLES; ++i)
+        {
+            instance.tryAcquire();
+            instance.release(10 * MILLIS, false);
+        }
+
+        for (int round = 0; round < 10; ++round)
+        {
+            int acquired = fill(instance);
+
+            for (int i = 0; i < acquired; ++i)
+            {
+                instance.release(100 * MILLIS, false);
+            }
+        }
+
+        assertThat(instance.getLimit(), lessThan(initialLimit));
+    }
+
+    @Test
+    public void testLimitWithMixedLatencies() throws Exception
+    {
+        instance = new AdaptiveConcurrencyLimit(initialLimit, 1, AdmissionControl.MAX_LIMIT, 0, 0);
+
+        //Most searches are small, and some cover a whole city. Neither means anything is queueing.
+        long[] latencies = { 5 * MILLIS, 5 * MILLIS, 5 * MILLIS, 5 * MILLIS, 100 * MILLIS };
+        int next = 0;
+
+        for (int round = 0; round < 20; ++round)
+        {
+            int acquired = fill(instance);
+
+            for (int i = 0; i < acquired; ++i)
+            {
+                instance.release(latencies[next++ % latencies.length], false);
+            }
+        }
+
+        int limit = instance.getLimit();
+        assertThat(limit, greaterThan(initialLimit));
+
+        //The same mix, all of it four times slower.
+        for (int round = 0; round < 3; ++round)
+        {
+            int acquired = fill(instance);
+
+            for (int i = 0; i < acquired; ++i)
+            {
+                instance.release(4 * latencies[next++ % latencies.length], false);
+            }
+        }
+
+        assertThat(instance.getLimit(), lessThan(limit));
+    }
+
+    @Test
+    public void testReleaseWithoutLatency() throws Exception
+    {
+        for (int round = 0; round < 10; ++round)
+        {
+            int acquired = fill(instance);
+
+            for (int i = 0; i < acquired; ++i)
+            {
+                instance.release(0, false);
+            }
+        }
+
+        assertThat(instance.getLimit(), is(initialLimit));
+        assertThat(instance.getInFlight(), is(0));
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhenUnused() throws Exception
+    {
+        for (int i = 0; i < 100; ++i)
+        {
+            instance.tryAcquire();
+            instance.release(10 * MILLIS, false);
+        }
+
+        assertThat(instance.getLimit(), is(initialLimit));
+    }
+
+    @Test
+    public void testFailuresBackOff() throws Exception
+    {
+        instance.tryAcquire();
+        instance.release(10 * MILLIS, true);
+
+        assertThat(instance.getLimit(), lessThan(initialLimit));
+    }
+
+    @Test
+    public void testLimitStaysWithinBounds() throws Exception
+    {
+        instance = new AdaptiveConcurrencyLimit(initialLimit, initialLimit - 5, initialLimit, 0, 0);
+
+        for (int i = 0; i < 100; ++i)
+        {
+            instance.tryAcquire();
+            instance.release(10 * MILLIS, true);
+        }
+
+        assertThat(instance.getLimit(), is(initialLimit - 5));
+    }
+
+    @DontRepeat
+    @Test
+    public void testQueuedRequestGetsSlotWhenReleased() throws Exception
+    {
+        instance = new AdaptiveConcurrencyLimit(1, 1, 1, 1, 5_000);
+        assertTrue(instance.tryAcquire());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            Future<Boolean> waiting = executor.submit(instance::tryAcquire);
+
+            while (instance.getQueued() == 0)
+            {
+                Thread.sleep(1);
+            }
+
+            //Only one request may wait.
+            assertFalse(instance.tryAcquire());
+
+            instance.release(MILLIS, false);
+
+            assertTrue(waiting.get(5, TimeUnit.SECONDS));
+            assertThat(instance.getInFlight(), is(1));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testQueuedRequestTimesOut() throws Exception
+    {
+        instance = new AdaptiveConcurrencyLimit(1, 1, 1, 1, 10);
+        assertTrue(instance.tryAcquire());
+
+        assertFalse(instance.tryAcquire());
+        assertThat(instance.getQueued(), is(0));
+        assertThat(instance.getRejections(), is(1L));
+    }
+
+    private int fill(AdaptiveConcurrencyLimit limit) throws InterruptedException
+    {
+        int acquired = 0;
+
+        while (limit.tryAcquire())
+        {
+            ++acquired;
+        }
+
+        return acquired;
+    }
+
+}
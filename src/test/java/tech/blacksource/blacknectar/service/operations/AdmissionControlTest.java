@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import spark.*;
+import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.data.Deadline;
+import tech.blacksource.blacknectar.service.exceptions.*;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Answers.RETURNS_MOCKS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class AdmissionControlTest
+{
+
+    @Mock(answer = RETURNS_MOCKS)
+    private Aroma aroma;
+
+    @Mock
+    private Route route;
+
+    @Mock
+    private Request request;
+
+    @Mock
+    private Response response;
+
+    private String name;
+    private String body;
+    private AdaptiveConcurrencyLimit limit;
+
+    private AdmissionControl instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        name = "/" + one(alphabeticString());
+        body = one(alphabeticString());
+        limit = new AdaptiveConcurrencyLimit(10, 1, 10, 0, 0);
+
+        when(route.handle(request, response)).thenReturn(body);
+
+        Map<String, Object> attributes = new HashMap<>();
+        doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+                .when(request).attribute(anyString(), any());
+        when(request.attribute(anyString()))
+                .thenAnswer(invocation -> attributes.get((String) invocation.getArguments()[0]));
+
+        instance = new AdmissionControl(aroma)
+        {
+            @Override
+            AdaptiveConcurrencyLimit newLimit(String name)
+            {
+                return limit;
+            }
+        };
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new AdmissionControl(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testLimit() throws Exception
+    {
+        Route limited = instance.limit(name, route);
+
+        Object result = limited.handle(request, response);
+
+        assertThat(result, is(body));
+        assertThat(limit.getInFlight(), is(0));
+        assertThat(instance.getLimit(name), is(10));
+        assertThat(instance.getRejections(name), is(0L));
+    }
+
+    @DontRepeat
+    @Test
+    public void testLimitWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.limit("", route)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.limit(name, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testLimitWhenFull() throws Exception
+    {
+        Route limited = instance.limit(name, route);
+
+        while (limit.tryAcquire())
+        {
+        }
+
+        assertThrows(() -> limited.handle(request, response))
+                .isInstanceOf(ServiceOverloadedException.class);
+
+        verify(route, never()).handle(request, response);
+        verify(aroma).begin();
+        assertThat(instance.getRejections(name), is(1L));
+    }
+
+    @Test
+    public void testFailuresLowerTheLimit() throws Exception
+    {
+        when(route.handle(request, response))
+                .thenAnswer(invocation -> AdmissionControl.sample(request, null, () ->
+                {
+                    throw new OperationFailedException();
+                }));
+
+        Route limited = instance.limit(name, route);
+
+        assertThrows(() -> limited.handle(request, response))
+                .isInstanceOf(OperationFailedException.class);
+
+        assertThat(limit.getInFlight(), is(0));
+        assertThat(instance.getLimit(name), lessThan(10));
+    }
+
+    @Test
+    public void testBadArgumentsDoNotLowerTheLimit() throws Exception
+    {
+        when(route.handle(request, response))
+                .thenAnswer(invocation -> AdmissionControl.sample(request, null, () ->
+                {
+                    throw new BadArgumentException();
+                }));
+
+        Route limited = instance.limit(name, route);
+
+        assertThrows(() -> limited.handle(request, response))
+                .isInstanceOf(BadArgumentException.class);
+
+        assertThat(limit.getInFlight(), is(0));
+        assertThat(instance.getLimit(name), is(10));
+    }
+
+    @Test
+    public void testCancelledRequestsDoNotLowerTheLimit() throws Exception
+    {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        deadline.cancel();
+
+        when(route.handle(request, response))
+                .thenAnswer(invocation -> AdmissionControl.sample(request, deadline, () ->
+                {
+                    deadline.checkNotDone();
+                    return body;
+                }));
+
+        Route limited = instance.limit(name, route);
+
+        assertThrows(() -> limited.handle(request, response))
+                .isInstanceOf(DeadlineExceededException.class);
+
+        assertThat(instance.getLimit(name), is(10));
+    }
+
+    @Test
+    public void testRequestsThatDoNotReachTheBackendAreNotSampled() throws Exception
+    {
+        //For example a search that is rejected before it runs.
+        when(route.handle(request, response)).thenThrow(new OperationFailedException());
+
+        Route limited = instance.limit(name, route);
+
+        assertThrows(() -> limited.handle(request, response))
+                .isInstanceOf(OperationFailedException.class);
+
+        assertThat(limit.getInFlight(), is(0));
+        assertThat(instance.getLimit(name), is(10));
+    }
+
+    @Test
+    public void testSample() throws Exception
+    {
+        Object result = AdmissionControl.sample(request, null, () -> body);
+
+        assertThat(result, is(body));
+    }
+
+    @Test
+    public void testSampleGivesBackTheSlotBeforeTheResponseIsWritten() throws Exception
+    {
+        when(route.handle(request, response))
+                .thenAnswer(invocation ->
+                {
+                    Object result = AdmissionControl.sample(request, null, () ->
+                    {
+                        assertThat(limit.getInFlight(), is(1));
+                        return body;
+                    });
+
+                    //Writing the response to a slow client no longer holds the slot.
+                    assertThat(limit.getInFlight(), is(0));
+                    return result;
+                });
+
+        Route limited = instance.limit(name, route);
+
+        assertThat(limited.handle(request, response), is(body));
+        assertThat(limit.getInFlight(), is(0));
+    }
+
+    @Test
+    public void testSampleGivesBackTheSlotWhenCallFails() throws Exception
+    {
+        when(route.handle(request, response))
+                .thenAnswer(invocation ->
+                {
+                    try
+                    {
+                        return AdmissionControl.sample(request, null, () ->
+                        {
+                            throw new OperationFailedException();
+                        });
+                    }
+                    finally
+                    {
+                        assertThat(limit.getInFlight(), is(0));
+                    }
+                });
+
+        Route limited = instance.limit(name, route);
+
+        assertThrows(() -> limited.handle(request, response))
+                .isInstanceOf(OperationFailedException.class);
+
+        assertThat(limit.getInFlight(), is(0));
+        assertThat(instance.getLimit(name), lessThan(10));
+    }
+
+    @Test
+    public void testCallsThatDidNotReachTheBackendGiveBackTheirSlot() throws Exception
+    {
+        when(route.handle(request, response))
+                .thenAnswer(invocation -> AdmissionControl.sample(request, null, () -> body, result -> false));
+
+        Route limited = instance.limit(name, route);
+
+        for (int i = 0; i < AdaptiveConcurrencyLimit.WARM_UP_SAMPLES * 2; ++i)
+        {
+            limited.handle(request, response);
+        }
+
+        assertThat(limit.getInFlight(), is(0));
+        assertThat(instance.getLimit(name), is(10));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSampleWithBadArgs() throws Exception
+    {
+        assertThrows(() -> AdmissionControl.sample(null, null, () -> body)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> AdmissionControl.sample(request, null, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> AdmissionControl.sample(request, null, () -> body, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testRoutesWithSameNameShareLimit() throws Exception
+    {
+        instance.limit(name, route);
+        instance.limit(name, mock(Route.class));
+
+        assertThat(instance.getLimit(name), is(10));
+        assertThat(instance.getLimit(name + "-other"), is(0));
+    }
+
+}
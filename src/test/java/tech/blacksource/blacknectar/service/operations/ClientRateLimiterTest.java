@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import spark.Request;
+import tech.blacksource.blacknectar.service.exceptions.TooManyRequestsException;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NetworkGenerators.ip4Addresses;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class ClientRateLimiterTest
+{
+
+    private static final double CAPACITY = 10;
+    private static final double REFILL_PER_SECOND = 2;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    @Mock
+    private Request request;
+
+    private AtomicLong now;
+    private String ip;
+
+    private ClientRateLimiter instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        now = new AtomicLong(System.currentTimeMillis());
+        ip = one(ip4Addresses());
+
+        when(request.ip()).thenReturn(ip);
+
+        instance = new ClientRateLimiter(CAPACITY, REFILL_PER_SECOND, now::get, scheduler, false);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        verify(scheduler).scheduleWithFixedDelay(any(), anyLong(), anyLong(), eq(TimeUnit.MINUTES));
+
+        assertThrows(() -> new ClientRateLimiter(0, REFILL_PER_SECOND, now::get, scheduler, false)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new ClientRateLimiter(CAPACITY, 0, now::get, scheduler, false)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new ClientRateLimiter(CAPACITY, REFILL_PER_SECOND, null, scheduler, false)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new ClientRateLimiter(CAPACITY, REFILL_PER_SECOND, now::get, null, false)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSpendWithinCapacity() throws Exception
+    {
+        for (int i = 0; i < CAPACITY; ++i)
+        {
+            instance.spend(request, 1);
+        }
+
+        assertThat(instance.size(), is(1));
+    }
+
+    @Test
+    public void testSpendOverCapacity() throws Exception
+    {
+        instance.spend(request, CAPACITY);
+
+        try
+        {
+            instance.spend(request, 1);
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException ex)
+        {
+            //One token comes back every half a second.
+            assertThat(ex.getRetryAfterSeconds(), is(1));
+            assertThat(ex.getStatusCode(), is(429));
+        }
+    }
+
+    @Test
+    public void testExpensiveRequestsCostMore() throws Exception
+    {
+        instance.spend(request, CAPACITY / 2);
+        instance.spend(request, CAPACITY / 2);
+
+        assertThrows(() -> instance.spend(request, CAPACITY / 2))
+                .isInstanceOf(TooManyRequestsException.class);
+    }
+
+    @Test
+    public void testBucketsRefill() throws Exception
+    {
+        instance.spend(request, CAPACITY);
+
+        now.addAndGet(1_001);
+
+        instance.spend(request, REFILL_PER_SECOND);
+
+        assertThrows(() -> instance.spend(request, 1))
+                .isInstanceOf(TooManyRequestsException.class);
+    }
+
+    @Test
+    public void testClientsHaveSeparateBuckets() throws Exception
+    {
+        instance.spend(request, CAPACITY);
+
+        Request otherRequest = mock(Request.class);
+        when(otherRequest.ip()).thenReturn(ip + ".other");
+
+        instance.spend(otherRequest, CAPACITY);
+
+        assertThat(instance.size(), is(2));
+    }
+
+    @Test
+    public void testClientsBehindTheProxyHaveSeparateBuckets() throws Exception
+    {
+        instance = new ClientRateLimiter(CAPACITY, REFILL_PER_SECOND, now::get, scheduler, true);
+
+        Request proxied = mock(Request.class);
+        when(proxied.ip()).thenReturn("127.0.0.1");
+        when(proxied.headers(Parameters.Headers.FORWARDED_FOR)).thenReturn("10.0.0.1, " + ip);
+
+        Request otherProxied = mock(Request.class);
+        when(otherProxied.ip()).thenReturn("127.0.0.1");
+        when(otherProxied.headers(Parameters.Headers.FORWARDED_FOR)).thenReturn(ip + ".other");
+
+        instance.spend(proxied, CAPACITY);
+        instance.spend(otherProxied, CAPACITY);
+
+        //The same client, directly and through the proxy.
+        assertThrows(() -> instance.spend(request, 1))
+                .isInstanceOf(TooManyRequestsException.class);
+
+        assertThat(instance.size(), is(2));
+    }
+
+    @Test
+    public void testForwardedForIsIgnoredFromOtherHosts() throws Exception
+    {
+        instance = new ClientRateLimiter(CAPACITY, REFILL_PER_SECOND, now::get, scheduler, true);
+
+        String someoneElse = one(ip4Addresses());
+        when(request.headers(Parameters.Headers.FORWARDED_FOR)).thenReturn(someoneElse);
+
+        Request fromSomeoneElse = mock(Request.class);
+        when(fromSomeoneElse.ip()).thenReturn(someoneElse + ".other");
+
+        instance.spend(request, CAPACITY);
+        instance.spend(fromSomeoneElse, CAPACITY);
+
+        assertThat(instance.size(), is(2));
+    }
+
+    @Test
+    public void testForwardedForIsIgnoredWhenNotBehindTheProxy() throws Exception
+    {
+        Request local = mock(Request.class);
+        when(local.ip()).thenReturn("127.0.0.1");
+        when(local.headers(Parameters.Headers.FORWARDED_FOR)).thenReturn(ip);
+
+        Request otherLocal = mock(Request.class);
+        when(otherLocal.ip()).thenReturn("127.0.0.1");
+        when(otherLocal.headers(Parameters.Headers.FORWARDED_FOR)).thenReturn(ip + ".other");
+
+        instance.spend(local, CAPACITY);
+
+        //Without the proxy, anything on the host is the same client, whatever it claims.
+        assertThrows(() -> instance.spend(otherLocal, 1))
+                .isInstanceOf(TooManyRequestsException.class);
+
+        assertThat(instance.size(), is(1));
+    }
+
+    @Test
+    public void testCostIsCappedAtCapacity() throws Exception
+    {
+        instance.spend(request, CAPACITY * 10);
+
+        assertThrows(() -> instance.spend(request, 1))
+                .isInstanceOf(TooManyRequestsException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testSpendWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.spend((Request) null, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.spend(request, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testEvictIdleBuckets() throws Exception
+    {
+        instance.spend(request, CAPACITY);
+
+        instance.evictIdleBuckets();
+        assertThat(instance.size(), is(1));
+
+        //Once the bucket has refilled, it's no different from a new one.
+        now.addAndGet((long) (CAPACITY / REFILL_PER_SECOND * 1_000) + 1);
+
+        instance.evictIdleBuckets();
+        assertThat(instance.size(), is(0));
+    }
+
+}
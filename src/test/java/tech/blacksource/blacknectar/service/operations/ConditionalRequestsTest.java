@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import spark.Request;
+import spark.Response;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.positiveLongs;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class ConditionalRequestsTest
+{
+
+    @Mock
+    private Request request;
+
+    @Mock
+    private Response response;
+
+    @GenerateString
+    private String key;
+
+    private long version;
+
+    private String etag;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        version = one(positiveLongs());
+        etag = ConditionalRequests.etagOf(version, key);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(ConditionalRequests::new).isInstanceOf(IllegalAccessException.class);
+    }
+
+    @Test
+    public void testEtagOf() throws Exception
+    {
+        assertThat(etag.startsWith("\"" + version + "-"), is(true));
+        assertThat(etag.endsWith("\""), is(true));
+        assertThat(ConditionalRequests.etagOf(version, key), is(etag));
+        assertThat(ConditionalRequests.etagOf(version + 1, key), not(etag));
+        assertThat(ConditionalRequests.etagOf(version, key + "|gzip"), not(etag));
+    }
+
+    @Test
+    public void testEtagOfContent() throws Exception
+    {
+        String result = ConditionalRequests.etagOf(key);
+
+        assertThat(result.startsWith("\""), is(true));
+        assertThat(result.endsWith("\""), is(true));
+        assertThat(ConditionalRequests.etagOf(key), is(result));
+        assertThat(ConditionalRequests.etagOf(key + "a"), not(result));
+    }
+
+    @DontRepeat
+    @Test
+    public void testEtagOfWithBadArgs() throws Exception
+    {
+        assertThrows(() -> ConditionalRequests.etagOf(-1, key)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ConditionalRequests.etagOf(version, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> ConditionalRequests.etagOf(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testIsNotModified() throws Exception
+    {
+        assertThat(ConditionalRequests.isNotModified(request, etag), is(false));
+
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn(etag);
+        assertThat(ConditionalRequests.isNotModified(request, etag), is(true));
+    }
+
+    @DontRepeat
+    @Test
+    public void testMatches() throws Exception
+    {
+        assertThat(ConditionalRequests.matches("\"abc\"", "\"abc\""), is(true));
+        assertThat(ConditionalRequests.matches("W/\"abc\"", "\"abc\""), is(true));
+        assertThat(ConditionalRequests.matches("\"xyz\", \"abc\"", "\"abc\""), is(true));
+        assertThat(ConditionalRequests.matches("*", "\"abc\""), is(true));
+
+        assertThat(ConditionalRequests.matches(null, "\"abc\""), is(false));
+        assertThat(ConditionalRequests.matches("", "\"abc\""), is(false));
+        assertThat(ConditionalRequests.matches("\"abcd\"", "\"abc\""), is(false));
+        assertThat(ConditionalRequests.matches("abc", "\"abc\""), is(false));
+    }
+
+    @DontRepeat
+    @Test
+    public void testNotModified() throws Exception
+    {
+        Object result = ConditionalRequests.notModified(response);
+
+        assertThat(result, is(""));
+        verify(response).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testTag() throws Exception
+    {
+        ConditionalRequests.tag(response, etag, "public, max-age=60");
+
+        verify(response).header(Responses.Headers.ETAG, etag);
+        verify(response).header(Responses.Headers.CACHE_CONTROL, "public, max-age=60");
+    }
+
+}
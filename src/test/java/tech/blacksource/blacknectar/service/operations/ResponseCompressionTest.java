@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import spark.Request;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.blacksource.blacknectar.service.operations.ResponseCompression.Encoding;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class ResponseCompressionTest
+{
+
+    @Mock
+    private Request request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    private ByteArrayOutputStream output;
+
+    private byte[] body;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        output = new ByteArrayOutputStream();
+
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener)
+            {
+            }
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                output.write(b);
+            }
+        });
+
+        StringBuilder text = new StringBuilder();
+
+        while (text.length() < ResponseCompression.MIN_BYTES * 4)
+        {
+            text.append(one(alphabeticString()));
+        }
+
+        body = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(ResponseCompression::new).isInstanceOf(IllegalAccessException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testNegotiate() throws Exception
+    {
+        assertThat(ResponseCompression.negotiate((String) null), is(Encoding.IDENTITY));
+        assertThat(ResponseCompression.negotiate(""), is(Encoding.IDENTITY));
+        assertThat(ResponseCompression.negotiate("br"), is(Encoding.IDENTITY));
+        assertThat(ResponseCompression.negotiate("gzip"), is(Encoding.GZIP));
+        assertThat(ResponseCompression.negotiate("deflate"), is(Encoding.DEFLATE));
+        assertThat(ResponseCompression.negotiate("gzip, deflate, br"), is(Encoding.GZIP));
+        assertThat(ResponseCompression.negotiate("deflate, gzip;q=0.5"), is(Encoding.DEFLATE));
+        assertThat(ResponseCompression.negotiate("gzip;q=0, deflate"), is(Encoding.DEFLATE));
+        assertThat(ResponseCompression.negotiate("*"), is(Encoding.GZIP));
+        assertThat(ResponseCompression.negotiate("gzip;q=0, *;q=0"), is(Encoding.IDENTITY));
+        assertThat(ResponseCompression.negotiate("x-gzip"), is(Encoding.GZIP));
+    }
+
+    @DontRepeat
+    @Test
+    public void testNegotiateWithRequest() throws Exception
+    {
+        when(request.headers(Parameters.Headers.ACCEPT_ENCODING)).thenReturn("gzip");
+
+        assertThat(ResponseCompression.negotiate(request), is(Encoding.GZIP));
+    }
+
+    @Test
+    public void testCompressWithGzip() throws Exception
+    {
+        ResponseCompression.CompressingOutputStream out = ResponseCompression.compress(response, Encoding.GZIP);
+        out.write(body);
+        out.finish();
+
+        assertTrue(out.isCompressing());
+        assertThat(gunzip(output.toByteArray()), is(body));
+        assertThat(output.size(), lessThan(body.length));
+        verify(response).setHeader(Responses.Headers.CONTENT_ENCODING, "gzip");
+    }
+
+    @Test
+    public void testCompressWithDeflate() throws Exception
+    {
+        ResponseCompression.CompressingOutputStream out = ResponseCompression.compress(response, Encoding.DEFLATE);
+        out.write(body);
+        out.finish();
+
+        assertThat(inflate(output.toByteArray()), is(body));
+        verify(response).setHeader(Responses.Headers.CONTENT_ENCODING, "deflate");
+    }
+
+    @Test
+    public void testCompressWhenSmall() throws Exception
+    {
+        byte[] small = one(alphabeticString(10)).getBytes(StandardCharsets.UTF_8);
+
+        ResponseCompression.CompressingOutputStream out = ResponseCompression.compress(response, Encoding.GZIP);
+        out.write(small);
+        out.finish();
+
+        assertFalse(out.isCompressing());
+        assertThat(output.toByteArray(), is(small));
+        verify(response, never()).setHeader(eq(Responses.Headers.CONTENT_ENCODING), anyString());
+    }
+
+    @Test
+    public void testCompressWithIdentity() throws Exception
+    {
+        ResponseCompression.CompressingOutputStream out = ResponseCompression.compress(response, Encoding.IDENTITY);
+        out.write(body);
+        out.finish();
+
+        assertFalse(out.isCompressing());
+        assertThat(output.toByteArray(), is(body));
+        verify(response, never()).setHeader(eq(Responses.Headers.CONTENT_ENCODING), anyString());
+    }
+
+    @Test
+    public void testDeflated() throws Exception
+    {
+        ResponseCompression.Deflated deflated = ResponseCompression.Deflated.of(body);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        deflated.writeTo(gzip, Encoding.GZIP);
+
+        assertThat(gunzip(gzip.toByteArray()), is(body));
+        assertThat(gzip.size(), is(deflated.lengthAs(Encoding.GZIP)));
+
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        deflated.writeTo(zlib, Encoding.DEFLATE);
+
+        assertThat(inflate(zlib.toByteArray()), is(body));
+        assertThat(zlib.size(), is(deflated.lengthAs(Encoding.DEFLATE)));
+    }
+
+    @DontRepeat
+    @Test
+    public void testDeflatedWithIdentity() throws Exception
+    {
+        ResponseCompression.Deflated deflated = ResponseCompression.Deflated.of(body);
+
+        assertThrows(() -> deflated.writeTo(output, Encoding.IDENTITY))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private byte[] gunzip(byte[] bytes) throws IOException
+    {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes)))
+        {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private byte[] inflate(byte[] bytes) throws IOException
+    {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes)))
+        {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+}
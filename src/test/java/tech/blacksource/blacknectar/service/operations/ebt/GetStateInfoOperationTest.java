@@ -28,10 +28,13 @@ import sir.wellington.alchemy.collections.sets.Sets;
 import spark.Request;
 import spark.Response;
 import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.blacksource.blacknectar.ebt.balance.*;
 import tech.blacksource.blacknectar.service.data.MediaTypes;
 import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.json.CborWriter;
 import tech.blacksource.blacknectar.service.json.JSON;
+import tech.blacksource.blacknectar.service.operations.ConditionalRequests;
 import tech.blacksource.blacknectar.service.operations.Parameters;
 import tech.sirwellington.alchemy.generator.*;
 import tech.sirwellington.alchemy.test.junit.runners.*;
@@ -109,11 +112,49 @@ public class GetStateInfoOperationTest
     @Test
     public void handle() throws Exception
     {
-        JsonElement result = instance.handle(request, response);
+        JsonElement result = (JsonElement) instance.handle(request, response);
         checkResultIsExpected(result);
         verify(response).type(MediaTypes.APPLICATION_JSON);
     }
 
+    @Test
+    public void testHandleSetsETag() throws Exception
+    {
+        JsonElement result = (JsonElement) instance.handle(request, response);
+
+        verify(response).header(Responses.Headers.ETAG, ConditionalRequests.etagOf(result.toString()));
+        verify(response).header(eq(Responses.Headers.CACHE_CONTROL), anyString());
+    }
+
+    @Test
+    public void testHandleWhenNotModified() throws Exception
+    {
+        JsonElement first = (JsonElement) instance.handle(request, response);
+
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH))
+                .thenReturn(ConditionalRequests.etagOf(first.toString()));
+
+        Object result = instance.handle(request, response);
+        assertThat(result, is(""));
+        verify(response).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleWithCbor() throws Exception
+    {
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_CBOR);
+
+        Object result = instance.handle(request, response);
+
+        JsonArray expected = features.stream()
+                                     .map(StateWebsite.Feature::toString)
+                                     .map(JsonPrimitive::new)
+                                     .collect(JSON.collectArray());
+
+        assertThat(result, is(CborWriter.toBytes(expected)));
+        verify(response).type(MediaTypes.APPLICATION_CBOR);
+    }
+
     @DontRepeat
     @Test
     public void testWhenRequestIsNull() throws Exception
@@ -160,7 +201,7 @@ public class GetStateInfoOperationTest
 
         when(request.params(Parameters.EBT.STATE)).thenReturn(stateParameter);
 
-        JsonElement result = instance.handle(request, response);
+        JsonElement result = (JsonElement) instance.handle(request, response);
 
         checkResultIsExpected(result);
         verify(response).type(MediaTypes.APPLICATION_JSON);
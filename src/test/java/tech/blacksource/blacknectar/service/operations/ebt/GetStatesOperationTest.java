@@ -29,11 +29,15 @@ import sir.wellington.alchemy.collections.sets.Sets;
 import spark.Request;
 import spark.Response;
 import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.blacksource.blacknectar.ebt.balance.State;
 import tech.blacksource.blacknectar.ebt.balance.StateWebsiteFactory;
 import tech.blacksource.blacknectar.service.data.MediaTypes;
 import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.json.CborWriter;
 import tech.blacksource.blacknectar.service.json.EBTJsonSerializer;
+import tech.blacksource.blacknectar.service.operations.ConditionalRequests;
+import tech.blacksource.blacknectar.service.operations.Parameters;
 import tech.sirwellington.alchemy.generator.*;
 import tech.sirwellington.alchemy.test.junit.runners.*;
 
@@ -116,7 +120,7 @@ public class GetStatesOperationTest
     @Test
     public void handle() throws Exception
     {
-        JsonArray result = instance.handle(request, response);
+        JsonArray result = (JsonArray) instance.handle(request, response);
         assertThat(result, notNullValue());
         assertThat(result.size(), greaterThan(0));
         assertThat(result.size(), is(states.size()));
@@ -133,11 +137,48 @@ public class GetStatesOperationTest
     {
         when(websiteFactory.getSupportedStates()).thenReturn(Sets.emptySet());
 
-        JsonArray result = instance.handle(request, response);
+        JsonArray result = (JsonArray) instance.handle(request, response);
         assertThat(result, notNullValue());
         assertThat(result.size(), is(0));
     }
 
+    @Test
+    public void testHandleSetsETag() throws Exception
+    {
+        JsonArray result = (JsonArray) instance.handle(request, response);
+
+        String expectedETag = ConditionalRequests.etagOf(result.toString());
+        verify(response).header(Responses.Headers.ETAG, expectedETag);
+        verify(response).header(eq(Responses.Headers.CACHE_CONTROL), anyString());
+        verify(response, never()).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleWhenNotModified() throws Exception
+    {
+        JsonArray first = (JsonArray) instance.handle(request, response);
+        String etag = ConditionalRequests.etagOf(first.toString());
+
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn(etag);
+
+        Object result = instance.handle(request, response);
+        assertThat(result, is(""));
+        verify(response).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleWithCbor() throws Exception
+    {
+        JsonArray json = (JsonArray) instance.handle(request, response);
+
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_CBOR);
+
+        Object result = instance.handle(request, response);
+        assertThat(result, is(CborWriter.toBytes(json)));
+        verify(response).type(MediaTypes.APPLICATION_CBOR);
+        verify(response, times(2)).header(Responses.Headers.VARY, Parameters.Headers.ACCEPT);
+    }
+
     @Test
     public void testHandleWithBadArgs() throws Exception
     {
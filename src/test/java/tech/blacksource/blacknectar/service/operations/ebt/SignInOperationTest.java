@@ -16,8 +16,12 @@ package tech.blacksource.blacknectar.service.operations.ebt;/*
  */
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.gson.JsonObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,16 +34,19 @@ import tech.aroma.client.Aroma;
 import tech.blacksource.blacknectar.ebt.balance.*;
 import tech.blacksource.blacknectar.service.BlackNectarGenerators;
 import tech.blacksource.blacknectar.service.Responses;
-import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
-import tech.blacksource.blacknectar.service.exceptions.UnsupportedStateException;
+import tech.blacksource.blacknectar.service.data.Deadline;
+import tech.blacksource.blacknectar.service.exceptions.*;
 import tech.blacksource.blacknectar.service.json.EBTJsonSerializer;
 import tech.blacksource.blacknectar.service.json.OperationResult;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
 import tech.blacksource.blacknectar.service.operations.Parameters;
 import tech.sirwellington.alchemy.test.junit.runners.*;
 
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
 import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
@@ -71,6 +78,11 @@ public class SignInOperationTest
     @Mock
     private StateWebsite stateWebsite;
 
+    @Mock
+    private ClientDisconnectMonitor disconnectMonitor;
+
+    private ExecutorService executor;
+
     @GenerateString
     private String requestBody;
 
@@ -87,7 +99,15 @@ public class SignInOperationTest
         setupData();
         setupMocks();
 
-        instance = new SignInOperation(aroma, jsonSerializer, websiteFactory);
+        executor = Executors.newCachedThreadPool();
+
+        instance = new SignInOperation(aroma, jsonSerializer, websiteFactory, disconnectMonitor, executor);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
     }
 
 
@@ -121,9 +141,11 @@ public class SignInOperationTest
     @Test
     public void testConstructor() throws Exception
     {
-        assertThrows(() -> new SignInOperation(null, jsonSerializer, websiteFactory));
-        assertThrows(() -> new SignInOperation(aroma, null, websiteFactory));
-        assertThrows(() -> new SignInOperation(aroma, jsonSerializer, null));
+        assertThrows(() -> new SignInOperation(null, jsonSerializer, websiteFactory, disconnectMonitor, executor));
+        assertThrows(() -> new SignInOperation(aroma, null, websiteFactory, disconnectMonitor, executor));
+        assertThrows(() -> new SignInOperation(aroma, jsonSerializer, null, disconnectMonitor, executor));
+        assertThrows(() -> new SignInOperation(aroma, jsonSerializer, websiteFactory, null, executor));
+        assertThrows(() -> new SignInOperation(aroma, jsonSerializer, websiteFactory, disconnectMonitor, null));
     }
 
     @Test
@@ -156,6 +178,57 @@ public class SignInOperationTest
         assertThat(response.isSuccess(), is(false));
     }
 
+    @Test
+    public void testHandleWatchesForDisconnects() throws Exception
+    {
+        instance.handle(request, response);
+
+        verify(disconnectMonitor).watch(eq(request), any(Deadline.class));
+    }
+
+    @DontRepeat
+    @Test
+    public void testWhenSignInRunsPastDeadline() throws Exception
+    {
+        when(request.headers(Parameters.Headers.REQUEST_TIMEOUT)).thenReturn("50");
+
+        doAnswer(invocation ->
+        {
+            Thread.sleep(5_000);
+            return null;
+        }).when(stateWebsite).signIn(any(Account.class));
+
+        long begin = System.currentTimeMillis();
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(DeadlineExceededException.class);
+
+        assertThat(System.currentTimeMillis() - begin < 2_000, is(true));
+    }
+
+    @DontRepeat
+    @Test
+    public void testWhenClientDisconnects() throws Exception
+    {
+        AtomicReference<Deadline> deadline = new AtomicReference<>();
+
+        when(disconnectMonitor.watch(eq(request), any(Deadline.class))).then(invocation ->
+        {
+            deadline.set((Deadline) invocation.getArguments()[1]);
+            return null;
+        });
+
+        doAnswer(invocation ->
+        {
+            deadline.get().cancel();
+            Thread.sleep(5_000);
+            return null;
+        }).when(stateWebsite).signIn(any(Account.class));
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+
     @Test
     public void testWhenNoFieldValuesFound() throws Exception
     {
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import sir.wellington.alchemy.collections.lists.Lists;
+import spark.Request;
+import spark.Response;
+import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.blacksource.blacknectar.service.data.*;
+import tech.blacksource.blacknectar.service.exceptions.BadArgumentException;
+import tech.blacksource.blacknectar.service.exceptions.DeadlineExceededException;
+import tech.blacksource.blacknectar.service.exceptions.ServiceOverloadedException;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.positiveLongs;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class GetStoreTileOperationTest
+{
+
+    private Aroma aroma;
+
+    @Mock
+    private StoreRepository storeRepository;
+
+    @Mock
+    private DatasetVersion datasetVersion;
+
+    @Mock
+    private Request request;
+
+    @Mock
+    private Response response;
+
+    @Mock
+    private ClientDisconnectMonitor disconnectMonitor;
+
+    private StoreTiles tiles;
+
+    private List<Store> stores;
+
+    private long version;
+
+    private GetStoreTileOperation instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        aroma = Aroma.createNoOpInstance();
+
+        stores = listOf(stores(), 30);
+        version = one(positiveLongs());
+
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.fresh(stores));
+        when(storeRepository.isServingStaleData()).thenReturn(false);
+        when(datasetVersion.getVersion()).thenReturn(version);
+        when(datasetVersion.isKnown()).thenReturn(true);
+
+        requestTile(0, 0, 0);
+
+        setupInstance();
+    }
+
+    /**
+     * The clusters are built as soon as the tiles are created, so this is called again by tests that change the Stores.
+     */
+    private void setupInstance()
+    {
+        Executor rebuilder = Runnable::run;
+        tiles = new StoreTiles(storeRepository, new StoreChanges(), datasetVersion, rebuilder);
+
+        instance = new GetStoreTileOperation(aroma, tiles, disconnectMonitor);
+    }
+
+    private void requestTile(int zoom, int x, int y)
+    {
+        when(request.params(Parameters.Tiles.ZOOM)).thenReturn(String.valueOf(zoom));
+        when(request.params(Parameters.Tiles.X)).thenReturn(String.valueOf(x));
+        when(request.params(Parameters.Tiles.Y)).thenReturn(String.valueOf(y));
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new GetStoreTileOperation(null, tiles, disconnectMonitor));
+        assertThrows(() -> new GetStoreTileOperation(aroma, null, disconnectMonitor));
+        assertThrows(() -> new GetStoreTileOperation(aroma, tiles, null));
+    }
+
+    @Test
+    public void testHandle() throws Exception
+    {
+        JsonObject tile = handleAsJSON();
+
+        assertThat(tile.get("zoom").getAsInt(), is(0));
+        assertThat(tile.get("x").getAsInt(), is(0));
+        assertThat(tile.get("y").getAsInt(), is(0));
+        assertThat(tile.get("version").getAsLong(), is(version));
+
+        JsonArray clusters = tile.getAsJsonArray("clusters");
+        JsonArray storesInTile = tile.getAsJsonArray("stores");
+
+        int total = storesInTile.size();
+
+        for (JsonElement cluster : clusters)
+        {
+            JsonObject object = cluster.getAsJsonObject();
+            assertThat(object.has("latitude"), is(true));
+            assertThat(object.has("longitude"), is(true));
+
+            total += object.get("count").getAsInt();
+        }
+
+        assertThat(total, is(stores.size()));
+
+        verify(response).type(MediaTypes.APPLICATION_JSON);
+        verify(response).header(Responses.Headers.VARY, Parameters.Headers.ACCEPT);
+    }
+
+    @Test
+    public void testHandleAtDeepZoom() throws Exception
+    {
+        Store store = stores.get(0);
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.fresh(Lists.createFrom(store)));
+        setupInstance();
+
+        StoreClusters.Cluster point = tiles.getSnapshot().getClusters().getTile(0, 0, 0).get(0);
+        int zoom = one(integers(StoreClusters.MAX_CLUSTER_ZOOM + 1, StoreClusters.MAX_ZOOM + 1));
+        int size = 1 << zoom;
+
+        requestTile(zoom, (int) Math.floor(point.getX() * size), (int) Math.floor(point.getY() * size));
+
+        JsonObject tile = handleAsJSON();
+
+        assertThat(tile.getAsJsonArray("clusters").size(), is(0));
+
+        JsonArray storesInTile = tile.getAsJsonArray("stores");
+        assertThat(storesInTile.size(), is(1));
+
+        JsonObject json = storesInTile.get(0).getAsJsonObject();
+        assertThat(json.get("store_id").getAsString(), is(store.getStoreId()));
+        assertThat(json.has("location"), is(true));
+    }
+
+    @Test
+    public void testHandleWithPackedFormat() throws Exception
+    {
+        when(request.queryParams(GetStoreTileOperation.QueryKeys.PACKED)).thenReturn("true");
+
+        JsonObject tile = handleAsJSON();
+
+        assertThat(tile.get("extent").getAsInt(), is(GetStoreTileOperation.EXTENT));
+
+        JsonArray clusters = tile.getAsJsonArray("clusters");
+        JsonArray storesInTile = tile.getAsJsonArray("stores");
+        JsonArray storePoints = tile.getAsJsonArray("store_points");
+
+        assertThat(clusters.size() % 3, is(0));
+        assertThat(storePoints.size(), is(storesInTile.size() * 2));
+
+        int total = storesInTile.size();
+
+        for (int i = 0; i < clusters.size(); i += 3)
+        {
+            assertInsideTile(clusters.get(i).getAsInt());
+            assertInsideTile(clusters.get(i + 1).getAsInt());
+            total += clusters.get(i + 2).getAsInt();
+        }
+
+        assertThat(total, is(stores.size()));
+
+        for (JsonElement position : storePoints)
+        {
+            assertInsideTile(position.getAsInt());
+        }
+
+        for (JsonElement store : storesInTile)
+        {
+            assertThat(store.getAsJsonObject().has("location"), is(false));
+        }
+    }
+
+    @Test
+    public void testHandleWithCbor() throws Exception
+    {
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_CBOR);
+
+        Object result = instance.handle(request, response);
+
+        assertThat(result instanceof byte[], is(true));
+        assertThat(((byte[]) result).length, greaterThan(0));
+        verify(response).type(MediaTypes.APPLICATION_CBOR);
+    }
+
+    @Test
+    public void testHandleCachesTiles() throws Exception
+    {
+        Object first = instance.handle(request, response);
+        Object second = instance.handle(request, response);
+
+        assertThat(second, is(first));
+        assertThat(tiles.getSnapshot().getTotalTiles(), is(1));
+
+        when(request.queryParams(GetStoreTileOperation.QueryKeys.PACKED)).thenReturn("true");
+        instance.handle(request, response);
+
+        assertThat(tiles.getSnapshot().getTotalTiles(), is(2));
+        verify(storeRepository, times(1)).fetchAllStores();
+    }
+
+    @Test
+    public void testHandleSetsETag() throws Exception
+    {
+        instance.handle(request, response);
+
+        String etag = captureETag();
+        assertThat(etag.startsWith("\"" + version + "-"), is(true));
+
+        verify(response).header(Responses.Headers.CACHE_CONTROL, "public, max-age=3600");
+    }
+
+    @Test
+    public void testHandleWhenNotModified() throws Exception
+    {
+        instance.handle(request, response);
+        String etag = captureETag();
+
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn(etag);
+
+        Object result = instance.handle(request, response);
+
+        assertThat(result, is(""));
+        verify(response).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleWhenETagIsFromAnotherFormat() throws Exception
+    {
+        instance.handle(request, response);
+        String etag = captureETag();
+
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn(etag);
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_CBOR);
+
+        Object result = instance.handle(request, response);
+
+        assertThat(result instanceof byte[], is(true));
+        verify(response, never()).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleWithVersionedURL() throws Exception
+    {
+        when(request.queryParams(GetStoreTileOperation.QueryKeys.VERSION)).thenReturn(String.valueOf(version));
+
+        instance.handle(request, response);
+
+        verify(response).header(eq(Responses.Headers.CACHE_CONTROL), Mockito.contains("immutable"));
+    }
+
+    @Test
+    public void testHandleWithOldVersionInURL() throws Exception
+    {
+        when(request.queryParams(GetStoreTileOperation.QueryKeys.VERSION)).thenReturn(String.valueOf(version - 1));
+
+        instance.handle(request, response);
+
+        verify(response, never()).header(eq(Responses.Headers.CACHE_CONTROL), Mockito.contains("immutable"));
+    }
+
+    @Test
+    public void testHandleWhenServingStaleData() throws Exception
+    {
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.stale(stores));
+        setupInstance();
+
+        JsonObject tile = handleAsJSON();
+
+        assertThat(tile.has("version"), is(false));
+        verify(response, never()).header(eq(Responses.Headers.ETAG), anyString());
+        verify(response).header(Responses.Headers.CACHE_CONTROL, "no-cache");
+        verify(response).header(Responses.Headers.WARNING, Responses.Headers.STALE_WARNING);
+    }
+
+    @Test
+    public void testHandleWhileClustersAreBeingBuilt() throws Exception
+    {
+        Executor queue = mock(Executor.class);
+        tiles = new StoreTiles(storeRepository, new StoreChanges(), datasetVersion, queue);
+        instance = new GetStoreTileOperation(aroma, tiles, disconnectMonitor);
+
+        try
+        {
+            instance.handle(request, response);
+            fail("Expected ServiceOverloadedException");
+        }
+        catch (ServiceOverloadedException ex)
+        {
+            assertThat(ex.getStatusCode(), is(503));
+            assertThat(ex.getRetryAfterSeconds(), is(StoreTiles.RETRY_AFTER_SECONDS));
+        }
+
+        verify(storeRepository, never()).fetchAllStores();
+    }
+
+    @Test
+    public void testHandleWatchesForDisconnects() throws Exception
+    {
+        instance.handle(request, response);
+
+        verify(disconnectMonitor).watch(eq(request), any(Deadline.class));
+    }
+
+    @Test
+    public void testHandleWhenClientDisconnects() throws Exception
+    {
+        when(disconnectMonitor.watch(eq(request), any(Deadline.class))).then(invocation ->
+        {
+            Deadline deadline = (Deadline) invocation.getArguments()[1];
+            deadline.cancel();
+            return null;
+        });
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(DeadlineExceededException.class);
+
+        assertThat(tiles.getSnapshot().getTotalTiles(), is(0));
+        verify(response, never()).header(eq(Responses.Headers.ETAG), anyString());
+    }
+
+    @Test
+    public void testHandleWithBadTile() throws Exception
+    {
+        int zoom = one(integers(StoreClusters.MAX_ZOOM + 1, 100));
+        requestTile(zoom, 0, 0);
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        requestTile(2, 4, 0);
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        requestTile(2, 0, -1);
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+    }
+
+    @Test
+    public void testHandleWithBadParameters() throws Exception
+    {
+        when(request.params(Parameters.Tiles.X)).thenReturn(one(alphabeticString()));
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        when(request.params(Parameters.Tiles.X)).thenReturn(null);
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        when(request.params(Parameters.Tiles.X)).thenReturn("99999999999");
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testHandleWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.handle(null, response)).isInstanceOf(BadArgumentException.class);
+        assertThrows(() -> instance.handle(request, null)).isInstanceOf(BadArgumentException.class);
+    }
+
+    private JsonObject handleAsJSON() throws Exception
+    {
+        Object result = instance.handle(request, response);
+
+        assertThat(result instanceof String, is(true));
+
+        return new JsonParser().parse((String) result).getAsJsonObject();
+    }
+
+    private String captureETag()
+    {
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(response, atLeastOnce()).header(eq(Responses.Headers.ETAG), captor.capture());
+
+        return captor.getValue();
+    }
+
+    private static void assertInsideTile(int position)
+    {
+        assertThat(position, greaterThanOrEqualTo(0));
+        assertThat(position, lessThan(GetStoreTileOperation.EXTENT));
+    }
+
+}
@@ -16,27 +16,45 @@
 
 package tech.blacksource.blacknectar.service.operations.stores;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.io.ByteStreams;
 import com.google.gson.JsonArray;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import sir.wellington.alchemy.collections.lists.Lists;
 import sir.wellington.alchemy.collections.maps.Maps;
 import sir.wellington.alchemy.collections.sets.Sets;
 import spark.*;
 import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.Responses;
 import tech.blacksource.blacknectar.service.data.*;
 import tech.blacksource.blacknectar.service.exceptions.*;
 import tech.blacksource.blacknectar.service.images.Image;
 import tech.blacksource.blacknectar.service.images.ImageRepository;
+import tech.blacksource.blacknectar.service.json.CborWriter;
 import tech.blacksource.blacknectar.service.json.JSON;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
+import tech.blacksource.blacknectar.service.operations.ClientRateLimiter;
+import tech.blacksource.blacknectar.service.operations.Parameters;
 import tech.blacksource.blacknectar.service.operations.stores.SearchStoresOperation.QueryKeys;
 import tech.blacksource.blacknectar.service.stores.Location;
 import tech.blacksource.blacknectar.service.stores.Store;
+import tech.blacksource.blacknectar.service.stores.StoreField;
 import tech.sirwellington.alchemy.test.junit.runners.*;
 
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
@@ -45,6 +63,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 import static sir.wellington.alchemy.collections.sets.Sets.toSet;
 import static tech.blacksource.blacknectar.service.BlackNectarAssertions.MAX_QUERY_PARAMETER_ARGUMENT_LENGTH;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.boundingBoxes;
 import static tech.blacksource.blacknectar.service.BlackNectarGenerators.images;
 import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
 import static tech.blacksource.blacknectar.service.json.JSON.collectArray;
@@ -52,6 +71,7 @@ import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
 import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
 import static tech.sirwellington.alchemy.generator.GeolocationGenerators.latitudes;
 import static tech.sirwellington.alchemy.generator.GeolocationGenerators.longitudes;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.positiveLongs;
 import static tech.sirwellington.alchemy.generator.NetworkGenerators.ip4Addresses;
 import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
 import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
@@ -75,6 +95,17 @@ public class SearchStoresOperationTest
     @Mock
     private ImageRepository imageRepository;
 
+    @Mock
+    private ClientDisconnectMonitor disconnectMonitor;
+
+    @Mock
+    private DatasetVersion datasetVersion;
+
+    @Mock
+    private ClientRateLimiter rateLimiter;
+
+    private long version;
+
     private List<Store> stores;
 
     private List<Store> storesWithoutImages;
@@ -87,6 +118,9 @@ public class SearchStoresOperationTest
     @Mock
     private Response response;
 
+    @Mock
+    private HttpServletResponse rawResponse;
+
     @GenerateString(ALPHANUMERIC)
     private String queryString;
 
@@ -113,6 +147,9 @@ public class SearchStoresOperationTest
 
     private BlackNectarSearchRequest expectedSearchRequest;
 
+    private StoreChanges storeChanges;
+    private StoreResponseCache responseCache;
+
     @Before
     public void setUp() throws Exception
     {
@@ -120,15 +157,19 @@ public class SearchStoresOperationTest
         setupData();
         setupMocks();
 
-        instance = new SearchStoresOperation(aroma, storesRepository);
+        instance = new SearchStoresOperation(aroma, storesRepository, disconnectMonitor, responseCache, datasetVersion, rateLimiter);
     }
 
     private void setupData() throws Exception
     {
+        storeChanges = new StoreChanges();
+        responseCache = new StoreResponseCache(storeChanges);
+
         stores = listOf(stores());
         storesWithoutImages = withoutImages(stores);
 
         ip = one(ip4Addresses());
+        version = one(positiveLongs());
         latitude = one(latitudes());
         longitude = one(longitudes());
 
@@ -144,9 +185,12 @@ public class SearchStoresOperationTest
         when(request.ip()).thenReturn(ip);
         when(request.queryString()).thenReturn(queryString);
         when(request.queryMap()).thenReturn(queryParams);
-        when(request.queryParams()).thenReturn(Sets.copyOf(QueryKeys.KEYS));
+        Set<String> keys = Sets.copyOf(QueryKeys.KEYS);
+        keys.remove(QueryKeys.BOUNDING_BOX);
+        when(request.queryParams()).thenReturn(keys);
 
         when(storesRepository.searchForStores(expectedSearchRequest)).thenReturn(stores);
+        when(datasetVersion.getVersion()).thenReturn(version);
 
         stores.stream().forEach((store) ->
         {
@@ -163,14 +207,45 @@ public class SearchStoresOperationTest
     @Test
     public void testConstructor()
     {
-        assertThrows(() -> new SearchStoresOperation(null, storesRepository));
-        assertThrows(() -> new SearchStoresOperation(aroma, null));
+        assertThrows(() -> new SearchStoresOperation(null, storesRepository, disconnectMonitor, responseCache, datasetVersion, rateLimiter));
+        assertThrows(() -> new SearchStoresOperation(aroma, null, disconnectMonitor, responseCache, datasetVersion, rateLimiter));
+        assertThrows(() -> new SearchStoresOperation(aroma, storesRepository, null, responseCache, datasetVersion, rateLimiter));
+        assertThrows(() -> new SearchStoresOperation(aroma, storesRepository, disconnectMonitor, null, datasetVersion, rateLimiter));
+        assertThrows(() -> new SearchStoresOperation(aroma, storesRepository, disconnectMonitor, responseCache, null, rateLimiter));
+        assertThrows(() -> new SearchStoresOperation(aroma, storesRepository, disconnectMonitor, responseCache, datasetVersion, null));
+    }
+
+    @Test
+    public void testHandleWhenDeadlineExceeded() throws Exception
+    {
+        when(storesRepository.searchForStores(expectedSearchRequest))
+            .thenThrow(new DeadlineExceededException());
+
+        assertThrows(() -> instance.handle(request, response))
+            .isInstanceOf(DeadlineExceededException.class);
+    }
+
+    @Test
+    public void testHandleWatchesForDisconnects() throws Exception
+    {
+        instance.handle(request, response);
+
+        verify(disconnectMonitor).watch(eq(request), any(Deadline.class));
+    }
+
+    @Test
+    public void testHandleWithBadTimeout() throws Exception
+    {
+        when(request.headers(Parameters.Headers.REQUEST_TIMEOUT)).thenReturn(one(alphabeticString()));
+
+        assertThrows(() -> instance.handle(request, response))
+            .isInstanceOf(BadArgumentException.class);
     }
 
     @Test
     public void testHandleWhenHasImage() throws Exception
     {
-        JsonArray array = instance.handle(request, response);
+        JsonArray array = (JsonArray) instance.handle(request, response);
 
         JsonArray expected = stores.stream()
                                    .map(Store::asJSON)
@@ -181,6 +256,388 @@ public class SearchStoresOperationTest
         verify(response).type(MediaTypes.APPLICATION_JSON);
     }
 
+    @Test
+    public void testHandleStreamsWhenRawResponseAvailable() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+
+        when(storesRepository.searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class)))
+            .thenAnswer(invocation ->
+            {
+                JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                out.begin();
+                out.end();
+                return 0;
+            });
+
+        Object result = instance.handle(request, response);
+
+        assertThat(result, is(""));
+        assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is("[]"));
+        verify(response).type(MediaTypes.APPLICATION_JSON);
+        verify(storesRepository, never()).searchForStores(any());
+    }
+
+    @Test
+    public void testHandleCompressesStreamedResponses() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+        when(request.headers(Parameters.Headers.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+
+        List<Store> manyStores = streamManyStores();
+
+        instance.handle(request, response);
+
+        String expected = manyStores.stream()
+                                    .map(Store::asJSON)
+                                    .collect(collectArray())
+                                    .toString();
+
+        assertThat(gunzip(output.toByteArray()), is(expected));
+        verify(rawResponse).setHeader(Responses.Headers.CONTENT_ENCODING, "gzip");
+    }
+
+    @Test
+    public void testHandleSendsNothingWhenStreamFailsEarly() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+        when(request.headers(Parameters.Headers.ACCEPT_ENCODING)).thenReturn("gzip");
+
+        when(storesRepository.searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class)))
+            .thenAnswer(invocation ->
+            {
+                JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                out.begin();
+                out.write(one(stores()).asJSON());
+                throw new OperationFailedException("Connection reset");
+            });
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(OperationFailedException.class);
+
+        //The error is sent instead, rather than a truncated 200.
+        assertThat(output.size(), is(0));
+        verify(response, never()).status(200);
+        verify(rawResponse, never()).setHeader(eq(Responses.Headers.CONTENT_ENCODING), any());
+        assertThat(responseCache.getSizeInBytes(), is(0L));
+    }
+
+    @Test
+    public void testHandleSendsStoresBeforeSearchEnds() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+        List<Store> manyStores = listOf(stores(), 50);
+
+        when(storesRepository.searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class)))
+            .thenAnswer(invocation ->
+            {
+                JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                out.begin();
+                manyStores.forEach(store -> out.write(store.asJSON()));
+
+                //The response has opened while the search is still running.
+                verify(response).status(200);
+                assertThat(output.size() > 0, is(true));
+
+                out.end();
+                return manyStores.size();
+            });
+
+        instance.handle(request, response);
+
+        String expected = manyStores.stream()
+                                    .map(Store::asJSON)
+                                    .collect(collectArray())
+                                    .toString();
+
+        assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is(expected));
+        assertThat(responseCache.size(), is(1));
+    }
+
+    @Test
+    public void testHandleEndsBodyWhenStreamFailsLate() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+        when(request.headers(Parameters.Headers.ACCEPT_ENCODING)).thenReturn("gzip");
+
+        List<Store> sent = listOf(stores(), 50);
+
+        when(storesRepository.searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class)))
+            .thenAnswer(invocation ->
+            {
+                JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                out.begin();
+                sent.forEach(store -> out.write(store.asJSON()));
+                throw new OperationFailedException("Connection reset");
+            });
+
+        Object result = instance.handle(request, response);
+
+        //The body still parses, and holds only the whole Stores that were sent.
+        String expected = sent.stream()
+                              .map(Store::asJSON)
+                              .collect(collectArray())
+                              .toString();
+
+        assertThat(result, is(""));
+        assertThat(gunzip(output.toByteArray()), is(expected));
+        verify(response).status(200);
+        assertThat(responseCache.getSizeInBytes(), is(0L));
+    }
+
+    @Test
+    public void testHandleServesCompressedResponsesFromCache() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+        when(request.headers(Parameters.Headers.ACCEPT_ENCODING)).thenReturn("gzip");
+
+        List<Store> manyStores = streamManyStores();
+
+        instance.handle(request, response);
+        output.reset();
+
+        Object result = instance.handle(request, response);
+
+        String expected = manyStores.stream()
+                                    .map(Store::asJSON)
+                                    .collect(collectArray())
+                                    .toString();
+
+        assertThat(result, is(""));
+        assertThat(gunzip(output.toByteArray()), is(expected));
+        verify(response).header(Responses.Headers.CONTENT_ENCODING, "gzip");
+        verify(storesRepository, times(1)).searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class));
+    }
+
+    @Test
+    public void testHandleWithNewlineDelimitedJSON() throws Exception
+    {
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_NDJSON);
+        when(storesRepository.searchForStores(expectedSearchRequest)).thenReturn(stores);
+
+        Object result = instance.handle(request, response);
+
+        String expected = stores.stream()
+                                .map(store -> store.asJSON().toString() + "\n")
+                                .collect(joining());
+
+        assertThat(result, is(expected));
+        verify(response).type(MediaTypes.APPLICATION_NDJSON);
+    }
+
+    @Test
+    public void testHandleWithCbor() throws Exception
+    {
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_CBOR);
+
+        Object result = instance.handle(request, response);
+
+        JsonArray expected = stores.stream()
+                                   .map(Store::asJSON)
+                                   .collect(collectArray());
+
+        assertThat(result, is(CborWriter.toBytes(expected)));
+        verify(response).type(MediaTypes.APPLICATION_CBOR);
+
+        Object cached = instance.handle(request, response);
+        assertThat(cached, is(result));
+        verify(storesRepository, times(1)).searchForStores(expectedSearchRequest);
+    }
+
+    @Test
+    public void testHandleStreamsCborWhenRawResponseAvailable() throws Exception
+    {
+        ByteArrayOutputStream output = captureRawOutput();
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_CBOR);
+
+        Object result = instance.handle(request, response);
+
+        JsonArray expected = stores.stream()
+                                   .map(Store::asJSON)
+                                   .collect(collectArray());
+
+        assertThat(result, is(""));
+        assertThat(output.toByteArray(), is(CborWriter.toBytes(expected)));
+        verify(storesRepository, never()).searchForStoresAsJSON(any(), any(JsonStreamWriter.class));
+    }
+
+    @Test
+    public void testHandleCachesEachFormatSeparately() throws Exception
+    {
+        when(storesRepository.searchForStores(expectedSearchRequest)).thenReturn(stores);
+
+        Object array = instance.handle(request, response);
+
+        when(request.headers(Parameters.Headers.ACCEPT)).thenReturn(MediaTypes.APPLICATION_NDJSON);
+        Object lines = instance.handle(request, response);
+
+        assertThat(array instanceof JsonArray, is(true));
+        assertThat(lines instanceof String, is(true));
+        verify(storesRepository, times(2)).searchForStores(expectedSearchRequest);
+    }
+
+    @Test
+    public void testHandleWithFields() throws Exception
+    {
+        when(queryParams.hasKey(QueryKeys.FIELDS)).thenReturn(true);
+        when(queryParams.value(QueryKeys.FIELDS)).thenReturn("map");
+
+        BlackNectarSearchRequest mapRequest = createExpectedRequest().withFields(StoreField.MAP_VIEW);
+        when(storesRepository.searchForStores(mapRequest)).thenReturn(stores);
+
+        JsonArray array = (JsonArray) instance.handle(request, response);
+
+        JsonArray expected = stores.stream()
+                                   .map(store -> store.asJSON(StoreField.MAP_VIEW))
+                                   .collect(JSON.collectArray());
+
+        assertThat(array, is(expected));
+    }
+
+    @Test
+    public void testHandleWithUnknownFields() throws Exception
+    {
+        when(queryParams.hasKey(QueryKeys.FIELDS)).thenReturn(true);
+        when(queryParams.value(QueryKeys.FIELDS)).thenReturn(one(alphabeticString()));
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(BadArgumentException.class);
+    }
+
+    @Test
+    public void testHandleWithBoundingBox() throws Exception
+    {
+        BoundingBox box = one(boundingBoxes());
+        useBoundingBox(box);
+
+        BlackNectarSearchRequest boxRequest = new BlackNectarSearchRequest()
+                .withBoundingBox(box)
+                .withLimit(Math.min(limit, 1_000))
+                .withSearchTerm(searchTerm);
+
+        responseCache.quantize(boxRequest);
+        when(storesRepository.searchForStores(boxRequest)).thenReturn(stores);
+
+        JsonArray array = (JsonArray) instance.handle(request, response);
+
+        assertThat(array, is(stores.stream().map(Store::asJSON).collect(collectArray())));
+        verify(storesRepository).searchForStores(boxRequest);
+    }
+
+    @Test
+    public void testHandleWithBoundingBoxCapsLimit() throws Exception
+    {
+        useBoundingBox(one(boundingBoxes()));
+
+        Set<String> keys = Sets.createFrom(QueryKeys.BOUNDING_BOX);
+        when(request.queryParams()).thenReturn(keys);
+        when(queryParams.hasKey(QueryKeys.LIMIT)).thenReturn(false);
+        when(queryParams.hasKey(QueryKeys.SEARCH_TERM)).thenReturn(false);
+
+        instance.handle(request, response);
+
+        ArgumentCaptor<BlackNectarSearchRequest> captor = ArgumentCaptor.forClass(BlackNectarSearchRequest.class);
+        verify(storesRepository).searchForStores(captor.capture());
+
+        assertThat(captor.getValue().limit, is(1_000));
+    }
+
+    @Test
+    public void testHandleWithBadBoundingBox() throws Exception
+    {
+        useBoundingBox(one(boundingBoxes()));
+
+        when(queryParams.value(QueryKeys.BOUNDING_BOX)).thenReturn("1,2,3");
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        when(queryParams.value(QueryKeys.BOUNDING_BOX)).thenReturn("a,b,c,d");
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        //The minimums come first.
+        when(queryParams.value(QueryKeys.BOUNDING_BOX)).thenReturn("10,10,5,5");
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+
+        when(queryParams.value(QueryKeys.BOUNDING_BOX)).thenReturn("-200,10,5,20");
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+    }
+
+    @Test
+    public void testHandleWithBoundingBoxAndCenter() throws Exception
+    {
+        useBoundingBox(one(boundingBoxes()));
+
+        Set<String> keys = Sets.copyOf(request.queryParams());
+        keys.add(QueryKeys.LATITUDE);
+        keys.add(QueryKeys.LONGITUDE);
+        when(request.queryParams()).thenReturn(keys);
+
+        assertThrows(() -> instance.handle(request, response)).isInstanceOf(BadArgumentException.class);
+        verifyZeroInteractions(storesRepository);
+    }
+
+    @Test
+    public void testHandleChargesClient() throws Exception
+    {
+        instance.handle(request, response);
+
+        verify(rateLimiter).spend(request, SearchStoresOperation.costOf(expectedSearchRequest));
+    }
+
+    @Test
+    public void testHandleDoesNotChargeForCachedResponses() throws Exception
+    {
+        instance.handle(request, response);
+        instance.handle(request, response);
+
+        verify(rateLimiter, times(1)).spend(eq(request), anyDouble());
+    }
+
+    @Test
+    public void testHandleWarmUpSkipsCacheAndRateLimit() throws Exception
+    {
+        when(request.attribute(SearchStoresOperation.WARM_UP_ATTRIBUTE)).thenReturn(true);
+
+        instance.handle(request, response);
+        instance.handle(request, response);
+
+        verify(storesRepository, times(2)).searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class));
+        verify(rateLimiter, never()).spend(any(Request.class), anyDouble());
+        assertThat(responseCache.size(), is(0));
+    }
+
+    @Test
+    public void testHandleWhenClientIsRateLimited() throws Exception
+    {
+        doThrow(new TooManyRequestsException("", 1))
+                .when(rateLimiter)
+                .spend(eq(request), anyDouble());
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(TooManyRequestsException.class);
+
+        verifyZeroInteractions(storesRepository);
+    }
+
+    @DontRepeat
+    @Test
+    public void testCostOf() throws Exception
+    {
+        Location center = Location.with(latitude, longitude);
+
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withCenter(center).withRadius(1_000)), is(1.0));
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withCenter(center).withRadius(50_000)), is(10.0));
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withCenter(center).withRadius(100_000)), is(20.0));
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withZipCode("90401")), is(1.0));
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withSearchTerm(searchTerm)), is(20.0));
+
+        BoundingBox city = BoundingBox.of(-118.5, 33.9, -118.0, 34.2);
+        BoundingBox state = BoundingBox.of(-124.4, 32.5, -114.1, 42.0);
+
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withBoundingBox(city)),
+                   is(0.5 * 111_000 / 2 / 5_000));
+        assertThat(SearchStoresOperation.costOf(new BlackNectarSearchRequest().withBoundingBox(state)), is(20.0));
+    }
+
     @Test
     public void testWhenHaveNoImage() throws Exception
     {
@@ -191,13 +648,180 @@ public class SearchStoresOperationTest
                                                         .map(Store::asJSON)
                                                         .collect(collectArray());
 
-        JsonArray jsonResponse = instance.handle(request, response);
+        JsonArray jsonResponse = (JsonArray) instance.handle(request, response);
 
         assertThat(jsonResponse, is(expectedResponse));
         verify(response).type(MediaTypes.APPLICATION_JSON);
 
     }
 
+    @Test
+    public void testHandleServesRepeatSearchesFromCache() throws Exception
+    {
+        JsonArray first = (JsonArray) instance.handle(request, response);
+        Object second = instance.handle(request, response);
+
+        assertThat(second, is(first.toString()));
+        verify(storesRepository, times(1)).searchForStores(expectedSearchRequest);
+        verify(response, times(2)).type(MediaTypes.APPLICATION_JSON);
+    }
+
+    @Test
+    public void testHandleAfterStoresChange() throws Exception
+    {
+        instance.handle(request, response);
+
+        storeChanges.storesChanged();
+
+        Object second = instance.handle(request, response);
+
+        assertThat(second instanceof JsonArray, is(true));
+        verify(storesRepository, times(2)).searchForStores(expectedSearchRequest);
+    }
+
+    @Test
+    public void testHandleDoesNotCacheStaleData() throws Exception
+    {
+        when(storesRepository.searchForStores(expectedSearchRequest))
+                .thenAnswer(this::serveStale);
+
+        instance.handle(request, response);
+        instance.handle(request, response);
+
+        verify(storesRepository, times(2)).searchForStores(expectedSearchRequest);
+        assertThat(responseCache.size(), is(0));
+    }
+
+    @Test
+    public void testHandleSamplesOnlySearchesThatRun() throws Exception
+    {
+        instance.handle(request, response);
+        instance.handle(request, response);
+
+        //The second response comes from the cache, and says nothing about the database.
+        verify(request, times(1)).attribute(anyString(), any());
+    }
+
+    @Test
+    public void testHandleDiscardsSampleOfStaleSearch() throws Exception
+    {
+        when(storesRepository.searchForStores(expectedSearchRequest))
+                .thenAnswer(this::serveStale);
+
+        instance.handle(request, response);
+
+        verify(request).attribute(anyString(), isNull());
+    }
+
+    @Test
+    public void testHandleSetsETag() throws Exception
+    {
+        instance.handle(request, response);
+
+        String etag = captureETag();
+        assertThat(etag.startsWith("\"" + version + "-"), is(true));
+        verify(response).header(eq(Responses.Headers.CACHE_CONTROL), Mockito.contains("max-age"));
+    }
+
+    @Test
+    public void testHandleWhenNotModified() throws Exception
+    {
+        instance.handle(request, response);
+        String etag = captureETag();
+
+        responseCache.clear();
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn("W/" + etag);
+
+        Object result = instance.handle(request, response);
+
+        assertThat(result, is(""));
+        verify(response).status(Responses.StatusCodes.NOT_MODIFIED);
+        verify(storesRepository, times(1)).searchForStores(expectedSearchRequest);
+    }
+
+    @Test
+    public void testHandleWhenDatasetVersionChanges() throws Exception
+    {
+        instance.handle(request, response);
+        String etag = captureETag();
+
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn(etag);
+        when(datasetVersion.getVersion()).thenReturn(version + 1);
+
+        Object result = instance.handle(request, response);
+
+        assertThat(result.equals(""), is(false));
+        verify(response, never()).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleDoesNotTagStaleData() throws Exception
+    {
+        when(storesRepository.searchForStores(expectedSearchRequest))
+                .thenAnswer(this::serveStale);
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn("\"someOtherVersion\"");
+
+        instance.handle(request, response);
+
+        verify(response, never()).header(eq(Responses.Headers.ETAG), anyString());
+        verify(response).header(Responses.Headers.CACHE_CONTROL, "no-cache");
+        verify(response, never()).status(Responses.StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    public void testHandleDoesNotAskTheBreakerBeforeTheSearch() throws Exception
+    {
+        //A client that already holds the current version doesn't need the search, whatever the breaker says
+        when(storesRepository.isServingStaleData()).thenReturn(true);
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn("*");
+
+        instance.handle(request, response);
+
+        verify(response).status(Responses.StatusCodes.NOT_MODIFIED);
+        verify(storesRepository, never()).isServingStaleData();
+        verify(storesRepository, never()).searchForStores(any());
+    }
+
+    @Test
+    public void testHandleWhenSearchIsServedStale() throws Exception
+    {
+        //The repository was healthy when the request arrived, but fell back to its snapshot during the search
+        when(storesRepository.searchForStores(expectedSearchRequest))
+                .thenAnswer(this::serveStale);
+
+        instance.handle(request, response);
+
+        verify(response, never()).header(eq(Responses.Headers.ETAG), anyString());
+        verify(response).header(Responses.Headers.CACHE_CONTROL, "no-cache");
+        verify(response).header(Responses.Headers.WARNING, Responses.Headers.STALE_WARNING);
+    }
+
+    @Test
+    public void testHandleWhenRateLimitedSetsNoCacheHeaders() throws Exception
+    {
+        doThrow(new TooManyRequestsException("", 1))
+                .when(rateLimiter)
+                .spend(eq(request), anyDouble());
+
+        assertThrows(() -> instance.handle(request, response))
+                .isInstanceOf(TooManyRequestsException.class);
+
+        verify(response, never()).header(eq(Responses.Headers.ETAG), anyString());
+        verify(response, never()).header(eq(Responses.Headers.CACHE_CONTROL), anyString());
+    }
+
+    @Test
+    public void testHandleWhenDatasetVersionUnknown() throws Exception
+    {
+        when(datasetVersion.getVersion()).thenReturn(DatasetVersion.UNKNOWN);
+        when(request.headers(Parameters.Headers.IF_NONE_MATCH)).thenReturn("*");
+
+        instance.handle(request, response);
+
+        verify(response, never()).header(eq(Responses.Headers.ETAG), anyString());
+        verify(storesRepository).searchForStores(expectedSearchRequest);
+    }
+
     @DontRepeat
     @Test
     public void testHandleWithBadArguments() throws Exception
@@ -248,6 +872,61 @@ public class SearchStoresOperationTest
                 .isInstanceOf(BadArgumentException.class);
     }
 
+    private ByteArrayOutputStream captureRawOutput() throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.raw()).thenReturn(rawResponse);
+        when(rawResponse.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener)
+            {
+            }
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                output.write(b);
+            }
+        });
+
+        return output;
+    }
+
+    /**
+     * Makes the repository stream enough Stores for the response to be compressed.
+     */
+    private List<Store> streamManyStores()
+    {
+        List<Store> manyStores = listOf(stores(), 50);
+
+        when(storesRepository.searchForStoresAsJSON(eq(expectedSearchRequest), any(JsonStreamWriter.class)))
+            .thenAnswer(invocation ->
+            {
+                JsonStreamWriter out = (JsonStreamWriter) invocation.getArguments()[1];
+                out.begin();
+                manyStores.forEach(store -> out.write(store.asJSON()));
+                out.end();
+                return manyStores.size();
+            });
+
+        return manyStores;
+    }
+
+    private String gunzip(byte[] bytes) throws IOException
+    {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes)))
+        {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
     private BlackNectarSearchRequest createExpectedRequest()
     {
         BlackNectarSearchRequest expectedRequest = new BlackNectarSearchRequest();
@@ -257,9 +936,30 @@ public class SearchStoresOperationTest
                        .withRadius(radius)
                        .withSearchTerm(searchTerm);
 
+        //Searches run with the center snapped to the cache's grid.
+        responseCache.quantize(expectedRequest);
+
         return expectedRequest;
     }
 
+    private void useBoundingBox(BoundingBox box)
+    {
+        Set<String> keys = Sets.createFrom(QueryKeys.BOUNDING_BOX, QueryKeys.LIMIT, QueryKeys.SEARCH_TERM);
+        when(request.queryParams()).thenReturn(keys);
+
+        when(queryParams.hasKey(QueryKeys.LATITUDE)).thenReturn(false);
+        when(queryParams.hasKey(QueryKeys.LONGITUDE)).thenReturn(false);
+        when(queryParams.hasKey(QueryKeys.RADIUS)).thenReturn(false);
+        when(queryParams.hasKey(QueryKeys.BOUNDING_BOX)).thenReturn(true);
+
+        String bbox = box.getMinLongitude() + "," +
+                      box.getMinLatitude() + "," +
+                      box.getMaxLongitude() + "," +
+                      box.getMaxLatitude();
+
+        when(queryParams.value(QueryKeys.BOUNDING_BOX)).thenReturn(bbox);
+    }
+
     private QueryParamsMap createQueryParams()
     {
         QueryParamsMap params = mock(QueryParamsMap.class);
@@ -286,6 +986,22 @@ public class SearchStoresOperationTest
         return params;
     }
 
+    private String captureETag()
+    {
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(response, atLeastOnce()).header(eq(Responses.Headers.ETAG), captor.capture());
+
+        return captor.getValue();
+    }
+
+    private List<Store> serveStale(InvocationOnMock invocation)
+    {
+        BlackNectarSearchRequest searchRequest = (BlackNectarSearchRequest) invocation.getArguments()[0];
+        searchRequest.servedStale = true;
+
+        return stores;
+    }
+
     private List<Store> withoutImages(List<Store> stores)
     {
         return stores.stream()
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.data.BlackNectarSearchRequest;
+import tech.blacksource.blacknectar.service.data.DatasetVersion;
+import tech.blacksource.blacknectar.service.data.MediaTypes;
+import tech.blacksource.blacknectar.service.data.StoreChanges;
+import tech.blacksource.blacknectar.service.data.StoreRepository;
+import tech.blacksource.blacknectar.service.exceptions.OperationFailedException;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.operations.ClientDisconnectMonitor;
+import tech.blacksource.blacknectar.service.operations.ClientRateLimiter;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Answers.RETURNS_MOCKS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class SearchWarmUpTest
+{
+
+    @Mock(answer = RETURNS_MOCKS)
+    private Aroma aroma;
+
+    @Mock
+    private StoreRepository repository;
+
+    @Mock
+    private ClientDisconnectMonitor disconnectMonitor;
+
+    @Mock
+    private DatasetVersion datasetVersion;
+
+    @Mock
+    private ClientRateLimiter rateLimiter;
+
+    private StoreResponseCache responseCache;
+
+    private SearchStoresOperation searchOperation;
+
+    private List<Store> stores;
+    private int searches;
+
+    private SearchWarmUp instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stores = listOf(stores(), 20);
+        searches = one(integers(1, 50));
+
+        when(repository.getAllStores(SearchWarmUp.SEED_STORES)).thenReturn(stores);
+        when(repository.searchForStores(any())).thenReturn(stores);
+
+        responseCache = new StoreResponseCache(new StoreChanges());
+        searchOperation = new SearchStoresOperation(aroma, repository, disconnectMonitor, responseCache, datasetVersion, rateLimiter);
+
+        instance = new SearchWarmUp(aroma, repository, searchOperation, searches, SearchWarmUp.DEFAULT_MAX_MILLIS);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new SearchWarmUp(null, repository, searchOperation, searches, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new SearchWarmUp(aroma, null, searchOperation, searches, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new SearchWarmUp(aroma, repository, null, searches, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new SearchWarmUp(aroma, repository, searchOperation, -1, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new SearchWarmUp(aroma, repository, searchOperation, searches, -1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new SearchWarmUp(aroma, repository, searchOperation, searches, 1, null, Lists.emptyList()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new SearchWarmUp(aroma, repository, searchOperation, searches, 1, SearchWarmUp.Kind.defaultWeights(), null))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        Map<SearchWarmUp.Kind, Integer> noWeights = SearchWarmUp.Kind.defaultWeights();
+        noWeights.replaceAll((kind, weight) -> 0);
+
+        assertThrows(() -> new SearchWarmUp(aroma, repository, searchOperation, searches, 1, noWeights, Lists.emptyList()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DontRepeat
+    @Test
+    public void testDefaults() throws Exception
+    {
+        instance = new SearchWarmUp(aroma, repository, searchOperation);
+
+        assertThat(instance.getSearches(), is(SearchWarmUp.DEFAULT_SEARCHES));
+        assertThat(instance.getMaxMillis(), is(SearchWarmUp.DEFAULT_MAX_MILLIS));
+        assertThat(instance.getWeights(), is(SearchWarmUp.Kind.defaultWeights()));
+        assertThat(instance.getRecordedQueries(), is(empty()));
+    }
+
+    @Test
+    public void testRun() throws Exception
+    {
+        long delay = instance.run();
+
+        assertThat(delay, greaterThanOrEqualTo(0L));
+
+        //Every third search asks for CBOR, which is built from the Store objects. The rest are streamed as JSON.
+        int cborSearches = searches / SearchWarmUp.ACCEPTS.length;
+
+        verify(repository).getAllStores(SearchWarmUp.SEED_STORES);
+        verify(repository, times(cborSearches)).searchForStores(any());
+        verify(repository, times(searches - cborSearches)).searchForStoresAsJSON(any(), any(JsonStreamWriter.class));
+        verify(aroma).begin();
+    }
+
+    @Test
+    public void testRunWhenTurnedOff() throws Exception
+    {
+        instance = new SearchWarmUp(aroma, repository, searchOperation, 0, SearchWarmUp.DEFAULT_MAX_MILLIS);
+
+        assertThat(instance.run(), is(0L));
+
+        verifyZeroInteractions(repository, aroma);
+    }
+
+    @Test
+    public void testRunWhenSearchesFail() throws Exception
+    {
+        when(repository.searchForStores(any())).thenThrow(new OperationFailedException());
+        when(repository.searchForStoresAsJSON(any(), any(JsonStreamWriter.class))).thenThrow(new OperationFailedException());
+
+        instance.run();
+
+        int cborSearches = searches / SearchWarmUp.ACCEPTS.length;
+        verify(repository, times(cborSearches)).searchForStores(any());
+        verify(repository, times(searches - cborSearches)).searchForStoresAsJSON(any(), any(JsonStreamWriter.class));
+        verify(aroma).begin();
+    }
+
+    @Test
+    public void testRunWithoutStores() throws Exception
+    {
+        when(repository.getAllStores(SearchWarmUp.SEED_STORES)).thenReturn(Lists.emptyList());
+
+        instance.run();
+
+        verify(repository, times(searches - searches / SearchWarmUp.ACCEPTS.length))
+                .searchForStoresAsJSON(any(), any(JsonStreamWriter.class));
+    }
+
+    @Test
+    public void testRunWhenSeedsFail() throws Exception
+    {
+        when(repository.getAllStores(SearchWarmUp.SEED_STORES)).thenThrow(new OperationFailedException());
+
+        instance.run();
+
+        verify(repository, times(searches - searches / SearchWarmUp.ACCEPTS.length))
+                .searchForStoresAsJSON(any(), any(JsonStreamWriter.class));
+    }
+
+    @Test
+    public void testRunDoesNotCacheResponses() throws Exception
+    {
+        instance.run();
+
+        assertThat(responseCache.getSizeInBytes(), is(0L));
+    }
+
+    @Test
+    public void testRunDoesNotChargeRateLimit() throws Exception
+    {
+        instance.run();
+
+        verify(rateLimiter, never()).spend(any(), anyDouble());
+    }
+
+    @Test
+    public void testRunWithRecordedQueries() throws Exception
+    {
+        List<String> queries = Arrays.asList("/stores?zipCode=90401&limit=10", "zipCode=10001");
+        instance = new SearchWarmUp(aroma,
+                                    repository,
+                                    searchOperation,
+                                    searches,
+                                    SearchWarmUp.DEFAULT_MAX_MILLIS,
+                                    SearchWarmUp.Kind.defaultWeights(),
+                                    queries);
+
+        instance.run();
+
+        verify(repository, never()).getAllStores(anyInt());
+
+        ArgumentCaptor<BlackNectarSearchRequest> captor = ArgumentCaptor.forClass(BlackNectarSearchRequest.class);
+        verify(repository, atLeastOnce()).searchForStoresAsJSON(captor.capture(), any(JsonStreamWriter.class));
+
+        BlackNectarSearchRequest first = captor.getAllValues().get(0);
+        assertThat(first.zipCode, is("90401"));
+        assertThat(first.limit, is(10));
+
+        for (BlackNectarSearchRequest request : captor.getAllValues())
+        {
+            assertThat(request.zipCode, isOneOf("90401", "10001"));
+        }
+    }
+
+    @Test
+    public void testQueryForRunsTheSameSearch() throws Exception
+    {
+        Store seed = stores.get(0);
+
+        for (SearchWarmUp.Kind kind : SearchWarmUp.Kind.values())
+        {
+            reset(repository);
+
+            BlackNectarSearchRequest expected = instance.createSearch(kind, seed);
+            WarmUpRequest request = new WarmUpRequest(SearchWarmUp.queryFor(expected),
+                                                      Collections.singletonMap(Parameters.Headers.ACCEPT, MediaTypes.APPLICATION_JSON));
+
+            searchOperation.handle(request, new WarmUpResponse());
+
+            ArgumentCaptor<BlackNectarSearchRequest> captor = ArgumentCaptor.forClass(BlackNectarSearchRequest.class);
+            verify(repository).searchForStoresAsJSON(captor.capture(), any(JsonStreamWriter.class));
+
+            BlackNectarSearchRequest actual = captor.getValue();
+            assertThat(actual.hasCenter(), is(expected.hasCenter()));
+            assertThat(actual.hasBoundingBox(), is(expected.hasBoundingBox()));
+            assertThat(actual.zipCode, is(expected.zipCode));
+            assertThat(actual.searchTerm, is(expected.searchTerm));
+            assertThat(actual.fields, is(expected.fields));
+
+            if (expected.hasRadius())
+            {
+                assertThat(actual.radiusInMeters, is(expected.radiusInMeters));
+            }
+        }
+    }
+
+    @Test
+    public void testCreateSearch() throws Exception
+    {
+        Store seed = stores.get(0);
+
+        for (SearchWarmUp.Kind kind : SearchWarmUp.Kind.values())
+        {
+            BlackNectarSearchRequest request = instance.createSearch(kind, seed);
+
+            assertThat(request.hasCenter() || request.hasZipCode() || request.hasBoundingBox(), is(true));
+        }
+
+        assertThat(instance.createSearch(SearchWarmUp.Kind.BOUNDING_BOX, seed).hasBoundingBox(), is(true));
+        assertThat(instance.createSearch(SearchWarmUp.Kind.MAP, seed).fields, is(StoreField.MAP_VIEW));
+    }
+
+    @DontRepeat
+    @Test
+    public void testParseWeights() throws Exception
+    {
+        assertThat(SearchWarmUp.Kind.parseWeights(null), is(SearchWarmUp.Kind.defaultWeights()));
+        assertThat(SearchWarmUp.Kind.parseWeights(""), is(SearchWarmUp.Kind.defaultWeights()));
+
+        Map<SearchWarmUp.Kind, Integer> weights = SearchWarmUp.Kind.parseWeights("center=0, bbox=5,bogus=3,map=x,name");
+
+        assertThat(weights.get(SearchWarmUp.Kind.CENTER), is(0));
+        assertThat(weights.get(SearchWarmUp.Kind.BOUNDING_BOX), is(5));
+        assertThat(weights.get(SearchWarmUp.Kind.MAP), is(SearchWarmUp.Kind.MAP.defaultWeight));
+        assertThat(weights.get(SearchWarmUp.Kind.NAME), is(SearchWarmUp.Kind.NAME.defaultWeight));
+
+        String allZero = "center=0,zipCode=0,bbox=0,name=0,map=0";
+        assertThat(SearchWarmUp.Kind.parseWeights(allZero), is(SearchWarmUp.Kind.defaultWeights()));
+    }
+
+    @Test
+    public void testPickKindFollowsWeights() throws Exception
+    {
+        Map<SearchWarmUp.Kind, Integer> weights = SearchWarmUp.Kind.parseWeights("center=0,zipCode=0,bbox=0,name=0,map=1");
+
+        instance = new SearchWarmUp(aroma, repository, searchOperation, searches, 1, weights, Lists.emptyList());
+
+        for (int i = 0; i < 20; ++i)
+        {
+            assertThat(instance.pickKind(), is(SearchWarmUp.Kind.MAP));
+        }
+    }
+
+    @DontRepeat
+    @Test
+    public void testReadQueries() throws Exception
+    {
+        File file = File.createTempFile("warmup", ".txt");
+        file.deleteOnExit();
+
+        String lines = "# Recorded on Monday\n" +
+                       "latitude=34.05&longitude=-118.24\n" +
+                       "\n" +
+                       "  /stores?zipCode=90401  \n";
+
+        Files.write(file.toPath(), lines.getBytes(StandardCharsets.UTF_8));
+
+        List<String> queries = SearchWarmUp.readQueries(file.getPath());
+        assertThat(queries, contains("latitude=34.05&longitude=-118.24", "/stores?zipCode=90401"));
+
+        assertThat(SearchWarmUp.readQueries(null), is(empty()));
+        assertThat(SearchWarmUp.readQueries(file.getPath() + ".missing"), is(empty()));
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.data.BlackNectarSearchRequest;
+import tech.blacksource.blacknectar.service.data.BoundingBox;
+import tech.blacksource.blacknectar.service.data.Deadline;
+import tech.blacksource.blacknectar.service.data.MediaTypes;
+import tech.blacksource.blacknectar.service.data.StoreChanges;
+import tech.blacksource.blacknectar.service.operations.ResponseCompression;
+import tech.blacksource.blacknectar.service.stores.Location;
+import tech.blacksource.blacknectar.service.stores.StoreField;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.boundingBoxes;
+import static tech.blacksource.blacknectar.service.json.JsonStreamWriter.Format.ARRAY;
+import static tech.blacksource.blacknectar.service.json.JsonStreamWriter.Format.LINES;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.BinaryGenerators.binary;
+import static tech.sirwellington.alchemy.generator.GeolocationGenerators.latitudes;
+import static tech.sirwellington.alchemy.generator.GeolocationGenerators.longitudes;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.integers;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class StoreResponseCacheTest
+{
+
+    private StoreChanges storeChanges;
+
+    private BlackNectarSearchRequest request;
+    private String key;
+    private byte[] json;
+    private int totalStores;
+
+    private StoreResponseCache instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        storeChanges = new StoreChanges();
+
+        request = new BlackNectarSearchRequest()
+                .withCenter(Location.with(one(latitudes()), one(longitudes())))
+                .withRadius(one(integers(1, 10_000)))
+                .withLimit(one(integers(1, 100)));
+
+        json = one(binary(100));
+        totalStores = one(integers(0, 100));
+
+        instance = new StoreResponseCache(storeChanges);
+        key = instance.keyFor(request, ARRAY);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new StoreResponseCache(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreResponseCache(storeChanges, 0, 1, 1, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreResponseCache(storeChanges, 1, 0, 1, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreResponseCache(storeChanges, 1, 1, 0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreResponseCache(storeChanges, 1, 1, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testQuantize() throws Exception
+    {
+        double latitude = request.center.getLatitude();
+        double longitude = request.center.getLongitude();
+
+        instance.quantize(request);
+
+        double maxShift = StoreResponseCache.CENTER_GRID_DEGREES / 2 + 1e-9;
+        assertThat(Math.abs(request.center.getLatitude() - latitude), lessThanOrEqualTo(maxShift));
+        assertThat(Math.abs(request.center.getLongitude() - longitude), lessThanOrEqualTo(maxShift));
+        assertThat(instance.keyFor(request, ARRAY), is(key));
+
+        //Quantizing again changes nothing.
+        Location snapped = request.center;
+        instance.quantize(request);
+        assertThat(request.center, is(snapped));
+    }
+
+    @Test
+    public void testKeyForNearbyCenters() throws Exception
+    {
+        //A search from a few meters away, within the same spot on the grid, shares the response.
+        instance.quantize(request);
+        double offset = -Math.signum(request.center.getLatitude()) * StoreResponseCache.CENTER_GRID_DEGREES / 10;
+
+        BlackNectarSearchRequest nearby = new BlackNectarSearchRequest()
+                .withCenter(Location.with(request.center.getLatitude() + offset, request.center.getLongitude()))
+                .withRadius(request.radiusInMeters)
+                .withLimit(request.limit);
+
+        instance.quantize(nearby);
+
+        assertThat(nearby.center, is(request.center));
+        assertThat(instance.keyFor(nearby, ARRAY), is(instance.keyFor(request, ARRAY)));
+
+        //One from a block away does not.
+        double farOffset = -Math.signum(request.center.getLatitude()) * StoreResponseCache.CENTER_GRID_DEGREES * 10;
+
+        BlackNectarSearchRequest far = new BlackNectarSearchRequest()
+                .withCenter(Location.with(request.center.getLatitude() + farOffset, request.center.getLongitude()))
+                .withRadius(request.radiusInMeters)
+                .withLimit(request.limit);
+
+        instance.quantize(far);
+
+        assertThat(instance.keyFor(far, ARRAY), not(instance.keyFor(request, ARRAY)));
+    }
+
+    @DontRepeat
+    @Test
+    public void testQuantizeAtTheEdges() throws Exception
+    {
+        BlackNectarSearchRequest edge = new BlackNectarSearchRequest()
+                .withCenter(Location.with(89.99999, 179.99999));
+
+        instance.quantize(edge);
+
+        assertThat(edge.center.getLatitude(), lessThanOrEqualTo(90.0));
+        assertThat(edge.center.getLongitude(), lessThanOrEqualTo(180.0));
+    }
+
+    @Test
+    public void testQuantizeWithoutCenter() throws Exception
+    {
+        BlackNectarSearchRequest zipCodeRequest = new BlackNectarSearchRequest().withZipCode("90401");
+
+        instance.quantize(zipCodeRequest);
+
+        assertThat(zipCodeRequest.center, is(nullValue()));
+    }
+
+    @Test
+    public void testQuantizeWithBoundingBox() throws Exception
+    {
+        BoundingBox box = one(boundingBoxes());
+        BlackNectarSearchRequest boxRequest = new BlackNectarSearchRequest().withBoundingBox(box);
+
+        instance.quantize(boxRequest);
+
+        BoundingBox snapped = boxRequest.boundingBox;
+        assertThat(snapped.getMinLongitude(), lessThanOrEqualTo(box.getMinLongitude()));
+        assertThat(snapped.getMinLatitude(), lessThanOrEqualTo(box.getMinLatitude()));
+        assertThat(snapped.getMaxLongitude(), greaterThanOrEqualTo(box.getMaxLongitude()));
+        assertThat(snapped.getMaxLatitude(), greaterThanOrEqualTo(box.getMaxLatitude()));
+
+        //It only grows by up to one grid square on each side.
+        double grid = StoreResponseCache.GRID_DEGREES;
+        assertThat(box.getMinLongitude() - snapped.getMinLongitude(), lessThanOrEqualTo(grid));
+        assertThat(box.getMinLatitude() - snapped.getMinLatitude(), lessThanOrEqualTo(grid));
+        assertThat(snapped.getMaxLongitude() - box.getMaxLongitude(), lessThanOrEqualTo(grid));
+        assertThat(snapped.getMaxLatitude() - box.getMaxLatitude(), lessThanOrEqualTo(grid));
+    }
+
+    @Test
+    public void testKeyForDependsOnBoundingBox() throws Exception
+    {
+        BoundingBox box = one(boundingBoxes());
+        BlackNectarSearchRequest boxRequest = new BlackNectarSearchRequest().withBoundingBox(box);
+        String boxKey = instance.keyFor(boxRequest, ARRAY);
+
+        BoundingBox wider = BoundingBox.of(box.getMinLongitude() - 1,
+                                           box.getMinLatitude(),
+                                           box.getMaxLongitude(),
+                                           box.getMaxLatitude());
+
+        assertThat(instance.keyFor(new BlackNectarSearchRequest().withBoundingBox(wider), ARRAY), not(boxKey));
+        assertThat(instance.keyFor(new BlackNectarSearchRequest(), ARRAY), not(boxKey));
+    }
+
+    @Test
+    public void testKeyForIgnoresDeadline() throws Exception
+    {
+        request.withDeadline(Deadline.after(1, TimeUnit.SECONDS));
+
+        assertThat(instance.keyFor(request, ARRAY), is(key));
+    }
+
+    @Test
+    public void testKeyForDependsOnSearch() throws Exception
+    {
+        String searchTerm = one(alphabeticString());
+
+        assertThat(instance.keyFor(request.withSearchTerm(searchTerm), ARRAY), not(key));
+
+        String withTerm = instance.keyFor(request, ARRAY);
+        assertThat(instance.keyFor(request.withFields(StoreField.MAP_VIEW), ARRAY), not(withTerm));
+    }
+
+    @Test
+    public void testKeyForDependsOnFormat() throws Exception
+    {
+        assertThat(instance.keyFor(request, LINES), not(key));
+        assertThat(instance.keyFor(request, MediaTypes.APPLICATION_CBOR), not(key));
+        assertThat(instance.keyFor(request, MediaTypes.APPLICATION_CBOR), not(instance.keyFor(request, LINES)));
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception
+    {
+        boolean cached = instance.put(key, json, totalStores, instance.currentVersion());
+        assertThat(cached, is(true));
+
+        StoreResponseCache.Entry result = instance.get(key);
+
+        assertThat(result, notNullValue());
+        assertThat(result.json, is(json));
+        assertThat(result.totalStores, is(totalStores));
+        assertThat(instance.getHits(), is(1L));
+    }
+
+    @Test
+    public void testDeflatedBodyOf() throws Exception
+    {
+        instance.put(key, json, totalStores, instance.currentVersion());
+        StoreResponseCache.Entry entry = instance.get(key);
+
+        ResponseCompression.Deflated deflated = instance.deflatedBodyOf(key, entry);
+
+        assertThat(deflated, notNullValue());
+        assertThat(instance.deflatedBodyOf(key, entry), sameInstance(deflated));
+        assertThat(instance.getSizeInBytes(), is((long) json.length + deflated.size()));
+
+        instance.clear();
+        assertThat(instance.getSizeInBytes(), is(0L));
+    }
+
+    @Test
+    public void testGetWhenMissing() throws Exception
+    {
+        assertThat(instance.get(key), is(nullValue()));
+        assertThat(instance.getMisses(), is(1L));
+    }
+
+    @Test
+    public void testPutWhenStoresChangedDuringSearch() throws Exception
+    {
+        long version = instance.currentVersion();
+        storeChanges.storesChanged();
+
+        assertThat(instance.put(key, json, totalStores, version), is(false));
+        assertThat(instance.get(key), is(nullValue()));
+    }
+
+    @Test
+    public void testPutWhenTooBig() throws Exception
+    {
+        byte[] tooBig = new byte[StoreResponseCache.MAX_ENTRY_BYTES + 1];
+
+        assertThat(instance.put(key, tooBig, totalStores, instance.currentVersion()), is(false));
+        assertThat(instance.put(key, null, totalStores, instance.currentVersion()), is(false));
+    }
+
+    @Test
+    public void testClearedWhenStoresChange() throws Exception
+    {
+        instance.put(key, json, totalStores, instance.currentVersion());
+
+        storeChanges.storesChanged();
+
+        assertThat(instance.get(key), is(nullValue()));
+        assertThat(instance.size(), is(0));
+        assertThat(instance.getSizeInBytes(), is(0L));
+    }
+
+    @DontRepeat
+    @Test
+    public void testEntriesExpire() throws Exception
+    {
+        instance = new StoreResponseCache(storeChanges,
+                                          StoreResponseCache.GRID_DEGREES,
+                                          StoreResponseCache.CENTER_GRID_DEGREES,
+                                          1,
+                                          StoreResponseCache.MAX_BYTES);
+        instance.put(key, json, totalStores, instance.currentVersion());
+
+        Thread.sleep(5);
+
+        assertThat(instance.get(key), is(nullValue()));
+    }
+
+    @DontRepeat
+    @Test
+    public void testScanDoesNotEvictPopularEntries() throws Exception
+    {
+        //Room for 10 entries in total, 2 of them in probation.
+        instance = new StoreResponseCache(storeChanges,
+                                          StoreResponseCache.GRID_DEGREES,
+                                          StoreResponseCache.CENTER_GRID_DEGREES,
+                                          60_000,
+                                          json.length * 10);
+
+        instance.put(key, json, totalStores, instance.currentVersion());
+        instance.get(key);
+
+        for (int i = 0; i < 100; ++i)
+        {
+            instance.put("scan-" + i, json, totalStores, instance.currentVersion());
+        }
+
+        assertThat(instance.get(key), notNullValue());
+        assertThat(instance.getSizeInBytes(), lessThanOrEqualTo((long) json.length * 10));
+    }
+
+    @DontRepeat
+    @Test
+    public void testCapture() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StoreResponseCache.Capture capture = new StoreResponseCache.Capture(out);
+
+        capture.write(json);
+        capture.write('x');
+
+        assertThat(out.size(), is(json.length + 1));
+        assertThat(capture.getBytes(), is(out.toByteArray()));
+    }
+
+    @DontRepeat
+    @Test
+    public void testCaptureWhenTooBig() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StoreResponseCache.Capture capture = new StoreResponseCache.Capture(out);
+
+        byte[] tooBig = new byte[StoreResponseCache.MAX_ENTRY_BYTES + 1];
+        capture.write(tooBig);
+
+        assertThat(out.size(), is(tooBig.length));
+        assertThat(capture.getBytes(), is(nullValue()));
+    }
+
+}
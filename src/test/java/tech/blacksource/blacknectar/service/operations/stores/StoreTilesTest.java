@@ -0,0 +1,324 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import tech.blacksource.blacknectar.service.data.*;
+import tech.blacksource.blacknectar.service.exceptions.OperationFailedException;
+import tech.blacksource.blacknectar.service.exceptions.ServiceOverloadedException;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.BinaryGenerators.binary;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.generator.NumberGenerators.positiveLongs;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class StoreTilesTest
+{
+
+    @Mock
+    private StoreRepository storeRepository;
+
+    @Mock
+    private DatasetVersion datasetVersion;
+
+    @Mock
+    private Executor rebuilder;
+
+    private StoreChanges storeChanges;
+
+    private List<Store> stores;
+
+    private long version;
+
+    private StoreTiles instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stores = listOf(stores(), 20);
+        version = one(positiveLongs());
+
+        storeChanges = new StoreChanges();
+
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.fresh(stores));
+        when(storeRepository.isServingStaleData()).thenReturn(false);
+        when(datasetVersion.getVersion()).thenReturn(version);
+        when(datasetVersion.isKnown()).thenReturn(true);
+
+        doAnswer(invocation ->
+        {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(rebuilder).execute(any());
+
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, rebuilder);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new StoreTiles(null, storeChanges, datasetVersion, rebuilder));
+        assertThrows(() -> new StoreTiles(storeRepository, null, datasetVersion, rebuilder));
+        assertThrows(() -> new StoreTiles(storeRepository, storeChanges, null, rebuilder));
+        assertThrows(() -> new StoreTiles(storeRepository, storeChanges, datasetVersion, null));
+    }
+
+    @Test
+    public void testGetSnapshot() throws Exception
+    {
+        StoreTiles.Snapshot snapshot = instance.getSnapshot();
+
+        assertThat(snapshot, notNullValue());
+        assertThat(snapshot.getVersion(), is(version));
+        assertThat(snapshot.isVersioned(), is(true));
+        assertThat(snapshot.getClusters().getTotalStores(), is(stores.size()));
+    }
+
+    @Test
+    public void testGetSnapshotIsOnlyBuiltOnce() throws Exception
+    {
+        StoreTiles.Snapshot first = instance.getSnapshot();
+        StoreTiles.Snapshot second = instance.getSnapshot();
+
+        assertThat(second, sameInstance(first));
+        verify(storeRepository, times(1)).fetchAllStores();
+        verify(rebuilder, times(1)).execute(any());
+    }
+
+    @Test
+    public void testFirstSnapshotIsBuiltInTheBackground() throws Exception
+    {
+        Executor queue = mock(Executor.class);
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, queue);
+
+        verify(queue).execute(any());
+        verify(storeRepository, never()).fetchAllStores();
+    }
+
+    @Test
+    public void testGetSnapshotWhileFirstBuildIsRunning() throws Exception
+    {
+        Executor queue = mock(Executor.class);
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, queue);
+
+        assertThrows(() -> instance.getSnapshot()).isInstanceOf(ServiceOverloadedException.class);
+        assertThrows(() -> instance.getSnapshot()).isInstanceOf(ServiceOverloadedException.class);
+
+        //Requests don't start builds of their own.
+        verify(queue, times(1)).execute(any());
+        verify(storeRepository, never()).fetchAllStores();
+    }
+
+    @Test
+    public void testGetSnapshotRetriesWhenFirstBuildFails() throws Exception
+    {
+        when(storeRepository.fetchAllStores())
+                .thenThrow(new OperationFailedException())
+                .thenReturn(AllStores.fresh(stores));
+
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, rebuilder);
+
+        StoreTiles.Snapshot snapshot = instance.getSnapshot();
+
+        assertThat(snapshot.getClusters().getTotalStores(), is(stores.size()));
+    }
+
+    @Test
+    public void testServesPreviousSnapshotWhileRebuilding() throws Exception
+    {
+        Executor queue = mock(Executor.class);
+        ArgumentCaptor<Runnable> builds = ArgumentCaptor.forClass(Runnable.class);
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, queue);
+
+        verify(queue).execute(builds.capture());
+        builds.getValue().run();
+
+        StoreTiles.Snapshot first = instance.getSnapshot();
+
+        storeChanges.storesChanged();
+
+        assertThat(instance.getSnapshot(), sameInstance(first));
+
+        verify(queue, times(2)).execute(builds.capture());
+        builds.getValue().run();
+
+        assertThat(instance.getSnapshot(), not(sameInstance(first)));
+    }
+
+    @Test
+    public void testRebuildsWhenStoresChange() throws Exception
+    {
+        StoreTiles.Snapshot first = instance.getSnapshot();
+
+        List<Store> newStores = listOf(stores(), 5);
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.fresh(newStores));
+        when(datasetVersion.getVersion()).thenReturn(version + 1);
+
+        storeChanges.storesChanged();
+
+        StoreTiles.Snapshot second = instance.getSnapshot();
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getVersion(), is(version + 1));
+        assertThat(second.getClusters().getTotalStores(), is(newStores.size()));
+    }
+
+    @Test
+    public void testRebuildKeepsSnapshotWhenItFails() throws Exception
+    {
+        StoreTiles.Snapshot first = instance.getSnapshot();
+
+        when(storeRepository.fetchAllStores()).thenThrow(new OperationFailedException());
+
+        storeChanges.storesChanged();
+
+        assertThat(instance.getSnapshot(), sameInstance(first));
+    }
+
+    @Test
+    public void testGetSnapshotWhenServingStaleData() throws Exception
+    {
+        Executor queue = mock(Executor.class);
+        ArgumentCaptor<Runnable> build = ArgumentCaptor.forClass(Runnable.class);
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, queue);
+
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.stale(stores));
+        when(storeRepository.isServingStaleData()).thenReturn(true);
+
+        verify(queue).execute(build.capture());
+        build.getValue().run();
+
+        StoreTiles.Snapshot snapshot = instance.getSnapshot();
+
+        assertThat(snapshot.isVersioned(), is(false));
+        assertThat(snapshot.getVersion(), is(DatasetVersion.UNKNOWN));
+
+        //Only the first build.
+        verify(queue, times(1)).execute(any());
+    }
+
+    @Test
+    public void testGetSnapshotRebuildsOnceDataIsFresh() throws Exception
+    {
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.stale(stores));
+        when(storeRepository.isServingStaleData()).thenReturn(true);
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, rebuilder);
+
+        StoreTiles.Snapshot stale = instance.getSnapshot();
+        assertThat(stale.isVersioned(), is(false));
+
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.fresh(stores));
+        when(storeRepository.isServingStaleData()).thenReturn(false);
+
+        instance.getSnapshot();
+
+        StoreTiles.Snapshot fresh = instance.getSnapshot();
+        assertThat(fresh.isVersioned(), is(true));
+        assertThat(fresh.getVersion(), is(version));
+    }
+
+    @Test
+    public void testSnapshotIsTaggedByHowItsStoresWereServed() throws Exception
+    {
+        //The breaker closed again right after the Stores were read from the snapshot.
+        when(storeRepository.fetchAllStores()).thenReturn(AllStores.stale(stores));
+        when(storeRepository.isServingStaleData()).thenReturn(false);
+        when(datasetVersion.isKnown()).thenReturn(false);
+
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, rebuilder);
+
+        assertThat(instance.getSnapshot().isVersioned(), is(false));
+    }
+
+    @Test
+    public void testRebuildsAreCoalesced() throws Exception
+    {
+        Executor queue = mock(Executor.class);
+        instance = new StoreTiles(storeRepository, storeChanges, datasetVersion, queue);
+
+        storeChanges.storesChanged();
+        storeChanges.storesChanged();
+        storeChanges.storesChanged();
+
+        verify(queue, times(1)).execute(any());
+    }
+
+    @Test
+    public void testSnapshotTiles() throws Exception
+    {
+        StoreTiles.Snapshot snapshot = instance.getSnapshot();
+
+        String key = one(alphabeticString());
+        byte[] body = one(binary(100));
+
+        assertThat(snapshot.getTile(key), nullValue());
+
+        snapshot.putTile(key, body);
+
+        assertThat(snapshot.getTile(key), is(body));
+        assertThat(snapshot.getTotalTiles(), is(1));
+    }
+
+    @DontRepeat
+    @Test
+    public void testSnapshotTilesAreBounded() throws Exception
+    {
+        StoreTiles.Snapshot snapshot = instance.getSnapshot();
+        byte[] body = one(binary(10));
+
+        for (int i = 0; i <= StoreTiles.MAX_CACHED_TILES; ++i)
+        {
+            snapshot.putTile("tile-" + i, body);
+        }
+
+        assertThat(snapshot.getTotalTiles(), is(StoreTiles.MAX_CACHED_TILES));
+        assertThat(snapshot.getTile("tile-0"), nullValue());
+        assertThat(snapshot.getTile("tile-" + StoreTiles.MAX_CACHED_TILES), is(body));
+    }
+
+    @DontRepeat
+    @Test
+    public void testPutTileWithBadArgs() throws Exception
+    {
+        StoreTiles.Snapshot snapshot = instance.getSnapshot();
+
+        assertThrows(() -> snapshot.putTile("", new byte[1])).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> snapshot.putTile("key", null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import tech.blacksource.blacknectar.service.json.JsonStreamWriter;
+import tech.blacksource.blacknectar.service.operations.ResponseCompression;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(25)
+@RunWith(AlchemyTestRunner.class)
+public class StreamedResponseBodyTest
+{
+
+    private static final int HOLD_BACK_BYTES = 10;
+
+    @Mock
+    private HttpServletResponse rawResponse;
+
+    private ByteArrayOutputStream output;
+    private AtomicInteger opened;
+
+    @GenerateString(length = 4)
+    private String store;
+
+    private StreamedResponseBody instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        output = new ByteArrayOutputStream();
+        opened = new AtomicInteger();
+
+        when(rawResponse.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener)
+            {
+            }
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                output.write(b);
+            }
+        });
+
+        instance = new StreamedResponseBody(() ->
+        {
+            opened.incrementAndGet();
+            return ResponseCompression.compress(rawResponse, ResponseCompression.Encoding.IDENTITY);
+        }, HOLD_BACK_BYTES);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new StreamedResponseBody(null))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThrows(() -> new StreamedResponseBody(() -> null, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testHoldsBackFirstStores() throws Exception
+    {
+        writeStore();
+        writeStore();
+
+        assertThat(opened.get(), is(0));
+
+        writeStore();
+
+        assertThat(opened.get(), is(1));
+        assertThat(instance.isOpen(), is(true));
+
+        writeStore();
+        instance.finish();
+
+        assertThat(text(output.toByteArray()), is(store + store + store + store));
+        assertThat(text(instance.getBytes()), is(store + store + store + store));
+        assertThat(opened.get(), is(1));
+    }
+
+    @Test
+    public void testFinishOpensSmallResponses() throws Exception
+    {
+        writeStore();
+        instance.finish();
+
+        assertThat(opened.get(), is(1));
+        assertThat(text(output.toByteArray()), is(store));
+    }
+
+    @Test
+    public void testEndEarlyDropsPartialStore() throws Exception
+    {
+        for (int i = 0; i < 3; ++i)
+        {
+            writeStore();
+        }
+
+        //Half of a Store, which never ends.
+        instance.write(store.substring(0, 2).getBytes(StandardCharsets.UTF_8));
+
+        instance.endEarly(JsonStreamWriter.Format.LINES);
+
+        assertThat(text(output.toByteArray()), is(store + store + store));
+        assertThat(instance.getBytes(), is(nullValue()));
+    }
+
+    @Test
+    public void testEndEarlyClosesArray() throws Exception
+    {
+        Writer out = new OutputStreamWriter(instance, StandardCharsets.UTF_8);
+        JsonStreamWriter writer = JsonStreamWriter.arrayTo(out);
+
+        writer.begin();
+
+        for (int i = 0; i < 5; ++i)
+        {
+            writer.writeSerialized("\"" + store + "\"");
+        }
+
+        instance.endEarly(JsonStreamWriter.Format.ARRAY);
+
+        String sent = text(output.toByteArray());
+        assertThat(sent, startsWith("[\"" + store + "\","));
+        assertThat(sent, endsWith("\"]"));
+    }
+
+    @DontRepeat
+    @Test
+    public void testEndEarlyBeforeOpen() throws Exception
+    {
+        writeStore();
+
+        assertThrows(() -> instance.endEarly(JsonStreamWriter.Format.ARRAY))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(output.size(), is(0));
+    }
+
+    @DontRepeat
+    @Test
+    public void testGetBytesWhenTooBig() throws Exception
+    {
+        instance.write(new byte[StoreResponseCache.MAX_ENTRY_BYTES + 1]);
+        instance.finish();
+
+        assertThat(output.size(), is(StoreResponseCache.MAX_ENTRY_BYTES + 1));
+        assertThat(instance.getBytes(), is(nullValue()));
+    }
+
+    private void writeStore() throws IOException
+    {
+        instance.write(store.getBytes(StandardCharsets.UTF_8));
+        instance.flush();
+    }
+
+    private String text(byte[] bytes)
+    {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.operations.Parameters;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@RunWith(AlchemyTestRunner.class)
+public class WarmUpRequestTest
+{
+
+    private WarmUpRequest instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        instance = new WarmUpRequest("/stores?latitude=34.05&longitude=-118.24&searchTerm=Whole%20Foods&fields=",
+                                     Collections.singletonMap("accept", "application/cbor"));
+    }
+
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new WarmUpRequest(null, Collections.emptyMap())).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new WarmUpRequest("", null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testQueryParams() throws Exception
+    {
+        assertThat(instance.queryString(), is("latitude=34.05&longitude=-118.24&searchTerm=Whole%20Foods&fields="));
+        assertThat(instance.queryParams(), contains("latitude", "longitude", "searchTerm", "fields"));
+        assertThat(instance.queryParams("searchTerm"), is("Whole Foods"));
+        assertThat(instance.queryParams("fields"), is(""));
+        assertThat(instance.queryParams("zipCode"), is(nullValue()));
+        assertThat(instance.queryMap().value("latitude"), is("34.05"));
+        assertThat(instance.queryMap().hasKey("zipCode"), is(false));
+    }
+
+    @Test
+    public void testHeaders() throws Exception
+    {
+        assertThat(instance.headers(Parameters.Headers.ACCEPT), is("application/cbor"));
+        assertThat(instance.headers(Parameters.Headers.ACCEPT_ENCODING), is(nullValue()));
+        assertThat(instance.ip(), is(WarmUpRequest.LOCALHOST));
+    }
+
+    @Test
+    public void testAttributes() throws Exception
+    {
+        assertThat(instance.<Boolean>attribute(SearchStoresOperation.WARM_UP_ATTRIBUTE), is(true));
+
+        instance.attribute("sample", 5L);
+        assertThat(instance.<Long>attribute("sample"), is(5L));
+
+        instance.attribute("sample", null);
+        assertThat(instance.<Object>attribute("sample"), is(nullValue()));
+    }
+
+}
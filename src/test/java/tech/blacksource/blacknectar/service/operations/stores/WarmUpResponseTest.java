@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.blacksource.blacknectar.service.operations.stores;
+
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.blacksource.blacknectar.service.Responses;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author SirWellington
+ */
+@RunWith(AlchemyTestRunner.class)
+public class WarmUpResponseTest
+{
+
+    private WarmUpResponse instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        instance = new WarmUpResponse();
+    }
+
+    @Test
+    public void testStatusAndHeaders() throws Exception
+    {
+        instance.status(304);
+        instance.type("application/json");
+        instance.header(Responses.Headers.VARY, "Accept");
+        instance.raw().setHeader(Responses.Headers.CONTENT_ENCODING, "gzip");
+
+        assertThat(instance.status(), is(304));
+        assertThat(instance.raw().getStatus(), is(304));
+        assertThat(instance.type(), is("application/json"));
+        assertThat(instance.header(Responses.Headers.VARY), is("Accept"));
+        assertThat(instance.header(Responses.Headers.CONTENT_ENCODING), is("gzip"));
+        assertThat(instance.raw().containsHeader(Responses.Headers.CONTENT_ENCODING), is(true));
+    }
+
+    @Test
+    public void testCountsBody() throws Exception
+    {
+        OutputStream out = instance.raw().getOutputStream();
+        out.write(new byte[100]);
+        out.write(1);
+        out.flush();
+
+        assertThat(instance.getBytesWritten(), is(101L));
+    }
+
+    @Test
+    public void testAnswersEverythingElse() throws Exception
+    {
+        assertThat(instance.raw().isCommitted(), is(false));
+        assertThat(instance.raw().getBufferSize(), is(0));
+        assertThat(instance.raw().getLocale(), is(nullValue()));
+        assertThat(instance.raw(), is(instance.raw()));
+    }
+
+}
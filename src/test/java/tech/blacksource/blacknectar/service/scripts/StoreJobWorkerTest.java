@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.scripts;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import sir.wellington.alchemy.collections.lists.Lists;
+import tech.aroma.client.Aroma;
+import tech.blacksource.blacknectar.service.data.StoreJobQueue;
+import tech.blacksource.blacknectar.service.stores.Store;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Answers.RETURNS_MOCKS;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static tech.blacksource.blacknectar.service.BlackNectarGenerators.stores;
+import static tech.sirwellington.alchemy.generator.CollectionGenerators.listOf;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+import static tech.sirwellington.alchemy.test.junit.runners.GenerateString.Type.ALPHABETIC;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(10)
+@RunWith(AlchemyTestRunner.class)
+public class StoreJobWorkerTest
+{
+
+    @Mock(answer = RETURNS_MOCKS)
+    private Aroma aroma;
+
+    @Mock
+    private StoreJobQueue queue;
+
+    @Mock
+    private Predicate<Store> job;
+
+    @GenerateString(ALPHABETIC)
+    private String jobType;
+
+    @GenerateString(ALPHABETIC)
+    private String workerId;
+
+    private List<Store> firstBatch;
+    private List<Store> secondBatch;
+
+    private StoreJobWorker instance;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        firstBatch = listOf(stores());
+        secondBatch = listOf(stores());
+
+        when(queue.claim(jobType, workerId, StoreJobWorker.BATCH_SIZE))
+                .thenReturn(firstBatch)
+                .thenReturn(secondBatch)
+                .thenReturn(Lists.emptyList());
+
+        instance = new StoreJobWorker(aroma, queue, workerId);
+    }
+
+    @DontRepeat
+    @Test
+    public void testConstructor() throws Exception
+    {
+        assertThrows(() -> new StoreJobWorker(null, queue, workerId)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreJobWorker(aroma, null, workerId)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> new StoreJobWorker(aroma, queue, "")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testRun() throws Exception
+    {
+        when(job.test(any(Store.class))).thenReturn(true);
+
+        int result = instance.run(jobType, job);
+        assertThat(result, is(firstBatch.size() + secondBatch.size()));
+
+        verify(queue).createTableIfMissing();
+        verify(queue).enqueueAllStores(jobType);
+
+        for (Store store : firstBatch)
+        {
+            verify(job).test(store);
+            verify(queue).complete(jobType, store, workerId);
+        }
+
+        for (Store store : secondBatch)
+        {
+            verify(job).test(store);
+            verify(queue).complete(jobType, store, workerId);
+        }
+
+        verify(queue, never()).fail(anyString(), any(Store.class), anyString(), anyString());
+    }
+
+    @Test
+    public void testRunWhenJobFails() throws Exception
+    {
+        when(job.test(any(Store.class))).thenReturn(false);
+
+        instance.run(jobType, job);
+
+        for (Store store : firstBatch)
+        {
+            verify(queue).fail(eq(jobType), eq(store), eq(workerId), anyString());
+        }
+
+        verify(queue, never()).complete(anyString(), any(Store.class), anyString());
+    }
+
+    @Test
+    public void testRunWhenJobThrows() throws Exception
+    {
+        when(job.test(any(Store.class))).thenThrow(new RuntimeException());
+
+        int result = instance.run(jobType, job);
+        assertThat(result, is(firstBatch.size() + secondBatch.size()));
+
+        for (Store store : secondBatch)
+        {
+            verify(queue).fail(eq(jobType), eq(store), eq(workerId), anyString());
+        }
+    }
+
+    @Test
+    public void testRunFailsJobsAbandonedOnTheirLastAttempt() throws Exception
+    {
+        when(job.test(any(Store.class))).thenReturn(true);
+
+        instance.run(jobType, job);
+
+        //Once before the first claim, and once the queue runs dry.
+        InOrder inOrder = inOrder(queue);
+        inOrder.verify(queue).failExpired(jobType);
+        inOrder.verify(queue, times(3)).claim(jobType, workerId, StoreJobWorker.BATCH_SIZE);
+        inOrder.verify(queue).failExpired(jobType);
+    }
+
+    @Test
+    public void testRequeueAll() throws Exception
+    {
+        when(queue.requeueAll(jobType)).thenReturn(firstBatch.size());
+
+        int result = instance.requeueAll(jobType);
+        assertThat(result, is(firstBatch.size()));
+
+        verify(queue).createTableIfMissing();
+        verify(queue).requeueAll(jobType);
+    }
+
+    @DontRepeat
+    @Test
+    public void testIsRerun() throws Exception
+    {
+        assertThat(StoreJobWorker.isRerun(new String[] { StoreJobWorker.RERUN_FLAG }), is(true));
+        assertThat(StoreJobWorker.isRerun(new String[] { jobType, StoreJobWorker.RERUN_FLAG }), is(true));
+        assertThat(StoreJobWorker.isRerun(new String[] { jobType }), is(false));
+        assertThat(StoreJobWorker.isRerun(new String[0]), is(false));
+        assertThat(StoreJobWorker.isRerun(null), is(false));
+    }
+
+    @DontRepeat
+    @Test
+    public void testRunWithBadArgs() throws Exception
+    {
+        assertThrows(() -> instance.run("", job)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.run(jobType, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThrows(() -> instance.requeueAll("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 BlackSource, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.blacksource.blacknectar.service.stores;
+
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tech.sirwellington.alchemy.test.junit.runners.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static tech.sirwellington.alchemy.generator.AlchemyGenerator.one;
+import static tech.sirwellington.alchemy.generator.StringGenerators.alphabeticString;
+import static tech.sirwellington.alchemy.test.junit.ThrowableAssertion.*;
+
+/**
+ * @author SirWellington
+ */
+@Repeat(50)
+@RunWith(AlchemyTestRunner.class)
+public class StoreFieldTest
+{
+
+    @DontRepeat
+    @Test
+    public void testParseWhenEmpty()
+    {
+        assertThat(StoreField.parse(null), is(StoreField.ALL));
+        assertThat(StoreField.parse(""), is(StoreField.ALL));
+        assertThat(StoreField.parse("  "), is(StoreField.ALL));
+    }
+
+    @DontRepeat
+    @Test
+    public void testParse()
+    {
+        Set<StoreField> result = StoreField.parse("store_name, location");
+
+        assertThat(result, containsInAnyOrder(StoreField.STORE_ID, StoreField.NAME, StoreField.LOCATION));
+    }
+
+    @DontRepeat
+    @Test
+    public void testParseMapView()
+    {
+        assertThat(StoreField.parse("map"), is(StoreField.MAP_VIEW));
+    }
+
+    @DontRepeat
+    @Test
+    public void testParseWhenAllFieldsListed()
+    {
+        String allFields = "store_id,store_name,store_code,is_farmers_market,location,address,main_image_url";
+
+        assertThat(StoreField.parse(allFields), is(StoreField.ALL));
+    }
+
+    @Test
+    public void testParseWithUnknownField()
+    {
+        String field = one(alphabeticString());
+
+        assertThrows(() -> StoreField.parse("store_name," + field))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testForKey()
+    {
+        for (StoreField field : StoreField.values())
+        {
+            assertThat(StoreField.forKey(field.getKey()), is(field));
+        }
+    }
+
+}
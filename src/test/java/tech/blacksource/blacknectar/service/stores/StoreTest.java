@@ -84,6 +84,23 @@ public class StoreTest
         }
     }
 
+    @Test
+    public void testAsJSONWithFields()
+    {
+        JsonObject json = instance.asJSON(StoreField.MAP_VIEW);
+        assertThat(json.entrySet().size(), is(3));
+        assertThat(json.get(Store.Keys.STORE_ID).getAsString(), is(instance.getStoreId()));
+        assertThat(json.get(Store.Keys.NAME).getAsString(), is(instance.getName()));
+        assertThat(json.get(Store.Keys.LOCATION), is(instance.getLocation().asJSON()));
+        assertThat(json.has(Store.Keys.ADDRESS), is(false));
+    }
+
+    @Test
+    public void testAsJSONWithAllFields()
+    {
+        assertThat(instance.asJSON(StoreField.ALL), is(instance.asJSON()));
+    }
+
     @Test
     public void testThatImageCanBeAddedToStore()
     {